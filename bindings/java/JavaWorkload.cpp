@@ -159,6 +159,11 @@ jlong getSharedRandomNumber(JNIEnv* env, jclass, jlong self) {
 	return jlong(context->sharedRandomNumber());
 }
 
+jdouble getNow(JNIEnv* env, jclass, jlong self) {
+	FDBWorkloadContext* context = reinterpret_cast<FDBWorkloadContext*>(self);
+	return jdouble(context->now());
+}
+
 struct JavaPromise {
 	GenericPromise<bool> impl;
 	JavaPromise(GenericPromise<bool>&& promise) : impl(std::move(promise)) {}
@@ -368,7 +373,8 @@ struct JVM {
 		                     reinterpret_cast<void*>(&getOptionString) },
 		                   { "getClientID", "(J)I", reinterpret_cast<void*>(&getClientID) },
 		                   { "getClientCount", "(J)I", reinterpret_cast<void*>(&getClientCount) },
-		                   { "getSharedRandomNumber", "(J)J", reinterpret_cast<void*>(&getSharedRandomNumber) } });
+		                   { "getSharedRandomNumber", "(J)J", reinterpret_cast<void*>(&getSharedRandomNumber) },
+		                   { "now", "(J)D", reinterpret_cast<void*>(&getNow) } });
 		setNativeMethods(getClass("com/apple/foundationdb/testing/Promise"),
 		                 { { "send", "(JZ)V", reinterpret_cast<void*>(&promiseSend) } });
 		auto fdbClass = getClass("com/apple/foundationdb/FDB");
@@ -23,13 +23,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletionException;
 
 import com.apple.foundationdb.directory.DirectoryAlreadyExistsException;
 import com.apple.foundationdb.directory.DirectoryLayer;
 import com.apple.foundationdb.directory.DirectorySubspace;
+import com.apple.foundationdb.directory.MismatchedLayerException;
 import com.apple.foundationdb.directory.NoSuchDirectoryException;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -211,4 +216,122 @@ class DirectoryTest {
 			});
 		}
 	}
+
+	@Test
+	void testCachedOpenIsInvalidatedByChanges() throws Exception {
+		/*
+		 * A directory layer with a path cache should stop returning a cached
+		 * directory once it has been moved or removed.
+		 */
+		final DirectoryLayer dir = new DirectoryLayer(DirectoryLayer.DEFAULT_NODE_SUBSPACE, DirectoryLayer.DEFAULT_CONTENT_SUBSPACE, false, 100);
+		final List<String> path = Arrays.asList("cached", "child");
+
+		try (Database db = fdb.open()) {
+			try {
+				DirectorySubspace created = dir.createOrOpen(db, path).join();
+				DirectorySubspace opened = dir.open(db, path).join();
+				Assertions.assertArrayEquals(created.getKey(), opened.getKey(), "Incorrect prefix");
+				Assertions.assertSame(opened, dir.open(db, path).join(), "Directory was not cached");
+
+				DirectorySubspace moved = dir.move(db, path, Arrays.asList("cached", "moved")).join();
+				Assertions.assertArrayEquals(created.getKey(), moved.getKey(), "Incorrect prefix");
+				try {
+					dir.open(db, path).join();
+					Assertions.fail("Opened a directory that has been moved");
+				} catch (CompletionException ce) {
+					if (!(ce.getCause() instanceof NoSuchDirectoryException)) {
+						throw ce;
+					}
+				}
+
+				dir.open(db, Arrays.asList("cached", "moved")).join();
+				dir.remove(db, Arrays.asList("cached", "moved")).join();
+				Assertions.assertFalse(dir.exists(db, Arrays.asList("cached", "moved")).join(), "Still exists after removal!");
+				try {
+					dir.open(db, Arrays.asList("cached", "moved")).join();
+					Assertions.fail("Opened a directory that has been removed");
+				} catch (CompletionException ce) {
+					if (!(ce.getCause() instanceof NoSuchDirectoryException)) {
+						throw ce;
+					}
+				}
+			} finally {
+				dir.removeIfExists(db, Arrays.asList("cached")).join();
+			}
+		}
+	}
+
+	@Test
+	void testOpenResolvesPathsChangedByAnotherLayer() throws Exception {
+		/*
+		 * Opening a path should find the directory now at that path, even if
+		 * the prefixes seen by earlier opens are no longer correct.
+		 */
+		final DirectoryLayer dir = new DirectoryLayer();
+		final DirectoryLayer other = new DirectoryLayer();
+		final List<String> path = Arrays.asList("resolve", "a", "b", "c", "d");
+
+		try (Database db = fdb.open()) {
+			try {
+				DirectorySubspace original = dir.createOrOpen(db, path).join();
+				Assertions.assertArrayEquals(original.getKey(), dir.open(db, path).join().getKey(), "Incorrect prefix");
+
+				other.move(db, Arrays.asList("resolve", "a", "b"), Arrays.asList("resolve", "moved")).join();
+				DirectorySubspace replacement = other.create(db, path).join();
+				Assertions.assertArrayEquals(replacement.getKey(), dir.open(db, path).join().getKey(), "Incorrect prefix");
+				Assertions.assertArrayEquals(original.getKey(), dir.open(db, Arrays.asList("resolve", "moved", "c", "d")).join().getKey(), "Incorrect prefix");
+
+				other.remove(db, Arrays.asList("resolve", "a")).join();
+				Assertions.assertFalse(dir.exists(db, path).join(), "Still exists after removal!");
+			} finally {
+				dir.removeIfExists(db, Arrays.asList("resolve")).join();
+			}
+		}
+	}
+
+	@Test
+	void testCreateOrOpenAll() throws Exception {
+		/*
+		 * Creating many directories at once should create the same directories as
+		 * creating them one at a time, and open the ones that already exist.
+		 */
+		final DirectoryLayer dir = new DirectoryLayer();
+		final byte[] layer = "tenant".getBytes();
+
+		try (Database db = fdb.open()) {
+			try {
+				DirectorySubspace existing = dir.create(db, Arrays.asList("bulk", "t1", "users"), layer).join();
+				List<List<String>> paths = Arrays.asList(
+						Arrays.asList("bulk", "t1", "users"),
+						Arrays.asList("bulk", "t1", "orders"),
+						Arrays.asList("bulk", "t2", "users"),
+						Arrays.asList("bulk", "t2", "orders"),
+						Arrays.asList("bulk", "t2", "users"));
+
+				Map<List<String>, DirectorySubspace> dirs = dir.createOrOpenAll(db, paths, layer).join();
+				Assertions.assertEquals(4, dirs.size(), "Incorrect number of directories");
+				Assertions.assertArrayEquals(existing.getKey(), dirs.get(paths.get(0)).getKey(), "Incorrect prefix");
+				Set<String> prefixes = new HashSet<>();
+				for (List<String> path : paths) {
+					DirectorySubspace opened = dir.open(db, path, layer).join();
+					Assertions.assertIterableEquals(path, dirs.get(path).getPath(), "Incorrect path");
+					Assertions.assertArrayEquals(opened.getKey(), dirs.get(path).getKey(), "Incorrect prefix");
+					prefixes.add(ByteArrayUtil.printable(opened.getKey()));
+				}
+				Assertions.assertEquals(4, prefixes.size(), "Prefixes are not unique");
+				Assertions.assertArrayEquals(new byte[0], dir.open(db, Arrays.asList("bulk", "t2")).join().getLayer(), "Incorrect parent layer");
+
+				try {
+					dir.createOrOpenAll(db, Arrays.asList(Arrays.asList("bulk", "t1", "users")), "other".getBytes()).join();
+					Assertions.fail("Opened a directory with the wrong layer");
+				} catch (CompletionException ce) {
+					if (!(ce.getCause() instanceof MismatchedLayerException)) {
+						throw ce;
+					}
+				}
+			} finally {
+				dir.removeIfExists(db, Arrays.asList("bulk")).join();
+			}
+		}
+	}
 }
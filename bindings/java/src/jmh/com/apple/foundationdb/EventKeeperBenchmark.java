@@ -0,0 +1,104 @@
+/*
+ * EventKeeperBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.concurrent.TimeUnit;
+
+import com.apple.foundationdb.EventKeeper.Events;
+import com.apple.foundationdb.tuple.Tuple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the cost of instrumentation calls made on every transaction operation.
+ * The instruments are shared between threads, as they would be when attached to a database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventKeeperBenchmark {
+	private static final int KEY_COUNT = 1024;
+
+	private MapEventKeeper mapEventKeeper;
+	private HotKeySampler sampler;
+	private byte[][] keys;
+
+	@State(Scope.Thread)
+	public static class ThreadIndex {
+		int index;
+
+		int next() {
+			index = (index + 1) & (KEY_COUNT - 1);
+			return index;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		mapEventKeeper = new MapEventKeeper();
+		sampler = new HotKeySampler();
+		keys = new byte[KEY_COUNT][];
+		for(int i = 0; i < KEY_COUNT; i++) {
+			// Skew the keys so that the top-K table sees both hot and cold keys
+			keys[i] = Tuple.from("sampled", i % 7 == 0 ? 0 : i).pack();
+		}
+	}
+
+	@Benchmark
+	public void mapIncrement() {
+		mapEventKeeper.increment(Events.JNI_CALL);
+	}
+
+	@Benchmark
+	public void mapTimeNanos() {
+		mapEventKeeper.timeNanos(Events.RANGE_QUERY_FETCH_TIME_NANOS, 100L);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void mapIncrementContended() {
+		mapEventKeeper.increment(Events.JNI_CALL);
+	}
+
+	@Benchmark
+	public void samplerRecord(ThreadIndex index) {
+		sampler.record(HotKeySampler.AccessType.READ, keys[index.next()]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void samplerRecordContended(ThreadIndex index) {
+		sampler.record(HotKeySampler.AccessType.READ, keys[index.next()]);
+	}
+}
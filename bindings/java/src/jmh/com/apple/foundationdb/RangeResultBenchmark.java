@@ -0,0 +1,134 @@
+/*
+ * RangeResultBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.apple.foundationdb.tuple.Tuple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the Java side of range reads: decoding a chunk out of a {@link DirectBufferIterator}
+ * or out of the arrays returned by JNI, and iterating a whole range through {@link RangeQuery}
+ * against a {@link FakeFDBTransaction}. No native calls are made.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeResultBenchmark {
+	private static final Executor EXECUTOR = Runnable::run;
+
+	@Param({"100", "1000"})
+	public int rows;
+
+	@Param({"16"})
+	public int valueSize;
+
+	private ByteBuffer directBuffer;
+	private byte[] keyValues;
+	private int[] lengths;
+	private FakeFDBTransaction transaction;
+	private byte[] begin;
+	private byte[] end;
+
+	@Setup
+	public void setup() {
+		List<KeyValue> data = new ArrayList<>(rows);
+		int totalBytes = 0;
+		for(int i = 0; i < rows; i++) {
+			byte[] key = Tuple.from("range", i).pack();
+			byte[] value = new byte[valueSize];
+			data.add(new KeyValue(key, value));
+			totalBytes += key.length + value.length;
+		}
+
+		directBuffer = ByteBuffer.allocateDirect(8 + 8 * rows + totalBytes).order(ByteOrder.nativeOrder());
+		directBuffer.putInt(rows).putInt(0);
+		keyValues = new byte[totalBytes];
+		lengths = new int[rows * 2];
+		int offset = 0;
+		for(int i = 0; i < rows; i++) {
+			KeyValue kv = data.get(i);
+			directBuffer.putInt(kv.getKey().length).putInt(kv.getValue().length);
+			directBuffer.put(kv.getKey()).put(kv.getValue());
+			System.arraycopy(kv.getKey(), 0, keyValues, offset, kv.getKey().length);
+			offset += kv.getKey().length;
+			System.arraycopy(kv.getValue(), 0, keyValues, offset, kv.getValue().length);
+			offset += kv.getValue().length;
+			lengths[i * 2] = kv.getKey().length;
+			lengths[i * 2 + 1] = kv.getValue().length;
+		}
+
+		transaction = new FakeFDBTransaction(data, 1L, null, EXECUTOR);
+		begin = Tuple.from("range").range().begin;
+		end = Tuple.from("range").range().end;
+	}
+
+	@TearDown
+	public void tearDown() {
+		transaction.close();
+	}
+
+	@Benchmark
+	public RangeResult fromDirectBuffer() {
+		// The iterator is not closed, as that would hand the buffer to the DirectBufferPool
+		return new RangeResult(new DirectBufferIterator(directBuffer));
+	}
+
+	@Benchmark
+	public RangeResult fromArrays() {
+		return new RangeResult(keyValues, lengths, false);
+	}
+
+	@Benchmark
+	public List<KeyValue> rangeQueryAsList() {
+		return transaction.getRange(begin, end).asList().join();
+	}
+
+	@Benchmark
+	public int rangeQueryIterate() {
+		int count = 0;
+		for(KeyValue ignored : transaction.getRange(begin, end, ReadTransaction.ROW_LIMIT_UNLIMITED, false, StreamingMode.SMALL)) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * AsyncUtilBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the {@link AsyncUtil} combinators over already-completed futures, which is
+ * the common case when results are served from the client cache or a prefetched range chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AsyncUtilBenchmark {
+	@Param({"1000"})
+	public int size;
+
+	private List<Integer> values;
+	private List<CompletableFuture<Integer>> futures;
+
+	@Setup
+	public void setup() {
+		values = new ArrayList<>(size);
+		futures = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			values.add(i);
+			futures.add(CompletableFuture.completedFuture(i));
+		}
+	}
+
+	@Benchmark
+	public List<Integer> collect() {
+		return AsyncUtil.collect(new ListAsyncIterable<>(values)).join();
+	}
+
+	@Benchmark
+	public List<Integer> mapIterableCollect() {
+		return AsyncUtil.collect(AsyncUtil.mapIterable(new ListAsyncIterable<>(values), i -> i + 1)).join();
+	}
+
+	@Benchmark
+	public int forEach() {
+		int[] sum = new int[1];
+		AsyncUtil.forEach(new ListAsyncIterable<>(values), i -> sum[0] += i).join();
+		return sum[0];
+	}
+
+	@Benchmark
+	public int whileTrue() {
+		int[] count = new int[1];
+		AsyncUtil.whileTrue(() -> ++count[0] < size ? AsyncUtil.READY_TRUE : AsyncUtil.READY_FALSE).join();
+		return count[0];
+	}
+
+	@Benchmark
+	public List<Integer> getAll() {
+		return AsyncUtil.getAll(futures).join();
+	}
+
+	@Benchmark
+	public Void whenAll() {
+		return AsyncUtil.whenAll(futures).join();
+	}
+
+	@Benchmark
+	public Integer composeHandle() {
+		CompletableFuture<Integer> f = futures.get(0);
+		for(int i = 0; i < size; i++) {
+			f = AsyncUtil.composeHandle(f, (v, err) -> CompletableFuture.completedFuture(v + 1));
+		}
+		return f.join();
+	}
+
+	/**
+	 * An {@link AsyncIterable} over an in-memory list whose futures are always complete.
+	 */
+	private static class ListAsyncIterable<T> implements AsyncIterable<T> {
+		private final List<T> list;
+
+		ListAsyncIterable(List<T> list) {
+			this.list = list;
+		}
+
+		@Override
+		public AsyncIterator<T> iterator() {
+			return new AsyncIterator<T>() {
+				private int index = 0;
+
+				@Override
+				public CompletableFuture<Boolean> onHasNext() {
+					return hasNext() ? AsyncUtil.READY_TRUE : AsyncUtil.READY_FALSE;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return index < list.size();
+				}
+
+				@Override
+				public T next() {
+					if(!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return list.get(index++);
+				}
+
+				@Override
+				public void cancel() {
+					index = list.size();
+				}
+			};
+		}
+
+		@Override
+		public CompletableFuture<List<T>> asList() {
+			return AsyncUtil.collect(this);
+		}
+	}
+}
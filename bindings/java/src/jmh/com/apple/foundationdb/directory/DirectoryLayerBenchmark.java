@@ -0,0 +1,102 @@
+/*
+ * DirectoryLayerBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.apple.foundationdb.FakeFDBTransaction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the throughput of directory creation from several threads, each creating directories
+ * in its own {@link FakeFDBTransaction}. This measures the client-side cost of resolving paths and
+ * allocating prefixes, including any contention between threads. No native calls are made.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class DirectoryLayerBenchmark {
+	private static final Executor EXECUTOR = Runnable::run;
+	private static final int BATCH_SIZE = 100;
+
+	@State(Scope.Benchmark)
+	public static class Layer {
+		final DirectoryLayer directoryLayer = new DirectoryLayer();
+		final AtomicInteger threads = new AtomicInteger();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		String thread;
+		FakeFDBTransaction transaction;
+		int next;
+
+		@Setup
+		public void setup(Layer layer) {
+			thread = "thread" + layer.threads.getAndIncrement();
+		}
+
+		@Setup(Level.Iteration)
+		public void newTransaction() {
+			transaction = new FakeFDBTransaction(Collections.emptyMap(), 1L, null, EXECUTOR);
+			next = 0;
+		}
+	}
+
+	@Benchmark
+	public DirectorySubspace createOrOpen(Layer layer, ThreadState state) {
+		List<String> path = Arrays.asList(state.thread, "tenant" + (state.next++ / 10), "dir" + state.next % 10);
+		return layer.directoryLayer.createOrOpen(state.transaction, path).join();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public Map<List<String>, DirectorySubspace> createOrOpenAll(Layer layer, ThreadState state) {
+		List<List<String>> paths = new ArrayList<>(BATCH_SIZE);
+		for(int i = 0; i < BATCH_SIZE; i++) {
+			paths.add(Arrays.asList(state.thread, "tenant" + (state.next++ / 10), "dir" + state.next % 10));
+		}
+		return layer.directoryLayer.createOrOpenAll(state.transaction, paths, DirectoryLayer.EMPTY_BYTES).join();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * SubspaceBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for building and decoding keys within a {@link Subspace}, comparing packing a
+ * {@link Tuple} with building the same key through a reused {@link KeyBuilder} or, for integer
+ * keys, the {@code long} methods of {@code Subspace}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubspaceBenchmark {
+	private Subspace subspace;
+	private KeyBuilder builder;
+	private ByteBuffer buffer;
+	private byte[] key;
+	private byte[] longKey;
+	private long counter;
+
+	@Setup
+	public void setup() {
+		subspace = new Subspace(Tuple.from("application", "events", 42L));
+		builder = subspace.keyBuilder();
+		buffer = ByteBuffer.allocate(256);
+		key = subspace.pack(Tuple.from("user-1066", 1234567890L, "click"));
+		longKey = subspace.packLong(1234567890L);
+	}
+
+	@Benchmark
+	public byte[] packTuple() {
+		return subspace.pack(Tuple.from("user-1066", counter++, "click"));
+	}
+
+	@Benchmark
+	public byte[] keyBuilder() {
+		return builder.reset().add("user-1066").add(counter++).add("click").build();
+	}
+
+	@Benchmark
+	public ByteBuffer keyBuilderIntoBuffer() {
+		buffer.clear();
+		builder.reset().add("user-1066").add(counter++).add("click").buildInto(buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public Tuple unpack() {
+		return subspace.unpack(key);
+	}
+
+	@Benchmark
+	public long unpackReader() {
+		TupleReader reader = subspace.unpackReader(key);
+		return reader.skip().readLong();
+	}
+
+	@Benchmark
+	public byte[] packLongTuple() {
+		return subspace.pack(Tuple.from(counter++));
+	}
+
+	@Benchmark
+	public byte[] packLong() {
+		return subspace.packLong(counter++);
+	}
+
+	@Benchmark
+	public long unpackLongTuple() {
+		return subspace.unpack(longKey).getLong(0);
+	}
+
+	@Benchmark
+	public long unpackLong() {
+		return subspace.unpackLong(longKey);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * SubspaceRouterBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.util.concurrent.TimeUnit;
+
+import com.apple.foundationdb.tuple.Tuple;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for dispatching keys to the {@link Subspace} containing them, comparing a
+ * {@link SubspaceRouter} with checking {@link Subspace#contains(byte[])} for each {@code Subspace}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubspaceRouterBenchmark {
+	@Param({ "10", "1000" })
+	private int subspaceCount;
+
+	private Subspace[] subspaces;
+	private SubspaceRouter<Subspace> router;
+	private byte[][] keys;
+	private int next;
+
+	@Setup
+	public void setup() {
+		subspaces = new Subspace[subspaceCount];
+		router = new SubspaceRouter<>();
+		keys = new byte[1024][];
+		for(int i = 0; i < subspaceCount; i++) {
+			subspaces[i] = new Subspace(Tuple.from("application", "table-" + i));
+			router.put(subspaces[i], subspaces[i]);
+		}
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = subspaces[(i * 7919) % subspaceCount].pack(Tuple.from("user-" + i, (long)i));
+		}
+	}
+
+	@Benchmark
+	public Subspace linearContains() {
+		byte[] key = keys[next++ & (keys.length - 1)];
+		for(Subspace subspace : subspaces) {
+			if(subspace.contains(key)) {
+				return subspace;
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public Subspace route() {
+		return router.route(keys[next++ & (keys.length - 1)]);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * ByteArrayUtilBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the byte array helpers in {@link ByteArrayUtil} and the comparisons
+ * inherited from {@link FastByteComparisons}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteArrayUtilBenchmark {
+	private static final byte[] NULL = new byte[]{0x00};
+	private static final byte[] NULL_ESCAPED = new byte[]{0x00, (byte)0xff};
+
+	@Param({"16", "256"})
+	public int size;
+
+	private byte[] bytes;
+	private byte[] equalBytes;
+	private byte[] lastByteDiffers;
+	private byte[] withNulls;
+	private byte[] prefix;
+
+	@Setup
+	public void setup() {
+		Random r = new Random(0x5eed);
+		bytes = new byte[size];
+		r.nextBytes(bytes);
+		for(int i = 0; i < size; i++) {
+			// keep nulls out of the plain array so that only withNulls exercises escaping
+			if(bytes[i] == 0x00) {
+				bytes[i] = 0x01;
+			}
+		}
+		equalBytes = Arrays.copyOf(bytes, size);
+		lastByteDiffers = Arrays.copyOf(bytes, size);
+		lastByteDiffers[size - 1]++;
+		withNulls = Arrays.copyOf(bytes, size);
+		for(int i = 0; i < size; i += 8) {
+			withNulls[i] = 0x00;
+		}
+		prefix = Arrays.copyOf(bytes, size / 2);
+	}
+
+	@Benchmark
+	public int compareUnsignedEqual() {
+		return ByteArrayUtil.compareUnsigned(bytes, equalBytes);
+	}
+
+	@Benchmark
+	public int compareUnsignedLastByte() {
+		return ByteArrayUtil.compareUnsigned(bytes, lastByteDiffers);
+	}
+
+	@Benchmark
+	public int fastByteComparisonsRegion() {
+		return FastByteComparisons.compareTo(bytes, 1, size - 1, lastByteDiffers, 1, size - 1);
+	}
+
+	@Benchmark
+	public boolean startsWith() {
+		return ByteArrayUtil.startsWith(bytes, prefix);
+	}
+
+	@Benchmark
+	public byte[] join() {
+		return ByteArrayUtil.join(prefix, bytes);
+	}
+
+	@Benchmark
+	public byte[] strinc() {
+		return ByteArrayUtil.strinc(bytes);
+	}
+
+	@Benchmark
+	public int nullCount() {
+		return ByteArrayUtil.nullCount(withNulls);
+	}
+
+	@Benchmark
+	public byte[] escapeNulls() {
+		return ByteArrayUtil.replace(withNulls, NULL, NULL_ESCAPED);
+	}
+
+	@Benchmark
+	public String printable() {
+		return ByteArrayUtil.printable(withNulls);
+	}
+}
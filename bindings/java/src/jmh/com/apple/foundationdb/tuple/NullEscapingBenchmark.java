@@ -0,0 +1,109 @@
+/*
+ * NullEscapingBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the word-at-a-time and byte-by-byte null scanners in {@link NullEscaping}, and packing
+ * and unpacking of byte string elements that use them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NullEscapingBenchmark {
+	@Param({"16", "256", "4096"})
+	public int size;
+
+	// Average number of bytes between nulls, or 0 for none
+	@Param({"0", "64"})
+	public int nullSpacing;
+
+	private byte[] bytes;
+	private byte[] packed;
+	private ByteBuffer dest;
+	private NullEscaping.Scanner java;
+	private NullEscaping.Scanner unsafe;
+
+	@Setup
+	public void setup() {
+		Random r = new Random(0x5eed);
+		bytes = new byte[size];
+		r.nextBytes(bytes);
+		for(int i = 0; i < size; i++) {
+			if(bytes[i] == 0x00 || (nullSpacing > 0 && r.nextInt(nullSpacing) == 0)) {
+				bytes[i] = nullSpacing > 0 ? 0x00 : (byte)0x01;
+			}
+		}
+		packed = Tuple.from((Object)bytes).pack();
+		dest = ByteBuffer.allocate(2 * size + 2);
+		java = NullEscaping.scannerJavaImpl();
+		unsafe = NullEscaping.scannerUnsafeImpl();
+	}
+
+	@Benchmark
+	public int indexOfNullJava() {
+		return java.indexOfNull(bytes, 0, size);
+	}
+
+	@Benchmark
+	public int indexOfNullUnsafe() {
+		return unsafe.indexOfNull(bytes, 0, size);
+	}
+
+	@Benchmark
+	public int countNullsJava() {
+		return java.countNulls(bytes, 0, size);
+	}
+
+	@Benchmark
+	public int countNullsUnsafe() {
+		return unsafe.countNulls(bytes, 0, size);
+	}
+
+	@Benchmark
+	public int pack() {
+		dest.clear();
+		return new TupleWriter(dest).writeBytes(bytes).getPackedSize();
+	}
+
+	@Benchmark
+	public Tuple unpack() {
+		return Tuple.fromBytes(packed);
+	}
+}
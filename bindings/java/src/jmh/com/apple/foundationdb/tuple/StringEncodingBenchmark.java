@@ -0,0 +1,140 @@
+/*
+ * StringEncodingBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single-pass string encoder and decoder in {@link StringUtil} with the JDK codec
+ * based approach that the tuple layer used before (validate, {@code getBytes}, count nulls, and
+ * then copy to escape them; and the reverse with a new {@code CharsetDecoder} per string).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringEncodingBenchmark {
+	public enum Content {
+		ASCII("the quick brown fox jumps over the lazy dog"),
+		ASCII_WITH_NULL("the quick brown fox\u0000jumps over the lazy dog"),
+		LATIN1("na\u00efve caf\u00e9 cr\u00e8me br\u00fbl\u00e9e \u00e0 la fa\u00e7on"),
+		CJK("\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8\u3092\u7b26\u53f7\u5316\u3059\u308b"),
+		EMOJI("\ud83d\ude00\ud83d\udd25\ud83d\ude80 mixed \ud83c\udf89 text");
+
+		private final String value;
+
+		Content(String value) {
+			this.value = value;
+		}
+	}
+
+	@Param
+	public Content content;
+
+	private String string;
+	private ByteBuffer dest;
+	private byte[] encoded;
+	private int nullCount;
+
+	@Setup
+	public void setup() {
+		string = content.value;
+		dest = ByteBuffer.allocate(3 * string.length());
+		encoded = legacyEncode(string);
+		nullCount = ByteArrayUtil.nullCount(string.getBytes(StandardCharsets.UTF_8));
+		dest.clear();
+		StringUtil.encodeEscaped(string, dest);
+		if(!Arrays.equals(encoded, Arrays.copyOf(dest.array(), dest.position()))) {
+			throw new IllegalStateException("Single-pass encoding does not match JDK encoding");
+		}
+		if(!string.equals(StringUtil.decodeEscaped(encoded, 0, encoded.length, nullCount))) {
+			throw new IllegalStateException("Single-pass decoding does not round trip");
+		}
+	}
+
+	@Benchmark
+	public int encode() {
+		dest.clear();
+		StringUtil.encodeEscaped(string, dest);
+		return dest.position();
+	}
+
+	@Benchmark
+	public byte[] encodeLegacy() {
+		return legacyEncode(string);
+	}
+
+	@Benchmark
+	public String decode() {
+		return StringUtil.decodeEscaped(encoded, 0, encoded.length, nullCount);
+	}
+
+	@Benchmark
+	public String decodeLegacy() throws CharacterCodingException {
+		ByteBuffer unescaped;
+		if(nullCount == 0) {
+			unescaped = ByteBuffer.wrap(encoded);
+		}
+		else {
+			unescaped = ByteBuffer.allocate(encoded.length - nullCount);
+			ByteArrayUtil.replace(encoded, 0, encoded.length, new byte[] { 0x00, (byte)0xff }, new byte[] { 0x00 }, unescaped);
+			unescaped.flip();
+		}
+		return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).decode(unescaped).toString();
+	}
+
+	@Benchmark
+	public int packedSize() {
+		return StringUtil.packedSize(string);
+	}
+
+	private static byte[] legacyEncode(String s) {
+		for(int i = 0; i < s.length(); i++) {
+			if(Character.isSurrogate(s.charAt(i)) && !(Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(++i)))) {
+				throw new IllegalArgumentException("malformed UTF-16 string");
+			}
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if(ByteArrayUtil.nullCount(bytes) == 0) {
+			return bytes;
+		}
+		return ByteArrayUtil.replace(bytes, new byte[] { 0x00 }, new byte[] { 0x00, (byte)0xff });
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * TupleBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for packing and unpacking whole {@link Tuple}s. Each invocation operates on one of
+ * a fixed set of pre-generated tuples, so that the results are not dominated by a single shape.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TupleBenchmark {
+	public enum Shape {
+		LONGS,
+		STRINGS,
+		MIXED
+	}
+
+	private static final int TUPLE_COUNT = 256;
+	private static final int MASK = TUPLE_COUNT - 1;
+
+	@Param({"LONGS", "STRINGS", "MIXED"})
+	public Shape shape;
+
+	@Param({"4", "16"})
+	public int length;
+
+	private List<List<Object>> elements;
+	private Tuple[] tuples;
+	private byte[][] packed;
+	private ByteBuffer buffer;
+	private int index;
+
+	@Setup
+	public void setup() {
+		Random r = new Random(0x5eed);
+		elements = new ArrayList<>(TUPLE_COUNT);
+		tuples = new Tuple[TUPLE_COUNT];
+		packed = new byte[TUPLE_COUNT][];
+		int maxSize = 0;
+		for(int i = 0; i < TUPLE_COUNT; i++) {
+			List<Object> items = createItems(r);
+			elements.add(items);
+			tuples[i] = Tuple.fromList(items);
+			packed[i] = tuples[i].pack();
+			maxSize = Math.max(maxSize, packed[i].length);
+		}
+		buffer = ByteBuffer.allocate(maxSize);
+	}
+
+	private List<Object> createItems(Random r) {
+		List<Object> items = new ArrayList<>(length);
+		for(int i = 0; i < length; i++) {
+			Shape itemShape = shape == Shape.MIXED ? Shape.values()[i % 2] : shape;
+			if(shape == Shape.MIXED && i % 4 == 3) {
+				items.add(new UUID(r.nextLong(), r.nextLong()));
+			}
+			else if(itemShape == Shape.LONGS) {
+				items.add(r.nextLong() >> r.nextInt(64));
+			}
+			else {
+				char[] chars = new char[r.nextInt(24)];
+				for(int j = 0; j < chars.length; j++) {
+					chars[j] = (char)('a' + r.nextInt(26));
+				}
+				items.add(new String(chars));
+			}
+		}
+		return items;
+	}
+
+	private int next() {
+		index = (index + 1) & MASK;
+		return index;
+	}
+
+	@Benchmark
+	public byte[] pack() {
+		// A new Tuple is needed each time, as pack() memoizes its result
+		return Tuple.fromList(elements.get(next())).pack();
+	}
+
+	@Benchmark
+	public ByteBuffer packInto() {
+		buffer.clear();
+		tuples[next()].packInto(buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public int getPackedSize() {
+		return Tuple.fromList(elements.get(next())).getPackedSize();
+	}
+
+	@Benchmark
+	public Tuple fromBytes() {
+		return Tuple.fromBytes(packed[next()]);
+	}
+
+	@Benchmark
+	public void fromBytesAndIterate(Blackhole bh) {
+		for(Object o : Tuple.fromBytes(packed[next()])) {
+			bh.consume(o);
+		}
+	}
+
+	@Benchmark
+	public int hashCodeFromBytes() {
+		return Tuple.fromBytes(packed[next()]).hashCode();
+	}
+
+	@Benchmark
+	public int compareTo() {
+		int i = next();
+		return tuples[i].compareTo(tuples[(i + 1) & MASK]);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * TupleSortBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for sorting {@link Tuple}s that have not yet been packed, comparing the packed-byte
+ * order of {@link TupleKeyComparator} with the element-wise order of {@link IterableComparator}.
+ * Each invocation sorts a fresh copy of the same tuples, so no packed representations carry over.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TupleSortBenchmark {
+	private static final IterableComparator ITERABLE_COMPARATOR = new IterableComparator();
+
+	@Param({"100000"})
+	public int count;
+
+	private List<List<Object>> elements;
+	private Tuple[] tuples;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		Random r = new Random(0x5eed);
+		elements = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			// A shared leading element makes every comparison look past the first item, as with
+			// keys from one subspace.
+			elements.add(Arrays.asList("events", (long)r.nextInt(1000), "user" + r.nextInt(10000), r.nextLong()));
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void copy() {
+		tuples = new Tuple[count];
+		for(int i = 0; i < count; i++) {
+			tuples[i] = Tuple.fromList(elements.get(i));
+		}
+	}
+
+	@Benchmark
+	public Tuple[] sortByPackedBytes() {
+		TupleKeyComparator.sort(tuples);
+		return tuples;
+	}
+
+	@Benchmark
+	public Tuple[] sortByElements() {
+		Arrays.sort(tuples, (t1, t2) -> ITERABLE_COMPARATOR.compare(t1.getItems(), t2.getItems()));
+		return tuples;
+	}
+}
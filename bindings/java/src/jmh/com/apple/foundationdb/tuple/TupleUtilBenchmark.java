@@ -0,0 +1,108 @@
+/*
+ * TupleUtilBenchmark.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the encoding and decoding of individual tuple element types, measured on
+ * single-element tuples so that the per-type cost is isolated from the per-tuple overhead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TupleUtilBenchmark {
+	public enum ElementType {
+		NULL(null),
+		SMALL_LONG(42L),
+		LARGE_LONG(0x0123456789abcdefL),
+		NEGATIVE_LONG(-0x0123456789abL),
+		BIG_INTEGER(BigInteger.ONE.shiftLeft(100).add(BigInteger.TEN)),
+		FLOAT(3.14159f),
+		DOUBLE(2.718281828459045),
+		BOOLEAN(true),
+		ASCII_STRING("the quick brown fox jumps over the lazy dog"),
+		UNICODE_STRING("\u65e5\u672c\u8a9e \ud83d\ude00 caf\u00e9"),
+		BYTES(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10}),
+		BYTES_WITH_NULLS(new byte[]{0x00, 0x01, 0x00, 0x02, 0x00, 0x03, 0x00, 0x04, 0x00, 0x05, 0x00, 0x06, 0x00, 0x07, 0x00, 0x08}),
+		UUID_VALUE(new UUID(0x0123456789abcdefL, 0xfedcba9876543210L)),
+		VERSIONSTAMP(Versionstamp.complete(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, 1066)),
+		NESTED(Tuple.from("nested", 1L, null, new byte[]{0x00}));
+
+		private final Object value;
+
+		ElementType(Object value) {
+			this.value = value;
+		}
+	}
+
+	@Param
+	public ElementType type;
+
+	private List<Object> items;
+	private int packedSize;
+	private byte[] packed;
+
+	@Setup
+	public void setup() {
+		items = Collections.singletonList(type.value);
+		packedSize = TupleUtil.getPackedSize(items, false);
+		packed = TupleUtil.pack(items, packedSize);
+		if(!Arrays.equals(packed, Tuple.fromList(items).pack())) {
+			throw new IllegalStateException("TupleUtil encoding does not match Tuple encoding");
+		}
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return TupleUtil.pack(items, packedSize);
+	}
+
+	@Benchmark
+	public int packedSize() {
+		return TupleUtil.getPackedSize(items, false);
+	}
+
+	@Benchmark
+	public List<Object> decode() {
+		return TupleUtil.unpack(packed);
+	}
+}
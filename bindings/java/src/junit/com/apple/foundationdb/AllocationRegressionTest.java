@@ -0,0 +1,161 @@
+/*
+ * AllocationRegressionTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntSupplier;
+
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleReader;
+import com.apple.foundationdb.tuple.TupleWriter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures the heap allocated per row by the result marshalling paths, and fails if it exceeds
+ * a fixed budget. The budgets are the overhead above the size of the row payload itself, and
+ * leave some headroom for differences between JVMs (for example, uncompressed object pointers).
+ */
+class AllocationRegressionTest {
+	private static final int ROWS = 1000;
+	private static final int KEY_SIZE = 24;
+	private static final int VALUE_SIZE = 40;
+	private static final int ITERATIONS = 200;
+
+	// One KeyValue, two byte arrays, and a list slot per row
+	private static final long RANGE_RESULT_OVERHEAD_PER_ROW = 128;
+	// The encoding state and the encoded string
+	private static final long TUPLE_PACK_BYTES_PER_TUPLE = 160;
+	// Nothing: the writer encodes straight into the reused buffer
+	private static final long TUPLE_WRITER_BYTES_PER_TUPLE = 0;
+	// Nothing: the reader decodes in place
+	private static final long TUPLE_READER_BYTES_PER_TUPLE = 0;
+
+	@BeforeEach
+	void checkSupported() {
+		Assumptions.assumeTrue(AllocationTracker.isSupported(), "Thread allocation tracking is not supported");
+	}
+
+	@Test
+	void testRangeResultFromArrays() throws Exception {
+		byte[] keyValues = new byte[ROWS * (KEY_SIZE + VALUE_SIZE)];
+		int[] lengths = new int[ROWS * 2];
+		for(int i = 0; i < ROWS; i++) {
+			lengths[i * 2] = KEY_SIZE;
+			lengths[i * 2 + 1] = VALUE_SIZE;
+		}
+
+		double perRow = allocatedPerRow(() -> new RangeResult(keyValues, lengths, false).values.size());
+		assertWithinBudget("RangeResult(byte[], int[])", perRow, RANGE_RESULT_OVERHEAD_PER_ROW);
+	}
+
+	@Test
+	void testRangeResultFromDirectBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8 + ROWS * (8 + KEY_SIZE + VALUE_SIZE)).order(ByteOrder.nativeOrder());
+		buffer.putInt(ROWS).putInt(0);
+		for(int i = 0; i < ROWS; i++) {
+			buffer.putInt(KEY_SIZE).putInt(VALUE_SIZE);
+			buffer.position(buffer.position() + KEY_SIZE + VALUE_SIZE);
+		}
+
+		double perRow = allocatedPerRow(() -> new RangeResult(new DirectBufferIterator(buffer)).values.size());
+		assertWithinBudget("RangeResult(DirectBufferIterator)", perRow, RANGE_RESULT_OVERHEAD_PER_ROW);
+	}
+
+	@Test
+	void testTuplePacking() throws Exception {
+		// packInto() does not memoize, so the tuple is encoded from scratch every time
+		Tuple t = Tuple.from(1066L, "a string of moderate length", 3.14159);
+		ByteBuffer buffer = ByteBuffer.allocate(t.getPackedSize());
+		double perTuple = allocatedPerRow(() -> {
+			for(int i = 0; i < ROWS; i++) {
+				buffer.clear();
+				t.packInto(buffer);
+			}
+			return ROWS;
+		});
+		Assertions.assertTrue(perTuple <= TUPLE_PACK_BYTES_PER_TUPLE,
+				"Tuple packing allocated " + perTuple + " bytes per tuple, budget is " + TUPLE_PACK_BYTES_PER_TUPLE);
+	}
+
+	@Test
+	void testTupleWriter() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(128);
+		TupleWriter writer = new TupleWriter(buffer);
+		double perTuple = allocatedPerRow(() -> {
+			for(int i = 0; i < ROWS; i++) {
+				writer.reset()
+				      .writeLong(1066L + i)
+				      .writeString("a string of moderate length")
+				      .writeDouble(3.14159);
+			}
+			return ROWS;
+		});
+		Assertions.assertTrue(perTuple <= TUPLE_WRITER_BYTES_PER_TUPLE,
+				"TupleWriter allocated " + perTuple + " bytes per tuple, budget is " + TUPLE_WRITER_BYTES_PER_TUPLE);
+	}
+
+	@Test
+	void testTupleReader() throws Exception {
+		byte[][] keys = new byte[ROWS][];
+		for(int i = 0; i < ROWS; i++) {
+			keys[i] = Tuple.from("index", "a string of moderate length", new byte[] { 0x00, 0x01 }, 1066L + i).pack();
+		}
+		TupleReader reader = new TupleReader(keys[0]);
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		long[] sum = new long[1];
+		double perTuple = allocatedPerRow(() -> {
+			for(int i = 0; i < ROWS; i++) {
+				buffer.clear();
+				reader.reset(keys[i]).skip(2).readBytesInto(buffer);
+				sum[0] += reader.readLong();
+			}
+			return ROWS;
+		});
+		Assertions.assertTrue(sum[0] > 0);
+		Assertions.assertTrue(perTuple <= TUPLE_READER_BYTES_PER_TUPLE,
+				"TupleReader allocated " + perTuple + " bytes per tuple, budget is " + TUPLE_READER_BYTES_PER_TUPLE);
+	}
+
+	private static void assertWithinBudget(String name, double perRow, long overheadBudget) {
+		double overhead = perRow - (KEY_SIZE + VALUE_SIZE);
+		Assertions.assertTrue(overhead <= overheadBudget,
+				name + " allocated " + overhead + " bytes per row above the payload, budget is " + overheadBudget);
+	}
+
+	/*
+	 * Runs the operation repeatedly to let the JIT settle, and returns the smallest observed
+	 * allocation per row so that unrelated background allocation on this thread is ignored.
+	 */
+	private static double allocatedPerRow(IntSupplier operation) {
+		double best = Double.MAX_VALUE;
+		for(int i = 0; i < ITERATIONS; i++) {
+			long before = AllocationTracker.currentThreadAllocatedBytes();
+			int rows = operation.getAsInt();
+			long allocated = AllocationTracker.currentThreadAllocatedBytes() - before;
+			best = Math.min(best, (double)allocated / rows);
+		}
+		return best;
+	}
+}
@@ -24,8 +24,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.Executor;
 
 import com.apple.foundationdb.tuple.ByteArrayUtil;
@@ -49,7 +49,7 @@ public class FakeFDBTransaction extends FDBTransaction {
 
 	protected FakeFDBTransaction(long cPtr, Database database, Executor executor) {
 		super(cPtr, database, executor);
-		this.backingData = new TreeMap<>(ByteArrayUtil.comparator());
+		this.backingData = new ConcurrentSkipListMap<>(ByteArrayUtil.comparator());
 		this.executor = executor;
 	}
 
@@ -81,6 +81,80 @@ public class FakeFDBTransaction extends FDBTransaction {
 		return CompletableFuture.completedFuture(this.backingData.get(key));
 	}
 
+	/**
+	 * Conflicts are not tracked, so snapshot reads are the same as any other reads.
+	 */
+	@Override
+	public ReadTransaction snapshot() {
+		return this;
+	}
+
+	/*
+	 * Writes are applied directly to the backing data. They are visible to later reads (as they
+	 * would be with read-your-writes), and there is no commit.
+	 */
+
+	@Override
+	public void set(byte[] key, byte[] value) {
+		if (key == null || value == null)
+			throw new IllegalArgumentException("Keys/Values must be non-null");
+		backingData.put(key, value);
+	}
+
+	@Override
+	public void clear(byte[] key) {
+		backingData.remove(key);
+	}
+
+	@Override
+	public void clear(byte[] beginKey, byte[] endKey) {
+		if (ByteArrayUtil.compareUnsigned(beginKey, endKey) < 0) {
+			backingData.subMap(beginKey, endKey).clear();
+		}
+	}
+
+	@Override
+	public void mutate(MutationType optype, byte[] key, byte[] value) {
+		if (optype != MutationType.ADD) {
+			throw new UnsupportedOperationException("Unsupported mutation type: " + optype);
+		}
+		// Little-endian addition, truncated to the length of the operand
+		byte[] existing = backingData.getOrDefault(key, new byte[0]);
+		byte[] result = new byte[value.length];
+		int carry = 0;
+		for (int i = 0; i < value.length; i++) {
+			int sum = (i < existing.length ? existing[i] & 0xff : 0) + (value[i] & 0xff) + carry;
+			result[i] = (byte) sum;
+			carry = sum >> 8;
+		}
+		backingData.put(key, result);
+	}
+
+	@Override
+	public void setOption(int code, byte[] param) {
+		// no-op
+	}
+
+	@Override
+	public void addReadConflictRange(byte[] keyBegin, byte[] keyEnd) {
+		// no-op
+	}
+
+	@Override
+	public void addReadConflictKey(byte[] key) {
+		// no-op
+	}
+
+	@Override
+	public void addWriteConflictRange(byte[] keyBegin, byte[] keyEnd) {
+		// no-op
+	}
+
+	@Override
+	public void addWriteConflictKey(byte[] key) {
+		// no-op
+	}
+
 	/**
 	 * @return the number of times getRange_internal() was called. Useful for
 	 *         checking underlying behavior.
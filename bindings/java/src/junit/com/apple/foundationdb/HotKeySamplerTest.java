@@ -0,0 +1,152 @@
+/*
+ * HotKeySamplerTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb;
+
+import java.util.List;
+
+import com.apple.foundationdb.EventKeeper.Events;
+import com.apple.foundationdb.HotKeySampler.AccessType;
+import com.apple.foundationdb.HotKeySampler.HeavyHitter;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the sketch and top-K bookkeeping of {@link HotKeySampler}.
+ */
+class HotKeySamplerTest {
+
+	@Test
+	void testHeavyHittersAreOrdered() throws Exception {
+		HotKeySampler sampler = new HotKeySampler(new MapEventKeeper(), 256, 4, 3, 0, 8);
+		for(int i = 0; i < 1000; i++) {
+			sampler.record(AccessType.READ, Tuple.from("cold", i).pack());
+		}
+		for(int i = 0; i < 500; i++) {
+			sampler.record(AccessType.READ, Tuple.from("hot").pack());
+		}
+		for(int i = 0; i < 200; i++) {
+			sampler.record(AccessType.READ, Tuple.from("warm").pack());
+		}
+
+		List<HeavyHitter> hitters = sampler.getHeavyHitters(AccessType.READ);
+		Assertions.assertEquals(3, hitters.size(), "Incorrect number of heavy hitters");
+		Assertions.assertArrayEquals(Tuple.from("hot").pack(), hitters.get(0).getPrefix(), "Incorrect hottest key");
+		Assertions.assertTrue(hitters.get(0).getCount() >= 500, "Count-min estimates must not undercount");
+		Assertions.assertArrayEquals(Tuple.from("warm").pack(), hitters.get(1).getPrefix(), "Incorrect second hottest key");
+		Assertions.assertTrue(sampler.getHeavyHitters(AccessType.WRITE).isEmpty(), "Writes should be tracked separately");
+	}
+
+	@Test
+	void testBucketsBySubspace() throws Exception {
+		HotKeySampler sampler = new HotKeySampler(new MapEventKeeper(), 256, 4, 4, 1, 8);
+		Subspace outer = new Subspace(Tuple.from("app"));
+		Subspace inner = outer.get("users");
+		sampler.addSubspace(outer);
+		sampler.addSubspace(inner);
+
+		for(int i = 0; i < 100; i++) {
+			sampler.record(AccessType.WRITE, inner.pack(Tuple.from(i)));
+			sampler.record(AccessType.WRITE, outer.pack(Tuple.from("other", i)));
+		}
+		sampler.record(AccessType.WRITE, ByteArrayUtil.join(new byte[]{0x42}, Tuple.from("x").pack()));
+
+		Assertions.assertTrue(sampler.estimate(AccessType.WRITE, inner.pack(Tuple.from(-1))) >= 100, "Inner subspace undercounted");
+		Assertions.assertTrue(sampler.estimate(AccessType.WRITE, outer.pack(Tuple.from("z"))) >= 100, "Outer subspace undercounted");
+
+		List<HeavyHitter> hitters = sampler.getHeavyHitters(AccessType.WRITE);
+		Assertions.assertEquals(3, hitters.size(), "Incorrect number of buckets");
+		Assertions.assertArrayEquals(new byte[]{0x42}, hitters.get(2).getPrefix(), "Unregistered keys should use the default prefix length");
+	}
+
+	@Test
+	void testConflictCandidates() throws Exception {
+		HotKeySampler sampler = new HotKeySampler(new MapEventKeeper(), 256, 4, 4, 0, 2);
+		HotKeySampler.ConflictCandidates candidates = sampler.newConflictCandidates();
+		candidates.add(new byte[]{1});
+		candidates.add(new byte[]{2});
+		candidates.add(new byte[]{3});
+
+		sampler.recordError(1007, candidates);
+		Assertions.assertTrue(sampler.getHeavyHitters(AccessType.CONFLICT).isEmpty(), "Only conflicts should be attributed");
+
+		sampler.recordError(HotKeySampler.NOT_COMMITTED, candidates);
+		Assertions.assertEquals(2, sampler.getHeavyHitters(AccessType.CONFLICT).size(), "Candidates should be bounded");
+		Assertions.assertEquals(0L, sampler.estimate(AccessType.CONFLICT, new byte[]{3}), "Dropped candidate was counted");
+
+		sampler.recordError(HotKeySampler.NOT_COMMITTED, candidates);
+		Assertions.assertEquals(1L, sampler.estimate(AccessType.CONFLICT, new byte[]{1}), "Candidates should be drained");
+	}
+
+	@Test
+	void testBucketsByLongestOfManySubspaces() throws Exception {
+		HotKeySampler sampler = new HotKeySampler(new MapEventKeeper(), 1024, 4, 4, 1, 8);
+		Subspace outer = new Subspace(Tuple.from("app"));
+		Subspace inner = outer.get("users").get(7);
+		// Register the nested subspace first, among many unrelated ones
+		sampler.addSubspace(inner);
+		for(int i = 0; i < 1000; i++) {
+			sampler.addSubspace(outer.get("users").get(i + 100));
+		}
+		sampler.addSubspace(outer);
+		sampler.addSubspace(inner);
+
+		for(int i = 0; i < 100; i++) {
+			sampler.record(AccessType.READ, inner.pack(Tuple.from(i)));
+		}
+		sampler.record(AccessType.READ, outer.pack(Tuple.from("other")));
+
+		List<HeavyHitter> hitters = sampler.getHeavyHitters(AccessType.READ);
+		Assertions.assertEquals(2, hitters.size(), "Incorrect number of buckets");
+		Assertions.assertArrayEquals(inner.getKey(), hitters.get(0).getPrefix(), "Keys should use the longest registered prefix");
+		Assertions.assertArrayEquals(outer.getKey(), hitters.get(1).getPrefix(), "Keys should fall back to shorter prefixes");
+	}
+
+	@Test
+	void testConflictCandidatesAreCopied() throws Exception {
+		HotKeySampler sampler = new HotKeySampler(new MapEventKeeper(), 256, 4, 4, 0, 4);
+		HotKeySampler.ConflictCandidates candidates = sampler.newConflictCandidates();
+		byte[] buffer = new byte[]{1};
+		candidates.add(buffer);
+		buffer[0] = 2;
+		candidates.add(buffer);
+
+		sampler.recordError(HotKeySampler.NOT_COMMITTED, candidates);
+		Assertions.assertEquals(1L, sampler.estimate(AccessType.CONFLICT, new byte[]{1}), "Candidate changed after it was added");
+		Assertions.assertEquals(1L, sampler.estimate(AccessType.CONFLICT, new byte[]{2}), "Candidate changed after it was added");
+	}
+
+	@Test
+	void testResetAndDelegation() throws Exception {
+		EventKeeper delegate = new MapEventKeeper();
+		HotKeySampler sampler = new HotKeySampler(delegate);
+		sampler.increment(Events.JNI_CALL);
+		sampler.record(AccessType.READ, new byte[]{1, 2, 3});
+		Assertions.assertEquals(1L, delegate.getCount(Events.JNI_CALL), "Events should be forwarded");
+
+		sampler.reset();
+		Assertions.assertTrue(sampler.getHeavyHitters(AccessType.READ).isEmpty(), "Heavy hitters should be cleared");
+		Assertions.assertEquals(0L, sampler.estimate(AccessType.READ, new byte[]{1, 2, 3}), "Sketch should be cleared");
+		Assertions.assertEquals(1L, sampler.getCount(Events.JNI_CALL), "Reset should not clear delegated events");
+	}
+}
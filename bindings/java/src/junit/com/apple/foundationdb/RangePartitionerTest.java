@@ -0,0 +1,192 @@
+/*
+ * RangePartitionerTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import com.apple.foundationdb.RangePartitioner.Partition;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests for {@link RangePartitioner}, against a transaction whose size estimates and split points
+ * are computed exactly from its data.
+ */
+class RangePartitionerTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static class SizedTransaction extends FakeFDBTransaction {
+		private final NavigableMap<byte[], byte[]> data;
+
+		SizedTransaction(NavigableMap<byte[], byte[]> data) {
+			super(data, 1L, null, Runnable::run);
+			this.data = data;
+		}
+
+		@Override
+		public CompletableFuture<Long> getEstimatedRangeSizeBytes(byte[] begin, byte[] end) {
+			long size = 0;
+			for(Map.Entry<byte[], byte[]> entry : data.subMap(begin, true, end, false).entrySet()) {
+				size += entry.getKey().length + entry.getValue().length;
+			}
+			return CompletableFuture.completedFuture(size);
+		}
+
+		@Override
+		public CompletableFuture<KeyArrayResult> getRangeSplitPoints(byte[] begin, byte[] end, long chunkSize) {
+			List<byte[]> points = new ArrayList<>();
+			points.add(begin);
+			long size = 0;
+			for(Map.Entry<byte[], byte[]> entry : data.subMap(begin, true, end, false).entrySet()) {
+				if(size >= chunkSize) {
+					points.add(entry.getKey());
+					size = 0;
+				}
+				size += entry.getKey().length + entry.getValue().length;
+			}
+			points.add(end);
+
+			ByteArrayOutputStream keys = new ByteArrayOutputStream();
+			int[] lengths = new int[points.size()];
+			for(int i = 0; i < points.size(); i++) {
+				keys.write(points.get(i), 0, points.get(i).length);
+				lengths[i] = points.get(i).length;
+			}
+			return CompletableFuture.completedFuture(new KeyArrayResult(keys.toByteArray(), lengths));
+		}
+	}
+
+	private static final byte[] BEGIN = Tuple.from("data").pack();
+	private static final byte[] END = ByteArrayUtil.strinc(BEGIN);
+
+	// Keys of the form ("data", i) with values of varying sizes
+	private static SizedTransaction createTransaction(int keys, long seed) {
+		Random random = new Random(seed);
+		NavigableMap<byte[], byte[]> data = new TreeMap<>(ByteArrayUtil.comparator());
+		for(int i = 0; i < keys; i++) {
+			data.put(Tuple.from("data", i).pack(), new byte[random.nextInt(i % 10 == 0 ? 1000 : 100)]);
+		}
+		return new SizedTransaction(data);
+	}
+
+	private static void assertCovers(byte[] begin, byte[] end, List<Partition> partitions) {
+		Assertions.assertArrayEquals(begin, partitions.get(0).getRange().begin);
+		for(int i = 1; i < partitions.size(); i++) {
+			Assertions.assertArrayEquals(partitions.get(i - 1).getRange().end, partitions.get(i).getRange().begin);
+			Assertions.assertTrue(ByteArrayUtil.compareUnsigned(partitions.get(i).getRange().begin, partitions.get(i).getRange().end) < 0);
+		}
+		Assertions.assertArrayEquals(end, partitions.get(partitions.size() - 1).getRange().end);
+	}
+
+	@Test
+	void partitionsAreBalanced() {
+		SizedTransaction tr = createTransaction(10000, 1L);
+		long total = tr.getEstimatedRangeSizeBytes(BEGIN, END).join();
+		for(int count : new int[] { 1, 2, 7, 16, 100 }) {
+			List<Partition> partitions = RangePartitioner.partition(tr, BEGIN, END, count).join();
+			Assertions.assertEquals(count, partitions.size());
+			assertCovers(BEGIN, END, partitions);
+
+			long sum = 0;
+			for(Partition partition : partitions) {
+				long size = tr.getEstimatedRangeSizeBytes(partition.getRange()).join();
+				Assertions.assertEquals(size, partition.getEstimatedBytes());
+				// Each partition is within a chunk of its share
+				Assertions.assertTrue(Math.abs(size - total / count) <= total / count / 4 + 2000,
+						"unbalanced partition " + partition + " of " + count + " with total " + total);
+				sum += size;
+			}
+			Assertions.assertEquals(total, sum);
+		}
+	}
+
+	@Test
+	void smallRanges() {
+		SizedTransaction tr = createTransaction(3, 2L);
+		List<Partition> partitions = RangePartitioner.partition(tr, BEGIN, END, 10).join();
+		Assertions.assertTrue(partitions.size() <= 3);
+		assertCovers(BEGIN, END, partitions);
+
+		byte[] empty = Tuple.from("none").pack();
+		partitions = RangePartitioner.partition(tr, empty, ByteArrayUtil.strinc(empty), 10).join();
+		Assertions.assertEquals(1, partitions.size());
+		Assertions.assertEquals(0L, partitions.get(0).getEstimatedBytes());
+
+		Assertions.assertTrue(RangePartitioner.partition(tr, END, BEGIN, 10).join().isEmpty());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> RangePartitioner.partition(tr, BEGIN, END, 0));
+	}
+
+	@Test
+	void splitsStragglers() {
+		SizedTransaction tr = createTransaction(10000, 3L);
+		List<Partition> partitions = RangePartitioner.partition(tr, BEGIN, END, 4).join();
+		Partition straggler = partitions.get(1);
+
+		// The worker for the partition has processed the first tenth of it
+		byte[] resumeKey = RangePartitioner.partition(tr, straggler.getRange(), 10).join().get(1).getRange().begin;
+		List<Partition> rest = RangePartitioner.split(tr, straggler, resumeKey, 3).join();
+		Assertions.assertEquals(3, rest.size());
+		assertCovers(resumeKey, straggler.getRange().end, rest);
+
+		Assertions.assertTrue(RangePartitioner.split(tr, straggler, straggler.getRange().end, 3).join().isEmpty());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> RangePartitioner.split(tr, straggler, END, 3));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> RangePartitioner.split(tr, straggler, BEGIN, 3));
+	}
+
+	@Test
+	void partitionsToTuples() {
+		SizedTransaction tr = createTransaction(1000, 4L);
+		List<Partition> partitions = RangePartitioner.partition(tr, BEGIN, END, 8).join();
+		byte[] previous = null;
+		for(Partition partition : partitions) {
+			byte[] packed = partition.toTuple().pack();
+			Assertions.assertEquals(partition, Partition.fromTuple(Tuple.fromBytes(packed)));
+			if(previous != null) {
+				Assertions.assertTrue(ByteArrayUtil.compareUnsigned(previous, packed) < 0);
+			}
+			previous = packed;
+		}
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> Partition.fromTuple(Tuple.from(BEGIN, END)));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> Partition.fromTuple(Tuple.from("a", "b", 1L)));
+	}
+
+	@Test
+	void splitPointsCannotBeModified() {
+		SizedTransaction tr = createTransaction(1000, 5L);
+		KeyArrayResult result = tr.getRangeSplitPoints(BEGIN, END, 1000).join();
+		int count = result.getKeys().size();
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> result.getKeys().add(END));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> result.getKeys().remove(0));
+		Assertions.assertEquals(count, result.getKeys().size());
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * ShardLocationCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.apple.foundationdb.LocalityUtil.ShardLocation;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ShardLocationCache}, with shard locations from a fixed list of boundaries
+ * rather than from a database.
+ */
+class ShardLocationCacheTest {
+	// Shards begin at "", "b", "d", ..., "x", and are assigned to three teams in turn
+	static List<ShardLocation> shardsOf(byte[] begin, byte[] end) {
+		List<ShardLocation> shards = new ArrayList<>();
+		byte[] shardBegin = begin;
+		for(char c = 'b'; c <= 'x'; c += 2) {
+			byte[] boundary = new byte[] { (byte)c };
+			if(ByteArrayUtil.compareUnsigned(boundary, begin) > 0 && ByteArrayUtil.compareUnsigned(boundary, end) < 0) {
+				shards.add(new ShardLocation(new Range(shardBegin, boundary), teamOf(shardBegin)));
+				shardBegin = boundary;
+			}
+		}
+		shards.add(new ShardLocation(new Range(shardBegin, end), teamOf(shardBegin)));
+		return shards;
+	}
+
+	static String[] teamOf(byte[] key) {
+		int shard = key.length == 0 || key[0] < 'b' ? 0 : (key[0] - 'b') / 2 + 1;
+		int team = shard % 3;
+		return new String[] { "10.0.0." + team + ":4500", "10.0.1." + team + ":4500" };
+	}
+
+	private static byte[] key(String s) {
+		return s.getBytes();
+	}
+
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger loads = new AtomicInteger();
+	private ShardLocationCache cache;
+
+	@BeforeEach
+	void setup() {
+		cache = new ShardLocationCache((begin, end) -> {
+			loads.incrementAndGet();
+			return CompletableFuture.completedFuture(shardsOf(begin, end));
+		}, 1000L, clock::get);
+	}
+
+	private List<ShardLocation> get(String begin, String end) {
+		return cache.getShardLocations(key(begin), key(end)).join();
+	}
+
+	private static void assertSameShards(List<ShardLocation> expected, List<ShardLocation> actual) {
+		Assertions.assertEquals(expected.size(), actual.size(), "different shards: " + expected + " and " + actual);
+		for(int i = 0; i < expected.size(); i++) {
+			Assertions.assertEquals(expected.get(i).getRange(), actual.get(i).getRange());
+			Assertions.assertEquals(expected.get(i).getAddresses(), actual.get(i).getAddresses());
+		}
+	}
+
+	@Test
+	void servesCachedLocations() {
+		assertSameShards(shardsOf(key("a"), key("m")), get("a", "m"));
+		Assertions.assertEquals(1, loads.get());
+
+		// Any range within the loaded one is served from the cache, truncated to the requested range
+		assertSameShards(shardsOf(key("a"), key("m")), get("a", "m"));
+		assertSameShards(shardsOf(key("c"), key("e")), get("c", "e"));
+		assertSameShards(shardsOf(key("d"), key("d\u0000")), get("d", "d\u0000"));
+		Assertions.assertEquals(1, loads.get());
+
+		// A range extending beyond the cached one is read again
+		assertSameShards(shardsOf(key("k"), key("q")), get("k", "q"));
+		Assertions.assertEquals(2, loads.get());
+		assertSameShards(Arrays.asList(
+				new ShardLocation(new Range(key("a"), key("b")), teamOf(key("a"))),
+				new ShardLocation(new Range(key("b"), key("d")), teamOf(key("b"))),
+				new ShardLocation(new Range(key("d"), key("f")), teamOf(key("d"))),
+				new ShardLocation(new Range(key("f"), key("h")), teamOf(key("f"))),
+				new ShardLocation(new Range(key("h"), key("j")), teamOf(key("h"))),
+				new ShardLocation(new Range(key("j"), key("k")), teamOf(key("j"))),
+				new ShardLocation(new Range(key("k"), key("l")), teamOf(key("k"))),
+				new ShardLocation(new Range(key("l"), key("n")), teamOf(key("l"))),
+				new ShardLocation(new Range(key("n"), key("p")), teamOf(key("n"))),
+				new ShardLocation(new Range(key("p"), key("q")), teamOf(key("p")))),
+				get("a", "q"));
+		Assertions.assertEquals(2, loads.get());
+
+		Assertions.assertTrue(get("m", "m").isEmpty());
+		Assertions.assertEquals(2, loads.get());
+	}
+
+	@Test
+	void expiresLocations() {
+		get("a", "z");
+		clock.addAndGet(999L);
+		get("c", "e");
+		Assertions.assertEquals(1, loads.get());
+
+		clock.addAndGet(1L);
+		get("c", "e");
+		Assertions.assertEquals(2, loads.get());
+		get("c", "e");
+		Assertions.assertEquals(2, loads.get());
+		get("a", "z");
+		Assertions.assertEquals(3, loads.get());
+	}
+
+	@Test
+	void invalidatesLocations() {
+		get("a", "z");
+		cache.invalidate(key("e"), key("g"));
+		get("a", "e");
+		get("g", "z");
+		Assertions.assertEquals(1, loads.get());
+		get("e", "g");
+		Assertions.assertEquals(2, loads.get());
+		// The shards split by the invalidated range are returned in two parts
+		List<ShardLocation> split = get("a", "z");
+		Assertions.assertEquals(2, loads.get());
+		Assertions.assertEquals(shardsOf(key("a"), key("z")).size() + 2, split.size());
+		for(int i = 1; i < split.size(); i++) {
+			Assertions.assertArrayEquals(split.get(i - 1).getRange().end, split.get(i).getRange().begin);
+		}
+		Assertions.assertEquals(new Range(key("e"), key("f")), split.get(3).getRange());
+		Assertions.assertEquals(split.get(2).getAddresses(), split.get(3).getAddresses());
+
+		FDBException wrongShard = new FDBException("wrong_shard_server", 1001);
+		Assertions.assertFalse(cache.invalidateOnError(new FDBException("transaction_too_old", 1007), key("a"), key("z")));
+		Assertions.assertFalse(cache.invalidateOnError(new IllegalStateException(), key("a"), key("z")));
+		Assertions.assertTrue(cache.invalidateOnError(new CompletionException(wrongShard), key("m"), key("n")));
+		get("a", "m");
+		Assertions.assertEquals(2, loads.get());
+		get("a", "z");
+		Assertions.assertEquals(3, loads.get());
+
+		cache.invalidateAll();
+		Assertions.assertEquals(0, cache.size());
+	}
+}
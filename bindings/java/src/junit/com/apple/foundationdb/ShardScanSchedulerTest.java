@@ -0,0 +1,216 @@
+/*
+ * ShardScanSchedulerTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.apple.foundationdb.LocalityUtil.ShardLocation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link ShardScanScheduler} runs a task for every shard while limiting the tasks
+ * running on each server.
+ */
+class ShardScanSchedulerTest {
+	private static final byte[] BEGIN = new byte[] { 'a' };
+	private static final byte[] END = new byte[] { 'z' };
+
+	private final AtomicInteger loads = new AtomicInteger();
+	private ShardLocationCache cache;
+	private ShardScanScheduler scheduler;
+
+	private final List<Range> started = new ArrayList<>();
+	private final Map<Range, CompletableFuture<String>> running = new ConcurrentHashMap<>();
+
+	@BeforeEach
+	void setup() {
+		cache = new ShardLocationCache((begin, end) -> {
+			loads.incrementAndGet();
+			return CompletableFuture.completedFuture(ShardLocationCacheTest.shardsOf(begin, end));
+		}, Long.MAX_VALUE, () -> 0L);
+		scheduler = new ShardScanScheduler(cache, 2);
+	}
+
+	private CompletableFuture<String> startTask(Range range) {
+		CompletableFuture<String> task = new CompletableFuture<>();
+		synchronized(started) {
+			started.add(range);
+		}
+		running.put(range, task);
+		for(ShardLocation shard : ShardLocationCacheTest.shardsOf(range.begin, range.end)) {
+			for(String address : shard.getAddresses()) {
+				Assertions.assertTrue(scheduler.getRunningTasks(address) <= 2, "too many tasks for " + address);
+			}
+		}
+		return task;
+	}
+
+	private void finishOne() {
+		Range range = running.keySet().iterator().next();
+		running.remove(range).complete(new String(range.begin));
+	}
+
+	@Test
+	void limitsTasksPerServer() {
+		List<ShardLocation> shards = cache.getShardLocations(BEGIN, END).join();
+		CompletableFuture<List<String>> scan = scheduler.scan(BEGIN, END, this::startTask);
+
+		// Two tasks for each of the three teams, one of them from each of the first six shards
+		Assertions.assertEquals(6, running.size());
+		for(int i = 0; i < 6; i++) {
+			Assertions.assertTrue(running.containsKey(shards.get(i).getRange()));
+		}
+
+		while(!running.isEmpty()) {
+			finishOne();
+			Assertions.assertTrue(running.size() <= 6);
+		}
+		List<String> results = scan.join();
+		Assertions.assertEquals(shards.size(), results.size());
+		for(int i = 0; i < shards.size(); i++) {
+			Assertions.assertEquals(new String(shards.get(i).getRange().begin), results.get(i));
+		}
+		Assertions.assertEquals(shards.size(), started.size());
+		Assertions.assertEquals(1, loads.get());
+	}
+
+	@Test
+	void sharesLimitsBetweenScans() {
+		CompletableFuture<List<String>> first = scheduler.scan(BEGIN, new byte[] { 'm' }, this::startTask);
+		CompletableFuture<List<String>> second = scheduler.scan(new byte[] { 'm' }, END, this::startTask);
+		Assertions.assertEquals(6, running.size());
+		while(!running.isEmpty()) {
+			finishOne();
+		}
+		Assertions.assertEquals(7, first.join().size());
+		Assertions.assertEquals(7, second.join().size());
+
+		List<String> immediate = scheduler.scan(BEGIN, END, range -> CompletableFuture.completedFuture("done")).join();
+		Assertions.assertEquals(14, immediate.size());
+	}
+
+	@Test
+	void failsScanAndInvalidatesShard() {
+		CompletableFuture<List<String>> scan = scheduler.scan(BEGIN, END, this::startTask);
+		Range failed = running.keySet().iterator().next();
+		running.remove(failed).completeExceptionally(new FDBException("wrong_shard_server", 1001));
+
+		CompletionException e = Assertions.assertThrows(CompletionException.class, scan::join);
+		Assertions.assertTrue(e.getCause() instanceof FDBException);
+		int startedBefore = started.size();
+		while(!running.isEmpty()) {
+			finishOne();
+		}
+		Assertions.assertEquals(startedBefore, started.size(), "tasks were started after the scan failed");
+
+		cache.getShardLocations(BEGIN, END).join();
+		Assertions.assertEquals(2, loads.get());
+	}
+
+	@Test
+	void failsScanWhenScannerReturnsNull() {
+		CompletableFuture<List<String>> failed = scheduler.scan(BEGIN, END, range -> null);
+		CompletionException e = Assertions.assertThrows(CompletionException.class, failed::join);
+		Assertions.assertTrue(e.getCause() instanceof NullPointerException);
+		for(String address : ShardLocationCacheTest.teamOf(BEGIN)) {
+			Assertions.assertEquals(0, scheduler.getRunningTasks(address));
+		}
+
+		// The scheduler is still able to run other scans
+		CompletableFuture<List<String>> scan = scheduler.scan(BEGIN, END, this::startTask);
+		Assertions.assertEquals(6, running.size());
+		while(!running.isEmpty()) {
+			finishOne();
+		}
+		Assertions.assertEquals(13, scan.join().size());
+
+		CompletableFuture<List<String>> thrown = scheduler.scan(BEGIN, END, range -> {
+			throw new IllegalStateException("scanner failed");
+		});
+		e = Assertions.assertThrows(CompletionException.class, thrown::join);
+		Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+		Assertions.assertEquals(13, scheduler.scan(BEGIN, END, range -> CompletableFuture.completedFuture("done")).join().size());
+	}
+
+	private ShardScanScheduler schedulerFor(String[]... teams) {
+		ShardLocationCache locations = new ShardLocationCache((begin, end) -> {
+			List<ShardLocation> shards = new ArrayList<>();
+			for(ShardLocation shard : ShardLocationCacheTest.shardsOf(begin, end)) {
+				shards.add(new ShardLocation(shard.getRange(), teams[shards.size() % teams.length]));
+			}
+			return CompletableFuture.completedFuture(shards);
+		}, Long.MAX_VALUE, () -> 0L);
+		return new ShardScanScheduler(locations, 2);
+	}
+
+	@Test
+	void limitsTasksWithoutKnownServers() {
+		ShardScanScheduler unknown = schedulerFor(new String[0]);
+		CompletableFuture<List<String>> scan = unknown.scan(BEGIN, END, range -> {
+			CompletableFuture<String> task = new CompletableFuture<>();
+			running.put(range, task);
+			Assertions.assertTrue(unknown.getRunningTasks(ShardScanScheduler.UNKNOWN_SERVER) <= 2);
+			return task;
+		});
+		Assertions.assertEquals(2, running.size());
+		Assertions.assertEquals(2, unknown.getRunningTasks(ShardScanScheduler.UNKNOWN_SERVER));
+		while(!running.isEmpty()) {
+			finishOne();
+			Assertions.assertTrue(running.size() <= 2);
+		}
+		Assertions.assertEquals(13, scan.join().size());
+		Assertions.assertEquals(0, unknown.getRunningTasks(ShardScanScheduler.UNKNOWN_SERVER));
+	}
+
+	@Test
+	void startsTasksOfTeamsSharingAServer() {
+		String[][] teams = new String[][] { { "a", "b" }, { "b", "c" }, { "c", "a" }, { "d", "e" } };
+		ShardScanScheduler shared = schedulerFor(teams);
+		CompletableFuture<List<String>> scan = shared.scan(BEGIN, END, range -> {
+			CompletableFuture<String> task = new CompletableFuture<>();
+			running.put(range, task);
+			for(String server : new String[] { "a", "b", "c", "d", "e" }) {
+				Assertions.assertTrue(shared.getRunningTasks(server) <= 2, "too many tasks for " + server);
+			}
+			return task;
+		});
+
+		// Three tasks fill servers a, b, and c, and the team of d and e is limited separately
+		Assertions.assertEquals(5, running.size());
+		while(!running.isEmpty()) {
+			finishOne();
+		}
+		Assertions.assertTrue(scan.isDone(), "tasks were left pending");
+		Assertions.assertEquals(13, scan.join().size());
+		for(String server : new String[] { "a", "b", "c", "d", "e" }) {
+			Assertions.assertEquals(0, shared.getRunningTasks(server));
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * DirectoryKeyIndexTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.FakeFDBTransaction;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.ReadTransactionContext;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests for finding the directory containing a key with {@link DirectoryLayer#findDirectoryForKey}.
+ */
+class DirectoryKeyIndexTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	// Counts the transactions used, as a Database would use a new transaction for each call, and
+	// can make a change to the tree before one of them
+	private static class ReadingContext implements ReadTransactionContext {
+		private final FakeFDBTransaction tr;
+		private int changeBefore;
+		private Runnable change;
+		int transactions = 0;
+
+		ReadingContext(FakeFDBTransaction tr) {
+			this.tr = tr;
+		}
+
+		void changeBefore(int transaction, Runnable change) {
+			this.changeBefore = transaction;
+			this.change = change;
+		}
+
+		@Override
+		public <T> T read(Function<? super ReadTransaction, T> retryable) {
+			return readAsync(t -> CompletableFuture.completedFuture(retryable.apply(t))).join();
+		}
+
+		@Override
+		public <T> CompletableFuture<T> readAsync(Function<? super ReadTransaction, ? extends CompletableFuture<T>> retryable) {
+			if(++transactions == changeBefore) {
+				change.run();
+			}
+			return tr.readAsync(retryable);
+		}
+
+		@Override
+		public Executor getExecutor() {
+			return tr.getExecutor();
+		}
+	}
+
+	private FakeFDBTransaction tr;
+	private List<DirectorySubspace> directories;
+	private DirectorySubspace partition;
+
+	@BeforeEach
+	void setup() {
+		tr = new FakeFDBTransaction(Collections.emptyMap(), 1L, null, Runnable::run);
+		DirectoryLayer directoryLayer = new DirectoryLayer();
+
+		List<List<String>> paths = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			for(int j = 0; j < 5; j++) {
+				paths.add(Arrays.asList("a" + i, "b" + j));
+			}
+		}
+		directories = new ArrayList<>(directoryLayer.createOrOpenAll(tr, paths, DirectoryLayer.EMPTY_BYTES).join().values());
+		for(int i = 0; i < 20; i++) {
+			directories.add(directoryLayer.open(tr, Arrays.asList("a" + i)).join());
+		}
+
+		partition = directoryLayer.create(tr, Arrays.asList("partition"), DirectoryLayer.PARTITION_LAYER).join();
+		directories.add(partition.create(tr, Arrays.asList("inner")).join());
+		directories.add(partition.create(tr, Arrays.asList("inner", "nested")).join());
+	}
+
+	private static void assertFound(DirectorySubspace expected, DirectorySubspace found) {
+		Assertions.assertNotNull(found, "no directory found for " + expected.getPath());
+		Assertions.assertEquals(expected.getPath(), found.getPath());
+		Assertions.assertArrayEquals(expected.getLayer(), found.getLayer());
+	}
+
+	private static void assertFindsAll(DirectoryLayer directoryLayer, FakeFDBTransaction tr, List<DirectorySubspace> directories) {
+		for(DirectorySubspace directory : directories) {
+			assertFound(directory, directoryLayer.findDirectoryForKey(tr, directory.getKey()).join());
+			assertFound(directory, directoryLayer.findDirectoryForKey(tr, directory.pack("key")).join());
+		}
+	}
+
+	@Test
+	void findsDirectories() {
+		DirectoryLayer directoryLayer = new DirectoryLayer();
+		assertFindsAll(directoryLayer, tr, directories);
+
+		// The metadata of the directories in a partition is stored within the partition
+		Subspace rootNode = DirectoryLayer.DEFAULT_NODE_SUBSPACE.get(DirectoryLayer.DEFAULT_NODE_SUBSPACE.getKey());
+		byte[] partitionPrefix = tr.get(rootNode.get(0).get("partition").getKey()).join();
+		byte[] partitionMetadata = ByteArrayUtil.join(partitionPrefix, new byte[] { (byte)0xfe, 0x01 });
+		DirectorySubspace found = directoryLayer.findDirectoryForKey(tr, partitionMetadata).join();
+		Assertions.assertTrue(found instanceof DirectoryPartition);
+		Assertions.assertEquals(Arrays.asList("partition"), found.getPath());
+
+		Assertions.assertNull(directoryLayer.findDirectoryForKey(tr, new byte[] { (byte)0xfe, 0x01 }).join());
+		Assertions.assertNull(directoryLayer.findDirectoryForKey(tr, new byte[0]).join());
+	}
+
+	@Test
+	void cachedIndexIsRebuiltAfterChanges() {
+		DirectoryLayer directoryLayer = new DirectoryLayer(DirectoryLayer.DEFAULT_NODE_SUBSPACE, DirectoryLayer.DEFAULT_CONTENT_SUBSPACE, false, 10);
+		assertFindsAll(directoryLayer, tr, directories);
+
+		int rangeCalls = tr.getNumRangeCalls();
+		assertFindsAll(directoryLayer, tr, directories);
+		Assertions.assertEquals(rangeCalls, tr.getNumRangeCalls(), "cached index was not used");
+
+		DirectoryLayer other = new DirectoryLayer();
+		DirectorySubspace added = other.create(tr, Arrays.asList("a0", "added")).join();
+		assertFound(added, directoryLayer.findDirectoryForKey(tr, added.pack("key")).join());
+
+		// Changes within a partition update the partition's metadata version
+		DirectorySubspace addedInPartition = other.open(tr, Arrays.asList("partition")).join().create(tr, Arrays.asList("added")).join();
+		assertFound(addedInPartition, directoryLayer.findDirectoryForKey(tr, addedInPartition.pack("key")).join());
+
+		DirectorySubspace removed = directories.get(0);
+		other.remove(tr, removed.getPath()).join();
+		Assertions.assertNull(directoryLayer.findDirectoryForKey(tr, removed.pack("key")).join());
+	}
+
+	@Test
+	void indexIsReadAcrossTransactions() {
+		// More subdirectories than are read from one node at a time, and more nodes than are read
+		// in one transaction
+		List<List<String>> paths = new ArrayList<>();
+		for(int i = 0; i < 2500; i++) {
+			paths.add(Arrays.asList("wide", "c" + i));
+		}
+		new DirectoryLayer().createOrOpenAll(tr, paths, DirectoryLayer.EMPTY_BYTES).join();
+		List<DirectorySubspace> expected = new ArrayList<>(directories);
+		expected.add(new DirectoryLayer().open(tr, Arrays.asList("wide", "c0")).join());
+		expected.add(new DirectoryLayer().open(tr, Arrays.asList("wide", "c1500")).join());
+		expected.add(new DirectoryLayer().open(tr, Arrays.asList("wide", "c2499")).join());
+
+		// The index is kept without a path cache
+		DirectoryLayer directoryLayer = new DirectoryLayer(DirectoryLayer.DEFAULT_NODE_SUBSPACE, DirectoryLayer.DEFAULT_CONTENT_SUBSPACE, false, 0, true);
+		ReadingContext context = new ReadingContext(tr);
+		assertFound(expected.get(expected.size() - 1), directoryLayer.findDirectoryForKey(context, expected.get(expected.size() - 1).pack("key")).join());
+		Assertions.assertTrue(context.transactions > 25, "index was read in " + context.transactions + " transactions");
+
+		int transactions = context.transactions;
+		int rangeCalls = tr.getNumRangeCalls();
+		for(DirectorySubspace directory : expected) {
+			assertFound(directory, directoryLayer.findDirectoryForKey(context, directory.pack("key")).join());
+		}
+		Assertions.assertEquals(rangeCalls, tr.getNumRangeCalls(), "cached index was not used");
+		Assertions.assertEquals(transactions + expected.size(), context.transactions, "cached index should only be checked");
+
+		// Without a path cache or the option to keep it, the index is not kept
+		DirectoryLayer uncached = new DirectoryLayer();
+		uncached.findDirectoryForKey(tr, expected.get(0).getKey()).join();
+		rangeCalls = tr.getNumRangeCalls();
+		uncached.findDirectoryForKey(tr, expected.get(0).getKey()).join();
+		Assertions.assertTrue(tr.getNumRangeCalls() > rangeCalls);
+	}
+
+	@Test
+	void indexIsRebuiltIfTreeChangesWhileRead() {
+		DirectoryLayer directoryLayer = new DirectoryLayer(DirectoryLayer.DEFAULT_NODE_SUBSPACE, DirectoryLayer.DEFAULT_CONTENT_SUBSPACE, false, 0, true);
+		List<DirectorySubspace> added = new ArrayList<>();
+		ReadingContext context = new ReadingContext(tr);
+		context.changeBefore(3, () -> {
+			added.add(new DirectoryLayer().create(tr, Arrays.asList("a0", "late")).join());
+			added.add(partition.create(tr, Arrays.asList("late")).join());
+		});
+
+		DirectorySubspace found = directoryLayer.findDirectoryForKey(context, directories.get(0).pack("key")).join();
+		assertFound(directories.get(0), found);
+		Assertions.assertEquals(2, added.size());
+
+		// The index built before the change is not kept
+		int transactions = context.transactions;
+		for(DirectorySubspace directory : added) {
+			assertFound(directory, directoryLayer.findDirectoryForKey(context, directory.pack("key")).join());
+		}
+		Assertions.assertEquals(transactions + added.size(), context.transactions, "index was built again");
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * DirectoryListingTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.FakeFDBTransaction;
+import com.apple.foundationdb.async.AsyncIterator;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that listing a directory with {@link DirectoryLayer#listIterator} returns the same names
+ * as {@link DirectoryLayer#list}, in one transaction or in pages.
+ */
+class DirectoryListingTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static final int CHILDREN = 250;
+
+	private DirectoryLayer directoryLayer;
+	private FakeFDBTransaction tr;
+	private List<String> names;
+
+	@BeforeEach
+	void setup() {
+		directoryLayer = new DirectoryLayer();
+		tr = new FakeFDBTransaction(Collections.emptyMap(), 1L, null, Runnable::run);
+
+		List<List<String>> paths = new ArrayList<>();
+		for(int i = 0; i < CHILDREN; i++) {
+			paths.add(Arrays.asList("parent", "child" + i));
+			paths.add(Arrays.asList("partition", "child" + i));
+		}
+		paths.add(Arrays.asList("parent", "\u00e9t\u00e9"));
+		paths.add(Arrays.asList("parent", "a\u0000b"));
+		directoryLayer.createOrOpen(tr, Arrays.asList("partition"), DirectoryLayer.PARTITION_LAYER).join();
+		directoryLayer.createOrOpenAll(tr, paths, DirectoryLayer.EMPTY_BYTES).join();
+
+		names = directoryLayer.list(tr, Arrays.asList("parent")).join();
+		Assertions.assertEquals(CHILDREN + 2, names.size());
+	}
+
+	@Test
+	void listsInOneTransaction() {
+		Assertions.assertEquals(names, directoryLayer.listIterator(tr, Arrays.asList("parent"), null).asList().join());
+		Assertions.assertEquals(directoryLayer.list(tr, Arrays.asList("partition")).join(),
+				directoryLayer.listIterator(tr, Arrays.asList("partition"), null).asList().join());
+		Assertions.assertEquals(Collections.emptyList(),
+				directoryLayer.listIterator(tr, Arrays.asList("parent", "child0"), null).asList().join());
+	}
+
+	@Test
+	void listsInPages() {
+		int rangeCalls = tr.getNumRangeCalls();
+		List<String> listed = new ArrayList<>();
+		AsyncIterator<String> iterator = directoryLayer.listIterator(tr, Arrays.asList("parent"), null, 10).iterator();
+		while(iterator.hasNext()) {
+			listed.add(iterator.next());
+		}
+		Assertions.assertEquals(names, listed);
+		Assertions.assertTrue(tr.getNumRangeCalls() - rangeCalls >= names.size() / 10, "too few pages read");
+
+		Assertions.assertEquals(directoryLayer.list(tr, Arrays.asList("partition")).join(),
+				directoryLayer.listIterator(tr, Arrays.asList("partition"), null, 7).asList().join());
+	}
+
+	@Test
+	void resumesFromContinuation() {
+		for(int i : new int[] { 0, 1, 99, names.size() - 1 }) {
+			byte[] continuation = DirectoryLayer.listContinuation(names.get(i));
+			List<String> rest = names.subList(i + 1, names.size());
+			Assertions.assertEquals(rest, directoryLayer.listIterator(tr, Arrays.asList("parent"), continuation).asList().join());
+			Assertions.assertEquals(rest, directoryLayer.listIterator(tr, Arrays.asList("parent"), continuation, 16).asList().join());
+		}
+	}
+
+	@Test
+	void failsForMissingDirectory() {
+		CompletionException e = Assertions.assertThrows(CompletionException.class,
+				() -> directoryLayer.listIterator(tr, Arrays.asList("missing"), null).asList().join());
+		Assertions.assertTrue(e.getCause() instanceof NoSuchDirectoryException);
+		e = Assertions.assertThrows(CompletionException.class,
+				() -> directoryLayer.listIterator(tr, Arrays.asList("missing"), null, 10).asList().join());
+		Assertions.assertTrue(e.getCause() instanceof NoSuchDirectoryException);
+
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> directoryLayer.listIterator(tr, Arrays.asList("parent"), null, 0));
+	}
+}
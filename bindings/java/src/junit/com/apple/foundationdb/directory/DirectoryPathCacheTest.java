@@ -0,0 +1,99 @@
+/*
+ * DirectoryPathCacheTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a {@link DirectoryPathCache} only returns entries resolved at the metadata version being read.
+ */
+class DirectoryPathCacheTest {
+	private static final byte[] V1 = { 0x01 };
+	private static final byte[] V2 = { 0x02 };
+
+	private static DirectorySubspace directory(List<String> path, byte prefix) {
+		return new DirectorySubspace(path, new byte[] { prefix }, DirectoryLayer.getDefault(), DirectoryLayer.EMPTY_BYTES);
+	}
+
+	@Test
+	void returnsEntriesAtSameVersion() {
+		DirectoryPathCache cache = new DirectoryPathCache(10);
+		List<String> path = Arrays.asList("app", "users");
+		DirectorySubspace dir = directory(path, (byte)0x15);
+		cache.put(path, V1, DirectoryLayer.EMPTY_BYTES, dir);
+
+		DirectoryPathCache.CachedDirectory entry = cache.get(Arrays.asList("app", "users"), new byte[] { 0x01 });
+		Assertions.assertNotNull(entry);
+		Assertions.assertSame(dir, entry.subspace);
+		Assertions.assertNull(cache.get(Arrays.asList("app"), V1));
+	}
+
+	@Test
+	void removesEntriesAtOtherVersions() {
+		DirectoryPathCache cache = new DirectoryPathCache(10);
+		List<String> path = Arrays.asList("app");
+		cache.put(path, V1, DirectoryLayer.EMPTY_BYTES, directory(path, (byte)0x15));
+
+		Assertions.assertNull(cache.get(path, V2));
+		Assertions.assertEquals(0, cache.size());
+		Assertions.assertNull(cache.get(path, V1), "entry was not removed when found to be stale");
+	}
+
+	@Test
+	void nullVersionIsAVersion() {
+		DirectoryPathCache cache = new DirectoryPathCache(10);
+		List<String> path = Arrays.asList("app");
+		cache.put(path, null, DirectoryLayer.EMPTY_BYTES, directory(path, (byte)0x15));
+
+		Assertions.assertNull(cache.get(path, V1));
+		cache.put(path, null, DirectoryLayer.EMPTY_BYTES, directory(path, (byte)0x15));
+		Assertions.assertNotNull(cache.get(path, null));
+	}
+
+	@Test
+	void evictsLeastRecentlyUsed() {
+		DirectoryPathCache cache = new DirectoryPathCache(2);
+		List<String> a = Arrays.asList("a");
+		List<String> b = Arrays.asList("b");
+		List<String> c = Arrays.asList("c");
+		cache.put(a, V1, DirectoryLayer.EMPTY_BYTES, directory(a, (byte)0x15));
+		cache.put(b, V1, DirectoryLayer.EMPTY_BYTES, directory(b, (byte)0x16));
+		Assertions.assertNotNull(cache.get(a, V1));
+		cache.put(c, V1, DirectoryLayer.EMPTY_BYTES, directory(c, (byte)0x17));
+
+		Assertions.assertEquals(2, cache.size());
+		Assertions.assertNotNull(cache.get(a, V1));
+		Assertions.assertNull(cache.get(b, V1));
+		Assertions.assertNotNull(cache.get(c, V1));
+
+		cache.clear();
+		Assertions.assertEquals(0, cache.size());
+	}
+
+	@Test
+	void rejectsInvalidSize() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new DirectoryPathCache(0));
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * DirectoryRemovalTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.FakeFDBTransaction;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that removing a directory clears every subdirectory and all of their contents, whether it
+ * is removed in one transaction or incrementally.
+ */
+class DirectoryRemovalTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static final Subspace ROOT_NODE = DirectoryLayer.DEFAULT_NODE_SUBSPACE.get(DirectoryLayer.DEFAULT_NODE_SUBSPACE.getKey());
+	private static final Subspace ALLOCATOR = ROOT_NODE.get("hca".getBytes());
+
+	/**
+	 * Runs each operation directly in a single {@link FakeFDBTransaction}, counting them, and
+	 * failing every operation after a given number.
+	 */
+	private static class CountingContext implements TransactionContext {
+		private final FakeFDBTransaction tr;
+		private final int maxTransactions;
+		int transactions = 0;
+
+		CountingContext(FakeFDBTransaction tr, int maxTransactions) {
+			this.tr = tr;
+			this.maxTransactions = maxTransactions;
+		}
+
+		@Override
+		public <T> T run(Function<? super Transaction, T> retryable) {
+			return runAsync(t -> CompletableFuture.completedFuture(retryable.apply(t))).join();
+		}
+
+		@Override
+		public <T> CompletableFuture<T> runAsync(Function<? super Transaction, ? extends CompletableFuture<T>> retryable) {
+			if(++transactions > maxTransactions) {
+				CompletableFuture<T> future = new CompletableFuture<>();
+				future.completeExceptionally(new IllegalStateException("transaction limit reached"));
+				return future;
+			}
+			return tr.runAsync(retryable);
+		}
+
+		@Override
+		public <T> T read(Function<? super ReadTransaction, T> retryable) {
+			return tr.read(retryable);
+		}
+
+		@Override
+		public <T> CompletableFuture<T> readAsync(Function<? super ReadTransaction, ? extends CompletableFuture<T>> retryable) {
+			return tr.readAsync(retryable);
+		}
+
+		@Override
+		public Executor getExecutor() {
+			return tr.getExecutor();
+		}
+	}
+
+	private DirectoryLayer directoryLayer;
+	private FakeFDBTransaction tr;
+	private List<String> keysBefore;
+	private int directories;
+
+	@BeforeEach
+	void setup() {
+		directoryLayer = new DirectoryLayer();
+		tr = new FakeFDBTransaction(Collections.emptyMap(), 1L, null, Runnable::run);
+		DirectorySubspace keep = directoryLayer.createOrOpen(tr, Arrays.asList("keep", "child")).join();
+		tr.set(keep.pack("value"), new byte[] { 0x01 });
+		keysBefore = keys();
+
+		// A tree of 1 + 3 + 3 * 40 + 3 * 40 * 2 directories, each with a key in its contents
+		List<List<String>> paths = new ArrayList<>();
+		for(int i = 0; i < 3; i++) {
+			for(int j = 0; j < 40; j++) {
+				for(int k = 0; k < 2; k++) {
+					paths.add(Arrays.asList("drop", "a" + i, "b" + j, "c" + k));
+				}
+			}
+		}
+		directoryLayer.createOrOpenAll(tr, paths, DirectoryLayer.EMPTY_BYTES).join();
+		directories = 0;
+		addContents(Arrays.asList("drop"));
+		Assertions.assertEquals(1 + 3 + 3 * 40 + 3 * 40 * 2, directories);
+	}
+
+	private void addContents(List<String> path) {
+		tr.set(directoryLayer.open(tr, path).join().pack("value"), new byte[] { 0x01 });
+		directories++;
+		for(String child : directoryLayer.list(tr, path).join()) {
+			List<String> childPath = new ArrayList<>(path);
+			childPath.add(child);
+			addContents(childPath);
+		}
+	}
+
+	// Every key other than those of the prefix allocator and the metadata version, which change
+	// as directories are created and removed
+	private List<String> keys() {
+		List<String> keys = new ArrayList<>();
+		for(KeyValue kv : tr.getRange(new byte[0], new byte[] { (byte)0xff }).asList().join()) {
+			if(!ALLOCATOR.contains(kv.getKey()) && !Arrays.equals(kv.getKey(), ROOT_NODE.pack("metadataVersion".getBytes()))) {
+				keys.add(ByteArrayUtil.printable(kv.getKey()));
+			}
+		}
+		return keys;
+	}
+
+	@Test
+	void removeClearsEverything() {
+		directoryLayer.remove(tr, Arrays.asList("drop")).join();
+		Assertions.assertEquals(keysBefore, keys());
+		Assertions.assertFalse(directoryLayer.exists(tr, Arrays.asList("drop")).join());
+	}
+
+	@Test
+	void incrementalRemoveClearsEverything() {
+		CountingContext context = new CountingContext(tr, Integer.MAX_VALUE);
+		Assertions.assertTrue(directoryLayer.removeIfExistsIncrementally(context, Arrays.asList("drop"), 10).join());
+		Assertions.assertEquals(keysBefore, keys());
+		Assertions.assertTrue(context.transactions > directories / 10, "too few transactions: " + context.transactions);
+
+		Assertions.assertFalse(directoryLayer.removeIfExistsIncrementally(context, Arrays.asList("drop"), 10).join());
+	}
+
+	@Test
+	void incrementalRemoveResumes() {
+		CountingContext failing = new CountingContext(tr, 5);
+		CompletionException e = Assertions.assertThrows(CompletionException.class,
+				() -> directoryLayer.removeIfExistsIncrementally(failing, Arrays.asList("drop"), 10).join());
+		Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+		Assertions.assertFalse(directoryLayer.exists(tr, Arrays.asList("drop")).join());
+		Assertions.assertNotEquals(keysBefore, keys());
+
+		directoryLayer.finishPendingRemovals(new CountingContext(tr, Integer.MAX_VALUE), 10).join();
+		Assertions.assertEquals(keysBefore, keys());
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * PrefixAllocationTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.FakeFDBTransaction;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that the prefixes allocated for new directories are unique, both when directories are created
+ * concurrently in one transaction and when they are created in bulk.
+ */
+class PrefixAllocationTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static FakeFDBTransaction newTransaction() {
+		return new FakeFDBTransaction(Collections.emptyMap(), 1L, null, Runnable::run);
+	}
+
+	private static void assertUnique(List<DirectorySubspace> directories) {
+		Set<String> prefixes = new HashSet<>();
+		for(DirectorySubspace directory : directories) {
+			Assertions.assertTrue(prefixes.add(ByteArrayUtil.printable(directory.getKey())),
+			                      "prefix allocated twice: " + ByteArrayUtil.printable(directory.getKey()));
+		}
+	}
+
+	@Test
+	void concurrentCreationInOneTransaction() throws Exception {
+		final DirectoryLayer directoryLayer = new DirectoryLayer();
+		final FakeFDBTransaction tr = newTransaction();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<DirectorySubspace>>> futures = new ArrayList<>();
+			for(int t = 0; t < 4; t++) {
+				final String thread = "thread" + t;
+				futures.add(executor.submit(() -> {
+					List<DirectorySubspace> created = new ArrayList<>();
+					for(int i = 0; i < 200; i++) {
+						created.add(directoryLayer.createOrOpen(tr, Arrays.asList(thread, "dir" + i)).join());
+					}
+					return created;
+				}));
+			}
+
+			List<DirectorySubspace> directories = new ArrayList<>();
+			for(Future<List<DirectorySubspace>> future : futures) {
+				directories.addAll(future.get());
+			}
+			assertUnique(directories);
+			for(DirectorySubspace directory : directories) {
+				Assertions.assertArrayEquals(directory.getKey(), directoryLayer.open(tr, directory.getPath()).join().getKey());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void bulkCreation() {
+		DirectoryLayer directoryLayer = new DirectoryLayer();
+		FakeFDBTransaction tr = newTransaction();
+		directoryLayer.createOrOpen(tr, Arrays.asList("tenant0", "users")).join();
+
+		List<List<String>> paths = new ArrayList<>();
+		for(int i = 0; i < 500; i++) {
+			paths.add(Arrays.asList("tenant" + (i / 2), i % 2 == 0 ? "users" : "orders"));
+		}
+		Map<List<String>, DirectorySubspace> created = directoryLayer.createOrOpenAll(tr, paths, DirectoryLayer.EMPTY_BYTES).join();
+		Assertions.assertEquals(paths, new ArrayList<>(created.keySet()));
+
+		List<DirectorySubspace> directories = new ArrayList<>(created.values());
+		for(int i = 0; i < 250; i++) {
+			directories.add(directoryLayer.open(tr, Arrays.asList("tenant" + i)).join());
+		}
+		assertUnique(directories);
+		for(List<String> path : paths) {
+			Assertions.assertArrayEquals(created.get(path).getKey(), directoryLayer.open(tr, path).join().getKey());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * KeyBuilderTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleReader;
+import com.apple.foundationdb.tuple.Versionstamp;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that keys built with a {@link KeyBuilder} match the keys packed by its {@link Subspace}.
+ */
+class KeyBuilderTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static final Subspace SUBSPACE = new Subspace(Tuple.from("app", 7L), new byte[] { 0x15, 0x00, (byte)0xff });
+
+	@Test
+	void buildMatchesPack() {
+		UUID uuid = new UUID(1066L, -1L);
+		BigInteger big = BigInteger.ONE.shiftLeft(70);
+		Tuple nested = Tuple.from("nested", null);
+		Tuple expected = Tuple.from(null, -42L, "user\0id", new byte[] { 0x00, 0x01 }, true, 1.5f, -2.5, uuid, big,
+		                            nested, Arrays.asList(1L, 2L), "obj");
+		byte[] actual = SUBSPACE.keyBuilder()
+		                        .addNull().add(-42L).add("user\0id").add(new byte[] { 0x00, 0x01 }).add(true)
+		                        .add(1.5f).add(-2.5).add(uuid).add(big).add(nested).add(Arrays.asList(1L, 2L))
+		                        .addObject("obj")
+		                        .build();
+		Assertions.assertArrayEquals(SUBSPACE.pack(expected), actual);
+		Assertions.assertArrayEquals(SUBSPACE.pack(Tuple.from("a", "b")),
+		                             SUBSPACE.keyBuilder().addAll(Tuple.from("a", "b")).build());
+		Assertions.assertArrayEquals(SUBSPACE.pack(Tuple.from(new byte[] { 0x02, 0x03 })),
+		                             SUBSPACE.keyBuilder().add(new byte[] { 0x01, 0x02, 0x03, 0x04 }, 1, 2).build());
+	}
+
+	@Test
+	void resetKeepsPrefix() {
+		KeyBuilder builder = SUBSPACE.keyBuilder();
+		Assertions.assertArrayEquals(SUBSPACE.getKey(), builder.build());
+		Assertions.assertEquals(SUBSPACE.getKey().length, builder.size());
+
+		// Grow well past the initial capacity before resetting
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < 100; i++) {
+			sb.append(i);
+		}
+		builder.add(sb.toString());
+		Assertions.assertArrayEquals(SUBSPACE.pack(Tuple.from(sb.toString())), builder.build());
+
+		for(long i = 0; i < 3; i++) {
+			Assertions.assertArrayEquals(SUBSPACE.pack(Tuple.from(i, "x")), builder.reset().add(i).add("x").build());
+		}
+	}
+
+	@Test
+	void buildIntoBuffer() {
+		byte[] expected = SUBSPACE.pack(Tuple.from("user", 10L));
+		KeyBuilder builder = SUBSPACE.keyBuilder().add("user").add(10L);
+		for(ByteBuffer dest : Arrays.asList(ByteBuffer.allocate(expected.length + 3), ByteBuffer.allocateDirect(expected.length + 3))) {
+			dest.put((byte)0x7f);
+			builder.buildInto(dest);
+			Assertions.assertEquals(expected.length + 1, dest.position());
+			byte[] written = new byte[expected.length];
+			dest.position(1);
+			dest.get(written);
+			Assertions.assertArrayEquals(expected, written);
+		}
+	}
+
+	@Test
+	void buildWithVersionstamp() {
+		Tuple t = Tuple.from("log", Versionstamp.incomplete(3));
+		byte[] actual = SUBSPACE.keyBuilder().add("log").add(Versionstamp.incomplete(3)).buildWithVersionstamp();
+		Assertions.assertArrayEquals(SUBSPACE.packWithVersionstamp(t), actual);
+		Assertions.assertThrows(IllegalArgumentException.class,
+		                        () -> SUBSPACE.keyBuilder().add(Versionstamp.incomplete(3)).build());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> SUBSPACE.keyBuilder().add(1L).buildWithVersionstamp());
+	}
+
+	@Test
+	void unpackAfterPrefix() {
+		Tuple t = Tuple.from("user", 10L, new byte[] { 0x00 }, Tuple.from("n"));
+		byte[] key = SUBSPACE.pack(t);
+		Assertions.assertEquals(t, SUBSPACE.unpack(key));
+		Assertions.assertArrayEquals(t.pack(), SUBSPACE.unpack(key).pack());
+
+		TupleReader reader = SUBSPACE.unpackReader(key);
+		Assertions.assertEquals("user", reader.readString());
+		Assertions.assertEquals(10L, reader.readLong());
+		reader.skip(2);
+		Assertions.assertFalse(reader.hasNext());
+
+		byte[] outside = Tuple.from("other").pack();
+		Assertions.assertThrows(IllegalArgumentException.class, () -> SUBSPACE.unpack(outside));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> SUBSPACE.unpackReader(outside));
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * SubspaceRouterTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that a {@link SubspaceRouter} routes each key to the value of the longest registered prefix of
+ * the key.
+ */
+class SubspaceRouterTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	@Test
+	void routesToLongestPrefix() {
+		Subspace app = new Subspace(Tuple.from("app"));
+		Subspace users = app.get("users");
+		Subspace admins = users.get("admins");
+		Subspace other = new Subspace(new byte[] { (byte)0xff, 0x00 });
+
+		SubspaceRouter<String> router = new SubspaceRouter<>();
+		Assertions.assertNull(router.route(app.pack("key")));
+		Assertions.assertNull(router.put(app, "app"));
+		Assertions.assertNull(router.put(admins, "admins"));
+		Assertions.assertNull(router.put(other, "other"));
+		Assertions.assertEquals(3, router.size());
+
+		Assertions.assertEquals("app", router.route(app.pack("key")));
+		Assertions.assertEquals("app", router.route(app.getKey()));
+		Assertions.assertEquals("app", router.route(users.pack("bob")));
+		Assertions.assertEquals("admins", router.route(admins.pack("alice")));
+		Assertions.assertEquals("other", router.route(other.pack(1L)));
+		Assertions.assertNull(router.route(new byte[] { (byte)0xff }));
+		Assertions.assertNull(router.route(new byte[0]));
+
+		byte[] framed = ByteArrayUtil.join(new byte[] { 0x01, 0x02 }, admins.pack("alice"), new byte[] { 0x03 });
+		Assertions.assertEquals("admins", router.route(framed, 2, framed.length - 3));
+		Assertions.assertEquals("app", router.route(framed, 2, users.getKey().length));
+
+		Assertions.assertNull(router.put(users, "users"));
+		Assertions.assertEquals("users", router.route(users.pack("bob")));
+		Assertions.assertEquals("users", router.put(users, "users2"));
+		Assertions.assertEquals("users2", router.get(users));
+		Assertions.assertNull(router.get(users.get("bob")));
+		Assertions.assertEquals(4, router.size());
+
+		Assertions.assertEquals("users2", router.remove(users));
+		Assertions.assertNull(router.remove(users));
+		Assertions.assertEquals("app", router.route(users.pack("bob")));
+		Assertions.assertEquals("admins", router.route(admins.pack("alice")));
+		Assertions.assertEquals("admins", router.remove(admins));
+		Assertions.assertEquals("app", router.route(admins.pack("alice")));
+		Assertions.assertEquals(2, router.size());
+
+		// The empty prefix contains every key
+		router.put(new Subspace(), "root");
+		Assertions.assertEquals("root", router.route(new byte[] { 0x7f }));
+		Assertions.assertEquals("root", router.route(new byte[0]));
+		Assertions.assertEquals("app", router.route(app.pack("key")));
+
+		router.clear();
+		Assertions.assertEquals(0, router.size());
+		Assertions.assertNull(router.route(app.pack("key")));
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> router.put(app, null));
+	}
+
+	private static String routeLinear(List<byte[]> prefixes, byte[] key) {
+		byte[] longest = null;
+		for(byte[] prefix : prefixes) {
+			if(ByteArrayUtil.startsWith(key, prefix) && (longest == null || prefix.length > longest.length)) {
+				longest = prefix;
+			}
+		}
+		return longest == null ? null : ByteArrayUtil.printable(longest);
+	}
+
+	@Test
+	void matchesLinearSearch() {
+		Random random = new Random(0x5eed);
+		SubspaceRouter<String> router = new SubspaceRouter<>();
+		List<byte[]> prefixes = new ArrayList<>();
+		for(int i = 0; i < 2000; i++) {
+			// Short prefixes over a small alphabet, so that many are nested within others
+			byte[] prefix = new byte[random.nextInt(4) + 1];
+			for(int j = 0; j < prefix.length; j++) {
+				prefix[j] = (byte)(random.nextInt(6) * 51);
+			}
+			if(random.nextInt(4) == 0 && !prefixes.isEmpty()) {
+				byte[] removed = prefixes.remove(random.nextInt(prefixes.size()));
+				Assertions.assertEquals(ByteArrayUtil.printable(removed), router.remove(removed));
+			}
+			else if(router.get(prefix) == null) {
+				prefixes.add(prefix);
+				router.put(prefix, ByteArrayUtil.printable(prefix));
+			}
+			Assertions.assertEquals(prefixes.size(), router.size());
+
+			byte[] key = new byte[random.nextInt(6)];
+			for(int j = 0; j < key.length; j++) {
+				key[j] = (byte)(random.nextInt(6) * 51);
+			}
+			Assertions.assertEquals(routeLinear(prefixes, key), router.route(key));
+		}
+	}
+
+	@Test
+	void routesDuringUpdates() throws Exception {
+		SubspaceRouter<String> router = new SubspaceRouter<>();
+		Subspace fixed = new Subspace(Tuple.from("fixed"));
+		router.put(fixed, "fixed");
+
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicReference<String> error = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			byte[] key = fixed.pack("key");
+			while(!done.get()) {
+				if(!"fixed".equals(router.route(key))) {
+					error.set(router.route(key));
+				}
+			}
+		});
+		reader.start();
+		try {
+			for(int i = 0; i < 10000; i++) {
+				Subspace s = new Subspace(Tuple.from("changing", i % 100));
+				if(router.get(s) == null) {
+					router.put(s, "changing");
+				}
+				else {
+					router.remove(s);
+				}
+			}
+		}
+		finally {
+			done.set(true);
+			reader.join();
+		}
+		Assertions.assertNull(error.get());
+		Assertions.assertEquals(1, router.size());
+	}
+}
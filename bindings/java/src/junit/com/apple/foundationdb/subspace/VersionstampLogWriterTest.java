@@ -0,0 +1,126 @@
+/*
+ * VersionstampLogWriterTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.FakeFDBTransaction;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.Versionstamp;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that {@link VersionstampLogWriter} writes the same keys as packing each entry with
+ * {@link Subspace#packWithVersionstamp(Tuple)}.
+ */
+class VersionstampLogWriterTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static final byte[] TR_VERSION = new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 };
+
+	private static class RecordingTransaction extends FakeFDBTransaction {
+		final List<KeyValue> versionstampedKeys = new ArrayList<>();
+		final CompletableFuture<byte[]> versionstamp = new CompletableFuture<>();
+		int versionstampRequests = 0;
+
+		RecordingTransaction() {
+			super(Collections.emptyMap(), 1L, null, Runnable::run);
+		}
+
+		@Override
+		public void mutate(MutationType optype, byte[] key, byte[] value) {
+			Assertions.assertEquals(MutationType.SET_VERSIONSTAMPED_KEY, optype);
+			versionstampedKeys.add(new KeyValue(key, value));
+		}
+
+		@Override
+		public CompletableFuture<byte[]> getVersionstamp() {
+			versionstampRequests++;
+			return versionstamp;
+		}
+	}
+
+	@Test
+	void appendMatchesPackWithVersionstamp() {
+		Subspace subspace = new Subspace(Tuple.from("log", 3L));
+		Tuple template = Tuple.from("events", Versionstamp.incomplete(500), "suffix");
+		RecordingTransaction tr = new RecordingTransaction();
+		VersionstampLogWriter log = new VersionstampLogWriter(tr, subspace, template, 10);
+
+		for(int i = 0; i < 300; i++) {
+			Assertions.assertEquals(10 + i, log.append(new byte[] { (byte)i }));
+		}
+		Assertions.assertEquals(300, log.size());
+		Assertions.assertEquals(1, tr.versionstampRequests);
+
+		for(int i = 0; i < 300; i++) {
+			Tuple expected = Tuple.from("events", Versionstamp.incomplete(10 + i), "suffix");
+			KeyValue kv = tr.versionstampedKeys.get(i);
+			Assertions.assertArrayEquals(subspace.packWithVersionstamp(expected), kv.getKey(), "Mismatched key at " + i);
+			Assertions.assertArrayEquals(new byte[] { (byte)i }, kv.getValue());
+		}
+	}
+
+	@Test
+	void resolvesVersionstampsAfterCommit() {
+		RecordingTransaction tr = new RecordingTransaction();
+		VersionstampLogWriter log = new VersionstampLogWriter(tr, new Subspace(), Tuple.from(Versionstamp.incomplete()));
+		Assertions.assertTrue(log.getVersionstamps().join().isEmpty());
+		Assertions.assertEquals(0, tr.versionstampRequests);
+
+		log.append(new byte[0]);
+		log.append(new byte[0]);
+		CompletableFuture<List<Versionstamp>> versionstamps = log.getVersionstamps();
+		log.append(new byte[0]);
+		Assertions.assertFalse(versionstamps.isDone());
+
+		tr.versionstamp.complete(TR_VERSION);
+		List<Versionstamp> resolved = versionstamps.join();
+		Assertions.assertEquals(2, resolved.size());
+		for(int i = 0; i < resolved.size(); i++) {
+			Assertions.assertEquals(Versionstamp.complete(TR_VERSION, i), resolved.get(i));
+		}
+		Assertions.assertEquals(3, log.getVersionstamps().join().size());
+	}
+
+	@Test
+	void userVersionsAreBounded() {
+		RecordingTransaction tr = new RecordingTransaction();
+		Tuple template = Tuple.from(Versionstamp.incomplete());
+		VersionstampLogWriter log = new VersionstampLogWriter(tr, new Subspace(), template, VersionstampLogWriter.MAX_USER_VERSION);
+		Assertions.assertEquals(VersionstampLogWriter.MAX_USER_VERSION, log.append(new byte[0]));
+		Assertions.assertThrows(IllegalStateException.class, () -> log.append(new byte[0]));
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new VersionstampLogWriter(tr, new Subspace(), template, -1));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new VersionstampLogWriter(tr, new Subspace(), Tuple.from("complete")));
+		Assertions.assertThrows(IllegalArgumentException.class,
+		                        () -> new VersionstampLogWriter(tr, new Subspace(), Tuple.from(Versionstamp.incomplete(), Versionstamp.incomplete())));
+	}
+}
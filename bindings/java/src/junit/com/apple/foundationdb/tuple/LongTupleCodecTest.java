@@ -0,0 +1,117 @@
+/*
+ * LongTupleCodecTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.subspace.Subspace;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests that {@link LongTupleCodec} packs integers exactly as a one-element {@link Tuple} would.
+ */
+class LongTupleCodecTest {
+	private static final byte[] PREFIX = new byte[] { 0x15, 0x07, 0x00 };
+
+	static Stream<Long> values() {
+		List<Long> values = new ArrayList<>();
+		for(int shift = 0; shift < Long.SIZE; shift++) {
+			long l = 1L << shift;
+			values.add(l);
+			values.add(l - 1);
+			values.add(l + 1);
+			values.add(-l);
+			values.add(-l - 1);
+			values.add(-l + 1);
+		}
+		values.add(Long.MAX_VALUE);
+		values.add(Long.MIN_VALUE + 1);
+		Random r = new Random(0x5eed);
+		for(int i = 0; i < 100; i++) {
+			values.add(r.nextLong() >> r.nextInt(Long.SIZE));
+		}
+		return values.stream();
+	}
+
+	@ParameterizedTest
+	@MethodSource("values")
+	void packMatchesTuple(long value) {
+		byte[] expected = Tuple.from(value).pack(PREFIX);
+		Assertions.assertArrayEquals(expected, LongTupleCodec.pack(PREFIX, value));
+		Assertions.assertArrayEquals(Tuple.from(value).pack(), LongTupleCodec.pack(null, value));
+		Assertions.assertEquals(Tuple.from(value).getPackedSize(), LongTupleCodec.packedSize(value));
+		Assertions.assertEquals(value, LongTupleCodec.unpack(expected, PREFIX.length, expected.length - PREFIX.length));
+
+		Subspace subspace = new Subspace(PREFIX);
+		Assertions.assertArrayEquals(expected, subspace.packLong(value));
+		Assertions.assertEquals(value, subspace.unpackLong(expected));
+
+		byte[] dest = new byte[1 + LongTupleCodec.packedSize(value) + 1];
+		Assertions.assertEquals(dest.length - 1, LongTupleCodec.packInto(dest, 1, value));
+		Assertions.assertEquals(value, LongTupleCodec.unpack(dest, 1, dest.length - 2));
+	}
+
+	@Test
+	void rangeCoversHalfOpenInterval() {
+		Subspace subspace = new Subspace(PREFIX);
+		Range range = subspace.longRange(-300L, 70000L);
+		Assertions.assertArrayEquals(subspace.pack(Tuple.from(-300L)), range.begin);
+		Assertions.assertArrayEquals(subspace.pack(Tuple.from(70000L)), range.end);
+		for(long l : new long[] { Long.MIN_VALUE + 1, -301L, -300L, -1L, 0L, 1L, 255L, 256L, 69999L, 70000L, Long.MAX_VALUE }) {
+			boolean inside = l >= -300L && l < 70000L;
+			for(byte[] key : new byte[][] { subspace.packLong(l), subspace.pack(Tuple.from(l, "child")) }) {
+				boolean contained = ByteArrayUtil.compareUnsigned(range.begin, key) <= 0 && ByteArrayUtil.compareUnsigned(key, range.end) < 0;
+				Assertions.assertEquals(inside, contained, "Wrong containment for " + l);
+			}
+		}
+		Range empty = LongTupleCodec.range(null, 5L, 5L);
+		Assertions.assertArrayEquals(empty.begin, empty.end);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> subspace.longRange(1L, 0L));
+	}
+
+	@Test
+	void unpackRejectsOtherTuples() {
+		Subspace subspace = new Subspace(PREFIX);
+		List<byte[]> invalid = new ArrayList<>();
+		invalid.add(subspace.pack(Tuple.from("string")));
+		invalid.add(subspace.pack(Tuple.from(1L, 2L)));
+		invalid.add(subspace.pack(new Tuple()));
+		invalid.add(subspace.pack(Tuple.from(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE))));
+		invalid.add(subspace.pack(Tuple.from(BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE))));
+		byte[] truncated = subspace.packLong(1066L);
+		invalid.add(Arrays.copyOf(truncated, truncated.length - 1));
+		for(byte[] key : invalid) {
+			Assertions.assertThrows(IllegalArgumentException.class, () -> subspace.unpackLong(key), ByteArrayUtil.printable(key));
+		}
+		Assertions.assertThrows(IllegalArgumentException.class, () -> subspace.unpackLong(Tuple.from(1L).pack()));
+		Assertions.assertThrows(ArrayIndexOutOfBoundsException.class, () -> LongTupleCodec.packInto(new byte[2], 0, 1066L));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * NullEscapingTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb.tuple;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the word-at-a-time null scanner in {@link NullEscaping} agrees with the
+ * byte-by-byte one, and that escaping matches {@link ByteArrayUtil#replace(byte[], byte[], byte[])}.
+ */
+class NullEscapingTest {
+	private static final byte[] NULL = new byte[] { 0x00 };
+	private static final byte[] NULL_ESCAPED = new byte[] { 0x00, (byte)0xff };
+
+	@Test
+	void scannersAgree() {
+		NullEscaping.Scanner java = NullEscaping.scannerJavaImpl();
+		NullEscaping.Scanner unsafe = NullEscaping.scannerUnsafeImpl();
+		Random r = new Random(0x5ca9);
+		for(int i = 0; i < 10_000; i++) {
+			byte[] bytes = randomBytes(r, r.nextInt(40));
+			// Every region, so that every alignment and every length around the word size is covered
+			for(int from = 0; from <= bytes.length; from++) {
+				for(int to = from; to <= bytes.length; to += 1 + r.nextInt(3)) {
+					Assertions.assertEquals(java.indexOfNull(bytes, from, to), unsafe.indexOfNull(bytes, from, to),
+					                        "indexOfNull of " + ByteArrayUtil.printable(bytes) + " in [" + from + ", " + to + ")");
+					Assertions.assertEquals(java.countNulls(bytes, from, to), unsafe.countNulls(bytes, from, to),
+					                        "countNulls of " + ByteArrayUtil.printable(bytes) + " in [" + from + ", " + to + ")");
+				}
+			}
+		}
+	}
+
+	@Test
+	void everyBytePosition() {
+		NullEscaping.Scanner unsafe = NullEscaping.scannerUnsafeImpl();
+		// A single null in a word of 0x01 or 0x80 bytes, which are the values most likely to confuse the bit tricks
+		for(byte fill : new byte[] { 0x01, (byte)0x80, (byte)0xff, 0x7f }) {
+			for(int length = 0; length <= 24; length++) {
+				for(int at = 0; at < length; at++) {
+					byte[] bytes = new byte[length];
+					Arrays.fill(bytes, fill);
+					bytes[at] = 0x00;
+					Assertions.assertEquals(at, unsafe.indexOfNull(bytes, 0, length));
+					Assertions.assertEquals(1, unsafe.countNulls(bytes, 0, length));
+					Assertions.assertEquals(length, unsafe.indexOfNull(bytes, at + 1, length));
+				}
+			}
+		}
+	}
+
+	@Test
+	void escapeAndUnescapeRoundTrip() {
+		Random r = new Random(0xe5c);
+		for(int i = 0; i < 10_000; i++) {
+			byte[] bytes = randomBytes(r, r.nextInt(100));
+			int offset = bytes.length == 0 ? 0 : r.nextInt(bytes.length);
+			int length = bytes.length - offset == 0 ? 0 : r.nextInt(bytes.length - offset);
+			byte[] expected = ByteArrayUtil.replace(bytes, offset, length, NULL, NULL_ESCAPED);
+			Assertions.assertEquals(expected.length - length, NullEscaping.countNulls(bytes, offset, offset + length));
+
+			ByteBuffer dest = ByteBuffer.allocate(expected.length + 1);
+			dest.put((byte)0x42);
+			Assertions.assertEquals(expected.length, NullEscaping.escape(bytes, offset, length, dest));
+			Assertions.assertArrayEquals(expected, Arrays.copyOfRange(dest.array(), 1, dest.position()));
+
+			byte[] unescaped = new byte[length + 1];
+			Assertions.assertEquals(unescaped.length, NullEscaping.unescape(dest.array(), 1, dest.position(), unescaped, 1));
+			Assertions.assertArrayEquals(Arrays.copyOfRange(bytes, offset, offset + length), Arrays.copyOfRange(unescaped, 1, unescaped.length));
+		}
+	}
+
+	@Test
+	void invalidRangesAreRejected() {
+		byte[] bytes = new byte[16];
+		Assertions.assertThrows(ArrayIndexOutOfBoundsException.class, () -> NullEscaping.indexOfNull(bytes, -1, 8));
+		Assertions.assertThrows(ArrayIndexOutOfBoundsException.class, () -> NullEscaping.indexOfNull(bytes, 9, 17));
+		Assertions.assertThrows(ArrayIndexOutOfBoundsException.class, () -> NullEscaping.countNulls(bytes, 8, 7));
+		Assertions.assertThrows(ArrayIndexOutOfBoundsException.class, () -> NullEscaping.escape(bytes, 10, 7, ByteBuffer.allocate(32)));
+	}
+
+	// Random bytes with a varying density of nulls, from none at all to mostly nulls
+	private static byte[] randomBytes(Random r, int length) {
+		byte[] bytes = new byte[length];
+		r.nextBytes(bytes);
+		int density = r.nextInt(5);
+		for(int i = 0; i < length; i++) {
+			if(density == 0 ? bytes[i] == 0x00 : r.nextInt(16) < density * density) {
+				bytes[i] = (byte)(density == 0 ? 0x01 : 0x00);
+			}
+		}
+		return bytes;
+	}
+}
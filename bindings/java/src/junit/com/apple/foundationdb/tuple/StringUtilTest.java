@@ -0,0 +1,214 @@
+/*
+ * StringUtilTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb.tuple;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Fuzz tests comparing the single-pass string encoder and decoder in {@link StringUtil} against the
+ * JDK's UTF-8 codec, which is what the tuple layer used before.
+ */
+class StringUtilTest {
+	private static final int ITERATIONS = 20_000;
+
+	// Characters from each UTF-8 length class, plus the edges that need special handling
+	private static final char[] INTERESTING_CHARS = {
+		'\0', 'a', '~', '\u007f', '\u0080', '\u00e9', '\u00ff', '\u07ff', '\u0800', '\u4e2d', '\ud7ff',
+		'\ue000', '\ufb14', '\ufffd', '\uffff', '\ud800', '\udbff', '\udc00', '\udfff'
+	};
+
+	// Bytes from each UTF-8 class, including ones that never appear in well-formed UTF-8
+	private static final byte[] INTERESTING_BYTES = {
+		0x00, 0x01, 0x41, 0x7f, (byte)0x80, (byte)0x8f, (byte)0x90, (byte)0x9f, (byte)0xa0, (byte)0xbf,
+		(byte)0xc0, (byte)0xc1, (byte)0xc2, (byte)0xdf, (byte)0xe0, (byte)0xed, (byte)0xef, (byte)0xf0,
+		(byte)0xf4, (byte)0xf5, (byte)0xf8, (byte)0xfe, (byte)0xff
+	};
+
+	@Test
+	void encodeMatchesJdk() {
+		Random r = new Random(0x5eed);
+		for(int i = 0; i < ITERATIONS; i++) {
+			String s = randomString(r);
+			byte[] expected;
+			try {
+				expected = referenceEncode(s);
+			}
+			catch(IllegalArgumentException e) {
+				ByteBuffer dest = ByteBuffer.allocate(3 * s.length() + 1);
+				dest.put((byte)0x42);
+				Assertions.assertThrows(IllegalArgumentException.class, () -> StringUtil.encodeEscaped(s, dest),
+				                        "Accepted malformed string " + Arrays.toString(s.toCharArray()));
+				Assertions.assertEquals(1, dest.position(), "Malformed string was partly written");
+				continue;
+			}
+			Assertions.assertEquals(expected.length, StringUtil.packedSize(s));
+
+			// Exactly sized heap buffer, which needs the exact size check
+			ByteBuffer exact = ByteBuffer.allocate(expected.length);
+			StringUtil.encodeEscaped(s, exact);
+			Assertions.assertArrayEquals(expected, exact.array(), "Mismatched encoding of " + Arrays.toString(s.toCharArray()));
+
+			// Direct buffers have no backing array
+			ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+			StringUtil.encodeEscaped(s, direct);
+			Assertions.assertEquals(expected.length, direct.position());
+		}
+	}
+
+	@Test
+	void decodeMatchesJdk() {
+		Random r = new Random(0xdec0de);
+		for(int i = 0; i < ITERATIONS; i++) {
+			byte[] element = i % 2 == 0 ? randomBytes(r) : referenceEncode(randomValidString(r));
+			int nullCount = 0;
+			for(int j = 0; j < element.length; j += (element[j] == 0x00) ? 2 : 1) {
+				if(element[j] == 0x00) {
+					nullCount++;
+				}
+			}
+			// Decode from the middle of a larger array, as from a packed tuple
+			byte[] packed = new byte[element.length + 2];
+			packed[0] = TupleUtil.STRING_CODE;
+			System.arraycopy(element, 0, packed, 1, element.length);
+
+			String expected;
+			try {
+				expected = referenceDecode(packed, 1, element.length + 1, nullCount);
+			}
+			catch(IllegalArgumentException e) {
+				int count = nullCount;
+				Assertions.assertThrows(IllegalArgumentException.class, () -> StringUtil.decodeEscaped(packed, 1, element.length + 1, count),
+				                        "Accepted malformed UTF-8 " + ByteArrayUtil.printable(element));
+				continue;
+			}
+			Assertions.assertEquals(expected, StringUtil.decodeEscaped(packed, 1, element.length + 1, nullCount),
+			                        "Mismatched decoding of " + ByteArrayUtil.printable(element));
+		}
+	}
+
+	@Test
+	void roundTripsThroughTuple() {
+		Random r = new Random(0x7e57);
+		for(int i = 0; i < ITERATIONS / 10; i++) {
+			String s = randomValidString(r);
+			Tuple t = Tuple.from(s, 1L, s);
+			byte[] packed = t.pack();
+			Assertions.assertEquals(t, Tuple.fromBytes(packed));
+			Assertions.assertEquals(s, Tuple.fromBytes(packed).getString(2));
+		}
+	}
+
+	@Test
+	void encodeOverflowsSmallBuffer() {
+		ByteBuffer dest = ByteBuffer.allocate(4);
+		Assertions.assertThrows(BufferOverflowException.class, () -> StringUtil.encodeEscaped("\u4e2d\u4e2d", dest));
+		Assertions.assertEquals(0, dest.position());
+		StringUtil.encodeEscaped("abcd", dest);
+		Assertions.assertEquals(4, dest.position());
+	}
+
+	private static String randomString(Random r) {
+		int length = r.nextInt(24);
+		StringBuilder sb = new StringBuilder(length);
+		for(int i = 0; i < length; i++) {
+			switch(r.nextInt(4)) {
+				case 0:
+					sb.append((char)(0x20 + r.nextInt(0x5f)));
+					break;
+				case 1:
+					sb.append(INTERESTING_CHARS[r.nextInt(INTERESTING_CHARS.length)]);
+					break;
+				case 2:
+					sb.appendCodePoint(Character.MIN_SUPPLEMENTARY_CODE_POINT + r.nextInt(Character.MAX_CODE_POINT - Character.MIN_SUPPLEMENTARY_CODE_POINT + 1));
+					break;
+				default:
+					sb.append((char)r.nextInt(Character.MAX_VALUE + 1));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String randomValidString(Random r) {
+		while(true) {
+			String s = randomString(r);
+			try {
+				referenceEncode(s);
+				return s;
+			}
+			catch(IllegalArgumentException e) {
+				// try again
+			}
+		}
+	}
+
+	// Random bytes as they could appear inside a string element, with every null escaped
+	private static byte[] randomBytes(Random r) {
+		int length = r.nextInt(16);
+		ByteBuffer buffer = ByteBuffer.allocate(2 * length);
+		for(int i = 0; i < length; i++) {
+			byte b = r.nextBoolean() ? INTERESTING_BYTES[r.nextInt(INTERESTING_BYTES.length)] : (byte)r.nextInt(256);
+			buffer.put(b);
+			if(b == 0x00) {
+				buffer.put((byte)0xff);
+			}
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	// The encoding used before the single-pass encoder: validate, encode with the JDK, and then escape nulls
+	private static byte[] referenceEncode(String s) {
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(Character.isHighSurrogate(c)) {
+				if(i + 1 >= s.length() || !Character.isLowSurrogate(s.charAt(i + 1))) {
+					throw new IllegalArgumentException("high surrogate without low surrogate");
+				}
+				i++;
+			}
+			else if(Character.isLowSurrogate(c)) {
+				throw new IllegalArgumentException("low surrogate without high surrogate");
+			}
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		return ByteArrayUtil.replace(bytes, new byte[] { 0x00 }, new byte[] { 0x00, (byte)0xff });
+	}
+
+	// The decoding used before the single-pass decoder: unescape nulls, and then decode with the JDK
+	private static String referenceDecode(byte[] bytes, int start, int end, int nullCount) {
+		ByteBuffer unescaped = ByteBuffer.allocate(end - start - nullCount);
+		ByteArrayUtil.replace(bytes, start, end - start, new byte[] { 0x00, (byte)0xff }, new byte[] { 0x00 }, unescaped);
+		unescaped.flip();
+		try {
+			return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).decode(unescaped).toString();
+		}
+		catch(CharacterCodingException e) {
+			throw new IllegalArgumentException("malformed UTF-8 string", e);
+		}
+	}
+}
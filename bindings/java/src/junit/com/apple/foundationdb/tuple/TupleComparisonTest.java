@@ -22,11 +22,14 @@ package com.apple.foundationdb.tuple;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -107,4 +110,67 @@ class TupleComparisonTest {
 		int implicitByteComparison = l.compareTo(r);
 		Assertions.assertEquals(Integer.signum(semanticComparison), Integer.signum(implicitByteComparison), errorMsg);
 	}
+
+	@ParameterizedTest
+	@MethodSource("cartesianProvider")
+	void testEqualsAndHashCodeMatchPackedBytes(Tuple l, Tuple r) {
+		/*
+		 * Use fresh copies so that the comparison is made before either tuple has been packed
+		 */
+		Tuple t1copy = Tuple.fromList(l.getItems());
+		Tuple t2copy = Tuple.fromList(r.getItems());
+		boolean bytesEqual = Arrays.equals(l.pack(), r.pack());
+		Assertions.assertEquals(bytesEqual, t1copy.equals(t2copy), "equals did not match packed bytes");
+		Assertions.assertEquals(bytesEqual, t1copy.equals(t2copy), "equals changed after packing");
+		if(bytesEqual) {
+			Assertions.assertEquals(t1copy.hashCode(), t2copy.hashCode(), "equal tuples have different hash codes");
+		}
+		Assertions.assertEquals(Integer.signum(ByteArrayUtil.compareUnsigned(l.pack(), r.pack())),
+		                        Integer.signum(TupleKeyComparator.INSTANCE.compare(Tuple.fromList(l.getItems()),
+		                                                                            Tuple.fromList(r.getItems()))),
+		                        "TupleKeyComparator did not match packed bytes");
+	}
+
+	@Test
+	void testSortMatchesPackedOrder() {
+		List<Tuple> tuples = new ArrayList<>();
+		for(Tuple t : comparisons) {
+			tuples.add(Tuple.fromList(t.getItems()));
+			tuples.add(Tuple.fromList(t.getItems()).add("suffix"));
+		}
+		Collections.shuffle(tuples, new Random(0x5eed));
+
+		List<Tuple> expected = new ArrayList<>(tuples);
+		expected.sort((t1, t2) -> ByteArrayUtil.compareUnsigned(t1.pack(), t2.pack()));
+
+		List<Tuple> sortedList = new ArrayList<>(tuples);
+		TupleKeyComparator.sort(sortedList);
+		Tuple[] sortedArray = tuples.toArray(new Tuple[0]);
+		TupleKeyComparator.sort(sortedArray);
+
+		for(int i = 0; i < expected.size(); i++) {
+			Assertions.assertArrayEquals(expected.get(i).pack(), sortedList.get(i).pack(), "list sorted out of order at " + i);
+			Assertions.assertArrayEquals(expected.get(i).pack(), sortedArray[i].pack(), "array sorted out of order at " + i);
+		}
+	}
+
+	@Test
+	void testCompareIncompleteVersionstamps() {
+		List<Tuple> tuples = new ArrayList<>();
+		for(int userVersion : new int[] { 2, 0, 1 }) {
+			tuples.add(Tuple.from("a", Versionstamp.incomplete(userVersion)));
+		}
+		tuples.add(Tuple.from("a", Versionstamp.complete(new byte[] { 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01 })));
+		tuples.add(Tuple.from("b"));
+		tuples.add(Tuple.from("a"));
+		TupleKeyComparator.sort(tuples);
+
+		Assertions.assertEquals(Tuple.from("a"), tuples.get(0));
+		Assertions.assertFalse(tuples.get(1).hasIncompleteVersionstamp());
+		for(int i = 0; i < 3; i++) {
+			Assertions.assertEquals(Tuple.from("a", Versionstamp.incomplete(i)), tuples.get(2 + i));
+		}
+		Assertions.assertEquals(Tuple.from("b"), tuples.get(5));
+		Assertions.assertNotEquals(Tuple.from("a", Versionstamp.incomplete(0)), Tuple.from("a", Versionstamp.incomplete(1)));
+	}
 }
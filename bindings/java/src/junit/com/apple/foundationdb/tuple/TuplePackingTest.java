@@ -490,6 +490,39 @@ class TuplePackingTest {
 		    String.format("Able to unpack <%s> without last character", ByteArrayUtil.printable(sequence)));
 	}
 
+	@ParameterizedTest
+	@MethodSource("wellFormedSequences")
+	void cantDecodeSlicesWithoutLastCharacter(byte[] sequence) throws Exception {
+		// The bytes after the slice would complete the element, so they must not be read
+		byte[] prefix = Tuple.from("before").pack();
+		byte[] array = ByteArrayUtil.join(prefix, sequence, Tuple.from("after").pack());
+		Assertions.assertThrows(
+		    IllegalArgumentException.class,
+		    () -> Tuple.decode(array, prefix.length, sequence.length - 1),
+		    String.format("Able to decode <%s> without last character", ByteArrayUtil.printable(sequence)));
+		Assertions.assertEquals(Tuple.fromBytes(sequence), Tuple.decode(array, prefix.length, sequence.length));
+	}
+
+	@Test
+	void cantDecodeTruncatedFixedWidthElements() throws Exception {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> Tuple.decode(Tuple.from(1.5f, "x").pack(), 0, 3));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> Tuple.decode(Tuple.from(new UUID(1066L, 1415L), "x").pack(), 0, 5));
+
+		List<Object> elements = Arrays.asList(1.5f, 2.5, new UUID(1066L, 1415L), BigInteger.ONE.shiftLeft(Long.SIZE + 1),
+		                                      BigInteger.ONE.shiftLeft(Long.SIZE + 1).negate());
+		for(Object element : elements) {
+			int size = Tuple.from(element).getPackedSize();
+			byte[] packed = Tuple.from(element, "after").pack();
+			for(int length = 1; length < size; length++) {
+				final int sliceLength = length;
+				Assertions.assertThrows(
+				    IllegalArgumentException.class,
+				    () -> Tuple.decode(packed, 0, sliceLength),
+				    String.format("Able to decode %s truncated to %d bytes", element, length));
+			}
+		}
+	}
+
 	@Test
 	void malformedStrings() throws Exception {
 		// Malformed when packing
@@ -0,0 +1,128 @@
+/*
+ * TupleRangeUtilTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.subspace.Subspace;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the bounds computed by {@link TupleRangeUtil} match those built by packing and joining keys.
+ */
+class TupleRangeUtilTest {
+	private static final byte[] PREFIX = new byte[] { 0x15, 0x01, 0x00, (byte)0xff };
+
+	// In the order of their packed keys
+	private static final List<Tuple> TUPLES = Arrays.asList(
+	    Tuple.from("a"), Tuple.from("a", 0L), Tuple.from("a", 1L), Tuple.from("a", 1L, null), Tuple.from("a", 1L, "x"),
+	    Tuple.from("a", 2L), Tuple.from("a", 3L), Tuple.from("a", 3L, "x"), Tuple.from("a", 4L), Tuple.from("b"),
+	    Tuple.from("b", new byte[] { 0x00, (byte)0xff }), Tuple.from(Tuple.from("nested", null)));
+
+	private static void assertRangeEquals(Range expected, Range actual) {
+		Assertions.assertArrayEquals(expected.begin, actual.begin, "Mismatched begin");
+		Assertions.assertArrayEquals(expected.end, actual.end, "Mismatched end");
+	}
+
+	private static List<Tuple> scan(Range range) {
+		return TUPLES.stream()
+		        .filter(t -> {
+			        byte[] key = t.pack(PREFIX);
+			        return ByteArrayUtil.compareUnsigned(range.begin, key) <= 0 && ByteArrayUtil.compareUnsigned(key, range.end) < 0;
+		        })
+		        .collect(Collectors.toList());
+	}
+
+	@Test
+	void prefixRangeMatchesTupleRange() {
+		for(Tuple t : TUPLES) {
+			Tuple unpacked = Tuple.fromList(t.getItems());
+			Range expected = new Range(ByteArrayUtil.join(PREFIX, t.pack(), new byte[] { 0x00 }),
+			                           ByteArrayUtil.join(PREFIX, t.pack(), new byte[] { (byte)0xff }));
+			assertRangeEquals(expected, TupleRangeUtil.prefixRange(PREFIX, unpacked));
+			assertRangeEquals(expected, t.range(PREFIX));
+			assertRangeEquals(expected, new Subspace(PREFIX).range(t));
+		}
+		assertRangeEquals(new Range(new byte[] { 0x00 }, new byte[] { (byte)0xff }), TupleRangeUtil.prefixRange(null, new Tuple()));
+	}
+
+	@Test
+	void inclusiveAndExclusiveBounds() {
+		Tuple low = Tuple.from("a", 1L);
+		Tuple high = Tuple.from("a", 3L);
+		Assertions.assertEquals(Arrays.asList(Tuple.from("a", 1L), Tuple.from("a", 1L, null), Tuple.from("a", 1L, "x"), Tuple.from("a", 2L)),
+		                        scan(TupleRangeUtil.between(PREFIX, low, true, high, false)));
+		Assertions.assertEquals(Arrays.asList(Tuple.from("a", 2L), Tuple.from("a", 3L), Tuple.from("a", 3L, "x")),
+		                        scan(TupleRangeUtil.between(PREFIX, low, false, high, true)));
+		Assertions.assertEquals(TUPLES.subList(0, 5), scan(TupleRangeUtil.between(PREFIX, null, false, low, true)));
+		Assertions.assertEquals(TUPLES.subList(6, TUPLES.size()), scan(TupleRangeUtil.between(PREFIX, high, true, null, false)));
+
+		Assertions.assertArrayEquals(low.pack(PREFIX), TupleRangeUtil.begin(PREFIX, low, true));
+		Assertions.assertArrayEquals(low.range(PREFIX).end, TupleRangeUtil.begin(PREFIX, low, false));
+		Assertions.assertArrayEquals(high.range(PREFIX).end, TupleRangeUtil.end(PREFIX, high, true));
+		Assertions.assertArrayEquals(high.pack(PREFIX), TupleRangeUtil.end(PREFIX, high, false));
+
+		Subspace subspace = new Subspace(PREFIX);
+		assertRangeEquals(TupleRangeUtil.between(PREFIX, low, true, high, false), subspace.range(low, true, high, false));
+		assertRangeEquals(subspace.range(), subspace.range(null, true, null, true));
+	}
+
+	@Test
+	void afterPagesThroughScan() {
+		Tuple scanPrefix = Tuple.from("a");
+		Range range = TupleRangeUtil.prefixRange(PREFIX, scanPrefix);
+		List<Tuple> expected = scan(range);
+
+		// Page through one result at a time using both forms of continuation
+		List<Tuple> byTuple = new ArrayList<>();
+		List<Tuple> byKey = new ArrayList<>();
+		Range tupleRange = range;
+		Range keyRange = range;
+		for(int i = 0; i < expected.size(); i++) {
+			Tuple next = scan(tupleRange).get(0);
+			byTuple.add(next);
+			tupleRange = TupleRangeUtil.after(PREFIX, scanPrefix, next);
+
+			byte[] nextKey = scan(keyRange).get(0).pack(PREFIX);
+			byKey.add(Tuple.fromBytes(nextKey, PREFIX.length, nextKey.length - PREFIX.length));
+			keyRange = TupleRangeUtil.after(keyRange, nextKey);
+			Assertions.assertArrayEquals(ByteArrayUtil.keyAfter(nextKey), keyRange.begin);
+		}
+		Assertions.assertEquals(expected, byTuple);
+		Assertions.assertEquals(expected, byKey);
+		Assertions.assertTrue(scan(tupleRange).isEmpty());
+		Assertions.assertTrue(scan(keyRange).isEmpty());
+	}
+
+	@Test
+	void incompleteVersionstampRejected() {
+		Tuple incomplete = Tuple.from(Versionstamp.incomplete());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleRangeUtil.prefixRange(PREFIX, incomplete));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleRangeUtil.begin(PREFIX, incomplete, true));
+		Assertions.assertThrows(IllegalStateException.class, () -> incomplete.range(PREFIX));
+	}
+}
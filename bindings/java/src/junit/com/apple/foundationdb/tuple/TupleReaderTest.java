@@ -0,0 +1,202 @@
+/*
+ * TupleReaderTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests that {@link TupleReader} decodes packed tuples the same way as {@link Tuple#fromBytes(byte[])}.
+ */
+class TupleReaderTest {
+	static List<Tuple> tuples() {
+		return Arrays.asList(
+		    new Tuple(), Tuple.from((Object)null), Tuple.from(0L, 1L, -1L, 255L, -256L, Long.MAX_VALUE, Long.MIN_VALUE),
+		    Tuple.from("hello", "hell\0 there", "", "\ud83d\udd25"),
+		    Tuple.from(new byte[0], new byte[] { 0x00 }, new byte[] { 0x01, 0x00, 0x02, 0x00, 0x00 }),
+		    Tuple.from(-3.14f, 2.71828, Double.NaN, true, false, new UUID(-1, 1)),
+		    Tuple.from(BigInteger.ONE.shiftLeft(Long.SIZE + 1), BigInteger.ONE.shiftLeft(Long.SIZE + 1).negate(), 7L),
+		    Tuple.from(Versionstamp.complete(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 }, 100)),
+		    Tuple.from("a", Tuple.from(null, 1L, Tuple.from("b", null)), Arrays.asList(null, null), "c"));
+	}
+
+	@ParameterizedTest
+	@MethodSource("tuples")
+	void readObjectMatchesFromBytes(Tuple t) {
+		byte[] packed = t.pack();
+		Tuple expected = Tuple.fromBytes(packed);
+		TupleReader reader = new TupleReader(packed);
+		Assertions.assertEquals(expected.size(), reader.size());
+		for(int i = 0; i < expected.size(); i++) {
+			Assertions.assertTrue(reader.hasNext());
+			Assertions.assertEquals(Tuple.from(expected.get(i)), Tuple.from(reader.readObject()), "Mismatch at element " + i);
+		}
+		Assertions.assertFalse(reader.hasNext());
+		Assertions.assertThrows(NoSuchElementException.class, reader::readObject);
+	}
+
+	@ParameterizedTest
+	@MethodSource("tuples")
+	void skipAndSeekFindEveryElement(Tuple t) {
+		byte[] prefix = new byte[] { 0x15, 0x01 };
+		byte[] packed = t.pack(prefix);
+		TupleReader reader = new TupleReader(packed, prefix.length, packed.length - prefix.length);
+		int[] positions = new int[t.size()];
+		for(int i = 0; i < t.size(); i++) {
+			positions[i] = reader.getPosition();
+			reader.skip();
+		}
+		Assertions.assertFalse(reader.hasNext());
+		Assertions.assertEquals(packed.length - prefix.length, reader.getPosition());
+
+		// Seeking backwards through the index lands on the same offsets as skipping
+		for(int i = t.size() - 1; i >= 0; i--) {
+			Assertions.assertEquals(positions[i], reader.seek(i).getPosition());
+			Assertions.assertEquals(Tuple.from(t.get(i)), Tuple.from(reader.readObject()));
+		}
+		Assertions.assertThrows(IndexOutOfBoundsException.class, () -> reader.seek(t.size()));
+	}
+
+	@Test
+	void typedReads() {
+		UUID uuid = UUID.randomUUID();
+		Versionstamp vs = Versionstamp.complete(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 }, 3);
+		byte[] packed = Tuple.from(-42L, "string", new byte[] { 0x00, 0x7f }, uuid, 1.5f, -2.5, true, null, vs).pack();
+		TupleReader reader = new TupleReader(packed);
+		Assertions.assertEquals(-42L, reader.readLong());
+		Assertions.assertEquals("string", reader.readString());
+		Assertions.assertArrayEquals(new byte[] { 0x00, 0x7f }, reader.readBytes());
+		Assertions.assertEquals(uuid, reader.readUuid());
+		Assertions.assertEquals(1.5f, reader.readFloat());
+		Assertions.assertEquals(-2.5, reader.readDouble());
+		Assertions.assertTrue(reader.readBoolean());
+		Assertions.assertTrue(reader.nextIsNull());
+		Assertions.assertNull(reader.readString());
+		Assertions.assertEquals(vs, reader.readVersionstamp());
+		Assertions.assertFalse(reader.hasNext());
+	}
+
+	@Test
+	void readLongBoundaries() {
+		long[] values = { 0L, 1L, -1L, 0xffL, -0xffL, 0x100L, -0x100L, Integer.MAX_VALUE, Integer.MIN_VALUE,
+		                  Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1, 1L << 56, -(1L << 56) };
+		for(long value : values) {
+			Assertions.assertEquals(value, new TupleReader(Tuple.from(value).pack()).readLong(), "Mismatch for " + value);
+		}
+		BigInteger[] tooBig = { BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE),
+		                        BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+		                        BigInteger.ONE.shiftLeft(100), BigInteger.ONE.shiftLeft(100).negate() };
+		for(BigInteger value : tooBig) {
+			TupleReader reader = new TupleReader(Tuple.from(value).pack());
+			Assertions.assertThrows(IllegalArgumentException.class, reader::readLong, "Read " + value + " as a long");
+			Assertions.assertEquals(value, reader.readObject());
+		}
+	}
+
+	@Test
+	void readBytesIntoBuffer() {
+		byte[] value = new byte[] { 0x00, 0x01, 0x00, 0x00, (byte)0xff, 0x02 };
+		TupleReader reader = new TupleReader(Tuple.from(value, new byte[0], "not bytes").pack());
+		ByteBuffer dest = ByteBuffer.allocate(16);
+		dest.put((byte)0x42);
+		Assertions.assertEquals(value.length, reader.readBytesInto(dest));
+		Assertions.assertEquals(1 + value.length, dest.position());
+		Assertions.assertArrayEquals(value, Arrays.copyOfRange(dest.array(), 1, dest.position()));
+		Assertions.assertEquals(0, reader.readBytesInto(dest));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> reader.readBytesInto(dest));
+		Assertions.assertEquals("not bytes", reader.readString());
+
+		TupleReader small = new TupleReader(Tuple.from((Object)value).pack());
+		Assertions.assertThrows(BufferOverflowException.class, () -> small.readBytesInto(ByteBuffer.allocate(2)));
+		// A failed read does not move the cursor
+		Assertions.assertArrayEquals(value, small.readBytes());
+	}
+
+	@Test
+	void nestedNavigation() {
+		byte[] packed = Tuple.from("outer", Tuple.from(null, 5L, Tuple.from("deep")), 9L).pack();
+		TupleReader reader = new TupleReader(packed);
+		Assertions.assertEquals("outer", reader.readString());
+		reader.beginNested();
+		Assertions.assertTrue(reader.nextIsNull());
+		Assertions.assertNull(reader.readTuple());
+		Assertions.assertEquals(5L, reader.readLong());
+		Assertions.assertThrows(IllegalStateException.class, () -> reader.seek(0));
+		reader.beginNested();
+		Assertions.assertEquals("deep", reader.readString());
+		Assertions.assertFalse(reader.hasNext());
+		reader.endNested();
+		Assertions.assertFalse(reader.hasNext());
+		reader.endNested();
+		Assertions.assertEquals(9L, reader.readLong());
+
+		// Unread nested elements are skipped by endNested()
+		reader.seek(1).beginNested().endNested();
+		Assertions.assertEquals(9L, reader.readLong());
+		Assertions.assertThrows(IllegalStateException.class, reader::endNested);
+
+		Assertions.assertEquals(Tuple.from(null, 5L, Tuple.from("deep")), reader.seek(1).readTuple());
+	}
+
+	@Test
+	void wrongTypeLeavesCursorInPlace() {
+		TupleReader reader = new TupleReader(Tuple.from("string", 1L).pack());
+		Assertions.assertThrows(IllegalArgumentException.class, reader::readLong);
+		Assertions.assertThrows(IllegalArgumentException.class, reader::readBoolean);
+		Assertions.assertThrows(IllegalArgumentException.class, reader::beginNested);
+		Assertions.assertEquals(0, reader.getPosition());
+		Assertions.assertEquals("string", reader.readString());
+		Assertions.assertEquals(1L, reader.readLong());
+	}
+
+	@Test
+	void resetReusesReader() {
+		TupleReader reader = new TupleReader(new byte[0]);
+		Assertions.assertEquals(0, reader.size());
+		for(long i = 0; i < 100; i++) {
+			byte[] key = Tuple.from("index", "value-" + i, i).pack();
+			Assertions.assertEquals(i, reader.reset(key).seek(2).readLong());
+			Assertions.assertEquals(3, reader.size());
+		}
+	}
+
+	@Test
+	void malformedTuplesAreRejected() {
+		for(byte[] malformed : TuplePackingTest.malformedSequences()) {
+			TupleReader reader = new TupleReader(malformed);
+			Assertions.assertThrows(IllegalArgumentException.class, () -> {
+				reader.size();
+				while(reader.hasNext()) {
+					reader.readObject();
+				}
+			}, "Accepted malformed tuple " + ByteArrayUtil.printable(malformed));
+		}
+	}
+}
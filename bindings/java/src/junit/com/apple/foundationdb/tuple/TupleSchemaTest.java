@@ -0,0 +1,330 @@
+/*
+ * TupleSchemaTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.UUID;
+
+import com.apple.foundationdb.FDBLibraryRule;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.subspace.Subspace;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+/**
+ * Tests that the codecs generated for {@link TupleSchema} classes are equivalent to packing and
+ * unpacking a {@link Tuple} of the same fields.
+ */
+class TupleSchemaTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	private static final int ITERATIONS = 2_000;
+
+	@TupleSchema
+	static class Primitives {
+		final long l;
+		final int i;
+		final short s;
+		final byte b;
+		final boolean z;
+		final float f;
+		final double d;
+
+		Primitives(long l, int i, short s, byte b, boolean z, float f, double d) {
+			this.l = l;
+			this.i = i;
+			this.s = s;
+			this.b = b;
+			this.z = z;
+			this.f = f;
+			this.d = d;
+		}
+
+		Tuple toTuple() {
+			return Tuple.from(l, i, s, b, z, f, d);
+		}
+	}
+
+	// Private fields with bean-style accessors
+	@TupleSchema
+	static class Boxes {
+		private final Long l;
+		private final Integer i;
+		private final Short s;
+		private final Byte b;
+		private final Boolean z;
+		private final Float f;
+		private final Double d;
+
+		Boxes(Long l, Integer i, Short s, Byte b, Boolean z, Float f, Double d) {
+			this.l = l;
+			this.i = i;
+			this.s = s;
+			this.b = b;
+			this.z = z;
+			this.f = f;
+			this.d = d;
+		}
+
+		public Long getL() {
+			return l;
+		}
+
+		public Integer getI() {
+			return i;
+		}
+
+		public Short getS() {
+			return s;
+		}
+
+		public Byte getB() {
+			return b;
+		}
+
+		public Boolean getZ() {
+			return z;
+		}
+
+		public Float getF() {
+			return f;
+		}
+
+		public Double getD() {
+			return d;
+		}
+
+		Tuple toTuple() {
+			return Tuple.from(l, i, s, b, z, f, d);
+		}
+	}
+
+	// Private fields with record-style accessors, and a custom codec name
+	@TupleSchema(codecName = "ReferencesCodec")
+	static class References {
+		private final String string;
+		private final byte[] bytes;
+		private final UUID uuid;
+		private final BigInteger bigInteger;
+		private final Versionstamp versionstamp;
+		private final Tuple tuple;
+		private transient int hash;
+
+		References(String string, byte[] bytes, UUID uuid, BigInteger bigInteger, Versionstamp versionstamp, Tuple tuple) {
+			this.string = string;
+			this.bytes = bytes;
+			this.uuid = uuid;
+			this.bigInteger = bigInteger;
+			this.versionstamp = versionstamp;
+			this.tuple = tuple;
+		}
+
+		String string() {
+			return string;
+		}
+
+		byte[] bytes() {
+			return bytes;
+		}
+
+		UUID uuid() {
+			return uuid;
+		}
+
+		BigInteger bigInteger() {
+			return bigInteger;
+		}
+
+		Versionstamp versionstamp() {
+			return versionstamp;
+		}
+
+		Tuple tuple() {
+			return tuple;
+		}
+
+		Tuple toTuple() {
+			return Tuple.from(string, bytes, uuid, bigInteger, versionstamp, tuple);
+		}
+	}
+
+	@TupleSchema
+	static class Event {
+		static final String KIND = "event";
+
+		final long tenantId;
+		final String userId;
+		final long timestamp;
+
+		Event(long tenantId, String userId, long timestamp) {
+			this.tenantId = tenantId;
+			this.userId = userId;
+			this.timestamp = timestamp;
+		}
+
+		Tuple toTuple() {
+			return Tuple.from(tenantId, userId, timestamp);
+		}
+	}
+
+	// Other schemas as fields are packed as nested tuples
+	@TupleSchema
+	static class Nesting {
+		final Event event;
+		final String value;
+		final Nesting child;
+
+		Nesting(Event event, String value, Nesting child) {
+			this.event = event;
+			this.value = value;
+			this.child = child;
+		}
+
+		Tuple toTuple() {
+			return Tuple.from(event == null ? null : event.toTuple(), value, child == null ? null : child.toTuple());
+		}
+	}
+
+	@Test
+	void primitivesMatchTuple() {
+		Random r = new Random(0x1);
+		long[] longs = { 0L, 1L, -1L, 255L, -256L, Long.MAX_VALUE, Long.MIN_VALUE };
+		float[] floats = { 0.0f, -0.0f, Float.NaN, Float.NEGATIVE_INFINITY, Float.MIN_VALUE, 1.5f };
+		double[] doubles = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, -Double.MAX_VALUE, 2.5 };
+		for(int it = 0; it < ITERATIONS; it++) {
+			Primitives p = new Primitives(r.nextBoolean() ? r.nextLong() : longs[r.nextInt(longs.length)],
+			                              r.nextBoolean() ? r.nextInt() : (r.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE),
+			                              (short)r.nextInt(), (byte)r.nextInt(), r.nextBoolean(),
+			                              r.nextBoolean() ? r.nextFloat() : floats[r.nextInt(floats.length)],
+			                              r.nextBoolean() ? r.nextGaussian() : doubles[r.nextInt(doubles.length)]);
+			byte[] packed = TupleSchemaTest_PrimitivesTupleCodec.pack(p);
+			Assertions.assertArrayEquals(p.toTuple().pack(), packed);
+			Assertions.assertEquals(p.toTuple(), TupleSchemaTest_PrimitivesTupleCodec.unpack(packed).toTuple());
+		}
+	}
+
+	@Test
+	void boxesMatchTuple() {
+		Random r = new Random(0x2);
+		for(int it = 0; it < ITERATIONS; it++) {
+			Boxes b = new Boxes(r.nextBoolean() ? null : r.nextLong(), r.nextBoolean() ? null : r.nextInt(),
+			                    r.nextBoolean() ? null : (short)r.nextInt(), r.nextBoolean() ? null : (byte)r.nextInt(),
+			                    r.nextBoolean() ? null : r.nextBoolean(), r.nextBoolean() ? null : r.nextFloat(),
+			                    r.nextBoolean() ? null : r.nextDouble());
+			byte[] packed = TupleSchemaTest_BoxesTupleCodec.pack(b);
+			Assertions.assertArrayEquals(b.toTuple().pack(), packed);
+			Assertions.assertEquals(b.toTuple(), TupleSchemaTest_BoxesTupleCodec.unpack(packed).toTuple());
+		}
+	}
+
+	@Test
+	void referencesMatchTuple() {
+		Random r = new Random(0x3);
+		String[] strings = { null, "", "\0", "hello", "caf\u00e9", "\ud83d\udd25" };
+		BigInteger[] bigIntegers = { null, BigInteger.ZERO, BigInteger.ONE.negate(), BigInteger.valueOf(Long.MAX_VALUE),
+		                             BigInteger.ONE.shiftLeft(80), BigInteger.ONE.shiftLeft(80).negate() };
+		for(int it = 0; it < ITERATIONS; it++) {
+			byte[] bytes = null;
+			if(r.nextBoolean()) {
+				bytes = new byte[r.nextInt(10)];
+				r.nextBytes(bytes);
+			}
+			byte[] trVersion = new byte[Versionstamp.LENGTH - Short.BYTES];
+			r.nextBytes(trVersion);
+			References ref = new References(strings[r.nextInt(strings.length)], bytes,
+			                                r.nextBoolean() ? null : new UUID(r.nextLong(), r.nextLong()),
+			                                bigIntegers[r.nextInt(bigIntegers.length)],
+			                                r.nextBoolean() ? null : Versionstamp.complete(trVersion, r.nextInt(0x10000)),
+			                                r.nextBoolean() ? null : Tuple.from(r.nextLong(), null, Tuple.from("x")));
+			byte[] packed = ReferencesCodec.pack(ref);
+			Assertions.assertArrayEquals(ref.toTuple().pack(), packed);
+			Assertions.assertEquals(ref.toTuple(), ReferencesCodec.unpack(packed).toTuple());
+		}
+	}
+
+	@Test
+	void nestedSchemasMatchTuple() {
+		Event event = new Event(7L, "user", 1234L);
+		Nesting[] values = {
+			new Nesting(null, null, null),
+			new Nesting(event, "a", null),
+			new Nesting(event, "b", new Nesting(null, "\0", new Nesting(event, null, null)))
+		};
+		for(Nesting n : values) {
+			byte[] packed = TupleSchemaTest_NestingTupleCodec.pack(n);
+			Assertions.assertArrayEquals(n.toTuple().pack(), packed);
+			Assertions.assertEquals(n.toTuple(), TupleSchemaTest_NestingTupleCodec.unpack(packed).toTuple());
+		}
+	}
+
+	@Test
+	void prefixesAndRanges() {
+		byte[] prefix = new byte[] { 0x15, 0x01, 0x00 };
+		Subspace subspace = new Subspace(Tuple.from("events"));
+		Event event = new Event(42L, "alice", 99L);
+		Assertions.assertArrayEquals(event.toTuple().pack(prefix), TupleSchemaTest_EventTupleCodec.pack(prefix, event));
+		Assertions.assertArrayEquals(subspace.pack(event.toTuple()), TupleSchemaTest_EventTupleCodec.pack(subspace.getKey(), event));
+
+		assertRangeEquals(new Tuple().range(), TupleSchemaTest_EventTupleCodec.range());
+		assertRangeEquals(Tuple.from(42L).range(), TupleSchemaTest_EventTupleCodec.range(42L));
+		assertRangeEquals(Tuple.from(42L, "alice").range(), TupleSchemaTest_EventTupleCodec.range(42L, "alice"));
+		assertRangeEquals(event.toTuple().range(), TupleSchemaTest_EventTupleCodec.range(42L, "alice", 99L));
+		assertRangeEquals(subspace.range(), TupleSchemaTest_EventTupleCodec.range(subspace));
+		assertRangeEquals(subspace.range(Tuple.from(42L, "alice")), TupleSchemaTest_EventTupleCodec.range(subspace, 42L, "alice"));
+
+		// Field names that the generated code uses for its own variables
+		assertRangeEquals(Tuple.from(event.toTuple(), "v").range(), TupleSchemaTest_NestingTupleCodec.range(event, "v"));
+		assertRangeEquals(Tuple.from(null, null).range(), TupleSchemaTest_NestingTupleCodec.range((Event)null, (String)null));
+	}
+
+	@Test
+	void incompleteVersionstamps() {
+		References ref = new References("s", null, null, null, Versionstamp.incomplete(3), null);
+		Assertions.assertArrayEquals(ref.toTuple().packWithVersionstamp(), ReferencesCodec.packWithVersionstamp(ref));
+		byte[] prefix = new byte[] { 0x01, 0x02 };
+		Assertions.assertArrayEquals(ref.toTuple().packWithVersionstamp(prefix), ReferencesCodec.packWithVersionstamp(prefix, ref));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> ReferencesCodec.pack(ref));
+	}
+
+	@Test
+	void malformedTuplesAreRejected() {
+		// Too many elements, too few, and the wrong types
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleSchemaTest_EventTupleCodec.unpack(Tuple.from(1L, "a", 2L, 3L).pack()));
+		Assertions.assertThrows(RuntimeException.class, () -> TupleSchemaTest_EventTupleCodec.unpack(Tuple.from(1L, "a").pack()));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleSchemaTest_EventTupleCodec.unpack(Tuple.from("a", 1L, 2L).pack()));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleSchemaTest_EventTupleCodec.unpack(Tuple.from(1L, "a", null).pack()));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleSchemaTest_NestingTupleCodec.unpack(Tuple.from(Tuple.from(1L, "a", 2L, 3L), null, null).pack()));
+
+		// Integers that do not fit in narrower fields
+		Tuple tooBig = Tuple.from(0L, 1L << 31, 0L, 0L, true, 0.0f, 0.0);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleSchemaTest_PrimitivesTupleCodec.unpack(tooBig.pack()));
+		Tuple byteTooBig = Tuple.from(0L, 0L, 0L, 128L, true, 0.0f, 0.0);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> TupleSchemaTest_PrimitivesTupleCodec.unpack(byteTooBig.pack()));
+		Tuple fits = Tuple.from(0L, (long)Integer.MIN_VALUE, (long)Short.MAX_VALUE, -128L, false, 0.0f, 0.0);
+		Assertions.assertEquals(fits, TupleSchemaTest_PrimitivesTupleCodec.unpack(fits.pack()).toTuple());
+	}
+
+	private static void assertRangeEquals(Range expected, Range actual) {
+		Assertions.assertArrayEquals(expected.begin, actual.begin);
+		Assertions.assertArrayEquals(expected.end, actual.end);
+	}
+}
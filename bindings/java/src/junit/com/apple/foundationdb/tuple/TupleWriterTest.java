@@ -0,0 +1,241 @@
+/*
+ * TupleWriterTest.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import com.apple.foundationdb.FDBLibraryRule;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Tests that {@link TupleWriter} produces exactly the same bytes as packing the equivalent {@link Tuple}.
+ */
+class TupleWriterTest {
+	@RegisterExtension static final FDBLibraryRule fdbLib = FDBLibraryRule.current();
+
+	static List<Object> items() {
+		return Arrays.asList(
+		    null, 0L, 1L, -1L, 255L, 256L, -255L, -256L, 1066L, -1066L, Long.MAX_VALUE, Long.MIN_VALUE,
+		    Long.MIN_VALUE + 1, Integer.MAX_VALUE, (short)-7, BigInteger.valueOf(1066),
+		    BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE), BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+		    BigInteger.ONE.shiftLeft(Long.SIZE + 1).negate(), -3.14f, 2.71828, Float.NaN, Double.NaN, -0.0,
+		    new byte[0], new byte[] { 0x01, 0x02, 0x03 }, new byte[] { 0x00 }, new byte[] { 0x01, 0x00, 0x02, 0x00, 0x00 },
+		    "", "hello there", "hell\0 there", "\0", "caf\u00e9", "\u0800\uffff", "\ud83d\udd25", "\ufb14", "a\ud800\udc00b",
+		    false, true, new UUID(-1, 1), new UUID(0, 0),
+		    Versionstamp.complete(new byte[] { 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09 }, 100),
+		    Tuple.from((Object)null), new Tuple(), Tuple.from("suffix", "tuple"), Tuple.from("s\0ffix", null, 1L),
+		    Arrays.asList("suffix", null, "tuple"), Arrays.asList(Arrays.asList(null, Collections.emptyList()), 3L));
+	}
+
+	@ParameterizedTest
+	@MethodSource("items")
+	void writeObjectMatchesTuple(Object item) {
+		byte[] expected = Tuple.from("prefix", item, "suffix").pack();
+		byte[] actual = new TupleWriter(0).writeString("prefix").writeObject(item).writeString("suffix").toByteArray();
+		Assertions.assertArrayEquals(expected, actual, "Mismatched encoding for " + item);
+	}
+
+	@ParameterizedTest
+	@MethodSource("items")
+	void writeNestedMatchesTuple(Object item) {
+		byte[] expected = Tuple.from(Tuple.from(item), Arrays.asList(item, item)).pack();
+		byte[] actual = new TupleWriter()
+		                    .beginNested().writeObject(item).endNested()
+		                    .beginNested().writeObject(item).writeObject(item).endNested()
+		                    .toByteArray();
+		Assertions.assertArrayEquals(expected, actual, "Mismatched nested encoding for " + item);
+	}
+
+	@Test
+	void typedWritesMatchTuple() {
+		UUID uuid = UUID.randomUUID();
+		Tuple expected = Tuple.from(-42L, "string", new byte[] { 0x00, 0x7f }, uuid, 1.5f, -2.5, true, null,
+		                            Tuple.from(null, 7L));
+		TupleWriter writer = new TupleWriter()
+		                         .writeLong(-42L)
+		                         .writeString("string")
+		                         .writeBytes(new byte[] { 0x05, 0x00, 0x7f, 0x05 }, 1, 2)
+		                         .writeUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())
+		                         .writeFloat(1.5f)
+		                         .writeDouble(-2.5)
+		                         .writeBoolean(true)
+		                         .writeNull()
+		                         .beginNested().writeNull().writeLong(7L).endNested();
+		Assertions.assertEquals(expected.getPackedSize(), writer.getPackedSize());
+		Assertions.assertArrayEquals(expected.pack(), writer.toByteArray());
+	}
+
+	@Test
+	void writeAllMatchesAddAll() {
+		Tuple prefix = Tuple.from("app", 1L);
+		byte[] expected = prefix.addAll(Tuple.from("user", 12345L)).pack();
+		byte[] actual = new TupleWriter().writeAll(prefix).writeString("user").writeLong(12345L).toByteArray();
+		Assertions.assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	void invalidStringsAreRejected() {
+		for(String s : Arrays.asList("\ud83d", "\udd25", "a\ud83db", "\udd25\ud83d")) {
+			TupleWriter writer = new TupleWriter().writeLong(1L);
+			Assertions.assertThrows(IllegalArgumentException.class, () -> writer.writeString(s));
+			// Nothing from the failed string should be left behind
+			Assertions.assertArrayEquals(Tuple.from(1L).pack(), writer.toByteArray());
+		}
+	}
+
+	@Test
+	void writesIntoCallerBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put((byte)0x42);
+		TupleWriter writer = new TupleWriter(buffer);
+		writer.writeUuid(new UUID(1, 2)).writeDouble(1.0).writeString("abc");
+		writer.finish();
+
+		byte[] expected = Tuple.from(new UUID(1, 2), 1.0, "abc").pack();
+		Assertions.assertEquals(1 + expected.length, buffer.position());
+		Assertions.assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+		Assertions.assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 1, buffer.position()));
+		Assertions.assertArrayEquals(expected, writer.toByteArray());
+
+		writer.reset();
+		Assertions.assertEquals(1, buffer.position());
+		writer.writeLong(3L);
+		Assertions.assertArrayEquals(Tuple.from(3L).pack(), writer.toByteArray());
+	}
+
+	@Test
+	void callerBufferOverflows() {
+		TupleWriter writer = new TupleWriter(ByteBuffer.allocate(4));
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeString("too long"));
+	}
+
+	@Test
+	void overflowLeavesNoPartialElement() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[8]);
+		TupleWriter writer = new TupleWriter(buffer);
+		writer.writeLong(1L);
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeString("much too long"));
+		Assertions.assertEquals(2, buffer.position());
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeBytes(new byte[]{ 0x00, 0x00, 0x00, 0x00 }));
+		Assertions.assertEquals(2, buffer.position());
+
+		// The writer can still be used after the caller falls back to a shorter element
+		writer.writeString("ok");
+		Assertions.assertArrayEquals(Tuple.from(1L, "ok").pack(), writer.toByteArray());
+	}
+
+	@Test
+	void overflowOfFixedSizeElementLeavesNoPartialElement() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[8]);
+		TupleWriter writer = new TupleWriter(buffer);
+		writer.writeString("ab");
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeLong(Long.MAX_VALUE));
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeDouble(1.5));
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeUuid(new UUID(1L, 2L)));
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeBigInteger(BigInteger.ONE.shiftLeft(100)));
+		Assertions.assertEquals(4, buffer.position());
+
+		// A long that fits is still written in full
+		writer.writeLong(0x10000L);
+		Assertions.assertArrayEquals(Tuple.from("ab", 0x10000L).pack(), writer.toByteArray());
+	}
+
+	@Test
+	void overflowOfIncompleteVersionstampIsNotRecorded() {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[19]);
+		TupleWriter writer = new TupleWriter(buffer);
+		writer.writeString("log").writeLong(1L);
+		Assertions.assertThrows(BufferOverflowException.class, () -> writer.writeIncompleteVersionstamp(3));
+		Assertions.assertEquals(7, buffer.position());
+		Assertions.assertFalse(writer.hasIncompleteVersionstamp());
+		Assertions.assertArrayEquals(Tuple.from("log", 1L).pack(), writer.toByteArray());
+
+		// After making room, the versionstamp can still be written
+		writer.reset();
+		writer.writeLong(1L);
+		writer.writeIncompleteVersionstamp(3);
+		Assertions.assertArrayEquals(Tuple.from(1L, Versionstamp.incomplete(3)).packWithVersionstamp(), writer.toByteArrayWithVersionstamp());
+	}
+
+	@Test
+	void ownedBufferGrows() {
+		TupleWriter writer = new TupleWriter(1);
+		Tuple expected = new Tuple();
+		for(int i = 0; i < 100; i++) {
+			writer.writeLong(i * 1000L).writeString("element " + i);
+			expected = expected.add(i * 1000L).add("element " + i);
+		}
+		Assertions.assertArrayEquals(expected.pack(), writer.toByteArray());
+	}
+
+	@Test
+	void incompleteVersionstampMatchesTuple() {
+		byte[] prefix = new byte[] { 0x15, 0x16 };
+		Tuple t = Tuple.from("log", Tuple.from(Versionstamp.incomplete(5), null), 10L);
+		TupleWriter writer = new TupleWriter()
+		                         .writeRaw(prefix)
+		                         .writeString("log")
+		                         .beginNested().writeIncompleteVersionstamp(5).writeNull().endNested()
+		                         .writeLong(10L);
+		Assertions.assertTrue(writer.hasIncompleteVersionstamp());
+		Assertions.assertArrayEquals(t.packWithVersionstamp(prefix), writer.toByteArrayWithVersionstamp());
+		Assertions.assertThrows(IllegalArgumentException.class, writer::toByteArray);
+		Assertions.assertThrows(IllegalArgumentException.class, writer::finish);
+
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		TupleWriter bufferWriter = new TupleWriter(buffer)
+		                               .writeRaw(prefix)
+		                               .writeString("log")
+		                               .writeTuple(Tuple.from(Versionstamp.incomplete(5), null))
+		                               .writeLong(10L);
+		bufferWriter.finishWithVersionstamp();
+		Assertions.assertArrayEquals(t.packWithVersionstamp(prefix), Arrays.copyOf(buffer.array(), buffer.position()));
+	}
+
+	@Test
+	void versionstampMisuseIsRejected() {
+		TupleWriter writer = new TupleWriter().writeVersionstamp(Versionstamp.incomplete(1));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> writer.writeIncompleteVersionstamp(2));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> writer.writeIncompleteVersionstamp(0x10000));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new TupleWriter().writeLong(1L).toByteArrayWithVersionstamp());
+		Assertions.assertArrayEquals(Tuple.from(Versionstamp.incomplete(1)).packWithVersionstamp(), writer.toByteArrayWithVersionstamp());
+	}
+
+	@Test
+	void unbalancedNestingIsRejected() {
+		Assertions.assertThrows(IllegalStateException.class, () -> new TupleWriter().endNested());
+		Assertions.assertThrows(IllegalStateException.class, () -> new TupleWriter().beginNested().toByteArray());
+		TupleWriter writer = new TupleWriter().beginNested().beginNested();
+		writer.reset();
+		Assertions.assertArrayEquals(new byte[0], writer.toByteArray());
+	}
+}
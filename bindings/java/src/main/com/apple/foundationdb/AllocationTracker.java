@@ -0,0 +1,86 @@
+/*
+ * AllocationTracker.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the number of bytes allocated on the heap by the current thread, for attributing
+ * allocations to binding operations. Measurement relies on the HotSpot extension of
+ * {@link ThreadMXBean}; on JVMs which do not support it, tracking is never enabled.
+ */
+final class AllocationTracker {
+	// Loaded only when tracking is first enabled, as loading it turns on per-thread allocation
+	// accounting for the whole JVM.
+	private static final class ThreadBeanHolder {
+		static final com.sun.management.ThreadMXBean THREAD_BEAN = loadThreadBean();
+
+		private ThreadBeanHolder() {}
+	}
+
+	private static volatile boolean enabled = false;
+
+	private AllocationTracker() {}
+
+	private static com.sun.management.ThreadMXBean loadThreadBean() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+				if(sunBean.isThreadAllocatedMemorySupported()) {
+					sunBean.setThreadAllocatedMemoryEnabled(true);
+					return sunBean;
+				}
+			}
+		}
+		catch(LinkageError | RuntimeException e) {
+			// EAT: allocation tracking is not available on this JVM
+		}
+		return null;
+	}
+
+	static boolean isSupported() {
+		return ThreadBeanHolder.THREAD_BEAN != null;
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void setEnabled(boolean enabled) {
+		AllocationTracker.enabled = enabled && isSupported();
+	}
+
+	/**
+	 * Gets the total number of bytes allocated by the current thread since it started. Only
+	 * differences between two calls on the same thread are meaningful.
+	 *
+	 * @return the number of bytes allocated, or 0 if tracking is not supported
+	 */
+	static long currentThreadAllocatedBytes() {
+		com.sun.management.ThreadMXBean bean = ThreadBeanHolder.THREAD_BEAN;
+		if(bean == null) {
+			return 0L;
+		}
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -159,6 +159,18 @@ public interface EventKeeper {
 		 * The number of times a range query chunk fetch failed
 		 */
 		RANGE_QUERY_CHUNK_FAILED,
+		/**
+		 * The number of bytes allocated on the heap while marshalling range query chunks into
+		 * {@link KeyValue} lists, including the {@code KeyValue} objects themselves. Only recorded
+		 * when allocation tracking is enabled with {@link FDB#enableAllocationTracking(boolean)}.
+		 */
+		RANGE_QUERY_BYTES_ALLOCATED,
+		/**
+		 * The number of bytes allocated on the heap while marshalling the values returned by
+		 * {@link Transaction#get(byte[])}. Only recorded when allocation tracking is enabled with
+		 * {@link FDB#enableAllocationTracking(boolean)}.
+		 */
+		FUTURE_RESULT_BYTES_ALLOCATED,
 		/**
 		 * The time taken to perform an internal `getRange` fetch, in nanoseconds
 		 */
@@ -250,6 +250,29 @@ public class FDB {
 		return enableDirectBufferQueries;
 	}
 
+	/**
+	 * Enables or disables tracking of the heap bytes allocated while marshalling results from the
+	 *  native layer. When enabled, the bytes allocated are reported to the {@link EventKeeper} of
+	 *  the transaction that issued the read as {@link EventKeeper.Events#RANGE_QUERY_BYTES_ALLOCATED}
+	 *  and {@link EventKeeper.Events#FUTURE_RESULT_BYTES_ALLOCATED}. Tracking adds a small cost to
+	 *  every read and is disabled by default. If the JVM cannot measure per-thread allocation,
+	 *  this call has no effect.
+	 *
+	 *	@param enabled Whether heap allocations should be measured.
+	 */
+	public void enableAllocationTracking(boolean enabled) {
+		AllocationTracker.setEnabled(enabled);
+	}
+
+	/**
+	 * Determines whether heap allocations by result marshalling are being measured.
+	 *
+	 * @return {@code true} if allocation tracking has been enabled and is supported by the JVM
+	 */
+	public boolean isAllocationTrackingEnabled() {
+		return AllocationTracker.isEnabled();
+	}
+
 	/**
 	 * Resizes the DirectBufferPool with given parameters, which is used by getRange() requests.
 	 *
@@ -36,6 +36,8 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	private final Executor executor;
 	private final TransactionOptions options;
 	private final EventKeeper eventKeeper;
+	private final HotKeySampler hotKeySampler;
+	private final HotKeySampler.ConflictCandidates conflictCandidates;
 
 	private boolean transactionOwner;
 	public final ReadTransaction snapshot;
@@ -97,6 +99,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		@Override
 		public AsyncIterable<KeyValue> getRange(KeySelector begin, KeySelector end, int limit, boolean reverse,
 		                                        StreamingMode mode) {
+			sampleRead(begin.getKey(), true);
 			return new RangeQuery(FDBTransaction.this, true, begin, end, limit, reverse, mode, eventKeeper);
 		}
 		@Override
@@ -206,6 +209,13 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		this.database = database;
 		this.executor = executor;
 		this.eventKeeper = eventKeeper;
+		if (eventKeeper instanceof HotKeySampler) {
+			this.hotKeySampler = (HotKeySampler) eventKeeper;
+			this.conflictCandidates = hotKeySampler.newConflictCandidates();
+		} else {
+			this.hotKeySampler = null;
+			this.conflictCandidates = null;
+		}
 		snapshot = new ReadSnapshot();
 		options = new TransactionOptions(this);
 		transactionOwner = true;
@@ -275,6 +285,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		sampleRead(key, isSnapshot);
 		pointerReadLock.lock();
 		try {
 			return new FutureResult(Transaction_get(getPtr(), key, isSnapshot), executor,eventKeeper);
@@ -295,6 +306,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		sampleRead(selector.getKey(), isSnapshot);
 		pointerReadLock.lock();
 		try {
 			return new FutureKey(
@@ -344,6 +356,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	@Override
 	public AsyncIterable<KeyValue> getRange(KeySelector begin, KeySelector end,
 			int limit, boolean reverse, StreamingMode mode) {
+		sampleRead(begin.getKey(), false);
 		return new RangeQuery(this, false, begin, end, limit, reverse, mode, eventKeeper);
 	}
 	@Override
@@ -409,6 +422,15 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		return getRange(range, ReadTransaction.ROW_LIMIT_UNLIMITED);
 	}
 
+	private void sampleRead(byte[] key, boolean isSnapshot) {
+		if (hotKeySampler != null) {
+			hotKeySampler.record(HotKeySampler.AccessType.READ, key);
+			if (!isSnapshot) {
+				conflictCandidates.add(key);
+			}
+		}
+	}
+
 	@Override
 	public Database getDatabase() {
 		return database;
@@ -446,6 +468,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 
 	@Override
 	public void addReadConflictRange(byte[] keyBegin, byte[] keyEnd) {
+		if (conflictCandidates != null) {
+			conflictCandidates.add(keyBegin);
+		}
 		addConflictRange(keyBegin, keyEnd, ConflictRangeType.READ);
 	}
 
@@ -457,6 +482,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 
 	@Override
 	public void addReadConflictKey(byte[] key) {
+		if (conflictCandidates != null) {
+			conflictCandidates.add(key);
+		}
 		addConflictRange(key, ByteArrayUtil.join(key, new byte[]{(byte) 0}), ConflictRangeType.READ);
 	}
 
@@ -511,6 +539,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		if (hotKeySampler != null) {
+			hotKeySampler.record(HotKeySampler.AccessType.WRITE, key);
+		}
 		pointerReadLock.lock();
 		try {
 			Transaction_set(getPtr(), key, value);
@@ -526,6 +557,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		if (hotKeySampler != null) {
+			hotKeySampler.record(HotKeySampler.AccessType.WRITE, key);
+		}
 		pointerReadLock.lock();
 		try {
 			Transaction_clear(getPtr(), key);
@@ -541,6 +575,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		if (hotKeySampler != null) {
+			hotKeySampler.record(HotKeySampler.AccessType.WRITE, beginKey);
+		}
 		pointerReadLock.lock();
 		try {
 			Transaction_clear(getPtr(), beginKey, endKey);
@@ -565,6 +602,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		if (hotKeySampler != null) {
+			hotKeySampler.record(HotKeySampler.AccessType.WRITE, key);
+		}
 		pointerReadLock.lock();
 		try {
 			Transaction_mutate(getPtr(), optype.code(), key, value);
@@ -664,6 +704,9 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 		if (eventKeeper != null) {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
+		if (hotKeySampler != null) {
+			hotKeySampler.recordError(((FDBException) e).getCode(), conflictCandidates);
+		}
 		pointerReadLock.lock();
 		try {
 			CompletableFuture<Void> f = new FutureVoid(Transaction_onError(getPtr(), ((FDBException) e).getCode()),
@@ -711,7 +754,7 @@ class FDBTransaction extends NativeObjectWrapper implements Transaction, OptionC
 	private FDBTransaction transfer() {
 		FDBTransaction tr = null;
 		try {
-			tr = new FDBTransaction(getPtr(), database, executor);
+			tr = new FDBTransaction(getPtr(), database, executor, eventKeeper);
 			tr.options().setUsedDuringCommitProtectionDisable();
 			transactionOwner = false;
 			return tr;
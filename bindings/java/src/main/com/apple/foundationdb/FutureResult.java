@@ -26,16 +26,24 @@ import com.apple.foundationdb.EventKeeper.Events;
 
 class FutureResult extends NativeFuture<byte[]> {
 	private final EventKeeper eventKeeper;
+	private final boolean trackAllocations;
 
 	FutureResult(long cPtr, Executor executor, EventKeeper eventKeeper) {
 		super(cPtr);
 		this.eventKeeper = eventKeeper;
+		this.trackAllocations = eventKeeper != null && AllocationTracker.isEnabled();
 		registerMarshalCallback(executor);
 	}
 
 	@Override
 	protected byte[] getIfDone_internal(long cPtr) throws FDBException {
-		return FutureResult_get(cPtr);
+		if(!trackAllocations) {
+			return FutureResult_get(cPtr);
+		}
+		long allocatedBefore = AllocationTracker.currentThreadAllocatedBytes();
+		byte[] result = FutureResult_get(cPtr);
+		eventKeeper.count(Events.FUTURE_RESULT_BYTES_ALLOCATED, AllocationTracker.currentThreadAllocatedBytes() - allocatedBefore);
+		return result;
 	}
 
 	@Override
@@ -27,11 +27,13 @@ import com.apple.foundationdb.EventKeeper.Events;
 
 class FutureResults extends NativeFuture<RangeResultInfo> {
 	private final EventKeeper eventKeeper;
+	private final boolean trackAllocations;
 	FutureResults(long cPtr, boolean enableDirectBufferQueries, Executor executor, EventKeeper eventKeeper) {
 		super(cPtr);
 		registerMarshalCallback(executor);
 		this.enableDirectBufferQueries = enableDirectBufferQueries;
 		this.eventKeeper = eventKeeper;
+		this.trackAllocations = eventKeeper != null && AllocationTracker.isEnabled();
 	}
 
 	@Override
@@ -63,19 +65,26 @@ class FutureResults extends NativeFuture<RangeResultInfo> {
 			eventKeeper.increment(Events.JNI_CALL);
 		}
 
+		long allocatedBefore = trackAllocations ? AllocationTracker.currentThreadAllocatedBytes() : 0L;
+		RangeResult result;
 		try {
 			pointerReadLock.lock();
 			if (buffer != null) {
 				try (DirectBufferIterator directIterator = new DirectBufferIterator(buffer)) {
 					FutureResults_getDirect(getPtr(), directIterator.getBuffer(), directIterator.getBuffer().capacity());
-					return new RangeResult(directIterator);
+					result = new RangeResult(directIterator);
 				}
 			} else {
-				return FutureResults_get(getPtr());
+				result = FutureResults_get(getPtr());
 			}
 		} finally {
 			pointerReadLock.unlock();
 		}
+		if (trackAllocations) {
+			eventKeeper.count(Events.RANGE_QUERY_BYTES_ALLOCATED,
+			                  AllocationTracker.currentThreadAllocatedBytes() - allocatedBefore);
+		}
+		return result;
 	}
 
 	private boolean enableDirectBufferQueries = false;
@@ -0,0 +1,448 @@
+/*
+ * HotKeySampler.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.subspace.SubspaceRouter;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+/**
+ * An {@link EventKeeper} which additionally tracks the most frequently accessed key prefixes
+ * seen by the transactions it instruments. Reads, writes, and the read keys of transactions
+ * which later fail with a {@code not_committed} error are fed into a count-min sketch, and the
+ * prefixes with the highest estimated counts are kept in a small top-K table per access type.
+ *
+ * Keys are bucketed by the longest {@link Subspace} registered with
+ * {@link #addSubspace(Subspace) addSubspace()} that contains them. Keys that are not
+ * contained in any registered subspace are bucketed by their first {@code defaultPrefixLength}
+ * bytes (or the whole key, if {@code defaultPrefixLength} is not positive).
+ *
+ * The sampler uses a fixed amount of memory regardless of the number of distinct keys
+ * observed, and recording an access does not allocate unless the accessed prefix enters the
+ * top-K table. Counts are estimates: they are never lower than the true count, and may be
+ * higher by a small amount proportional to the total number of accesses recorded.
+ *
+ * To instrument a database, pass a {@code HotKeySampler} as the {@code EventKeeper} when
+ * opening it (see {@link FDB#open(String, EventKeeper)}). All {@code EventKeeper} calls are
+ * forwarded to the delegate supplied at construction.
+ */
+public class HotKeySampler implements EventKeeper {
+	/**
+	 * The kind of access being recorded.
+	 */
+	public enum AccessType {
+		/**
+		 * A key read with {@code get()}, or the first key of a range read.
+		 */
+		READ,
+		/**
+		 * A key written with {@code set()}, {@code clear()} or {@code mutate()}, or the first key
+		 * of a cleared range.
+		 */
+		WRITE,
+		/**
+		 * A key which was read (without snapshot isolation) by a transaction which later failed
+		 * with a {@code not_committed} error. These keys are candidates for the conflict, as the
+		 * client does not know which of the read ranges actually conflicted.
+		 */
+		CONFLICT
+	}
+
+	/**
+	 * A key prefix together with its estimated number of accesses.
+	 */
+	public static final class HeavyHitter {
+		private final byte[] prefix;
+		private final AccessType accessType;
+		private final long count;
+
+		HeavyHitter(byte[] prefix, AccessType accessType, long count) {
+			this.prefix = prefix;
+			this.accessType = accessType;
+			this.count = count;
+		}
+
+		/**
+		 * Gets the bucket prefix of the accessed keys.
+		 *
+		 * @return the key prefix
+		 */
+		public byte[] getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * Gets the kind of access that was counted.
+		 *
+		 * @return the access type
+		 */
+		public AccessType getAccessType() {
+			return accessType;
+		}
+
+		/**
+		 * Gets the estimated number of accesses to keys with this prefix.
+		 *
+		 * @return the estimated count
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return accessType + ":" + ByteArrayUtil.printable(prefix) + "=" + count;
+		}
+	}
+
+	/**
+	 * The error code returned when a transaction is aborted due to a conflict.
+	 */
+	static final int NOT_COMMITTED = 1020;
+
+	public static final int DEFAULT_WIDTH = 2048;
+	public static final int DEFAULT_DEPTH = 4;
+	public static final int DEFAULT_TOP_K = 16;
+	public static final int DEFAULT_PREFIX_LENGTH = 16;
+	public static final int DEFAULT_MAX_CONFLICT_CANDIDATES = 32;
+
+	private final EventKeeper delegate;
+	private final int width;
+	private final int depth;
+	private final int defaultPrefixLength;
+	private final int maxConflictCandidates;
+	private final AtomicLongArray[] sketches;
+	private final TopK[] topK;
+
+	// The registered prefixes, each mapped to itself, so that a key is bucketed by its longest
+	// registered prefix in time independent of the number of prefixes
+	private final SubspaceRouter<byte[]> prefixes = new SubspaceRouter<>();
+
+	/**
+	 * Creates a sampler with the default sketch dimensions which forwards all other
+	 * instrumentation to a new {@link MapEventKeeper}.
+	 */
+	public HotKeySampler() {
+		this(new MapEventKeeper());
+	}
+
+	/**
+	 * Creates a sampler with the default sketch dimensions.
+	 *
+	 * @param delegate the {@code EventKeeper} to forward events to
+	 */
+	public HotKeySampler(EventKeeper delegate) {
+		this(delegate, DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_TOP_K, DEFAULT_PREFIX_LENGTH, DEFAULT_MAX_CONFLICT_CANDIDATES);
+	}
+
+	/**
+	 * Creates a sampler.
+	 *
+	 * @param delegate the {@code EventKeeper} to forward events to
+	 * @param width the number of counters in each row of the sketch
+	 * @param depth the number of rows (independent hashes) in the sketch
+	 * @param topK the number of heavy hitters to retain for each access type
+	 * @param defaultPrefixLength the number of bytes used to bucket keys outside of any registered
+	 *  subspace, or a non-positive number to bucket by the whole key
+	 * @param maxConflictCandidates the maximum number of read keys remembered per transaction
+	 *  for attribution of {@code not_committed} errors
+	 */
+	public HotKeySampler(EventKeeper delegate, int width, int depth, int topK, int defaultPrefixLength, int maxConflictCandidates) {
+		if(delegate == null) {
+			throw new IllegalArgumentException("Delegate EventKeeper cannot be null");
+		}
+		if(width <= 0 || depth <= 0 || topK <= 0) {
+			throw new IllegalArgumentException("Sketch width, depth, and top-K size must be positive");
+		}
+		this.delegate = delegate;
+		this.width = width;
+		this.depth = depth;
+		this.defaultPrefixLength = defaultPrefixLength;
+		this.maxConflictCandidates = Math.max(0, maxConflictCandidates);
+		AccessType[] types = AccessType.values();
+		this.sketches = new AtomicLongArray[types.length];
+		this.topK = new TopK[types.length];
+		for(int i = 0; i < types.length; i++) {
+			sketches[i] = new AtomicLongArray(width * depth);
+			this.topK[i] = new TopK(topK);
+		}
+	}
+
+	/**
+	 * Registers a subspace whose prefix should be used as a bucket. Keys are attributed to the
+	 * longest registered prefix that contains them.
+	 *
+	 * @param subspace the subspace to track
+	 */
+	public void addSubspace(Subspace subspace) {
+		byte[] prefix = subspace.getKey();
+		prefixes.put(prefix, prefix);
+	}
+
+	/**
+	 * Records a single access to {@code key}.
+	 *
+	 * @param type the kind of access
+	 * @param key the key which was accessed
+	 */
+	public void record(AccessType type, byte[] key) {
+		if(key == null) {
+			return;
+		}
+		int length = bucketLength(key);
+		long hash = hash(key, length);
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32);
+		AtomicLongArray sketch = sketches[type.ordinal()];
+		long estimate = Long.MAX_VALUE;
+		for(int row = 0; row < depth; row++) {
+			int column = ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+			long count = sketch.incrementAndGet(row * width + column);
+			if(count < estimate) {
+				estimate = count;
+			}
+		}
+		topK[type.ordinal()].offer(key, length, estimate);
+	}
+
+	/**
+	 * Gets the estimated count of accesses to the bucket containing {@code key}.
+	 *
+	 * @param type the kind of access
+	 * @param key a key within the bucket to look up
+	 * @return the estimated number of accesses
+	 */
+	public long estimate(AccessType type, byte[] key) {
+		int length = bucketLength(key);
+		long hash = hash(key, length);
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32);
+		AtomicLongArray sketch = sketches[type.ordinal()];
+		long estimate = Long.MAX_VALUE;
+		for(int row = 0; row < depth; row++) {
+			int column = ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+			estimate = Math.min(estimate, sketch.get(row * width + column));
+		}
+		return estimate;
+	}
+
+	/**
+	 * Gets the current heavy hitters for an access type, ordered from most to least accessed.
+	 *
+	 * @param type the kind of access
+	 * @return a snapshot of the top prefixes and their estimated counts
+	 */
+	public List<HeavyHitter> getHeavyHitters(AccessType type) {
+		return topK[type.ordinal()].snapshot(type);
+	}
+
+	/**
+	 * Clears all counts and heavy hitters. Registered subspaces are retained.
+	 */
+	public void reset() {
+		for(int i = 0; i < sketches.length; i++) {
+			AtomicLongArray sketch = sketches[i];
+			for(int j = 0; j < sketch.length(); j++) {
+				sketch.set(j, 0L);
+			}
+			topK[i].clear();
+		}
+	}
+
+	/**
+	 * Gets the {@code EventKeeper} to which this sampler forwards events.
+	 *
+	 * @return the delegate
+	 */
+	public EventKeeper getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void count(Event event, long amt) {
+		delegate.count(event, amt);
+	}
+
+	@Override
+	public void timeNanos(Event event, long nanos) {
+		delegate.timeNanos(event, nanos);
+	}
+
+	@Override
+	public long getCount(Event event) {
+		return delegate.getCount(event);
+	}
+
+	@Override
+	public long getTimeNanos(Event event) {
+		return delegate.getTimeNanos(event);
+	}
+
+	ConflictCandidates newConflictCandidates() {
+		return new ConflictCandidates(maxConflictCandidates);
+	}
+
+	void recordError(int code, ConflictCandidates candidates) {
+		if(code == NOT_COMMITTED && candidates != null) {
+			candidates.drainTo(this);
+		}
+	}
+
+	private int bucketLength(byte[] key) {
+		byte[] prefix = prefixes.route(key);
+		if(prefix != null) {
+			return prefix.length;
+		}
+		return defaultPrefixLength <= 0 ? key.length : Math.min(key.length, defaultPrefixLength);
+	}
+
+	private static long hash(byte[] key, int length) {
+		// 64-bit FNV-1a followed by a finalizer, so that both halves are usable as independent hashes
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < length; i++) {
+			h ^= key[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * The bounded set of heavy hitters for one access type. The minimum retained count is
+	 * published through a volatile so that the common case of a cold key skips the lock.
+	 */
+	private static final class TopK {
+		private final byte[][] keys;
+		private final long[] counts;
+		private int size;
+		private volatile long threshold;
+
+		TopK(int capacity) {
+			keys = new byte[capacity][];
+			counts = new long[capacity];
+		}
+
+		void offer(byte[] key, int length, long estimate) {
+			if(estimate <= threshold) {
+				return;
+			}
+			synchronized(this) {
+				int min = -1;
+				for(int i = 0; i < size; i++) {
+					if(keys[i].length == length && regionEquals(keys[i], key, length)) {
+						counts[i] = Math.max(counts[i], estimate);
+						updateThreshold();
+						return;
+					}
+					if(min < 0 || counts[i] < counts[min]) {
+						min = i;
+					}
+				}
+				if(size < keys.length) {
+					keys[size] = Arrays.copyOf(key, length);
+					counts[size] = estimate;
+					size++;
+				}
+				else if(estimate > counts[min]) {
+					keys[min] = Arrays.copyOf(key, length);
+					counts[min] = estimate;
+				}
+				updateThreshold();
+			}
+		}
+
+		private void updateThreshold() {
+			if(size < keys.length) {
+				threshold = 0L;
+				return;
+			}
+			long min = Long.MAX_VALUE;
+			for(int i = 0; i < size; i++) {
+				min = Math.min(min, counts[i]);
+			}
+			threshold = min;
+		}
+
+		synchronized List<HeavyHitter> snapshot(AccessType type) {
+			List<HeavyHitter> hitters = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) {
+				hitters.add(new HeavyHitter(Arrays.copyOf(keys[i], keys[i].length), type, counts[i]));
+			}
+			hitters.sort(Collections.reverseOrder((a, b) -> Long.compare(a.count, b.count)));
+			return hitters;
+		}
+
+		synchronized void clear() {
+			Arrays.fill(keys, null);
+			Arrays.fill(counts, 0L);
+			size = 0;
+			threshold = 0L;
+		}
+
+		private static boolean regionEquals(byte[] a, byte[] b, int length) {
+			for(int i = 0; i < length; i++) {
+				if(a[i] != b[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The non-snapshot read keys of a single transaction, retained so that they can be
+	 * attributed if the transaction fails to commit due to a conflict. Once full, further keys
+	 * are dropped.
+	 */
+	static final class ConflictCandidates {
+		private final byte[][] keys;
+		private int size;
+
+		ConflictCandidates(int capacity) {
+			keys = new byte[capacity][];
+		}
+
+		synchronized void add(byte[] key) {
+			if(size < keys.length) {
+				// Copied, as the caller may reuse the array once the read has been issued
+				keys[size++] = Arrays.copyOf(key, key.length);
+			}
+		}
+
+		synchronized void drainTo(HotKeySampler sampler) {
+			for(int i = 0; i < size; i++) {
+				sampler.record(AccessType.CONFLICT, keys[i]);
+				keys[i] = null;
+			}
+			size = 0;
+		}
+	}
+}
@@ -21,6 +21,7 @@
 package com.apple.foundationdb;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class KeyArrayResult {
@@ -41,4 +42,13 @@ public class KeyArrayResult {
 			keys.add(key);
 		}
 	}
+
+	/**
+	 * Gets the keys returned by the database.
+	 *
+	 * @return an unmodifiable list of the keys, in the order returned
+	 */
+	public List<byte[]> getKeys() {
+		return Collections.unmodifiableList(keys);
+	}
 }
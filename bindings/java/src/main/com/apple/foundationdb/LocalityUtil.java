@@ -21,7 +21,10 @@
 package com.apple.foundationdb;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
@@ -112,6 +115,123 @@ public class LocalityUtil {
 		return ((FDBTransaction)tr).getAddressesForKey(key);
 	}
 
+	/**
+	 * Returns the location of each shard within a range of keys: the range of keys stored on
+	 *  a single team of storage servers, together with the public network addresses of those
+	 *  servers. The first and last of the returned {@link ShardLocation}s are truncated to the
+	 *  requested range. The boundaries of the shards are read as with
+	 *  {@link #getBoundaryKeys(Database, byte[], byte[])}, and the addresses for all of the
+	 *  shards are then requested at once.<br>
+	 *<br>
+	 * This method is not transactional. The returned locations are an estimate and may not
+	 *  represent the exact locations at any database version.
+	 *
+	 * If locality information is not available, the returned future will carry a
+	 *  {@link FDBException} locality_information_unavailable.
+	 *
+	 * @param db the database to query
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 *
+	 * @return the locations of the shards within the range, in key order
+	 */
+	public static CompletableFuture<List<ShardLocation>> getShardLocations(Database db, byte[] begin, byte[] end) {
+		if(ByteArrayUtil.compareUnsigned(begin, end) >= 0) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		final CloseableAsyncIterator<byte[]> boundaries = getBoundaryKeys(db, begin, end);
+		return AsyncUtil.collectRemaining(boundaries, db.getExecutor())
+		.whenComplete((keys, error) -> boundaries.close())
+		.thenComposeAsync(keys -> {
+			final List<byte[]> starts = new ArrayList<>(keys.size() + 1);
+			starts.add(begin);
+			for(byte[] key : keys) {
+				if(ByteArrayUtil.compareUnsigned(key, begin) > 0) {
+					starts.add(key);
+				}
+			}
+
+			final Transaction tr = db.createTransaction();
+			final List<CompletableFuture<String[]>> addresses = new ArrayList<>(starts.size());
+			for(byte[] start : starts) {
+				addresses.add(getAddressesForKey(tr, start));
+			}
+			return AsyncUtil.getAll(addresses).thenApply(results -> {
+				List<ShardLocation> locations = new ArrayList<>(starts.size());
+				for(int i = 0; i < starts.size(); i++) {
+					byte[] shardEnd = i + 1 < starts.size() ? starts.get(i + 1) : end;
+					locations.add(new ShardLocation(new Range(starts.get(i), shardEnd), results.get(i)));
+				}
+				return locations;
+			}).whenComplete((locations, error) -> tr.close());
+		}, db.getExecutor());
+	}
+
+	/**
+	 * Returns whether an error indicates that a request was sent to a storage server that
+	 *  no longer stores the requested keys, so that any cached locations of those keys, such
+	 *  as those held by a {@link ShardLocationCache}, are likely to be out of date. These are
+	 *  the errors {@code wrong_shard_server} and {@code all_alternatives_failed}, which the
+	 *  client retries internally, but which can reach the application when retries run out.
+	 *
+	 * @param e the error, which may be wrapped in a {@link CompletionException}
+	 *
+	 * @return whether {@code e} indicates that shard locations have changed
+	 */
+	public static boolean isShardLocationError(Throwable e) {
+		while(e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		if(!(e instanceof FDBException)) {
+			return false;
+		}
+		int code = ((FDBException)e).getCode();
+		return code == WRONG_SHARD_SERVER || code == ALL_ALTERNATIVES_FAILED;
+	}
+
+	/**
+	 * The location of a shard: a range of keys that is stored on a single team of storage
+	 *  servers, and the public network addresses of those servers.
+	 */
+	public static final class ShardLocation {
+		private final Range range;
+		private final List<String> addresses;
+
+		/**
+		 * Creates a {@code ShardLocation}.
+		 *
+		 * @param range the keys within the shard
+		 * @param addresses the addresses of the storage servers responsible for the shard
+		 */
+		public ShardLocation(Range range, String[] addresses) {
+			this.range = range;
+			this.addresses = Collections.unmodifiableList(Arrays.asList(addresses.clone()));
+		}
+
+		/**
+		 * Gets the range of keys within the shard.
+		 *
+		 * @return the keys within the shard
+		 */
+		public Range getRange() {
+			return range;
+		}
+
+		/**
+		 * Gets the public network addresses of the storage servers responsible for the shard.
+		 *
+		 * @return an unmodifiable list of addresses in string form
+		 */
+		public List<String> getAddresses() {
+			return addresses;
+		}
+
+		@Override
+		public String toString() {
+			return "ShardLocation(" + range + ", " + addresses + ")";
+		}
+	}
+
 	private static CloseableAsyncIterator<byte[]> getBoundaryKeys_internal(Transaction tr, byte[] begin, byte[] end) {
 		return new BoundaryIterator(tr, begin, end);
 	}
@@ -234,6 +354,9 @@ public class LocalityUtil {
 		}
 	}
 
+	private static final int WRONG_SHARD_SERVER = 1001;
+	private static final int ALL_ALTERNATIVES_FAILED = 1006;
+
 	private static final Charset ASCII = Charset.forName("US-ASCII");
 	static byte[] keyServersForKey(byte[] key) {
 		return ByteArrayUtil.join(new byte[] { (byte)255 },
@@ -0,0 +1,264 @@
+/*
+ * RangePartitioner.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+/**
+ * Utilities for dividing a range of keys into partitions holding roughly equal amounts of data,
+ *  for example to hand out the work of a batch job that reads the whole range. The partitions
+ *  are found by splitting the range into chunks with
+ *  {@link ReadTransaction#getRangeSplitPoints(byte[], byte[], long) getRangeSplitPoints()}, several
+ *  for each partition, estimating the size of each chunk with
+ *  {@link ReadTransaction#getEstimatedRangeSizeBytes(byte[], byte[]) getEstimatedRangeSizeBytes()},
+ *  and then grouping adjacent chunks so that the estimated size of each group is as close as
+ *  possible to an equal share of the total.<br>
+ * <br>
+ * The sizes are estimates, based on a sample of the data kept by the storage servers, so the
+ *  partitions are only as balanced as that sample. A partition that turns out to take much longer
+ *  than the others can be divided again while it is being processed with
+ *  {@link #split(ReadTransactionContext, Partition, byte[], int) split()}. Each {@link Partition} can
+ *  be converted to and from a {@link Tuple}, so that the partitions of a job can be stored in the
+ *  database and claimed by workers.
+ */
+public class RangePartitioner {
+	// The number of chunks the range is split into for each partition requested. More chunks let
+	// the boundaries between partitions fall closer to their ideal positions, at the cost of
+	// estimating the size of each chunk.
+	private static final int CHUNKS_PER_PARTITION = 4;
+
+	/**
+	 * Divides a range of keys into at most {@code count} partitions of roughly equal estimated size.
+	 *  Fewer partitions are returned if the range cannot be split that finely, and a range for which
+	 *  the database has no size estimate is returned as a single partition. The partitions are
+	 *  adjacent, in key order, and together cover the whole range.
+	 *
+	 * @param tcx the database or transaction to read the estimates in
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 * @param count the number of partitions to divide the range into
+	 *
+	 * @return a future that will be set to the partitions of the range
+	 * @throws IllegalArgumentException if {@code count} is not positive
+	 */
+	public static CompletableFuture<List<Partition>> partition(ReadTransactionContext tcx, byte[] begin, byte[] end, int count) {
+		if(count <= 0) {
+			throw new IllegalArgumentException("Number of partitions must be positive");
+		}
+		if(ByteArrayUtil.compareUnsigned(begin, end) >= 0) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		return tcx.readAsync(tr -> tr.getEstimatedRangeSizeBytes(begin, end).thenCompose(total -> {
+			if(count == 1 || total <= 0) {
+				return CompletableFuture.completedFuture(Collections.singletonList(new Partition(new Range(begin, end), total)));
+			}
+			long chunkSize = Math.max(1L, total / ((long)count * CHUNKS_PER_PARTITION));
+			return tr.getRangeSplitPoints(begin, end, chunkSize).thenCompose(result -> {
+				List<byte[]> boundaries = getBoundaries(result.getKeys(), begin, end);
+				List<CompletableFuture<Long>> sizes = new ArrayList<>(boundaries.size() - 1);
+				for(int i = 1; i < boundaries.size(); i++) {
+					sizes.add(tr.getEstimatedRangeSizeBytes(boundaries.get(i - 1), boundaries.get(i)));
+				}
+				return AsyncUtil.getAll(sizes).thenApply(chunkSizes -> group(boundaries, chunkSizes, count));
+			});
+		}));
+	}
+
+	/**
+	 * Divides a range of keys into at most {@code count} partitions of roughly equal estimated size.
+	 *  This is equivalent to calling {@link #partition(ReadTransactionContext, byte[], byte[], int)}
+	 *  with the beginning and end of the range.
+	 *
+	 * @param tcx the database or transaction to read the estimates in
+	 * @param range the range of keys
+	 * @param count the number of partitions to divide the range into
+	 *
+	 * @return a future that will be set to the partitions of the range
+	 * @throws IllegalArgumentException if {@code count} is not positive
+	 */
+	public static CompletableFuture<List<Partition>> partition(ReadTransactionContext tcx, Range range, int count) {
+		return partition(tcx, range.begin, range.end, count);
+	}
+
+	/**
+	 * Divides the unprocessed part of a partition into at most {@code count} new partitions, for
+	 *  use when one partition is taking much longer than the others. The new partitions cover the
+	 *  keys from {@code resumeKey} to the end of {@code partition}, so a worker that has processed
+	 *  every key before {@code resumeKey} can continue with the first of them and hand the rest out
+	 *  to other workers.
+	 *
+	 * @param tcx the database or transaction to read the estimates in
+	 * @param partition the partition to divide
+	 * @param resumeKey the first key of {@code partition} that has not been processed
+	 * @param count the number of partitions to divide the rest of {@code partition} into
+	 *
+	 * @return a future that will be set to the new partitions, which are empty if
+	 *  {@code resumeKey} is the end of {@code partition}
+	 * @throws IllegalArgumentException if {@code count} is not positive, or if {@code resumeKey}
+	 *  is not within {@code partition} or at its end
+	 */
+	public static CompletableFuture<List<Partition>> split(ReadTransactionContext tcx, Partition partition, byte[] resumeKey, int count) {
+		Range range = partition.getRange();
+		if(ByteArrayUtil.compareUnsigned(resumeKey, range.begin) < 0 || ByteArrayUtil.compareUnsigned(resumeKey, range.end) > 0) {
+			throw new IllegalArgumentException("Resume key " + ByteArrayUtil.printable(resumeKey) + " is not within " + range);
+		}
+		return partition(tcx, resumeKey, range.end, count);
+	}
+
+	// Returns the split points in order, starting with begin and ending with end
+	private static List<byte[]> getBoundaries(List<byte[]> splitPoints, byte[] begin, byte[] end) {
+		List<byte[]> boundaries = new ArrayList<>(splitPoints.size() + 2);
+		boundaries.add(begin);
+		for(byte[] key : splitPoints) {
+			if(ByteArrayUtil.compareUnsigned(key, boundaries.get(boundaries.size() - 1)) > 0 && ByteArrayUtil.compareUnsigned(key, end) < 0) {
+				boundaries.add(key);
+			}
+		}
+		boundaries.add(end);
+		return boundaries;
+	}
+
+	// Groups adjacent chunks into partitions, ending each partition at the boundary between chunks
+	// where the total size of the chunks before it is closest to the ideal. The ideal ends are
+	// taken from the total of all of the chunks, so that an error in one does not carry over.
+	private static List<Partition> group(List<byte[]> boundaries, List<Long> chunkSizes, int count) {
+		int chunks = chunkSizes.size();
+		long[] offsets = new long[chunks + 1];
+		for(int i = 0; i < chunks; i++) {
+			offsets[i + 1] = offsets[i] + Math.max(0L, chunkSizes.get(i));
+		}
+		long total = offsets[chunks];
+
+		List<Partition> partitions = new ArrayList<>(Math.min(count, chunks));
+		int start = 0;
+		int end = 0;
+		for(int i = 1; i < count && end < chunks - 1; i++) {
+			long target = (long)((double)total * i / count);
+			while(end < chunks - 1 && offsets[end + 1] <= target) {
+				end++;
+			}
+			if(end < chunks - 1 && target - offsets[end] > offsets[end + 1] - target) {
+				end++;
+			}
+			if(end > start) {
+				partitions.add(new Partition(new Range(boundaries.get(start), boundaries.get(end)), offsets[end] - offsets[start]));
+				start = end;
+			}
+		}
+		partitions.add(new Partition(new Range(boundaries.get(start), boundaries.get(chunks)), total - offsets[start]));
+		return partitions;
+	}
+
+	/**
+	 * A range of keys produced by a {@link RangePartitioner}, together with the estimated number
+	 *  of bytes stored within it at the time it was created.
+	 */
+	public static final class Partition {
+		private final Range range;
+		private final long estimatedBytes;
+
+		/**
+		 * Creates a {@code Partition}.
+		 *
+		 * @param range the keys within the partition
+		 * @param estimatedBytes the estimated number of bytes stored within {@code range}
+		 */
+		public Partition(Range range, long estimatedBytes) {
+			this.range = range;
+			this.estimatedBytes = estimatedBytes;
+		}
+
+		/**
+		 * Gets the range of keys within the partition.
+		 *
+		 * @return the keys within the partition
+		 */
+		public Range getRange() {
+			return range;
+		}
+
+		/**
+		 * Gets the estimated number of bytes stored within the partition when it was created.
+		 *
+		 * @return the estimated size of the partition in bytes
+		 */
+		public long getEstimatedBytes() {
+			return estimatedBytes;
+		}
+
+		/**
+		 * Converts the partition to a {@link Tuple} of its first key, its end key, and its
+		 *  estimated size. The packed forms of the tuples of a set of partitions sort in the
+		 *  order of their keys.
+		 *
+		 * @return a {@code Tuple} representing the partition
+		 */
+		public Tuple toTuple() {
+			return Tuple.from(range.begin, range.end, estimatedBytes);
+		}
+
+		/**
+		 * Creates a {@code Partition} from a {@link Tuple} returned by {@link #toTuple()}.
+		 *
+		 * @param tuple the {@code Tuple} representing the partition
+		 *
+		 * @return the partition represented by {@code tuple}
+		 * @throws IllegalArgumentException if {@code tuple} does not represent a partition
+		 */
+		public static Partition fromTuple(Tuple tuple) {
+			if(tuple.size() != 3 || !(tuple.get(0) instanceof byte[]) || !(tuple.get(1) instanceof byte[]) || !(tuple.get(2) instanceof Number)) {
+				throw new IllegalArgumentException("Tuple " + tuple + " does not represent a partition");
+			}
+			return new Partition(new Range(tuple.getBytes(0), tuple.getBytes(1)), tuple.getLong(2));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) {
+				return true;
+			}
+			if(!(o instanceof Partition)) {
+				return false;
+			}
+			Partition other = (Partition)o;
+			return estimatedBytes == other.estimatedBytes && range.equals(other.range);
+		}
+
+		@Override
+		public int hashCode() {
+			return range.hashCode() * 31 + Long.hashCode(estimatedBytes);
+		}
+
+		@Override
+		public String toString() {
+			return "Partition(" + range + ", " + estimatedBytes + " bytes)";
+		}
+	}
+
+	private RangePartitioner() {}
+}
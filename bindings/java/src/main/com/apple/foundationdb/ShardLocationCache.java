@@ -0,0 +1,228 @@
+/*
+ * ShardLocationCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+import com.apple.foundationdb.LocalityUtil.ShardLocation;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+/**
+ * A client-side cache of the locations of shards, as returned by
+ *  {@link LocalityUtil#getShardLocations(Database, byte[], byte[])}. Each call to
+ *  {@link LocalityUtil#getShardLocations(Database, byte[], byte[]) getShardLocations()} reads the
+ *  shard boundaries within the range from the database, so processes that repeatedly plan work
+ *  by shard (such as a {@link ShardScanScheduler}) can use a {@code ShardLocationCache} to avoid
+ *  those reads.<br>
+ * <br>
+ * Locations are kept for a fixed time after they are read. As shards move between storage
+ *  servers, a cached location can be out of date before then. Callers that get a
+ *  {@code wrong_shard_server} or {@code all_alternatives_failed} error when reading a range
+ *  should pass it to {@link #invalidateOnError(Throwable, byte[], byte[]) invalidateOnError()},
+ *  so that the locations of that range are read again the next time they are needed.<br>
+ * <br>
+ * This class is thread safe.
+ */
+public final class ShardLocationCache {
+	// A cached location, which may be a part of a shard, and when it expires
+	private static final class CachedLocation {
+		final ShardLocation location;
+		final long expiresAt;
+
+		CachedLocation(ShardLocation location, long expiresAt) {
+			this.location = location;
+			this.expiresAt = expiresAt;
+		}
+
+		byte[] begin() {
+			return location.getRange().begin;
+		}
+
+		byte[] end() {
+			return location.getRange().end;
+		}
+
+		CachedLocation truncate(byte[] begin, byte[] end) {
+			String[] addresses = location.getAddresses().toArray(new String[0]);
+			return new CachedLocation(new ShardLocation(new Range(begin, end), addresses), expiresAt);
+		}
+	}
+
+	private final BiFunction<byte[], byte[], CompletableFuture<List<ShardLocation>>> loader;
+	private final long ttlNanos;
+	private final LongSupplier clock;
+
+	// Cached locations by the beginning of their ranges, which never overlap
+	private final TreeMap<byte[], CachedLocation> locations = new TreeMap<>(ByteArrayUtil.comparator());
+
+	/**
+	 * Creates a cache of the shard locations of a database.
+	 *
+	 * @param db the database whose shard locations are cached
+	 * @param ttl how long each location is kept after it is read
+	 * @param unit the unit of {@code ttl}
+	 * @throws IllegalArgumentException if {@code ttl} is not positive
+	 */
+	public ShardLocationCache(Database db, long ttl, TimeUnit unit) {
+		this((begin, end) -> LocalityUtil.getShardLocations(db, begin, end), unit.toNanos(ttl), System::nanoTime);
+	}
+
+	ShardLocationCache(BiFunction<byte[], byte[], CompletableFuture<List<ShardLocation>>> loader, long ttlNanos, LongSupplier clock) {
+		if(ttlNanos <= 0) {
+			throw new IllegalArgumentException("Shard location lifetime must be positive");
+		}
+		this.loader = loader;
+		this.ttlNanos = ttlNanos;
+		this.clock = clock;
+	}
+
+	/**
+	 * Gets the location of each shard within a range of keys. If the locations of every key in the
+	 *  range are cached and have not expired, they are returned without reading from the database.
+	 *  Otherwise, the locations of the whole range are read again and replace any cached ones.<br>
+	 * <br>
+	 * Each returned location may cover only part of a shard. The first and last of them are
+	 *  truncated to the requested range, and a shard that was cached as a part of two
+	 *  different ranges is returned as two adjacent locations on the same servers.
+	 *
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 *
+	 * @return the locations of the shards within the range, in key order
+	 */
+	public CompletableFuture<List<ShardLocation>> getShardLocations(byte[] begin, byte[] end) {
+		if(ByteArrayUtil.compareUnsigned(begin, end) >= 0) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		List<ShardLocation> cached = getCached(begin, end);
+		if(cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		return loader.apply(begin, end).thenApply(loaded -> {
+			put(begin, end, loaded);
+			return loaded;
+		});
+	}
+
+	/**
+	 * Removes the cached locations of a range of keys, so that they are read again the next time
+	 *  they are requested.
+	 *
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 */
+	public synchronized void invalidate(byte[] begin, byte[] end) {
+		removeRange(begin, end);
+	}
+
+	/**
+	 * Removes every cached location.
+	 */
+	public synchronized void invalidateAll() {
+		locations.clear();
+	}
+
+	/**
+	 * Removes the cached locations of a range of keys if an error encountered while reading
+	 *  them indicates that they are out of date, as determined by
+	 *  {@link LocalityUtil#isShardLocationError(Throwable)}.
+	 *
+	 * @param e the error encountered while reading from the range
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 *
+	 * @return whether the locations of the range were removed
+	 */
+	public boolean invalidateOnError(Throwable e, byte[] begin, byte[] end) {
+		if(!LocalityUtil.isShardLocationError(e)) {
+			return false;
+		}
+		invalidate(begin, end);
+		return true;
+	}
+
+	synchronized int size() {
+		return locations.size();
+	}
+
+	// Returns the cached locations covering the range, or null if any part of it is not cached
+	// or has expired
+	private synchronized List<ShardLocation> getCached(byte[] begin, byte[] end) {
+		long now = clock.getAsLong();
+		Map.Entry<byte[], CachedLocation> first = locations.floorEntry(begin);
+		if(first == null) {
+			return null;
+		}
+		List<ShardLocation> result = new ArrayList<>();
+		CachedLocation cached = first.getValue();
+		byte[] pos = begin;
+		while(true) {
+			if(cached == null || cached.expiresAt - now <= 0 || ByteArrayUtil.compareUnsigned(cached.end(), pos) <= 0) {
+				return null;
+			}
+			boolean last = ByteArrayUtil.compareUnsigned(cached.end(), end) >= 0;
+			if(pos == begin || last) {
+				cached = cached.truncate(pos, last ? end : cached.end());
+			}
+			result.add(cached.location);
+			if(last) {
+				return result;
+			}
+			pos = cached.end();
+			cached = locations.get(pos);
+		}
+	}
+
+	private synchronized void put(byte[] begin, byte[] end, List<ShardLocation> loaded) {
+		removeRange(begin, end);
+		long expiresAt = clock.getAsLong() + ttlNanos;
+		for(ShardLocation location : loaded) {
+			locations.put(location.getRange().begin, new CachedLocation(location, expiresAt));
+		}
+	}
+
+	// Removes the locations within a range, truncating those that extend beyond it
+	private void removeRange(byte[] begin, byte[] end) {
+		Map.Entry<byte[], CachedLocation> before = locations.lowerEntry(begin);
+		if(before != null && ByteArrayUtil.compareUnsigned(before.getValue().end(), begin) > 0) {
+			CachedLocation straddling = before.getValue();
+			locations.put(straddling.begin(), straddling.truncate(straddling.begin(), begin));
+			if(ByteArrayUtil.compareUnsigned(straddling.end(), end) > 0) {
+				locations.put(end, straddling.truncate(end, straddling.end()));
+			}
+		}
+
+		Map<byte[], CachedLocation> within = locations.subMap(begin, true, end, false);
+		CachedLocation lastWithin = within.isEmpty() ? null : locations.lowerEntry(end).getValue();
+		within.clear();
+		if(lastWithin != null && ByteArrayUtil.compareUnsigned(lastWithin.end(), end) > 0) {
+			locations.put(end, lastWithin.truncate(end, lastWithin.end()));
+		}
+	}
+}
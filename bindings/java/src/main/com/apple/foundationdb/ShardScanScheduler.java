@@ -0,0 +1,269 @@
+/*
+ * ShardScanScheduler.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.apple.foundationdb.LocalityUtil.ShardLocation;
+import com.apple.foundationdb.async.AsyncUtil;
+
+/**
+ * Runs a scan of a range of keys as one task per shard, limiting the number of tasks that read from
+ *  each storage server at once. The shards of the range are found with a {@link ShardLocationCache},
+ *  and each task is given the range of one shard (or of the part of it within the scanned range).
+ *  A task is only started while every storage server responsible for its shard is serving fewer
+ *  than the maximum number of tasks, as any of them may serve its reads. Among the tasks that can
+ *  be started, the shards of each team of servers are taken in turn, so that a scan spreads its
+ *  reads across the cluster rather than working through the shards of one team at a time. Shards
+ *  for which no servers are known are counted against a single shared server, so that they are
+ *  limited in the same way.<br>
+ * <br>
+ * The limits apply across every scan run by the same {@code ShardScanScheduler}, so concurrent
+ *  scans share each server's capacity. When a task fails, its scan fails with the same error and
+ *  starts no more tasks, though tasks already started run to completion. If the error indicates
+ *  that the shard has moved (see {@link LocalityUtil#isShardLocationError(Throwable)}), its cached
+ *  location is also invalidated. Tasks are responsible for retrying their own transactions, for
+ *  example with {@link Database#runAsync(Function)}.<br>
+ * <br>
+ * This class is thread safe.
+ */
+public final class ShardScanScheduler {
+	private static final class Scan<T> {
+		final Function<? super Range, ? extends CompletableFuture<T>> scanner;
+		final CompletableFuture<List<T>> result = new CompletableFuture<>();
+		final Object[] results;
+		int remaining;
+
+		Scan(Function<? super Range, ? extends CompletableFuture<T>> scanner, int shards) {
+			this.scanner = scanner;
+			this.results = new Object[shards];
+			this.remaining = shards;
+		}
+
+		// Records the result of a task, returning the results of the scan if it was the last one
+		@SuppressWarnings("unchecked")
+		List<T> complete(int index, Object value) {
+			results[index] = value;
+			return --remaining == 0 ? (List<T>)Arrays.asList(results) : null;
+		}
+	}
+
+	private static final class Task {
+		final Scan<?> scan;
+		final int index;
+		final ShardLocation location;
+		final List<String> servers;
+
+		Task(Scan<?> scan, int index, ShardLocation location) {
+			this.scan = scan;
+			this.index = index;
+			this.location = location;
+			this.servers = location.getAddresses().isEmpty() ? UNKNOWN_TEAM : location.getAddresses();
+		}
+	}
+
+	// The server that tasks for shards without known servers are counted against
+	static final String UNKNOWN_SERVER = "unknown";
+	private static final List<String> UNKNOWN_TEAM = Collections.singletonList(UNKNOWN_SERVER);
+
+	private final ShardLocationCache locations;
+	private final int maxTasksPerServer;
+
+	// Tasks that have not been started, by the team of servers they read from, and the teams with
+	// pending tasks that each server belongs to
+	private final Map<List<String>, Deque<Task>> pending = new HashMap<>();
+	private final Map<String, Set<List<String>>> pendingTeams = new HashMap<>();
+	// Teams that may be able to start a task, in the order they will be given one
+	private final Set<List<String>> ready = new LinkedHashSet<>();
+	// The number of running tasks for each server
+	private final Map<String, Integer> running = new HashMap<>();
+	private final AtomicInteger dispatchRequests = new AtomicInteger();
+
+	/**
+	 * Creates a {@code ShardScanScheduler}.
+	 *
+	 * @param locations the cache of shard locations used to divide scans by shard
+	 * @param maxTasksPerServer the maximum number of tasks that read from any one storage server at once
+	 * @throws IllegalArgumentException if {@code maxTasksPerServer} is not positive
+	 */
+	public ShardScanScheduler(ShardLocationCache locations, int maxTasksPerServer) {
+		if(maxTasksPerServer <= 0) {
+			throw new IllegalArgumentException("Maximum number of tasks per server must be positive");
+		}
+		this.locations = locations;
+		this.maxTasksPerServer = maxTasksPerServer;
+	}
+
+	/**
+	 * Scans a range of keys by running a task for each shard within it.
+	 *
+	 * @param begin the inclusive start of the range
+	 * @param end the exclusive end of the range
+	 * @param scanner the task to run for the range of each shard
+	 * @param <T> the type of the results of the tasks
+	 *
+	 * @return a future that will be set to the results of the tasks, in key order, once all of them
+	 *  have completed
+	 */
+	public <T> CompletableFuture<List<T>> scan(byte[] begin, byte[] end, Function<? super Range, ? extends CompletableFuture<T>> scanner) {
+		return locations.getShardLocations(begin, end).thenCompose(shards -> {
+			Scan<T> scan = new Scan<>(scanner, shards.size());
+			if(shards.isEmpty()) {
+				scan.result.complete(new ArrayList<>());
+				return scan.result;
+			}
+
+			synchronized(this) {
+				for(int i = 0; i < shards.size(); i++) {
+					Task task = new Task(scan, i, shards.get(i));
+					pending.computeIfAbsent(task.servers, team -> {
+						for(String server : team) {
+							pendingTeams.computeIfAbsent(server, s -> new HashSet<>()).add(team);
+						}
+						return new ArrayDeque<>();
+					}).add(task);
+					ready.add(task.servers);
+				}
+			}
+			dispatch();
+			return scan.result;
+		});
+	}
+
+	// Starts the pending tasks of the ready teams whose servers all have capacity. As tasks can
+	// complete as soon as they are started, calls made while another is in progress (including from
+	// within it) are handled by having that call run again, rather than by recursing.
+	private void dispatch() {
+		if(dispatchRequests.getAndIncrement() != 0) {
+			return;
+		}
+		try {
+			do {
+				startPending();
+			} while(dispatchRequests.decrementAndGet() != 0);
+		}
+		catch(RuntimeException | Error e) {
+			// Let later calls dispatch again rather than leave every scan waiting
+			dispatchRequests.set(0);
+			throw e;
+		}
+	}
+
+	// Gives each ready team a task in turn until none of them can start another. A team that cannot
+	// is not checked again until a task on one of its servers completes.
+	private void startPending() {
+		List<Task> started = new ArrayList<>();
+		synchronized(this) {
+			while(!ready.isEmpty()) {
+				List<String> team = ready.iterator().next();
+				ready.remove(team);
+				Deque<Task> tasks = pending.get(team);
+				while(tasks != null && !tasks.isEmpty() && tasks.peek().scan.result.isDone()) {
+					tasks.poll();
+				}
+				if(tasks == null || tasks.isEmpty()) {
+					removePending(team);
+				}
+				else if(hasCapacity(team)) {
+					for(String server : team) {
+						running.merge(server, 1, Integer::sum);
+					}
+					started.add(tasks.poll());
+					ready.add(team);
+				}
+			}
+		}
+		for(Task task : started) {
+			start(task);
+		}
+	}
+
+	private void removePending(List<String> team) {
+		if(pending.remove(team) != null) {
+			for(String server : team) {
+				Set<List<String>> teams = pendingTeams.get(server);
+				teams.remove(team);
+				if(teams.isEmpty()) {
+					pendingTeams.remove(server);
+				}
+			}
+		}
+	}
+
+	private boolean hasCapacity(List<String> servers) {
+		for(String server : servers) {
+			if(running.getOrDefault(server, 0) >= maxTasksPerServer) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private <T> void start(Task task) {
+		@SuppressWarnings("unchecked")
+		Scan<T> scan = (Scan<T>)task.scan;
+		Range range = task.location.getRange();
+		// A scanner that throws or returns null fails its task like one whose future fails, so that
+		// the task's servers are released
+		CompletableFuture<T> future = AsyncUtil.applySafely(scan.scanner::apply, range);
+		if(future == null) {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(new NullPointerException("Scanner returned null for " + range));
+		}
+		future.whenComplete((value, error) -> {
+			List<T> results = null;
+			synchronized(this) {
+				for(String server : task.servers) {
+					running.merge(server, -1, (count, one) -> count + one == 0 ? null : count + one);
+					ready.addAll(pendingTeams.getOrDefault(server, Collections.emptySet()));
+				}
+				if(error == null) {
+					results = scan.complete(task.index, value);
+				}
+			}
+			if(results != null) {
+				scan.result.complete(results);
+			}
+			else if(error != null) {
+				locations.invalidateOnError(error, range.begin, range.end);
+				scan.result.completeExceptionally(error);
+			}
+			dispatch();
+		});
+	}
+
+	synchronized int getRunningTasks(String address) {
+		return running.getOrDefault(address, 0);
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * DirectoryKeyIndex.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.subspace.SubspaceRouter;
+
+/**
+ * An index of every directory in a directory tree by its prefix, used by a
+ *  {@link DirectoryLayer} to find the directory containing a key. The prefixes are kept in a
+ *  {@link SubspaceRouter}, so finding the directory for a key takes one step for each byte of
+ *  the key up to the end of the longest matching prefix, and allocates nothing.
+ * <br>
+ * <br>
+ * Along with the directories, the index records the value of the metadata version key of each
+ *  directory layer that it was built from (that of the root directory layer, and that of
+ *  each {@link DirectoryPartition} within it), so that a cached index can be checked against
+ *  the current state of the tree.
+ */
+final class DirectoryKeyIndex {
+	private final SubspaceRouter<DirectorySubspace> directories = new SubspaceRouter<>();
+	private final List<byte[]> versionKeys = new ArrayList<>();
+	private final List<byte[]> versions = new ArrayList<>();
+
+	/**
+	 * Adds a directory to the index. This is only called while the index is being built, before
+	 *  it is shared.
+	 *
+	 * @param prefix the prefix of the directory
+	 * @param directory the directory to add
+	 */
+	void add(byte[] prefix, DirectorySubspace directory) {
+		directories.put(prefix, directory);
+	}
+
+	/**
+	 * Records the value of a metadata version key read while building the index.
+	 *
+	 * @param versionKey the metadata version key of a directory layer
+	 * @param version the value of {@code versionKey}, or {@code null} if it was not set
+	 */
+	synchronized void addVersion(byte[] versionKey, byte[] version) {
+		versionKeys.add(versionKey);
+		versions.add(version);
+	}
+
+	/**
+	 * Finds the directory with the longest prefix that is a prefix of a key. As the prefixes of
+	 *  directories in one directory layer never overlap, this is the directory containing the key,
+	 *  or for a key in a {@link DirectoryPartition}, the directory containing it within the
+	 *  partition.
+	 *
+	 * @param key the key to find the directory for
+	 * @return the directory containing {@code key}, or {@code null} if no directory contains it
+	 */
+	DirectorySubspace find(byte[] key) {
+		return directories.route(key);
+	}
+
+	/**
+	 * Checks that none of the directory layers the index was built from have changed, by
+	 *  reading each of their metadata version keys.
+	 *
+	 * @param tr the transaction to read the metadata version keys in
+	 * @return a future that will be set to whether the index is still current
+	 */
+	CompletableFuture<Boolean> isCurrent(ReadTransaction tr) {
+		List<CompletableFuture<byte[]>> reads = new ArrayList<>(versionKeys.size());
+		for(byte[] key : versionKeys) {
+			reads.add(tr.get(key));
+		}
+		return AsyncUtil.getAll(reads).thenApply(current -> {
+			for(int i = 0; i < current.size(); i++) {
+				if(!Arrays.equals(current.get(i), versions.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		});
+	}
+
+	int size() {
+		return directories.size();
+	}
+}
@@ -23,12 +23,22 @@ package com.apple.foundationdb.directory;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 import com.apple.foundationdb.KeyValue;
@@ -68,12 +78,16 @@ import com.apple.foundationdb.tuple.Tuple;
  */
 public class DirectoryLayer implements Directory {
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
-	private static final byte[] LITTLE_ENDIAN_LONG_ONE = { 1, 0, 0, 0, 0, 0, 0, 0 };
 	private static final byte[] HIGH_CONTENTION_KEY = "hca".getBytes(UTF_8);
 	private static final byte[] LAYER_KEY = "layer".getBytes(UTF_8);
 	private static final byte[] VERSION_KEY = "version".getBytes(UTF_8);
+	private static final byte[] METADATA_VERSION_KEY = "metadataVersion".getBytes(UTF_8);
 	private static final long SUB_DIR_KEY = 0;
 	private static final Integer[] VERSION = { 1, 0, 0 };
+	private static final byte[] PENDING_REMOVALS_KEY = "pendingRemovals".getBytes(UTF_8);
+	private static final int MAX_PREFIX_HINTS = 1024;
+	private static final int MAX_CONCURRENT_NODE_READS = 100;
+	private static final int MAX_INDEX_ENTRIES_PER_READ = 1000;
 
 	static final byte[] EMPTY_BYTES = new byte[0];
 	static final List<String> EMPTY_PATH = Collections.emptyList();
@@ -90,10 +104,15 @@ public class DirectoryLayer implements Directory {
 	public static final Subspace DEFAULT_CONTENT_SUBSPACE = new Subspace();
 
 	private final Subspace rootNode;
+	private final Subspace pendingRemovals;
 	private final Subspace nodeSubspace;
 	private final Subspace contentSubspace;
 	private final HighContentionAllocator allocator;
 	private final boolean allowManualPrefixes;
+	private final DirectoryPathCache pathCache;
+	private final Map<List<String>, byte[]> prefixHints;
+	private final boolean cacheKeyIndex;
+	private volatile DirectoryKeyIndex keyIndex;
 
 	private List<String> path = EMPTY_PATH;
 	/**
@@ -168,12 +187,90 @@ public class DirectoryLayer implements Directory {
 	 * {@link Directory#create(TransactionContext, List, byte[], byte[])}
 	 */
 	public DirectoryLayer(Subspace nodeSubspace, Subspace contentSubspace, boolean allowManualPrefixes) {
+		this(nodeSubspace, contentSubspace, allowManualPrefixes, 0);
+	}
+
+	/**
+	 * Constructor for a {@code DirectoryLayer} formed with a specified node
+	 * subspace and specified content subspace that caches the directories it opens.
+	 * A {@code DirectoryLayer} defines a new root directory. The node subspace and
+	 * content subspace control where the directory metadata and contents, respectively,
+	 * are stored.
+	 *
+	 * <p>
+	 *   If {@code pathCacheSize} is positive, up to that many of the most recently
+	 *   opened paths are kept in memory along with the value of a metadata version
+	 *   key that every {@code DirectoryLayer} operation that creates, moves, or removes
+	 *   a directory changes. A call to {@link #open(ReadTransactionContext, List, byte[])}
+	 *   or {@link #createOrOpen(TransactionContext, List, byte[])} for a cached path
+	 *   then reads only that key, and uses the cached directory if the key still has
+	 *   the same value. Otherwise, the path is resolved as usual. Because the cache
+	 *   is validated by that read, a transaction that uses a cached directory will
+	 *   conflict with any concurrent change to the directory tree.
+	 * </p>
+	 * <p>
+	 *   Clients that modify the directory tree without changing the metadata version
+	 *   key (including those using earlier versions of this class) will not invalidate
+	 *   the cache, so it should only be enabled if every client that modifies this
+	 *   directory tree does so through a version of this class that changes the key.
+	 *   Paths within a {@link DirectoryPartition} are not cached.
+	 * </p>
+	 * <p>
+	 *   A {@code DirectoryLayer} that caches paths also keeps the index of directory
+	 *   prefixes built by {@link #findDirectoryForKey(ReadTransactionContext, byte[])},
+	 *   which is validated in the same way.
+	 * </p>
+	 *
+	 * @param nodeSubspace a {@link Subspace} used to store directory metadata
+	 * @param contentSubspace a {@link Subspace} used to store directory content
+	 * @param allowManualPrefixes whether or not prefixes can be specified in calls to
+	 * {@link Directory#create(TransactionContext, List, byte[], byte[])}
+	 * @param pathCacheSize the maximum number of opened directories to cache, or {@code 0}
+	 * to disable caching
+	 */
+	public DirectoryLayer(Subspace nodeSubspace, Subspace contentSubspace, boolean allowManualPrefixes, int pathCacheSize) {
+		this(nodeSubspace, contentSubspace, allowManualPrefixes, pathCacheSize, pathCacheSize > 0);
+	}
+
+	/**
+	 * Constructor for a {@code DirectoryLayer} formed with a specified node
+	 * subspace and specified content subspace that caches the directories it opens
+	 * and the index of directory prefixes used by
+	 * {@link #findDirectoryForKey(ReadTransactionContext, byte[])}. This is the same as
+	 * {@link #DirectoryLayer(Subspace, Subspace, boolean, int)}, except that the index
+	 * can be kept without also caching paths. Like cached paths, the index is validated
+	 * by the metadata version key, so it should only be kept if every client that
+	 * modifies this directory tree changes that key.
+	 *
+	 * @param nodeSubspace a {@link Subspace} used to store directory metadata
+	 * @param contentSubspace a {@link Subspace} used to store directory content
+	 * @param allowManualPrefixes whether or not prefixes can be specified in calls to
+	 * {@link Directory#create(TransactionContext, List, byte[], byte[])}
+	 * @param pathCacheSize the maximum number of opened directories to cache, or {@code 0}
+	 * to disable caching
+	 * @param cacheKeyIndex whether to keep the index of directory prefixes between calls
+	 * to {@link #findDirectoryForKey(ReadTransactionContext, byte[])}
+	 */
+	public DirectoryLayer(Subspace nodeSubspace, Subspace contentSubspace, boolean allowManualPrefixes, int pathCacheSize,
+	                      boolean cacheKeyIndex) {
+		if(pathCacheSize < 0) {
+			throw new IllegalArgumentException("Path cache size cannot be negative");
+		}
 		this.nodeSubspace = nodeSubspace;
 		this.contentSubspace = contentSubspace;
 		// The root node is the one whose contents are the node subspace
 		this.rootNode = nodeSubspace.get(nodeSubspace.getKey());
+		this.pendingRemovals = rootNode.get(PENDING_REMOVALS_KEY);
 		this.allocator = new HighContentionAllocator(rootNode.get(HIGH_CONTENTION_KEY));
 		this.allowManualPrefixes = allowManualPrefixes;
+		this.pathCache = pathCacheSize > 0 ? new DirectoryPathCache(pathCacheSize) : null;
+		this.cacheKeyIndex = cacheKeyIndex;
+		this.prefixHints = Collections.synchronizedMap(new LinkedHashMap<List<String>, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<String>, byte[]> eldest) {
+				return size() > MAX_PREFIX_HINTS;
+			}
+		});
 	}
 
 	/**
@@ -352,6 +449,36 @@ public class DirectoryLayer implements Directory {
 		return tcx.runAsync(tr -> createOrOpenInternal(tr, tr, path, layer, prefix, true, false));
 	}
 
+	/**
+	 * Creates or opens each of the directories located at {@code paths} (creating parent directories,
+	 * if necessary) in a single transaction. This is equivalent to calling
+	 * {@link #createOrOpen(TransactionContext, List, byte[])} for each path, except that the directory
+	 * layer version is checked once, the nodes for every path and parent are read concurrently, and the
+	 * prefixes for all new directories are allocated concurrently before any directory is written.
+	 * New directories at the given paths have the {@code layer} byte string recorded as their layer,
+	 * and existing directories at the given paths have their layers compared against it. Parent
+	 * directories that are not themselves in {@code paths} are created with an empty layer.
+	 *
+	 * <p>The returned {@link CompletableFuture} can be set to the following errors:</p>
+	 * <ul>
+	 *   <li>{@link MismatchedLayerException} - if any of the directories has already been created with a different {@code layer} byte string</li>
+	 * </ul>
+	 *
+	 * @param tcx the {@link TransactionContext} to execute this operation in
+	 * @param paths a {@code List} of paths, each a {@code List<String>}
+	 * @param layer a {@code byte[]} specifying a layer to set on new directories or check for on existing directories
+	 * @return a {@link CompletableFuture} which will be set to a {@code Map} from each distinct path in {@code paths},
+	 * in the order they were given, to the created or opened {@link DirectorySubspace}
+	 */
+	public CompletableFuture<Map<List<String>, DirectorySubspace>> createOrOpenAll(TransactionContext tcx, final List<List<String>> paths, final byte[] layer) {
+		final List<List<String>> pathCopies = new ArrayList<>(paths.size());
+		for(List<String> path : paths) {
+			pathCopies.add(new ArrayList<>(path));
+		}
+
+		return tcx.runAsync(tr -> createOrOpenAllInternal(tr, pathCopies, layer));
+	}
+
 	/**
 	 * This method should not be called on a {@code DirectoryLayer}. Calling this method will result in the returned
 	 * {@link CompletableFuture} being set to a {@link DirectoryMoveException}.
@@ -444,6 +571,7 @@ public class DirectoryLayer implements Directory {
 					parentNode.subspace.get(SUB_DIR_KEY).get(getLast(newPathCopy)).getKey(),
 					contentsOfNode(oldNode.subspace, EMPTY_PATH, EMPTY_BYTES).getKey()
 				);
+				updateMetadataVersion(tr);
 
 				return removeFromParent(tr, oldPathCopy)
 							.thenApply(ignore -> contentsOfNode(oldNode.subspace, newPathCopy, oldNode.layer));
@@ -493,6 +621,83 @@ public class DirectoryLayer implements Directory {
 		return removeInternal(tcx, path, false);
 	}
 
+	/**
+	 * Removes the directory located at {@code path} and all of its subdirectories,
+	 * as well as all of their contents, across as many transactions as are needed.
+	 * This is intended for directory trees that are too large to remove in a single
+	 * transaction. The {@link TransactionContext} should therefore be a
+	 * {@link com.apple.foundationdb.Database}, which will run each step in a new transaction.
+	 *
+	 * <p>
+	 *   The first transaction removes the directory from its parent, so that it can no
+	 *   longer be opened, and records its node as pending removal. Each later transaction
+	 *   then removes up to {@code maxNodesPerTransaction} pending nodes, recording their
+	 *   subdirectories as pending as it goes. If this is interrupted, the directories that
+	 *   remain are not lost: any later call to this method or to
+	 *   {@link #finishPendingRemovals(TransactionContext, int)} will continue removing them.
+	 * </p>
+	 *
+	 * <p><i>
+	 *   Warning: Clients that have already opened the directory might
+	 *   still insert data into its contents after it is removed.
+	 * </i></p>
+	 *
+	 * @param tcx the {@link TransactionContext} to execute this operation in
+	 * @param path a {@code List<String>} specifying a path
+	 * @param maxNodesPerTransaction the maximum number of directories to remove in each transaction
+	 * @return a {@link CompletableFuture} which will be set to true once the {@code Directory} and all pending
+	 * removals have been completed, or false if it didn't exist.
+	 */
+	public CompletableFuture<Boolean> removeIfExistsIncrementally(final TransactionContext tcx, final List<String> path, final int maxNodesPerTransaction) {
+		if(maxNodesPerTransaction <= 0) {
+			throw new IllegalArgumentException("Maximum number of directories per transaction must be positive");
+		}
+		final List<String> pathCopy = new ArrayList<>(path);
+
+		return tcx.runAsync(tr -> checkOrWriteVersion(tr).thenComposeAsync(ignore -> {
+			if(pathCopy.size() == 0)
+				throw new DirectoryException("The root directory cannot be removed.", toAbsolutePath(pathCopy));
+
+			return new NodeFinder(pathCopy).find(tr).thenComposeAsync(new NodeMetadataLoader(tr), tr.getExecutor());
+		}, tr.getExecutor())
+		.thenComposeAsync(node -> {
+			if(!node.exists() || node.isInPartition(false))
+				return CompletableFuture.completedFuture(node);
+
+			updateMetadataVersion(tr);
+			tr.set(pendingRemovals.pack(nodeSubspace.unpack(node.subspace.getKey()).getBytes(0)), EMPTY_BYTES);
+			return removeFromParent(tr, pathCopy).thenApply(ignore -> node);
+		}, tr.getExecutor()))
+		.thenComposeAsync(node -> {
+			if(!node.exists())
+				return AsyncUtil.READY_FALSE;
+
+			if(node.isInPartition(false))
+				return node.getContents().getDirectoryLayer().removeIfExistsIncrementally(tcx, node.getPartitionSubpath(), maxNodesPerTransaction);
+
+			return AsyncUtil.tag(finishPendingRemovals(tcx, maxNodesPerTransaction), true);
+		}, tcx.getExecutor());
+	}
+
+	/**
+	 * Completes the removal of any directories that were removed by
+	 * {@link #removeIfExistsIncrementally(TransactionContext, List, int)} but whose contents and
+	 * subdirectories have not yet been cleared, for example, because the client removing them
+	 * failed. Each transaction removes up to {@code maxNodesPerTransaction} directories.
+	 * This does not include removals within {@link DirectoryPartition}s, which are recorded
+	 * by the directory layer of each partition.
+	 *
+	 * @param tcx the {@link TransactionContext} to execute this operation in
+	 * @param maxNodesPerTransaction the maximum number of directories to remove in each transaction
+	 * @return a {@link CompletableFuture} which will be set once there are no pending removals
+	 */
+	public CompletableFuture<Void> finishPendingRemovals(final TransactionContext tcx, final int maxNodesPerTransaction) {
+		if(maxNodesPerTransaction <= 0) {
+			throw new IllegalArgumentException("Maximum number of directories per transaction must be positive");
+		}
+		return AsyncUtil.whileTrue(() -> tcx.runAsync(tr -> removePending(tr, maxNodesPerTransaction)), tcx.getExecutor());
+	}
+
 	/**
 	 * List the subdirectories of the directory at a given {@code path}.
 	 *
@@ -511,11 +716,7 @@ public class DirectoryLayer implements Directory {
 	public CompletableFuture<List<String>> list(final ReadTransactionContext tcx, final List<String> path) {
 		final List<String> pathCopy = new ArrayList<String>(path);
 
-		return tcx.readAsync(tr -> checkVersion(tr)
-		.thenComposeAsync(ignore ->
-				new NodeFinder(pathCopy).find(tr).thenComposeAsync(new NodeMetadataLoader(tr), tr.getExecutor()),
-				tr.getExecutor())
-		.thenComposeAsync(node -> {
+		return tcx.readAsync(tr -> findChecked(tr, pathCopy).thenComposeAsync(node -> {
 			if(!node.exists())
 				throw new NoSuchDirectoryException(toAbsolutePath(pathCopy));
 
@@ -534,6 +735,87 @@ public class DirectoryLayer implements Directory {
 		);
 	}
 
+	/**
+	 * Lists the subdirectories of the directory at a given {@code path} as they are read, rather
+	 *  than reading all of them before returning any. The names are returned in the order of their
+	 *  packed keys, and each name is decoded only when it is returned.
+	 * <br>
+	 * <br>
+	 * The listing can start after a given subdirectory by passing its
+	 *  {@link #listContinuation(String) continuation}, such as that of the last name returned by an
+	 *  earlier listing.
+	 *
+	 * <p>Iterating over the returned {@link AsyncIterable} can fail with the following errors:</p>
+	 * <ul>
+	 *   <li>{@link NoSuchDirectoryException} - if no directory exists at {@code path}</li>
+	 * </ul>
+	 *
+	 * @param tr the {@link ReadTransaction} to read the subdirectories in
+	 * @param path a {@code List<String>} specifying a path
+	 * @param continuation the continuation after which to start listing, or {@code null} to start
+	 *  with the first subdirectory
+	 * @return an {@link AsyncIterable} of the names of the subdirectories of the directory at {@code path}
+	 */
+	public AsyncIterable<String> listIterator(final ReadTransaction tr, final List<String> path, final byte[] continuation) {
+		final List<String> pathCopy = new ArrayList<>(path);
+
+		return SubdirectoryIterator.iterable(continuation,
+				after -> findSubdirs(tr, pathCopy).thenApply(subdirs -> new SubdirectoryIterator.Batch(subdirs,
+						getSubdirRange(tr, subdirs, after, ReadTransaction.ROW_LIMIT_UNLIMITED).iterator(), true)),
+				tr.getExecutor());
+	}
+
+	/**
+	 * Lists the subdirectories of the directory at a given {@code path} in pages, each of which is
+	 *  read in its own transaction. This allows listing a directory with more subdirectories than
+	 *  can be read in a single transaction. As with {@link #listIterator(ReadTransaction, List, byte[])},
+	 *  the names are returned in the order of their packed keys, and the listing can start after a
+	 *  given subdirectory by passing its {@link #listContinuation(String) continuation}.
+	 * <br>
+	 * <br>
+	 * As the pages are read at different versions, subdirectories created or removed while the
+	 *  listing is in progress may or may not be returned. The directory itself is resolved again
+	 *  for each page.
+	 *
+	 * <p>Iterating over the returned {@link AsyncIterable} can fail with the following errors:</p>
+	 * <ul>
+	 *   <li>{@link NoSuchDirectoryException} - if no directory exists at {@code path}</li>
+	 * </ul>
+	 *
+	 * @param tcx the {@link ReadTransactionContext} to read each page in. This should be a
+	 *  {@link com.apple.foundationdb.Database Database}, as each page is read with a separate call
+	 *  to {@link ReadTransactionContext#readAsync(Function) readAsync()}.
+	 * @param path a {@code List<String>} specifying a path
+	 * @param continuation the continuation after which to start listing, or {@code null} to start
+	 *  with the first subdirectory
+	 * @param namesPerTransaction the maximum number of subdirectories to read in each transaction
+	 * @return an {@link AsyncIterable} of the names of the subdirectories of the directory at {@code path}
+	 */
+	public AsyncIterable<String> listIterator(final ReadTransactionContext tcx, final List<String> path, final byte[] continuation,
+	                                          final int namesPerTransaction) {
+		if(namesPerTransaction <= 0) {
+			throw new IllegalArgumentException("Number of names per transaction must be positive");
+		}
+		final List<String> pathCopy = new ArrayList<>(path);
+
+		return SubdirectoryIterator.iterable(continuation,
+				after -> tcx.readAsync(tr -> findSubdirs(tr, pathCopy).thenCompose(subdirs ->
+						getSubdirRange(tr, subdirs, after, namesPerTransaction).asList()
+						.thenApply(entries -> new SubdirectoryIterator.Batch(subdirs, entries, entries.size() < namesPerTransaction)))),
+				tcx.getExecutor());
+	}
+
+	/**
+	 * Gets the continuation from which {@link #listIterator(ReadTransaction, List, byte[]) listIterator()}
+	 *  lists the subdirectories after the one with the given name.
+	 *
+	 * @param name the name of a subdirectory, such as the last name returned by a listing
+	 * @return the continuation after {@code name}
+	 */
+	public static byte[] listContinuation(String name) {
+		return Tuple.from(name).pack();
+	}
+
 	/**
 	 * Returns {@code true}.
 	 *
@@ -557,11 +839,7 @@ public class DirectoryLayer implements Directory {
 	public CompletableFuture<Boolean> exists(final ReadTransactionContext tcx, final List<String> path) {
 		final List<String> pathCopy = new ArrayList<>(path);
 
-		return tcx.readAsync(tr -> checkVersion(tr)
-		.thenComposeAsync(ignore ->
-				new NodeFinder(pathCopy).find(tr).thenComposeAsync(new NodeMetadataLoader(tr), tr.getExecutor()),
-				tr.getExecutor())
-		.thenComposeAsync(node -> {
+		return tcx.readAsync(tr -> findChecked(tr, pathCopy).thenComposeAsync(node -> {
 			if(!node.exists())
 				return AsyncUtil.READY_FALSE;
 			else if(node.isInPartition(false))
@@ -571,6 +849,32 @@ public class DirectoryLayer implements Directory {
 		}, tr.getExecutor()));
 	}
 
+	/**
+	 * Finds the directory containing a key, such as a key from a conflict report or a backup. This is
+	 *  the directory whose prefix is a prefix of the key, or for a key within a
+	 *  {@link DirectoryPartition}, the directory within the partition whose prefix is a prefix of the key
+	 *  (or the partition itself, if there is none).
+	 * <br>
+	 * <br>
+	 * As directories do not record their parents, this reads every directory in the tree to build an
+	 *  index of their prefixes. The tree is read a batch of directories at a time, and when {@code tcx}
+	 *  is a {@link com.apple.foundationdb.Database Database}, each batch is read in its own transaction,
+	 *  so that the index of a large tree can be built without exceeding the transaction time limit. The
+	 *  metadata version keys of this directory layer and of each partition within it are then read
+	 *  again, and if any of them have changed, the index is built again. If this {@code DirectoryLayer}
+	 *  was constructed to {@link #DirectoryLayer(Subspace, Subspace, boolean, int, boolean) keep the index},
+	 *  or with a {@link #DirectoryLayer(Subspace, Subspace, boolean, int) path cache}, the index is kept
+	 *  between calls, and each later call only reads those keys unless they have changed.
+	 *
+	 * @param tcx the {@link ReadTransactionContext} to execute this operation in
+	 * @param key the key to find the directory for
+	 * @return a {@link CompletableFuture} which will be set to the {@link DirectorySubspace} containing
+	 *  {@code key}, or to {@code null} if it is not in any directory
+	 */
+	public CompletableFuture<DirectorySubspace> findDirectoryForKey(final ReadTransactionContext tcx, final byte[] key) {
+		return getKeyIndex(tcx).thenApply(index -> index.find(key));
+	}
+
 	//
 	// Internal
 	//
@@ -582,6 +886,178 @@ public class DirectoryLayer implements Directory {
 		return nodeSubspace.get(prefix);
 	}
 
+	// Finds the subspace holding the subdirectory entries of the directory at path, in the
+	// directory layer of the partition containing it
+	private CompletableFuture<Subspace> findSubdirs(final ReadTransaction tr, final List<String> path) {
+		return findChecked(tr, path).thenCompose(node -> {
+			if(!node.exists())
+				throw new NoSuchDirectoryException(toAbsolutePath(path));
+
+			if(node.isInPartition(true))
+				return node.getContents().getDirectoryLayer().findSubdirs(tr, node.getPartitionSubpath());
+
+			return CompletableFuture.completedFuture(node.subspace.get(SUB_DIR_KEY));
+		});
+	}
+
+	private CompletableFuture<DirectoryKeyIndex> getKeyIndex(final ReadTransactionContext tcx) {
+		final DirectoryKeyIndex cached = keyIndex;
+		if(cached == null) {
+			return buildKeyIndex(tcx);
+		}
+		return tcx.readAsync(cached::isCurrent)
+		.thenComposeAsync(current -> current ? CompletableFuture.completedFuture(cached) : buildKeyIndex(tcx), tcx.getExecutor());
+	}
+
+	// Builds the index of every directory in the tree, starting again if the tree changes while it
+	// is being read
+	private CompletableFuture<DirectoryKeyIndex> buildKeyIndex(final ReadTransactionContext tcx) {
+		final AtomicReference<DirectoryKeyIndex> built = new AtomicReference<>();
+		return AsyncUtil.whileTrue(() -> {
+			final DirectoryKeyIndex index = new DirectoryKeyIndex();
+			return tcx.readAsync(this::checkVersion)
+			.thenComposeAsync(ignore -> indexTree(tcx, index), tcx.getExecutor())
+			.thenComposeAsync(ignore -> tcx.readAsync(index::isCurrent), tcx.getExecutor())
+			.thenApply(current -> {
+				if(current) {
+					built.set(index);
+				}
+				return !current;
+			});
+		}, tcx.getExecutor())
+		.thenApply(ignore -> {
+			DirectoryKeyIndex index = built.get();
+			if(cacheKeyIndex) {
+				keyIndex = index;
+			}
+			return index;
+		});
+	}
+
+	// Adds every directory in this directory layer to an index, along with the directories in each
+	// partition within it. Up to MAX_CONCURRENT_NODE_READS nodes are read in each transaction, with
+	// up to MAX_INDEX_ENTRIES_PER_READ entries from each, and nodes with more entries than that are
+	// read again from where the last read stopped.
+	private CompletableFuture<Void> indexTree(final ReadTransactionContext tcx, final DirectoryKeyIndex index) {
+		final Deque<IndexTask> tasks = new ArrayDeque<>();
+		tasks.add(rootIndexTask());
+		return AsyncUtil.whileTrue(() -> {
+			if(tasks.isEmpty())
+				return AsyncUtil.READY_FALSE;
+
+			final List<IndexTask> batch = new ArrayList<>(MAX_CONCURRENT_NODE_READS);
+			while(!tasks.isEmpty() && batch.size() < MAX_CONCURRENT_NODE_READS) {
+				batch.add(tasks.poll());
+			}
+			return tcx.readAsync(tr -> {
+				List<CompletableFuture<IndexPage>> reads = new ArrayList<>(batch.size());
+				for(IndexTask task : batch) {
+					reads.add(task.layer.readIndexPage(tr, task));
+				}
+				return AsyncUtil.getAll(reads);
+			})
+			.thenApply(pages -> {
+				for(int i = 0; i < batch.size(); i++) {
+					IndexTask task = batch.get(i);
+					task.layer.indexPage(index, task, pages.get(i), tasks);
+				}
+				return true;
+			});
+		}, tcx.getExecutor());
+	}
+
+	private IndexTask rootIndexTask() {
+		Node root = new Node(rootNode, EMPTY_PATH, EMPTY_PATH);
+		root.setLayer(EMPTY_BYTES);
+		return new IndexTask(this, root, null);
+	}
+
+	// Reads the next entries of a node: its subdirectories for the root node of a directory layer
+	// (along with the layer's metadata version key), and the whole node range for any other node,
+	// which also includes its layer
+	private CompletableFuture<IndexPage> readIndexPage(final ReadTransaction tr, final IndexTask task) {
+		final Node node = task.node;
+		final Range range = node.path.isEmpty() ? node.subspace.get(SUB_DIR_KEY).range() : node.subspace.range();
+		final byte[] begin = task.continuation == null ? range.begin : ByteArrayUtil.join(task.continuation, new byte[]{0x00});
+		final CompletableFuture<List<KeyValue>> entries = tr.getRange(new Range(begin, range.end), MAX_INDEX_ENTRIES_PER_READ).asList();
+		if(!node.path.isEmpty() || task.continuation != null) {
+			return entries.thenApply(kvs -> new IndexPage(kvs, null));
+		}
+		return entries.thenCombine(getMetadataVersion(tr), IndexPage::new);
+	}
+
+	// Adds the directories found in a page of a node's entries to the index, and queues the nodes
+	// still to be read
+	private void indexPage(final DirectoryKeyIndex index, final IndexTask task, final IndexPage page, final Deque<IndexTask> tasks) {
+		final Node node = task.node;
+		if(task.continuation == null) {
+			if(node.path.isEmpty()) {
+				index.addVersion(rootNode.pack(METADATA_VERSION_KEY), page.metadataVersion);
+			}
+			else {
+				byte[] layer = EMPTY_BYTES;
+				for(KeyValue kv : page.entries) {
+					Tuple key = node.subspace.unpack(kv.getKey());
+					if(key.get(0) instanceof byte[] && Arrays.equals(key.getBytes(0), LAYER_KEY)) {
+						layer = kv.getValue();
+						break;
+					}
+				}
+				node.setLayer(layer);
+				DirectorySubspace contents = node.getContents();
+				index.add(nodeSubspace.unpack(node.subspace.getKey()).getBytes(0), contents);
+				if(node.isPartition()) {
+					tasks.add(contents.getDirectoryLayer().rootIndexTask());
+					return;
+				}
+			}
+		}
+
+		for(KeyValue kv : page.entries) {
+			Tuple key = node.subspace.unpack(kv.getKey());
+			if(key.get(0) instanceof Long && key.getLong(0) == SUB_DIR_KEY) {
+				List<String> subdirPath = new ArrayList<>(node.path);
+				subdirPath.add(key.getString(1));
+				tasks.add(new IndexTask(this, new Node(nodeWithPrefix(kv.getValue()), subdirPath, subdirPath), null));
+			}
+		}
+		if(page.entries.size() == MAX_INDEX_ENTRIES_PER_READ) {
+			tasks.add(new IndexTask(this, node, page.entries.get(page.entries.size() - 1).getKey()));
+		}
+	}
+
+	// A node whose entries are still to be read while building the key index, along with the
+	// directory layer it belongs to and the last of its entries that has been read, if any
+	private static final class IndexTask {
+		final DirectoryLayer layer;
+		final Node node;
+		final byte[] continuation;
+
+		IndexTask(DirectoryLayer layer, Node node, byte[] continuation) {
+			this.layer = layer;
+			this.node = node;
+			this.continuation = continuation;
+		}
+	}
+
+	private static final class IndexPage {
+		final List<KeyValue> entries;
+		final byte[] metadataVersion;
+
+		IndexPage(List<KeyValue> entries, byte[] metadataVersion) {
+			this.entries = entries;
+			this.metadataVersion = metadataVersion;
+		}
+	}
+
+	private static AsyncIterable<KeyValue> getSubdirRange(final ReadTransaction tr, final Subspace subdirs, final byte[] continuation, final int limit) {
+		final Range range = subdirs.range();
+		final byte[] begin = continuation == null
+				? range.begin
+				: ByteArrayUtil.join(subdirs.getKey(), continuation, new byte[] { 0x00 });
+		return tr.getRange(begin, range.end, limit);
+	}
+
 	private CompletableFuture<Subspace> nodeContainingKey(final ReadTransaction tr, final byte[] key) {
 		// Right now this is only used for _is_prefix_free(), but if we add
 		// parent pointers to directory nodes, it could also be used to find a
@@ -605,6 +1081,32 @@ public class DirectoryLayer implements Directory {
 		});
 	}
 
+	// Returns the node prefixes last seen for each leading subpath of path, stopping at the
+	// first subpath with none. These are only used to guess which reads to make, so they may
+	// be out of date.
+	private List<byte[]> getPrefixHints(List<String> path) {
+		List<byte[]> hints = new ArrayList<>(path.size());
+		synchronized(prefixHints) {
+			for(int i = 1; i <= path.size(); ++i) {
+				byte[] prefix = prefixHints.get(path.subList(0, i));
+				if(prefix == null) {
+					break;
+				}
+				hints.add(prefix);
+			}
+		}
+		return hints;
+	}
+
+	private void setPrefixHint(List<String> path, byte[] prefix) {
+		if(prefix == null) {
+			prefixHints.remove(path);
+		}
+		else {
+			prefixHints.put(path, prefix);
+		}
+	}
+
 	private List<String> toAbsolutePath(List<String> subPath) {
 		return PathUtil.join(path, subPath);
 	}
@@ -638,6 +1140,7 @@ public class DirectoryLayer implements Directory {
 			if(node.isInPartition(false))
 				return node.getContents().getDirectoryLayer().removeInternal(tr, node.getPartitionSubpath(), mustExist);
 			else {
+				updateMetadataVersion(tr);
 				ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
 				futures.add(removeRecursive(tr, node.subspace));
 				futures.add(removeFromParent(tr, pathCopy));
@@ -652,20 +1155,83 @@ public class DirectoryLayer implements Directory {
 	}
 
 	private CompletableFuture<Void> removeRecursive(final Transaction tr, final Subspace node) {
-		Subspace subdir = node.get(SUB_DIR_KEY);
-		final AsyncIterator<KeyValue> rangeItr = tr.getRange(subdir.range()).iterator();
+		return removeNodes(tr, Collections.singletonList(node));
+	}
 
-		tr.clear(Range.startsWith(nodeSubspace.unpack(node.getKey()).getBytes(0)));
-		tr.clear(node.range());
+	// Removes a level of the tree, and then the level below it. The subdirectories of up to
+	// MAX_CONCURRENT_NODE_READS nodes are read at once, with each read issued before its node
+	// is cleared.
+	private CompletableFuture<Void> removeNodes(final Transaction tr, final List<Subspace> nodes) {
+		if(nodes.isEmpty()) {
+			return AsyncUtil.DONE;
+		}
 
+		final List<Subspace> children = new ArrayList<>();
+		final Iterator<Subspace> nodeItr = nodes.iterator();
 		return AsyncUtil.whileTrue(() -> {
-			CompletableFuture<Void> subdirRemoveFuture;
-			if(rangeItr.onHasNext().isDone() && rangeItr.hasNext())
-				subdirRemoveFuture = removeRecursive(tr, nodeWithPrefix(rangeItr.next().getValue()));
-			else
-				subdirRemoveFuture = AsyncUtil.DONE;
+			if(!nodeItr.hasNext())
+				return AsyncUtil.READY_FALSE;
 
-			return subdirRemoveFuture.thenCompose(ignore -> rangeItr.onHasNext());
+			List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>(MAX_CONCURRENT_NODE_READS);
+			while(nodeItr.hasNext() && reads.size() < MAX_CONCURRENT_NODE_READS) {
+				Subspace node = nodeItr.next();
+				reads.add(tr.getRange(node.get(SUB_DIR_KEY).range()).asList());
+				tr.clear(Range.startsWith(nodeSubspace.unpack(node.getKey()).getBytes(0)));
+				tr.clear(node.range());
+			}
+
+			return AsyncUtil.getAll(reads).thenApply(subdirs -> {
+				for(List<KeyValue> subdir : subdirs) {
+					for(KeyValue kv : subdir) {
+						children.add(nodeWithPrefix(kv.getValue()));
+					}
+				}
+				return true;
+			});
+		}, tr.getExecutor())
+		.thenComposeAsync(ignore -> removeNodes(tr, children), tr.getExecutor());
+	}
+
+	// Removes up to maxNodes nodes from the list of pending removals, or moves their
+	// subdirectories onto the list, in a single transaction. Returns whether there were
+	// any pending removals.
+	private CompletableFuture<Boolean> removePending(final Transaction tr, final int maxNodes) {
+		return tr.getRange(pendingRemovals.range(), maxNodes).asList().thenComposeAsync(entries -> {
+			if(entries.isEmpty())
+				return AsyncUtil.READY_FALSE;
+
+			final List<Subspace> nodes = new ArrayList<>(entries.size());
+			final List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>(entries.size());
+			for(KeyValue entry : entries) {
+				Subspace node = nodeWithPrefix(pendingRemovals.unpack(entry.getKey()).getBytes(0));
+				nodes.add(node);
+				reads.add(tr.getRange(node.get(SUB_DIR_KEY).range(), maxNodes).asList());
+			}
+
+			return AsyncUtil.getAll(reads).thenApply(subdirs -> {
+				int remaining = maxNodes;
+				for(int i = 0; i < nodes.size() && remaining > 0; ++i) {
+					final Subspace node = nodes.get(i);
+					final List<KeyValue> subdir = subdirs.get(i);
+					final int moved = Math.min(subdir.size(), remaining);
+					for(int j = 0; j < moved; ++j) {
+						tr.set(pendingRemovals.pack(subdir.get(j).getValue()), EMPTY_BYTES);
+						tr.clear(subdir.get(j).getKey());
+					}
+					remaining -= moved;
+
+					// If the read of the subdirectories was not cut short by its limit, and they
+					// have all been moved, the node can be removed.
+					if(remaining > 0 && subdir.size() < maxNodes) {
+						byte[] prefix = nodeSubspace.unpack(node.getKey()).getBytes(0);
+						tr.clear(Range.startsWith(prefix));
+						tr.clear(node.range());
+						tr.clear(entries.get(i).getKey());
+						--remaining;
+					}
+				}
+				return true;
+			});
 		}, tr.getExecutor());
 	}
 
@@ -697,6 +1263,27 @@ public class DirectoryLayer implements Directory {
 		return getVersionValue(tr).thenApply(new VersionCheck());
 	}
 
+	// Checks the version of the directory layer while finding the node for path. The result of
+	// the version check takes precedence over that of the search.
+	private CompletableFuture<Node> findChecked(final ReadTransaction tr, final List<String> path) {
+		CompletableFuture<Void> versionCheck = checkVersion(tr);
+		CompletableFuture<Node> node = new NodeFinder(path).find(tr).thenComposeAsync(new NodeMetadataLoader(tr), tr.getExecutor());
+		return versionCheck.thenCombine(node, (ignore, found) -> found);
+	}
+
+	private CompletableFuture<byte[]> getMetadataVersion(final ReadTransaction tr) {
+		return tr.get(rootNode.pack(METADATA_VERSION_KEY));
+	}
+
+	private void updateMetadataVersion(final Transaction tr) {
+		// A random value (rather than an atomic add) ensures that a value read by a transaction
+		// that later failed to commit can never match the key again.
+		ByteBuffer buf = ByteBuffer.allocate(16);
+		buf.putLong(ThreadLocalRandom.current().nextLong());
+		buf.putLong(ThreadLocalRandom.current().nextLong());
+		tr.set(rootNode.pack(METADATA_VERSION_KEY), buf.array());
+	}
+
 	private CompletableFuture<DirectorySubspace> createOrOpenInternal(final ReadTransaction rtr,
 																   final Transaction tr,
 																   final List<String> path,
@@ -718,15 +1305,38 @@ public class DirectoryLayer implements Directory {
 			return future;
 		}
 
-		return checkVersion(rtr).thenComposeAsync(ignore -> {
-			// Root directory contains node metadata and so may not be opened.
-			if(pathCopy.size() == 0) {
-				throw new IllegalArgumentException("The root directory may not be opened.");
+		if(pathCache == null || !allowOpen || prefix != null || pathCopy.size() == 0) {
+			return resolveInternal(rtr, tr, pathCopy, layer, prefix, allowCreate, allowOpen, null, false);
+		}
+
+		return getMetadataVersion(rtr).thenComposeAsync(metadataVersion -> {
+			DirectoryPathCache.CachedDirectory cached = pathCache.get(pathCopy, metadataVersion);
+			if(cached != null) {
+				checkLayer(pathCopy, layer, cached.layer);
+				return CompletableFuture.completedFuture(cached.subspace);
 			}
 
-			return new NodeFinder(pathCopy).find(rtr).thenComposeAsync(new NodeMetadataLoader(rtr), rtr.getExecutor());
-		}, rtr.getExecutor())
-		.thenComposeAsync(existingNode -> {
+			return resolveInternal(rtr, tr, pathCopy, layer, prefix, allowCreate, allowOpen, metadataVersion, true);
+		}, rtr.getExecutor());
+	}
+
+	private CompletableFuture<DirectorySubspace> resolveInternal(final ReadTransaction rtr,
+																 final Transaction tr,
+																 final List<String> pathCopy,
+																 final byte[] layer,
+																 final byte[] prefix,
+																 final boolean allowCreate,
+																 final boolean allowOpen,
+																 final byte[] metadataVersion,
+																 final boolean cacheResult) {
+		// Root directory contains node metadata and so may not be opened.
+		if(pathCopy.size() == 0) {
+			CompletableFuture<DirectorySubspace> future = new CompletableFuture<>();
+			future.completeExceptionally(new IllegalArgumentException("The root directory may not be opened."));
+			return future;
+		}
+
+		return findChecked(rtr, pathCopy).thenComposeAsync(existingNode -> {
 			if(existingNode.exists()) {
 				if(existingNode.isInPartition(false)) {
 					List<String> subpath = existingNode.getPartitionSubpath();
@@ -736,6 +1346,9 @@ public class DirectoryLayer implements Directory {
 				}
 
 				DirectorySubspace opened = openInternal(pathCopy, layer, existingNode, allowOpen);
+				if(cacheResult) {
+					pathCache.put(pathCopy, metadataVersion, existingNode.layer, opened);
+				}
 				return CompletableFuture.completedFuture(opened);
 			}
 			else
@@ -751,14 +1364,17 @@ public class DirectoryLayer implements Directory {
 			throw new DirectoryAlreadyExistsException(toAbsolutePath(path));
 		}
 		else {
-			if(layer.length > 0 && !Arrays.equals(layer, existingNode.layer)) {
-				throw new MismatchedLayerException(toAbsolutePath(path), existingNode.layer, layer);
-			}
-
+			checkLayer(path, layer, existingNode.layer);
 			return existingNode.getContents();
 		}
 	}
 
+	private void checkLayer(final List<String> path, final byte[] layer, final byte[] existingLayer) {
+		if(layer.length > 0 && !Arrays.equals(layer, existingLayer)) {
+			throw new MismatchedLayerException(toAbsolutePath(path), existingLayer, layer);
+		}
+	}
+
 	private CompletableFuture<DirectorySubspace> createInternal(final Transaction tr,
 															final List<String> path,
 															final byte[] layer,
@@ -770,45 +1386,197 @@ public class DirectoryLayer implements Directory {
 
 		return checkOrWriteVersion(tr).thenComposeAsync(ignore -> {
 			if(prefix == null) {
-				return allocator.allocate(tr).thenComposeAsync(allocated -> {
-					final byte[] finalPrefix = ByteArrayUtil.join(contentSubspace.getKey(), allocated);
-					return tr.getRange(Range.startsWith(finalPrefix), 1).iterator().onHasNext().thenApply(hasAny -> {
-						if(hasAny) {
-							throw new IllegalStateException("The database has keys stored at the prefix chosen by the automatic " +
-							                                "prefix allocator: " + ByteArrayUtil.printable(finalPrefix) + ".");
-						}
-						return finalPrefix;
-					});
-				}, tr.getExecutor());
+				return allocatePrefix(tr);
 			}
-			else
-				return CompletableFuture.completedFuture(prefix);
+
+			return isPrefixFree(tr, prefix).thenApply(prefixFree -> {
+				if(!prefixFree)
+					throw new IllegalArgumentException("Prefix already in use: " + ByteArrayUtil.printable(prefix) + ".");
+				return prefix;
+			});
 		}, tr.getExecutor())
-		.thenComposeAsync(actualPrefix -> isPrefixFree(prefix == null ? tr.snapshot() : tr, actualPrefix)
-			.thenComposeAsync(prefixFree -> {
-				if(!prefixFree) {
-					if(prefix == null) {
-						throw new IllegalStateException("The directory layer has manually allocated prefixes that conflict " +
-						                                "with the automatic prefix allocator.");
-					}
-					else
-						throw new IllegalArgumentException("Prefix already in use: " + ByteArrayUtil.printable(actualPrefix) + ".");
-				}
-				else if(path.size() > 1) {
-					return createOrOpen(tr, PathUtil.popBack(path)).thenApply(dir -> nodeWithPrefix(dir.getKey()));
-				}
-				else
-					return CompletableFuture.completedFuture(rootNode);
-			}, tr.getExecutor())
-			.thenApplyAsync(parentNode -> {
+		.thenComposeAsync(actualPrefix -> {
+			CompletableFuture<Subspace> parentFuture;
+			if(path.size() > 1) {
+				parentFuture = createOrOpen(tr, PathUtil.popBack(path)).thenApply(dir -> nodeWithPrefix(dir.getKey()));
+			}
+			else
+				parentFuture = CompletableFuture.completedFuture(rootNode);
+
+			return parentFuture.thenApplyAsync(parentNode -> {
 				if(parentNode == null)
 					throw new IllegalStateException("The parent directory does not exist."); //Shouldn't happen
 				Subspace node = nodeWithPrefix(actualPrefix);
 				tr.set(parentNode.get(SUB_DIR_KEY).get(getLast(path)).getKey(), actualPrefix);
 				tr.set(node.get(LAYER_KEY).getKey(), layer);
+				updateMetadataVersion(tr);
 				return contentsOfNode(node, path, layer);
-			}, tr.getExecutor()),
-		tr.getExecutor());
+			}, tr.getExecutor());
+		}, tr.getExecutor());
+	}
+
+	private CompletableFuture<byte[]> allocatePrefix(final Transaction tr) {
+		return allocatePrefixes(tr, 1).thenApply(prefixes -> prefixes.get(0));
+	}
+
+	private CompletableFuture<List<byte[]>> allocatePrefixes(final Transaction tr, final int count) {
+		if(count == 0) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+
+		return allocator.allocate(tr, count).thenComposeAsync(allocated -> {
+			List<CompletableFuture<byte[]>> futures = new ArrayList<>(allocated.size());
+			for(byte[] prefix : allocated) {
+				futures.add(checkAllocatedPrefix(tr, ByteArrayUtil.join(contentSubspace.getKey(), prefix)));
+			}
+			return AsyncUtil.getAll(futures);
+		}, tr.getExecutor());
+	}
+
+	private CompletableFuture<byte[]> checkAllocatedPrefix(final Transaction tr, final byte[] finalPrefix) {
+		return tr.getRange(Range.startsWith(finalPrefix), 1).iterator().onHasNext().thenComposeAsync(hasAny -> {
+			if(hasAny) {
+				throw new IllegalStateException("The database has keys stored at the prefix chosen by the automatic " +
+				                                "prefix allocator: " + ByteArrayUtil.printable(finalPrefix) + ".");
+			}
+			return isPrefixFree(tr.snapshot(), finalPrefix);
+		}, tr.getExecutor())
+		.thenApply(prefixFree -> {
+			if(!prefixFree) {
+				throw new IllegalStateException("The directory layer has manually allocated prefixes that conflict " +
+				                                "with the automatic prefix allocator.");
+			}
+			return finalPrefix;
+		});
+	}
+
+	private CompletableFuture<Map<List<String>, DirectorySubspace>> createOrOpenAllInternal(final Transaction tr,
+																						  final List<List<String>> paths,
+																						  final byte[] layer) {
+		// Every path to create or open, along with each of its parents. Each is mapped to
+		// whether it was requested, rather than only being a parent of a requested path.
+		final Map<List<String>, Boolean> targets = new HashMap<>();
+		for(List<String> path : paths) {
+			if(path.size() == 0) {
+				CompletableFuture<Map<List<String>, DirectorySubspace>> future = new CompletableFuture<>();
+				future.completeExceptionally(new IllegalArgumentException("The root directory may not be opened."));
+				return future;
+			}
+			for(int i = 1; i < path.size(); ++i) {
+				targets.putIfAbsent(path.subList(0, i), false);
+			}
+			targets.put(path, true);
+		}
+		final List<List<String>> ordered = new ArrayList<>(targets.keySet());
+		ordered.sort(Comparator.comparingInt(List::size));
+
+		return checkOrWriteVersion(tr).thenComposeAsync(ignore -> {
+			List<CompletableFuture<Node>> futures = new ArrayList<>(ordered.size());
+			for(List<String> path : ordered) {
+				futures.add(new NodeFinder(path).find(tr).thenComposeAsync(new NodeMetadataLoader(tr), tr.getExecutor()));
+			}
+			return AsyncUtil.getAll(futures);
+		}, tr.getExecutor())
+		.thenComposeAsync(nodes -> {
+			final Map<List<String>, DirectorySubspace> results = new HashMap<>();
+			final Map<List<String>, Subspace> parents = new HashMap<>();
+			final List<List<String>> missing = new ArrayList<>();
+			// Paths that must be created within a partition that does not exist yet
+			final Set<List<String>> deferred = new HashSet<>();
+			// For each partition, its directory layer and the paths to open within it
+			final Map<List<String>, DirectoryLayer> partitionLayers = new HashMap<>();
+			final Map<List<String>, Map<List<String>, List<String>>> partitionPaths = new HashMap<>();
+
+			for(int i = 0; i < ordered.size(); ++i) {
+				final List<String> path = ordered.get(i);
+				final Node node = nodes.get(i);
+				final boolean requested = targets.get(path);
+				if(node.exists()) {
+					if(node.isInPartition(false)) {
+						if(requested) {
+							partitionLayers.computeIfAbsent(node.path, p -> node.getContents().getDirectoryLayer());
+							partitionPaths.computeIfAbsent(node.path, p -> new HashMap<>()).put(node.getPartitionSubpath(), path);
+						}
+					}
+					else {
+						parents.put(path, node.subspace);
+						if(requested) {
+							results.put(path, openInternal(path, layer, node, true));
+						}
+					}
+				}
+				else {
+					final List<String> parentPath = path.subList(0, path.size() - 1);
+					if(deferred.contains(parentPath) ||
+							(targets.getOrDefault(parentPath, false) && Arrays.equals(layer, PARTITION_LAYER) && !parents.containsKey(parentPath))) {
+						deferred.add(path);
+					}
+					else {
+						missing.add(path);
+					}
+				}
+			}
+
+			return allocatePrefixes(tr, missing.size()).thenComposeAsync(allocated -> {
+				for(int i = 0; i < missing.size(); ++i) {
+					final List<String> path = missing.get(i);
+					final byte[] prefix = allocated.get(i);
+					final boolean requested = targets.get(path);
+					final Subspace parentNode = path.size() == 1 ? rootNode : parents.get(path.subList(0, path.size() - 1));
+					if(parentNode == null)
+						throw new IllegalStateException("The parent directory does not exist."); //Shouldn't happen
+
+					final byte[] nodeLayer = requested ? layer : EMPTY_BYTES;
+					Subspace node = nodeWithPrefix(prefix);
+					tr.set(parentNode.get(SUB_DIR_KEY).get(getLast(path)).getKey(), prefix);
+					tr.set(node.get(LAYER_KEY).getKey(), nodeLayer);
+					parents.put(path, node);
+					if(requested) {
+						results.put(path, contentsOfNode(node, path, nodeLayer));
+					}
+				}
+				if(!missing.isEmpty()) {
+					updateMetadataVersion(tr);
+				}
+
+				List<CompletableFuture<Void>> futures = new ArrayList<>(partitionPaths.size());
+				for(Map.Entry<List<String>, Map<List<String>, List<String>>> entry : partitionPaths.entrySet()) {
+					final Map<List<String>, List<String>> subpaths = entry.getValue();
+					futures.add(partitionLayers.get(entry.getKey()).createOrOpenAllInternal(tr, new ArrayList<>(subpaths.keySet()), layer)
+							.thenAccept(opened -> {
+								synchronized(results) {
+									for(Map.Entry<List<String>, DirectorySubspace> subpathResult : opened.entrySet()) {
+										results.put(subpaths.get(subpathResult.getKey()), subpathResult.getValue());
+									}
+								}
+							}));
+				}
+				return AsyncUtil.whenAll(futures);
+			}, tr.getExecutor())
+			.thenComposeAsync(ignore -> {
+				// These go through a new partition, so are opened one at a time once it exists
+				final Iterator<List<String>> deferredPaths = ordered.stream()
+						.filter(path -> deferred.contains(path) && targets.get(path))
+						.iterator();
+				return AsyncUtil.whileTrue(() -> {
+					if(!deferredPaths.hasNext())
+						return AsyncUtil.READY_FALSE;
+
+					final List<String> path = deferredPaths.next();
+					return createOrOpenInternal(tr, tr, path, layer, null, true, true).thenApply(dir -> {
+						results.put(path, dir);
+						return true;
+					});
+				}, tr.getExecutor());
+			}, tr.getExecutor())
+			.thenApply(ignore -> {
+				Map<List<String>, DirectorySubspace> ret = new LinkedHashMap<>();
+				for(List<String> path : paths) {
+					ret.put(path, results.get(path));
+				}
+				return ret;
+			});
+		}, tr.getExecutor());
 	}
 
 	//
@@ -890,39 +1658,94 @@ public class DirectoryLayer implements Directory {
 		}
 	}
 
+	/**
+	 * Resolves a path to its node. Each component is read with the layer of the node found for
+	 *  the previous one, so a path costs one read per component rather than two. Furthermore, if
+	 *  the prefixes of the nodes along the path were seen by an earlier lookup, the reads for every
+	 *  component are issued at once, assuming that the path still resolves to those nodes. Each
+	 *  read is then checked against the node that was actually found for its parent, and the walk
+	 *  continues one component at a time from the first node that differs from the assumed one.
+	 *  Speculative reads are made at snapshot isolation, and a read conflict is added only for
+	 *  the keys whose values are used.
+	 */
 	private class NodeFinder {
-		private List<String> path;
-		private int index;
-		private Node node;
-		private List<String> currentPath;
+		private final List<String> path;
 
 		NodeFinder(List<String> path) {
 			this.path = path;
 		}
 
 		public CompletableFuture<Node> find(final ReadTransaction tr) {
-			index = 0;
-			node = new Node(rootNode, currentPath, path);
-			currentPath = new ArrayList<>();
+			if(path.size() == 0) {
+				return CompletableFuture.completedFuture(new Node(rootNode, EMPTY_PATH, path));
+			}
 
-			return AsyncUtil.whileTrue(() -> {
-				if(index == path.size())
-					return AsyncUtil.READY_FALSE;
+			final List<byte[]> hints = getPrefixHints(path);
+			if(hints.isEmpty()) {
+				final byte[] key = subdirKey(rootNode, 0);
+				return tr.get(key).thenComposeAsync(prefix -> resolve(tr, 0, prefix), tr.getExecutor());
+			}
 
-				return tr.get(node.subspace.get(SUB_DIR_KEY).get(path.get(index)).getKey()).thenComposeAsync(key -> {
-					currentPath.add(path.get(index));
-					node = new Node(nodeWithPrefix(key), currentPath, path);
+			final List<byte[]> keys = new ArrayList<>(hints.size());
+			final List<CompletableFuture<byte[]>> reads = new ArrayList<>(hints.size() * 2 + 1);
+			Subspace parent = rootNode;
+			for(int i = 0; i < hints.size(); ++i) {
+				Subspace node = nodeWithPrefix(hints.get(i));
+				keys.add(subdirKey(parent, i));
+				reads.add(tr.snapshot().get(keys.get(i)));
+				reads.add(tr.snapshot().get(node.get(LAYER_KEY).getKey()));
+				parent = node;
+			}
+			if(hints.size() < path.size()) {
+				keys.add(subdirKey(parent, hints.size()));
+				reads.add(tr.snapshot().get(keys.get(hints.size())));
+			}
 
-					if(!node.exists())
-						return AsyncUtil.READY_FALSE;
+			return AsyncUtil.whenAll(reads).thenComposeAsync(ignore -> {
+				Node node = null;
+				for(int i = 0; i < keys.size(); ++i) {
+					tr.addReadConflictKeyIfNotSnapshot(keys.get(i));
+					byte[] prefix = reads.get(i * 2).join();
+					if(i == hints.size() || !Arrays.equals(prefix, hints.get(i))) {
+						return resolve(tr, i, prefix);
+					}
 
-					return node.loadMetadata(tr).thenApply(ignore -> {
-						++index;
-						return !Arrays.equals(node.layer, DirectoryLayer.PARTITION_LAYER);
-					});
-				}, tr.getExecutor());
-			}, tr.getExecutor())
-			.thenApply(ignore -> node);
+					node = new Node(nodeWithPrefix(prefix), new ArrayList<>(path.subList(0, i + 1)), path);
+					tr.addReadConflictKeyIfNotSnapshot(node.subspace.get(LAYER_KEY).getKey());
+					node.setLayer(reads.get(i * 2 + 1).join());
+					if(node.isPartition() || i == path.size() - 1) {
+						return CompletableFuture.completedFuture(node);
+					}
+				}
+				throw new IllegalStateException("Path resolution ended before the last node"); // Shouldn't happen
+			}, tr.getExecutor());
+		}
+
+		// Continues the walk from the component at index, given the prefix read for it. The read
+		// of the next component is issued along with the read of this node's layer, and only used
+		// if this node is not a partition.
+		private CompletableFuture<Node> resolve(final ReadTransaction tr, final int index, final byte[] prefix) {
+			final List<String> currentPath = new ArrayList<>(path.subList(0, index + 1));
+			final Node node = new Node(nodeWithPrefix(prefix), currentPath, path);
+			setPrefixHint(currentPath, prefix);
+			if(!node.exists() || index == path.size() - 1) {
+				return node.loadMetadata(tr);
+			}
+
+			final byte[] nextKey = subdirKey(node.subspace, index + 1);
+			final CompletableFuture<byte[]> nextRead = tr.snapshot().get(nextKey);
+			return node.loadMetadata(tr).thenComposeAsync(ignore -> {
+				if(node.isPartition()) {
+					return CompletableFuture.completedFuture(node);
+				}
+
+				tr.addReadConflictKeyIfNotSnapshot(nextKey);
+				return nextRead.thenComposeAsync(nextPrefix -> resolve(tr, index + 1, nextPrefix), tr.getExecutor());
+			}, tr.getExecutor());
+		}
+
+		private byte[] subdirKey(Subspace parent, int index) {
+			return parent.get(SUB_DIR_KEY).get(path.get(index)).getKey();
 		}
 	}
 
@@ -961,6 +1784,9 @@ public class DirectoryLayer implements Directory {
 		}
 
 		public CompletableFuture<Node> loadMetadata(ReadTransaction tr) {
+			if(loadedMetadata) {
+				return CompletableFuture.completedFuture(this);
+			}
 			if(!exists()) {
 				loadedMetadata = true;
 				return CompletableFuture.completedFuture(this);
@@ -974,6 +1800,16 @@ public class DirectoryLayer implements Directory {
 			});
 		}
 
+		void setLayer(byte[] layer) {
+			this.layer = layer;
+			loadedMetadata = true;
+		}
+
+		public boolean isPartition() {
+			ensureMetadataLoaded();
+			return exists() && Arrays.equals(layer, DirectoryLayer.PARTITION_LAYER);
+		}
+
 		public void ensureMetadataLoaded() {
 			if(!loadedMetadata)
 				throw new IllegalStateException("Metadata for node has not been loaded");
@@ -981,7 +1817,7 @@ public class DirectoryLayer implements Directory {
 
 		public boolean isInPartition(boolean includeEmptySubpath) {
 			ensureMetadataLoaded();
-			return exists() && Arrays.equals(layer, DirectoryLayer.PARTITION_LAYER) && (includeEmptySubpath || targetPath.size() > path.size());
+			return isPartition() && (includeEmptySubpath || targetPath.size() > path.size());
 		}
 
 		public List<String> getPartitionSubpath() {
@@ -995,22 +1831,43 @@ public class DirectoryLayer implements Directory {
 		}
 	}
 
+	// Each allocation makes writes with NEXT_WRITE_NO_WRITE_CONFLICT_RANGE set and reads keys that
+	// it then writes, which must not be interleaved with those of another allocation in the same
+	// transaction. Rather than synchronizing on the transaction itself (which the user could
+	// also be using for synchronization, leading to performance issues or deadlocks), each
+	// transaction is assigned one of a fixed set of locks by its identity, so that allocations
+	// in different transactions rarely contend.
+	private static final Object[] ALLOCATION_LOCKS = new Object[64];
+
+	static {
+		for(int i = 0; i < ALLOCATION_LOCKS.length; ++i) {
+			ALLOCATION_LOCKS[i] = new Object();
+		}
+	}
+
+	private static Object allocationLock(Transaction tr) {
+		return ALLOCATION_LOCKS[System.identityHashCode(tr) & (ALLOCATION_LOCKS.length - 1)];
+	}
+
 	private static class PrefixFinder {
-		private final Random random;
+		private final int count;
+		private final List<byte[]> prefixes;
 
 		private long windowStart;
 		private int windowSize;
 
-		private long candidate;
-		private boolean restart;
-
-		PrefixFinder() {
-			this.random = new Random();
+		PrefixFinder(int count) {
+			this.count = count;
+			this.prefixes = new ArrayList<>(count);
 			this.windowStart = 0;
 		}
 
-		public CompletableFuture<byte[]> find(final Transaction tr, final HighContentionAllocator allocator) {
+		public CompletableFuture<List<byte[]>> find(final Transaction tr, final HighContentionAllocator allocator) {
 			return AsyncUtil.whileTrue(() -> {
+				if(prefixes.size() == count) {
+					return AsyncUtil.READY_FALSE;
+				}
+
 				final AsyncIterator<KeyValue> rangeItr = tr.snapshot().getRange(allocator.counters.range(), 1, true).iterator();
 				return rangeItr.onHasNext().thenApply(hasNext -> {
 					if(hasNext) {
@@ -1018,16 +1875,21 @@ public class DirectoryLayer implements Directory {
 						windowStart = allocator.counters.unpack(kv.getKey()).getLong(0);
 					}
 
-					return null;
+					// Reserve no more than a quarter of a window at a time, so that the block
+					// fits in a window that is less than half full.
+					return Math.min(count - prefixes.size(), Math.max(1, getWindowSize(windowStart) / 4));
 				})
-				.thenComposeAsync(ignore -> chooseWindow(tr, allocator), tr.getExecutor())
-				.thenComposeAsync(ignore -> choosePrefix(tr, allocator), tr.getExecutor());
+				.thenComposeAsync(blockSize -> chooseWindow(tr, allocator, blockSize)
+						.thenComposeAsync(ignore -> choosePrefixes(tr, allocator, blockSize), tr.getExecutor()),
+						tr.getExecutor())
+				.thenApply(ignore -> true);
 			}, tr.getExecutor())
-			.thenApply(ignore -> Tuple.from(candidate).pack());
+			.thenApply(ignore -> prefixes);
 		}
 
-		public CompletableFuture<Void> chooseWindow(final Transaction tr, final HighContentionAllocator allocator) {
+		public CompletableFuture<Void> chooseWindow(final Transaction tr, final HighContentionAllocator allocator, final int blockSize) {
 			final long initialWindowStart = windowStart;
+			final byte[] increment = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(blockSize).array();
 			return AsyncUtil.whileTrue(() -> {
 				final byte[] counterKey = allocator.counters.get(windowStart).getKey();
 
@@ -1035,18 +1897,14 @@ public class DirectoryLayer implements Directory {
 				Range oldAllocations = new Range(allocator.recent.getKey(), allocator.recent.get(windowStart).getKey());
 
 				CompletableFuture<byte[]> newCountRead;
-				// SOMEDAY: this code would work as written if synchronized on something transaction local.
-				// The reason we don't synchronize on the Transaction tr itself is that the user could also be using it 
-				// for synchronization. If they did, then synchronizing on tr here could lead to performance issues or 
-				// deadlocks.
-				synchronized(HighContentionAllocator.class) {
+				synchronized(allocationLock(tr)) {
 					if(windowStart > initialWindowStart) {
 						tr.clear(oldCounters);
 						tr.options().setNextWriteNoWriteConflictRange();
 						tr.clear(oldAllocations);
 					}
 
-					tr.mutate(MutationType.ADD, counterKey, LITTLE_ENDIAN_LONG_ONE);
+					tr.mutate(MutationType.ADD, counterKey, increment);
 					newCountRead = tr.snapshot().get(counterKey);
 				}
 
@@ -1063,53 +1921,52 @@ public class DirectoryLayer implements Directory {
 			}, tr.getExecutor());
 		}
 
-		public CompletableFuture<Boolean> choosePrefix(final Transaction tr, final HighContentionAllocator allocator) {
-			restart = false;
+		public CompletableFuture<Void> choosePrefixes(final Transaction tr, final HighContentionAllocator allocator, final int blockSize) {
+			final int target = prefixes.size() + blockSize;
 			return AsyncUtil.whileTrue(() -> {
 				// As of the snapshot being read from, the window is less than half
-				// full, so this should be expected to take 2 tries.  Under high
-				// contention (and when the window advances), there is an additional
-				// subsequent risk of conflict for this transaction.
-				candidate = windowStart + random.nextInt(windowSize);
-				final byte[] allocationKey = allocator.recent.get(candidate).getKey();
+				// full, so this should be expected to take 2 tries for each prefix.
+				// Under high contention (and when the window advances), there is an
+				// additional subsequent risk of conflict for this transaction.
+				final int needed = target - prefixes.size();
+				final long[] candidates = new long[needed];
+				final byte[][] allocationKeys = new byte[needed][];
+				final List<CompletableFuture<byte[]>> allocations = new ArrayList<>(needed);
 				Range countersRange = allocator.counters.range();
 
 				AsyncIterable<KeyValue> counterRange;
-				CompletableFuture<byte[]> allocationTemp;
-				// SOMEDAY: this code would work as written if synchronized on something transaction local.
-				// The reason we don't synchronize on the Transaction tr itself is that the user could also be using it 
-				// for synchronization. If they did, then synchronizing on tr here could lead to performance issues or 
-				// deadlocks.
-				synchronized(HighContentionAllocator.class) {
+				synchronized(allocationLock(tr)) {
 					counterRange = tr.snapshot().getRange(countersRange, 1, true);
-					allocationTemp = tr.get(allocationKey);
-					tr.options().setNextWriteNoWriteConflictRange();
-					tr.set(allocationKey, EMPTY_BYTES);
+					for(int i = 0; i < needed; ++i) {
+						candidates[i] = windowStart + ThreadLocalRandom.current().nextInt(windowSize);
+						allocationKeys[i] = allocator.recent.get(candidates[i]).getKey();
+						allocations.add(tr.get(allocationKeys[i]));
+						tr.options().setNextWriteNoWriteConflictRange();
+						tr.set(allocationKeys[i], EMPTY_BYTES);
+					}
 				}
 
 				final CompletableFuture<List<KeyValue>> lastCounter = counterRange.asList();
-				final CompletableFuture<byte[]> allocation = allocationTemp;
-
-				return lastCounter.thenCombineAsync(allocation, (result, allocationValue) -> {
+				return lastCounter.thenCombineAsync(AsyncUtil.getAll(allocations), (result, allocationValues) -> {
 					long currentWindowStart = 0;
 					if(!result.isEmpty()) {
 						currentWindowStart = allocator.counters.unpack(result.get(0).getKey()).getLong(0);
 					}
 
 					if(currentWindowStart > windowStart) {
-						restart = true;
 						return false; // exit the loop and rerun the allocation from the beginning
 					}
 
-					if(allocationValue == null) {
-						tr.addWriteConflictKey(allocationKey);
-						return false; // exit the loop and return this candidate
+					for(int i = 0; i < needed; ++i) {
+						if(allocationValues.get(i) == null) {
+							tr.addWriteConflictKey(allocationKeys[i]);
+							prefixes.add(Tuple.from(candidates[i]).pack());
+						}
 					}
 
-					return true;
+					return prefixes.size() < target;
 				}, tr.getExecutor());
-			}, tr.getExecutor())
-			.thenApply(ignore -> restart);
+			}, tr.getExecutor());
 		}
 
 		private static int getWindowSize(long start) {
@@ -1145,7 +2002,17 @@ public class DirectoryLayer implements Directory {
 		 * </ol>
 		 */
 		public CompletableFuture<byte[]> allocate(final Transaction tr) {
-			return new PrefixFinder().find(tr, this);
+			return allocate(tr, 1).thenApply(prefixes -> prefixes.get(0));
+		}
+
+		/**
+		 * Returns {@code count} distinct byte strings, each of which satisfies the conditions of
+		 * {@link #allocate(Transaction)}. Rather than choosing a window for each, the counter of
+		 * a window is advanced by a block of allocations at once, and the candidates within it
+		 * are all checked together.
+		 */
+		public CompletableFuture<List<byte[]>> allocate(final Transaction tr, final int count) {
+			return new PrefixFinder(count).find(tr, this);
 		}
 	}
 }
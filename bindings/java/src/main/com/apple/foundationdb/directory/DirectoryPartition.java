@@ -24,10 +24,12 @@ import static com.apple.foundationdb.directory.DirectoryLayer.DEFAULT_NODE_SUBSP
 
 import java.util.List;
 
+import com.apple.foundationdb.subspace.KeyBuilder;
 import com.apple.foundationdb.subspace.Subspace;
 import com.apple.foundationdb.Range;
 import com.apple.foundationdb.tuple.ByteArrayUtil;
 import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleReader;
 
 /**
  * A {@code DirectoryPartition} is a {@link DirectorySubspace} whose prefix is prepended to all of its descendant directories' prefixes. 
@@ -114,6 +116,16 @@ class DirectoryPartition extends DirectorySubspace {
 		throw new UnsupportedOperationException("Cannot pack keys using the root of a directory partition.");
 	}
 
+	/**
+	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public byte[] packLong(long value) {
+		throw new UnsupportedOperationException("Cannot pack keys using the root of a directory partition.");
+	}
+
 	/**
 	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
 	 *
@@ -124,6 +136,36 @@ class DirectoryPartition extends DirectorySubspace {
 		throw new UnsupportedOperationException("Cannot unpack keys using the root of a directory partition.");
 	}
 
+	/**
+	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public long unpackLong(byte[] key) {
+		throw new UnsupportedOperationException("Cannot unpack keys using the root of a directory partition.");
+	}
+
+	/**
+	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public TupleReader unpackReader(byte[] key) {
+		throw new UnsupportedOperationException("Cannot unpack keys using the root of a directory partition.");
+	}
+
+	/**
+	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public KeyBuilder keyBuilder() {
+		throw new UnsupportedOperationException("Cannot pack keys using the root of a directory partition.");
+	}
+
 	/**
 	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
 	 *
@@ -144,6 +186,26 @@ class DirectoryPartition extends DirectorySubspace {
 		throw new UnsupportedOperationException("Cannot get range for the root of a directory partition.");
 	}
 
+	/**
+	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public Range range(Tuple low, boolean lowInclusive, Tuple high, boolean highInclusive) {
+		throw new UnsupportedOperationException("Cannot get range for the root of a directory partition.");
+	}
+
+	/**
+	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
+	 *
+	 * @throws UnsupportedOperationException
+	 */
+	@Override
+	public Range longRange(long lo, long hi) {
+		throw new UnsupportedOperationException("Cannot get range for the root of a directory partition.");
+	}
+
 	/** 
 	 * Raises an exception because DirectoryPartition cannot be used as a Subspace.
 	 *
@@ -0,0 +1,108 @@
+/*
+ * DirectoryPathCache.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of resolved directories, used by a {@link DirectoryLayer}
+ *  to open directories without walking their paths. Each entry is tagged with the value of the
+ *  directory layer's metadata version key that was read in the transaction that resolved it, and
+ *  is only returned to a transaction that reads the same value. As every operation that changes
+ *  the directory tree writes a new value to that key, an entry can never be used once the tree
+ *  it was resolved against has changed.
+ */
+final class DirectoryPathCache {
+	static final class CachedDirectory {
+		final byte[] metadataVersion;
+		final byte[] layer;
+		final DirectorySubspace subspace;
+
+		CachedDirectory(byte[] metadataVersion, byte[] layer, DirectorySubspace subspace) {
+			this.metadataVersion = metadataVersion;
+			this.layer = layer;
+			this.subspace = subspace;
+		}
+	}
+
+	private final int maxSize;
+	private final Map<List<String>, CachedDirectory> entries;
+
+	DirectoryPathCache(int maxSize) {
+		if(maxSize <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<List<String>, CachedDirectory>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<String>, CachedDirectory> eldest) {
+				return size() > DirectoryPathCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cached entry for a path if it was resolved at the given metadata version. An entry
+	 *  for any other version is stale and is removed.
+	 *
+	 * @param path the path of the directory relative to its directory layer
+	 * @param metadataVersion the value of the metadata version key read by the current transaction
+	 * @return the entry for {@code path}, or {@code null} if there is no valid entry
+	 */
+	synchronized CachedDirectory get(List<String> path, byte[] metadataVersion) {
+		CachedDirectory entry = entries.get(path);
+		if(entry == null) {
+			return null;
+		}
+		if(!Arrays.equals(entry.metadataVersion, metadataVersion)) {
+			entries.remove(path);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Caches the directory resolved for a path at the given metadata version.
+	 *
+	 * @param path the path of the directory relative to its directory layer. This must not be
+	 *  modified afterwards.
+	 * @param metadataVersion the value of the metadata version key read by the resolving transaction
+	 * @param layer the layer of the directory
+	 * @param subspace the resolved directory
+	 */
+	synchronized void put(List<String> path, byte[] metadataVersion, byte[] layer, DirectorySubspace subspace) {
+		entries.put(path, new CachedDirectory(metadataVersion, layer, subspace));
+	}
+
+	/**
+	 * Removes every entry from the cache.
+	 */
+	synchronized void clear() {
+		entries.clear();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+}
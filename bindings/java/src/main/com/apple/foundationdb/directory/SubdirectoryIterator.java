@@ -0,0 +1,197 @@
+/*
+ * SubdirectoryIterator.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.directory;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.async.AsyncIterable;
+import com.apple.foundationdb.async.AsyncIterator;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.subspace.Subspace;
+
+/**
+ * Iterates over the names of the subdirectories of a directory, read from its subdirectory
+ *  entries in one or more batches. Each name is decoded from the key of its entry only when it
+ *  is returned. When a batch that is not the last one runs out, the next batch is fetched from
+ *  the continuation after the last entry returned, which is the packed name of that
+ *  subdirectory.
+ */
+final class SubdirectoryIterator implements AsyncIterator<String> {
+	/**
+	 * A batch of subdirectory entries.
+	 */
+	static final class Batch {
+		final Subspace subdirs;
+		final AsyncIterator<KeyValue> entries;
+		final boolean last;
+
+		Batch(Subspace subdirs, AsyncIterator<KeyValue> entries, boolean last) {
+			this.subdirs = subdirs;
+			this.entries = entries;
+			this.last = last;
+		}
+
+		Batch(Subspace subdirs, List<KeyValue> entries, boolean last) {
+			this(subdirs, new ListIterator(entries.iterator()), last);
+		}
+	}
+
+	// Returns the entries of a batch already read into memory
+	private static final class ListIterator implements AsyncIterator<KeyValue> {
+		private final Iterator<KeyValue> iterator;
+
+		ListIterator(Iterator<KeyValue> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public CompletableFuture<Boolean> onHasNext() {
+			return iterator.hasNext() ? AsyncUtil.READY_TRUE : AsyncUtil.READY_FALSE;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public KeyValue next() {
+			return iterator.next();
+		}
+
+		@Override
+		public void cancel() {}
+	}
+
+	private final Function<byte[], CompletableFuture<Batch>> fetch;
+
+	private CompletableFuture<Batch> nextBatch;
+	private Batch batch;
+	private byte[] lastKey;
+	private int lastPrefixLength;
+	private byte[] continuation;
+
+	/**
+	 * Creates an {@link AsyncIterable} of the names of subdirectories, each iterator of which
+	 *  starts reading from the given continuation.
+	 *
+	 * @param continuation the packed name of the subdirectory after which to start, or
+	 *  {@code null} to start with the first subdirectory
+	 * @param fetch reads the batch of entries after a continuation
+	 * @param executor the executor used to collect the names into a list
+	 * @return an {@code AsyncIterable} of subdirectory names
+	 */
+	static AsyncIterable<String> iterable(final byte[] continuation, final Function<byte[], CompletableFuture<Batch>> fetch,
+	                                      final Executor executor) {
+		return new AsyncIterable<String>() {
+			@Override
+			public AsyncIterator<String> iterator() {
+				return new SubdirectoryIterator(continuation, fetch);
+			}
+
+			@Override
+			public CompletableFuture<List<String>> asList() {
+				return AsyncUtil.collect(this, executor);
+			}
+		};
+	}
+
+	SubdirectoryIterator(byte[] continuation, Function<byte[], CompletableFuture<Batch>> fetch) {
+		this.fetch = fetch;
+		this.continuation = continuation;
+		this.nextBatch = fetch.apply(continuation);
+	}
+
+	@Override
+	public synchronized CompletableFuture<Boolean> onHasNext() {
+		final Batch current = batch;
+		if(current == null) {
+			return nextBatch.thenCompose(fetched -> {
+				synchronized(SubdirectoryIterator.this) {
+					if(batch == null) {
+						batch = fetched;
+					}
+				}
+				return onHasNext();
+			});
+		}
+		return current.entries.onHasNext().thenCompose(hasNext -> {
+			if(hasNext || current.last) {
+				return CompletableFuture.completedFuture(hasNext);
+			}
+			synchronized(SubdirectoryIterator.this) {
+				// Only the first caller to find the batch exhausted fetches the next one
+				if(batch == current) {
+					batch = null;
+					nextBatch = fetch.apply(getContinuation());
+				}
+			}
+			return onHasNext();
+		});
+	}
+
+	@Override
+	public boolean hasNext() {
+		return onHasNext().join();
+	}
+
+	@Override
+	public String next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		synchronized(this) {
+			lastKey = batch.entries.next().getKey();
+			lastPrefixLength = batch.subdirs.getKey().length;
+			continuation = null;
+			return batch.subdirs.unpack(lastKey).getString(0);
+		}
+	}
+
+	/**
+	 * Gets the continuation after the last name returned by this iterator, from which a new
+	 *  iterator would return the names this one has not yet returned.
+	 *
+	 * @return the packed name of the last subdirectory returned, or the continuation this iterator
+	 *  started from if it has not returned any
+	 */
+	synchronized byte[] getContinuation() {
+		if(continuation == null && lastKey != null) {
+			continuation = Arrays.copyOfRange(lastKey, lastPrefixLength, lastKey.length);
+		}
+		return continuation;
+	}
+
+	@Override
+	public synchronized void cancel() {
+		if(batch != null) {
+			batch.entries.cancel();
+		}
+		nextBatch.cancel(false);
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * KeyBuilder.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleWriter;
+import com.apple.foundationdb.tuple.Versionstamp;
+
+/**
+ * Builds keys within a {@link Subspace} one tuple element at a time. A {@code KeyBuilder} is
+ *  created with {@link Subspace#keyBuilder()}, and starts out holding the {@code Subspace}'s
+ *  prefix. Elements are encoded directly after the prefix, and {@link #build()} returns a key
+ *  that is identical to {@link Subspace#pack(Tuple)} of the same elements. Unlike {@code pack},
+ *  the elements are never collected into a {@link Tuple} and primitive values are never boxed,
+ *  and the only array allocated for each key is the key itself. {@link #buildInto(ByteBuffer)}
+ *  avoids even that by copying the key into a caller-supplied buffer.<br>
+ * <br>
+ * After a key is built, {@link #reset()} discards its elements (but keeps the prefix) so that
+ *  the builder and its buffer can be used for the next key. For example:
+ * <pre>
+ *   KeyBuilder builder = subspace.keyBuilder();
+ *   for(Event e : events) {
+ *       tr.set(builder.reset().add(e.getUserId()).add(e.getTimestamp()).build(), e.getValue());
+ *   }</pre>
+ * This class is not thread safe.
+ */
+public final class KeyBuilder {
+	// Room for a few elements past the prefix before the buffer has to grow
+	private static final int ELEMENT_CAPACITY = 32;
+
+	private final byte[] prefix;
+	private final TupleWriter writer;
+
+	KeyBuilder(byte[] prefix) {
+		this.prefix = prefix;
+		this.writer = new TupleWriter(prefix.length + ELEMENT_CAPACITY);
+		writer.writeRaw(prefix);
+	}
+
+	/**
+	 * Discards all of the elements added since this builder was created or last reset, leaving
+	 *  only the {@link Subspace}'s prefix.
+	 *
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder reset() {
+		writer.reset().writeRaw(prefix);
+		return this;
+	}
+
+	/**
+	 * Adds a {@code null} element.
+	 *
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder addNull() {
+		writer.writeNull();
+		return this;
+	}
+
+	/**
+	 * Adds a {@code long} element.
+	 *
+	 * @param l the number to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(long l) {
+		writer.writeLong(l);
+		return this;
+	}
+
+	/**
+	 * Adds a {@code String} element. A {@code null} string is added as a {@code null} element.
+	 *
+	 * @param s the string to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(String s) {
+		writer.writeString(s);
+		return this;
+	}
+
+	/**
+	 * Adds a byte string element. A {@code null} array is added as a {@code null} element.
+	 *
+	 * @param b the bytes to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(byte[] b) {
+		writer.writeBytes(b);
+		return this;
+	}
+
+	/**
+	 * Adds a byte string element taken from a slice of an array.
+	 *
+	 * @param b the array holding the bytes to add
+	 * @param offset the index of the first byte to add
+	 * @param length the number of bytes to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(byte[] b, int offset, int length) {
+		writer.writeBytes(b, offset, length);
+		return this;
+	}
+
+	/**
+	 * Adds a {@code boolean} element.
+	 *
+	 * @param b the value to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(boolean b) {
+		writer.writeBoolean(b);
+		return this;
+	}
+
+	/**
+	 * Adds a {@code float} element.
+	 *
+	 * @param f the number to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(float f) {
+		writer.writeFloat(f);
+		return this;
+	}
+
+	/**
+	 * Adds a {@code double} element.
+	 *
+	 * @param d the number to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(double d) {
+		writer.writeDouble(d);
+		return this;
+	}
+
+	/**
+	 * Adds a {@link UUID} element. A {@code null} UUID is added as a {@code null} element.
+	 *
+	 * @param uuid the UUID to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(UUID uuid) {
+		writer.writeUuid(uuid);
+		return this;
+	}
+
+	/**
+	 * Adds a {@link BigInteger} element. A {@code null} value is added as a {@code null} element.
+	 *
+	 * @param bi the number to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(BigInteger bi) {
+		writer.writeBigInteger(bi);
+		return this;
+	}
+
+	/**
+	 * Adds a {@link Versionstamp} element. If it is incomplete, the key must be built with
+	 *  {@link #buildWithVersionstamp()}.
+	 *
+	 * @param v the versionstamp to add
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(Versionstamp v) {
+		writer.writeVersionstamp(v);
+		return this;
+	}
+
+	/**
+	 * Adds a {@link Tuple} as a single nested element. A {@code null} tuple is added as a
+	 *  {@code null} element.
+	 *
+	 * @param t the {@code Tuple} to nest
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(Tuple t) {
+		writer.writeTuple(t);
+		return this;
+	}
+
+	/**
+	 * Adds a {@link List} as a single nested element. A {@code null} list is added as a
+	 *  {@code null} element.
+	 *
+	 * @param l the {@code List} to nest
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder add(List<?> l) {
+		writer.writeNested(l);
+		return this;
+	}
+
+	/**
+	 * Adds each of the elements of a {@link Tuple}, as if they had been added one at a time.
+	 *
+	 * @param t the {@code Tuple} whose elements should be added
+	 * @return this {@code KeyBuilder}
+	 */
+	public KeyBuilder addAll(Tuple t) {
+		writer.writeAll(t);
+		return this;
+	}
+
+	/**
+	 * Adds an element of any type that a {@link Tuple} can hold.
+	 *
+	 * @param o the element to add
+	 * @return this {@code KeyBuilder}
+	 * @throws IllegalArgumentException if {@code o} is not of a type that can be encoded
+	 */
+	public KeyBuilder addObject(Object o) {
+		writer.writeObject(o);
+		return this;
+	}
+
+	/**
+	 * Gets the length of the key built so far, including the {@link Subspace}'s prefix.
+	 *
+	 * @return the number of bytes in the key
+	 */
+	public int size() {
+		return writer.getPackedSize();
+	}
+
+	/**
+	 * Gets the key built so far. The contents of this builder are not changed, so more
+	 *  elements can be added to build a longer key.
+	 *
+	 * @return a new array holding the key
+	 * @throws IllegalArgumentException if an incomplete {@link Versionstamp} was added
+	 */
+	public byte[] build() {
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Copies the key built so far into {@code dest}, starting at its position, and advances
+	 *  that position past it.
+	 *
+	 * @param dest the buffer to copy the key into
+	 * @throws IllegalArgumentException if an incomplete {@link Versionstamp} was added
+	 * @throws java.nio.BufferOverflowException if {@code dest} does not have enough space remaining
+	 */
+	public void buildInto(ByteBuffer dest) {
+		writer.writeTo(dest);
+	}
+
+	/**
+	 * Gets the key built so far for use with
+	 *  {@link com.apple.foundationdb.MutationType#SET_VERSIONSTAMPED_KEY MutationType.SET_VERSIONSTAMPED_KEY}.
+	 *  The result is the same as {@link Subspace#packWithVersionstamp(Tuple)}.
+	 *
+	 * @return a new array holding the key followed by the position of its incomplete {@link Versionstamp}
+	 * @throws IllegalArgumentException if exactly one incomplete {@link Versionstamp} was not added
+	 */
+	public byte[] buildWithVersionstamp() {
+		return writer.toByteArrayWithVersionstamp();
+	}
+}
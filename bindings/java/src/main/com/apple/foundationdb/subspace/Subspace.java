@@ -27,7 +27,10 @@ import java.util.Arrays;
 
 import com.apple.foundationdb.Range;
 import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.LongTupleCodec;
 import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.TupleRangeUtil;
+import com.apple.foundationdb.tuple.TupleReader;
 import com.apple.foundationdb.tuple.Versionstamp;
 
 /**
@@ -199,6 +202,18 @@ public class Subspace {
 		return tuple.pack(rawPrefix);
 	}
 
+	/**
+	 * Gets the key encoding the specified {@code long} in this {@code Subspace}. The result is the
+	 * same as {@code pack(Tuple.from(value))}, but the key is written directly into one array without
+	 * boxing {@code value} or building a {@link Tuple}.
+	 *
+	 * @param value the integer to be packed
+	 * @return the key encoding {@code value} in this {@code Subspace}
+	 */
+	public byte[] packLong(long value) {
+		return LongTupleCodec.pack(rawPrefix, value);
+	}
+
 	/**
 	 * Gets the key encoding the specified tuple in this {@code Subspace} for use with
 	 * {@link com.apple.foundationdb.MutationType#SET_VERSIONSTAMPED_KEY MutationType.SET_VERSIONSTAMPED_KEY}.
@@ -228,7 +243,50 @@ public class Subspace {
 		if(!contains(key))
 			throw new IllegalArgumentException("Cannot unpack key that is not contained in subspace.");
 
-		return Tuple.fromBytes(key, rawPrefix.length, key.length - rawPrefix.length);
+		return Tuple.decode(key, rawPrefix.length, key.length - rawPrefix.length);
+	}
+
+	/**
+	 * Gets the {@code long} encoded by the given key, with this {@code Subspace}'s prefix removed.
+	 * This is the inverse of {@link #packLong(long)}, and decodes the integer in place.
+	 *
+	 * @param key The key being decoded
+	 * @return the integer encoded by {@code key} after the prefix
+	 * @throws IllegalArgumentException if {@code key} is not in this {@code Subspace} or if the rest
+	 *  of the key is not a single integer that fits in a {@code long}
+	 */
+	public long unpackLong(byte[] key) {
+		if(!contains(key))
+			throw new IllegalArgumentException("Cannot unpack key that is not contained in subspace.");
+
+		return LongTupleCodec.unpack(key, rawPrefix.length, key.length - rawPrefix.length);
+	}
+
+	/**
+	 * Gets a {@link TupleReader} over the {@link Tuple} encoded by the given key, with this
+	 * {@code Subspace}'s prefix removed. The reader decodes the elements in place, so nothing
+	 * is copied or allocated for elements that are skipped.
+	 *
+	 * @param key The key being decoded
+	 * @return a {@link TupleReader} positioned at the first element after the prefix
+	 */
+	public TupleReader unpackReader(byte[] key) {
+		if(!contains(key))
+			throw new IllegalArgumentException("Cannot unpack key that is not contained in subspace.");
+
+		return new TupleReader(key, rawPrefix.length, key.length - rawPrefix.length);
+	}
+
+	/**
+	 * Gets a new {@link KeyBuilder} for building keys in this {@code Subspace} one element at
+	 * a time. Each key built is the same as if the elements were {@link #pack(Tuple) pack}ed as a
+	 * {@link Tuple}, but is encoded straight after this {@code Subspace}'s prefix, so only the
+	 * final key is allocated.
+	 *
+	 * @return a {@link KeyBuilder} whose keys start with this {@code Subspace}'s prefix
+	 */
+	public KeyBuilder keyBuilder() {
+		return new KeyBuilder(rawPrefix);
 	}
 
 	/**
@@ -251,6 +309,36 @@ public class Subspace {
 		return tuple.range(rawPrefix);
 	}
 
+	/**
+	 * Gets a {@link Range} representing the keys in the {@code Subspace} that begin with an integer
+	 * in {@code [lo, hi)}. This includes the keys {@link #packLong(long) packed} from those integers
+	 * as well as the keys of longer tuples that start with them.
+	 *
+	 * @param lo the smallest integer in the range
+	 * @param hi the integer just past the end of the range
+	 * @return the {@link Range} of keyspace from {@code packLong(lo)} to {@code packLong(hi)}
+	 * @throws IllegalArgumentException if {@code hi} is less than {@code lo}
+	 */
+	public Range longRange(long lo, long hi) {
+		return LongTupleCodec.range(rawPrefix, lo, hi);
+	}
+
+	/**
+	 * Gets a {@link Range} representing the keys in the {@code Subspace} that encode tuples
+	 * between {@code low} and {@code high}. A {@code null} tuple leaves that end of the range
+	 * bounded only by the {@code Subspace}. See {@link TupleRangeUtil} for how inclusive and
+	 * exclusive bounds are encoded.
+	 *
+	 * @param low the tuple at the beginning of the range, or {@code null}
+	 * @param lowInclusive whether the range includes {@code low} and all tuples starting with it
+	 * @param high the tuple at the end of the range, or {@code null}
+	 * @param highInclusive whether the range includes {@code high} and all tuples starting with it
+	 * @return the {@link Range} of keyspace between {@code low} and {@code high}
+	 */
+	public Range range(Tuple low, boolean lowInclusive, Tuple high, boolean highInclusive) {
+		return TupleRangeUtil.between(rawPrefix, low, lowInclusive, high, highInclusive);
+	}
+
 	/**
 	 * Tests whether the specified key starts with this {@code Subspace}'s prefix, indicating that
 	 * the {@code Subspace} logically contains key.
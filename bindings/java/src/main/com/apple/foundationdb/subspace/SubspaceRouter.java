@@ -0,0 +1,409 @@
+/*
+ * SubspaceRouter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Routes keys to values registered for the {@link Subspace}s containing them, such as the handlers
+ *  for each of a set of {@code Subspace}s or {@link com.apple.foundationdb.directory.DirectorySubspace
+ *  DirectorySubspace}s that keys read from a change stream are dispatched to. A key is routed to the
+ *  value of the {@code Subspace} with the longest prefix that is a prefix of the key, so a key in a
+ *  {@code Subspace} nested within another registered {@code Subspace} is routed to the inner one.<br>
+ * <br>
+ * The prefixes are kept in a trie in which each run of bytes shared by all of the prefixes below a
+ *  node is stored in that node, and the children of each node are kept in an array sorted by the byte
+ *  that follows it. Routing a key therefore compares each byte of the key up to the end of the longest
+ *  registered prefix at most once, along with a binary search of at most 256 children wherever
+ *  registered prefixes diverge, regardless of the number of {@code Subspace}s registered. Routing does
+ *  not allocate.<br>
+ * <br>
+ * This class is thread safe. Updates copy the nodes on the path to the changed prefix and then
+ *  replace the root of the trie, so keys can be routed concurrently with updates, without locking,
+ *  and each call to {@link #route(byte[])} sees either all or none of the effects of each update.
+ *  Updates are serialized with each other.
+ *
+ * @param <T> the type of the values that keys are routed to
+ */
+public final class SubspaceRouter<T> {
+	private static final byte[] NO_BYTES = new byte[0];
+	private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+	// An immutable node of the trie. The prefix of a node is the prefix of its parent, followed by
+	// the node's label in its parent, followed by its edge. Children are sorted by their label.
+	private static final class Node<T> {
+		final byte[] edge;
+		final byte[] labels;
+		final Node<T>[] children;
+		final T value;
+
+		Node(byte[] edge, byte[] labels, Node<T>[] children, T value) {
+			this.edge = edge;
+			this.labels = labels;
+			this.children = children;
+			this.value = value;
+		}
+
+		int find(byte label) {
+			int low = 0;
+			int high = labels.length - 1;
+			int target = label & 0xff;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				int midLabel = labels[mid] & 0xff;
+				if(midLabel < target) {
+					low = mid + 1;
+				}
+				else if(midLabel > target) {
+					high = mid - 1;
+				}
+				else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		// Returns the number of bytes of the edge that match the key starting at offset
+		int match(byte[] key, int offset, int end) {
+			int length = Math.min(edge.length, end - offset);
+			for(int i = 0; i < length; i++) {
+				if(edge[i] != key[offset + i]) {
+					return i;
+				}
+			}
+			return length;
+		}
+
+		Node<T> withValue(T newValue) {
+			return new Node<>(edge, labels, children, newValue);
+		}
+
+		Node<T> withEdge(byte[] newEdge) {
+			return new Node<>(newEdge, labels, children, value);
+		}
+
+		Node<T> withChild(int index, Node<T> child) {
+			Node<T>[] newChildren = children.clone();
+			newChildren[index] = child;
+			return new Node<>(edge, labels, newChildren, value);
+		}
+
+		Node<T> insertChild(int index, byte label, Node<T> child) {
+			byte[] newLabels = new byte[labels.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, index);
+			System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+			newLabels[index] = label;
+
+			Node<T>[] newChildren = Arrays.copyOf(children, children.length + 1);
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			newChildren[index] = child;
+			return new Node<>(edge, newLabels, newChildren, value);
+		}
+
+		Node<T> removeChild(int index) {
+			byte[] newLabels = new byte[labels.length - 1];
+			System.arraycopy(labels, 0, newLabels, 0, index);
+			System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+
+			Node<T>[] newChildren = Arrays.copyOf(children, children.length - 1);
+			System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+			return new Node<>(edge, newLabels, newChildren, value);
+		}
+
+		// Returns this node with its value removed, or if it no longer needs to be a separate node,
+		// null if it has no children, or its only child with this node's edge and label prepended to
+		// its own edge
+		Node<T> withoutValue() {
+			if(labels.length == 0) {
+				return null;
+			}
+			if(labels.length == 1) {
+				Node<T> child = children[0];
+				return child.withEdge(concat(edge, labels[0], child.edge, 0, child.edge.length));
+			}
+			return withValue(null);
+		}
+	}
+
+	private volatile Node<T> root = emptyRoot();
+	private int size = 0;
+
+	@SuppressWarnings("unchecked")
+	private static <T> Node<T> emptyRoot() {
+		return new Node<>(NO_BYTES, NO_BYTES, (Node<T>[])NO_CHILDREN, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Node<T> leaf(byte[] edge, T value) {
+		return new Node<>(edge, NO_BYTES, (Node<T>[])NO_CHILDREN, value);
+	}
+
+	private static byte[] concat(byte[] first, byte middle, byte[] last, int offset, int length) {
+		byte[] joined = new byte[first.length + 1 + length];
+		System.arraycopy(first, 0, joined, 0, first.length);
+		joined[first.length] = middle;
+		System.arraycopy(last, offset, joined, first.length + 1, length);
+		return joined;
+	}
+
+	/**
+	 * Routes keys in a {@link Subspace} to a value. If a value is already registered for the prefix
+	 *  of the {@code Subspace}, it is replaced.
+	 *
+	 * @param subspace the {@code Subspace} whose keys are routed to {@code value}
+	 * @param value the value to route keys to
+	 * @return the value previously registered for the prefix of {@code subspace}, or {@code null} if there
+	 *  was none
+	 * @throws IllegalArgumentException if {@code value} is {@code null}
+	 */
+	public T put(Subspace subspace, T value) {
+		return put(subspace.getKey(), value);
+	}
+
+	/**
+	 * Routes keys starting with a prefix to a value. If a value is already registered for the prefix,
+	 *  it is replaced.
+	 *
+	 * @param prefix the prefix of the keys that are routed to {@code value}
+	 * @param value the value to route keys to
+	 * @return the value previously registered for {@code prefix}, or {@code null} if there was none
+	 * @throws IllegalArgumentException if {@code value} is {@code null}
+	 */
+	public synchronized T put(byte[] prefix, T value) {
+		if(value == null) {
+			throw new IllegalArgumentException("Cannot route keys to a null value");
+		}
+		List<Node<T>> parents = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		Node<T> node = root;
+		int pos = 0;
+		T previous = null;
+		Node<T> replacement;
+		while(true) {
+			int matched = node.match(prefix, pos, prefix.length);
+			if(matched < node.edge.length) {
+				// The prefix diverges from (or ends within) the edge, so the edge is split at that point
+				Node<T> tail = node.withEdge(Arrays.copyOfRange(node.edge, matched + 1, node.edge.length));
+				byte[] head = Arrays.copyOf(node.edge, matched);
+				if(pos + matched == prefix.length) {
+					replacement = SubspaceRouter.<T>leaf(head, value).insertChild(0, node.edge[matched], tail);
+				}
+				else {
+					Node<T> split = SubspaceRouter.<T>leaf(head, null).insertChild(0, node.edge[matched], tail);
+					int index = split.find(prefix[pos + matched]);
+					replacement = split.insertChild(-(index + 1), prefix[pos + matched],
+							leaf(Arrays.copyOfRange(prefix, pos + matched + 1, prefix.length), value));
+				}
+				break;
+			}
+			pos += matched;
+			if(pos == prefix.length) {
+				previous = node.value;
+				replacement = node.withValue(value);
+				break;
+			}
+			int index = node.find(prefix[pos]);
+			if(index < 0) {
+				replacement = node.insertChild(-(index + 1), prefix[pos], leaf(Arrays.copyOfRange(prefix, pos + 1, prefix.length), value));
+				break;
+			}
+			parents.add(node);
+			indexes.add(index);
+			node = node.children[index];
+			pos++;
+		}
+
+		for(int i = parents.size() - 1; i >= 0; i--) {
+			replacement = parents.get(i).withChild(indexes.get(i), replacement);
+		}
+		root = replacement;
+		if(previous == null) {
+			size++;
+		}
+		return previous;
+	}
+
+	/**
+	 * Stops routing the keys in a {@link Subspace} to the value registered for it. Keys in the
+	 *  {@code Subspace} are then routed to the value registered for the longest prefix of the
+	 *  {@code Subspace}'s prefix, if any.
+	 *
+	 * @param subspace the {@code Subspace} to remove
+	 * @return the value that was registered for the prefix of {@code subspace}, or {@code null} if there
+	 *  was none
+	 */
+	public T remove(Subspace subspace) {
+		return remove(subspace.getKey());
+	}
+
+	/**
+	 * Stops routing keys starting with a prefix to the value registered for that prefix.
+	 *
+	 * @param prefix the prefix to remove
+	 * @return the value that was registered for {@code prefix}, or {@code null} if there was none
+	 */
+	public synchronized T remove(byte[] prefix) {
+		List<Node<T>> parents = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		Node<T> node = root;
+		int pos = 0;
+		while(true) {
+			int matched = node.match(prefix, pos, prefix.length);
+			if(matched < node.edge.length) {
+				return null;
+			}
+			pos += matched;
+			if(pos == prefix.length) {
+				break;
+			}
+			int index = node.find(prefix[pos]);
+			if(index < 0) {
+				return null;
+			}
+			parents.add(node);
+			indexes.add(index);
+			node = node.children[index];
+			pos++;
+		}
+		T previous = node.value;
+		if(previous == null) {
+			return null;
+		}
+
+		// The root is kept even when it is empty, as its edge must remain empty
+		Node<T> replacement = parents.isEmpty() ? node.withValue(null) : node.withoutValue();
+		for(int i = parents.size() - 1; i >= 0; i--) {
+			Node<T> parent = parents.get(i);
+			if(replacement != null) {
+				replacement = parent.withChild(indexes.get(i), replacement);
+			}
+			else {
+				parent = parent.removeChild(indexes.get(i));
+				replacement = i == 0 || parent.value != null ? parent : parent.withoutValue();
+			}
+		}
+		root = replacement;
+		size--;
+		return previous;
+	}
+
+	/**
+	 * Removes every registered prefix.
+	 */
+	public synchronized void clear() {
+		root = emptyRoot();
+		size = 0;
+	}
+
+	/**
+	 * Gets the value registered for exactly the prefix of a {@link Subspace}.
+	 *
+	 * @param subspace the {@code Subspace} to look up
+	 * @return the value registered for the prefix of {@code subspace}, or {@code null} if there is none
+	 */
+	public T get(Subspace subspace) {
+		return get(subspace.getKey());
+	}
+
+	/**
+	 * Gets the value registered for exactly a prefix.
+	 *
+	 * @param prefix the prefix to look up
+	 * @return the value registered for {@code prefix}, or {@code null} if there is none
+	 */
+	public T get(byte[] prefix) {
+		Node<T> node = root;
+		int pos = 0;
+		while(true) {
+			int matched = node.match(prefix, pos, prefix.length);
+			if(matched < node.edge.length) {
+				return null;
+			}
+			pos += matched;
+			if(pos == prefix.length) {
+				return node.value;
+			}
+			int index = node.find(prefix[pos]);
+			if(index < 0) {
+				return null;
+			}
+			node = node.children[index];
+			pos++;
+		}
+	}
+
+	/**
+	 * Routes a key to the value registered for the longest prefix of the key.
+	 *
+	 * @param key the key to route
+	 * @return the value registered for the longest registered prefix of {@code key}, or {@code null} if
+	 *  no registered prefix is a prefix of {@code key}
+	 */
+	public T route(byte[] key) {
+		return route(key, 0, key.length);
+	}
+
+	/**
+	 * Routes a key within an array to the value registered for the longest prefix of the key.
+	 *
+	 * @param key an array containing the key to route
+	 * @param offset the starting position of the key within {@code key}
+	 * @param length the length of the key
+	 * @return the value registered for the longest registered prefix of the key, or {@code null} if
+	 *  no registered prefix is a prefix of the key
+	 */
+	public T route(byte[] key, int offset, int length) {
+		Node<T> node = root;
+		T found = null;
+		int pos = offset;
+		int end = offset + length;
+		while(true) {
+			if(node.match(key, pos, end) < node.edge.length) {
+				return found;
+			}
+			pos += node.edge.length;
+			if(node.value != null) {
+				found = node.value;
+			}
+			if(pos == end) {
+				return found;
+			}
+			int index = node.find(key[pos]);
+			if(index < 0) {
+				return found;
+			}
+			node = node.children[index];
+			pos++;
+		}
+	}
+
+	/**
+	 * Gets the number of registered prefixes.
+	 *
+	 * @return the number of prefixes that keys are routed for
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * VersionstampLogWriter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.subspace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.tuple.Tuple;
+import com.apple.foundationdb.tuple.Versionstamp;
+
+/**
+ * Appends entries with versionstamped keys to a log within a {@link Subspace} as part of a single
+ *  {@link Transaction}. Every key is built from a template {@link Tuple} containing exactly one
+ *  incomplete {@link Versionstamp}. The template is packed once, when the writer is created, which
+ *  also locates the versionstamp within the key. Each call to {@link #append(byte[])} then copies
+ *  the packed template, fills in the next user version, and writes the entry with a
+ *  {@link MutationType#SET_VERSIONSTAMPED_KEY SET_VERSIONSTAMPED_KEY} mutation. The result is the
+ *  same as calling {@link Subspace#packWithVersionstamp(Tuple)} on the template with a new user
+ *  version for each entry, but without encoding or scanning the tuple again.<br>
+ * <br>
+ * User versions are assigned in increasing order starting from the one given when the writer is
+ *  created (zero by default), so entries sort in the order they were appended, both within the
+ *  transaction and after entries written by earlier transactions. As user versions are only two
+ *  bytes, at most 65,536 entries can be appended with one template in one transaction.
+ *  Two writers that use the same template in one transaction must be given disjoint ranges of user
+ *  versions, or their keys will collide.<br>
+ * <br>
+ * Once the transaction has committed, {@link #getVersionstamps()} resolves the complete
+ *  {@code Versionstamp} of every entry. For example:
+ * <pre>
+ *   VersionstampLogWriter log = new VersionstampLogWriter(tr, events, Tuple.from(Versionstamp.incomplete()));
+ *   for(byte[] event : batch) {
+ *       log.append(event);
+ *   }
+ *   CompletableFuture&lt;List&lt;Versionstamp&gt;&gt; written = log.getVersionstamps();
+ *   tr.commit().join();
+ *   List&lt;Versionstamp&gt; versionstamps = written.join();</pre>
+ * This class is not thread safe.
+ */
+public final class VersionstampLogWriter {
+	/**
+	 * The largest user version that can be assigned to an entry.
+	 */
+	public static final int MAX_USER_VERSION = 0xffff;
+
+	private final Transaction tr;
+	private final byte[] template;
+	private final int userVersionPos;
+	private final int firstUserVersion;
+	private int nextUserVersion;
+	private CompletableFuture<byte[]> trVersionFuture;
+
+	/**
+	 * Creates a writer whose first entry has user version zero.
+	 *
+	 * @param tr the transaction to write entries in
+	 * @param subspace the {@code Subspace} holding the log
+	 * @param template the {@code Tuple} that each key is packed from, which must contain exactly one
+	 *  incomplete {@link Versionstamp}. The user version of that {@code Versionstamp} is ignored.
+	 * @throws IllegalArgumentException if {@code template} does not contain exactly one incomplete
+	 *  {@code Versionstamp}
+	 */
+	public VersionstampLogWriter(Transaction tr, Subspace subspace, Tuple template) {
+		this(tr, subspace, template, 0);
+	}
+
+	/**
+	 * Creates a writer whose first entry has the given user version.
+	 *
+	 * @param tr the transaction to write entries in
+	 * @param subspace the {@code Subspace} holding the log
+	 * @param template the {@code Tuple} that each key is packed from, which must contain exactly one
+	 *  incomplete {@link Versionstamp}. The user version of that {@code Versionstamp} is ignored.
+	 * @param firstUserVersion the user version of the first entry appended
+	 * @throws IllegalArgumentException if {@code template} does not contain exactly one incomplete
+	 *  {@code Versionstamp} or if {@code firstUserVersion} is not between zero and {@link #MAX_USER_VERSION}
+	 */
+	public VersionstampLogWriter(Transaction tr, Subspace subspace, Tuple template, int firstUserVersion) {
+		if(firstUserVersion < 0 || firstUserVersion > MAX_USER_VERSION) {
+			throw new IllegalArgumentException("User version " + firstUserVersion + " is out of range");
+		}
+		this.tr = tr;
+		KeyBuilder builder = subspace.keyBuilder().addAll(template);
+		this.template = builder.buildWithVersionstamp();
+
+		// The key is followed by the little-endian position of the versionstamp, which is two or four
+		// bytes long depending on the API version.
+		int keyLength = builder.size();
+		int versionstampPos = 0;
+		for(int i = this.template.length - 1; i >= keyLength; i--) {
+			versionstampPos = (versionstampPos << 8) | (this.template[i] & 0xff);
+		}
+		this.userVersionPos = versionstampPos + Versionstamp.LENGTH - 2;
+		this.firstUserVersion = firstUserVersion;
+		this.nextUserVersion = firstUserVersion;
+	}
+
+	/**
+	 * Appends an entry to the log.
+	 *
+	 * @param value the value of the entry
+	 * @return the user version assigned to the entry
+	 * @throws IllegalStateException if every user version has already been assigned
+	 */
+	public int append(byte[] value) {
+		int userVersion = nextUserVersion;
+		if(userVersion > MAX_USER_VERSION) {
+			throw new IllegalStateException("No user versions left for versionstamped log entries");
+		}
+		if(trVersionFuture == null) {
+			// The versionstamp can only be requested before the transaction is committed.
+			trVersionFuture = tr.getVersionstamp();
+		}
+		byte[] key = template.clone();
+		key[userVersionPos] = (byte)(userVersion >> 8);
+		key[userVersionPos + 1] = (byte)userVersion;
+		tr.mutate(MutationType.SET_VERSIONSTAMPED_KEY, key, value);
+		nextUserVersion = userVersion + 1;
+		return userVersion;
+	}
+
+	/**
+	 * Gets the number of entries appended so far.
+	 *
+	 * @return the number of entries appended
+	 */
+	public int size() {
+		return nextUserVersion - firstUserVersion;
+	}
+
+	/**
+	 * Gets the complete {@link Versionstamp}s of the entries appended so far, in the order in which they
+	 *  were appended. The returned future is ready once the transaction has been committed, and will
+	 *  complete exceptionally if the commit fails. Entries appended after this is called are not included.
+	 *
+	 * @return a future holding the {@code Versionstamp} of each entry
+	 */
+	public CompletableFuture<List<Versionstamp>> getVersionstamps() {
+		if(trVersionFuture == null) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+		int first = firstUserVersion;
+		int end = nextUserVersion;
+		return trVersionFuture.thenApply(trVersion -> {
+			List<Versionstamp> versionstamps = new ArrayList<>(end - first);
+			for(int userVersion = first; userVersion < end; userVersion++) {
+				versionstamps.add(Versionstamp.complete(trVersion, userVersion));
+			}
+			return versionstamps;
+		});
+	}
+}
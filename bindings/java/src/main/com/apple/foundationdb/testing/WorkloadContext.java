@@ -48,6 +48,17 @@ public class WorkloadContext {
 		return getSharedRandomNumber(impl);
 	}
 
+	/**
+	 * Gets the current time of the process running the workload, in seconds. Under simulation
+	 * this is the simulated time, so measurements based on it are the same on every run with
+	 * the same seed, unlike those based on {@link System#nanoTime()}.
+	 *
+	 * @return the current time in seconds
+	 */
+	public double now() {
+		return now(impl);
+	}
+
 	public String getOption(String name, String defaultValue) {
 		return getOption(impl, name, defaultValue);
 	}
@@ -70,5 +81,6 @@ public class WorkloadContext {
 	private static native int getClientID(long self);
 	private static native int getClientCount(long self);
 	private static native long getSharedRandomNumber(long self);
+	private static native double now(long self);
 
 }
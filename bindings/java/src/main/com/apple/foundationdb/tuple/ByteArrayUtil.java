@@ -453,12 +453,7 @@ public class ByteArrayUtil extends FastByteComparisons {
 	}
 
 	static int nullCount(byte[] val) {
-		int nulls = 0;
-		for(int i = 0; i < val.length; i++) {
-			if(val[i] == 0x00)
-				nulls += 1;
-		}
-		return nulls;
+		return NullEscaping.countNulls(val, 0, val.length);
 	}
 
 	private ByteArrayUtil() {}
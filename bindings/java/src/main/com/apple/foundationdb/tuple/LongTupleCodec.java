@@ -0,0 +1,150 @@
+/*
+ * LongTupleCodec.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import com.apple.foundationdb.Range;
+
+/**
+ * Packs and unpacks keys whose tuple is a single integer. Tables that are keyed by a dense
+ *  integer index, such as {@code subspace.pack(Tuple.from(index))}, spend most of the time
+ *  building such keys in boxing the index, building a {@link Tuple} around it, and computing
+ *  its size. These methods produce exactly the same bytes as packing a one-element
+ *  {@code Tuple} holding a {@code long}, but compute the length of the key up front and write
+ *  each byte of the integer directly into a single array.<br>
+ * <br>
+ * Because integers are encoded in an order-preserving way, the keys for the indices in
+ *  {@code [lo, hi)} are exactly the keys in {@link #range(byte[], long, long)}. That range also
+ *  includes any longer tuples that start with one of those indices.
+ */
+public final class LongTupleCodec {
+	// The type code and the eight bytes of the largest integers
+	private static final int MAX_PACKED_SIZE = 1 + Long.BYTES;
+
+	/**
+	 * Gets the number of bytes in the packed representation of a {@code long}. This is the same
+	 *  as {@link Tuple#getPackedSize()} of a {@code Tuple} holding only {@code value}.
+	 *
+	 * @param value the integer to be packed
+	 * @return the number of bytes needed to pack {@code value}
+	 */
+	public static int packedSize(long value) {
+		return 1 + TupleUtil.minimalByteCount(value);
+	}
+
+	/**
+	 * Packs a {@code long} after a raw prefix. The result is the same as
+	 *  {@code Tuple.from(value).pack(prefix)}.
+	 *
+	 * @param prefix the bytes preceding the packed integer, or {@code null} for no prefix
+	 * @param value the integer to pack
+	 * @return a new array holding {@code prefix} followed by the packed integer
+	 */
+	public static byte[] pack(byte[] prefix, long value) {
+		int prefixLength = prefix == null ? 0 : prefix.length;
+		byte[] key = new byte[prefixLength + packedSize(value)];
+		if(prefixLength > 0) {
+			System.arraycopy(prefix, 0, key, 0, prefixLength);
+		}
+		packInto(key, prefixLength, value);
+		return key;
+	}
+
+	/**
+	 * Packs a {@code long} into an existing array. There must be at least
+	 *  {@link #packedSize(long) packedSize(value)} bytes of space starting at {@code pos}.
+	 *
+	 * @param dest the array to pack into
+	 * @param pos the index at which to write the first byte
+	 * @param value the integer to pack
+	 * @return the index just past the last byte written
+	 * @throws ArrayIndexOutOfBoundsException if {@code dest} does not have enough space
+	 */
+	public static int packInto(byte[] dest, int pos, long value) {
+		if(value == 0L) {
+			dest[pos] = TupleUtil.INT_ZERO_CODE;
+			return pos + 1;
+		}
+		int n = TupleUtil.minimalByteCount(value);
+		int end = pos + 1 + n;
+		if(pos < 0 || end > dest.length) {
+			throw new ArrayIndexOutOfBoundsException("Not enough space to pack " + value + " at position " + pos);
+		}
+		dest[pos] = (byte)(TupleUtil.INT_ZERO_CODE + (value >= 0 ? n : -n));
+		// Negative values are written as the one's complement, as in TupleUtil.encode(EncodeState, long)
+		long val = (value >= 0) ? value : (value - 1);
+		for(int i = end - 1; i > pos; i--) {
+			dest[i] = (byte)val;
+			val >>= 8;
+		}
+		return end;
+	}
+
+	/**
+	 * Unpacks a {@code long} from a packed tuple that holds exactly one integer. This is the same
+	 *  as {@code Tuple.fromBytes(bytes, offset, length).getLong(0)} but decodes the integer in place.
+	 *
+	 * @param bytes the array holding the packed tuple
+	 * @param offset the index of the first byte of the packed tuple
+	 * @param length the length of the packed tuple
+	 * @return the integer encoded by the packed tuple
+	 * @throws IllegalArgumentException if the packed tuple is not a single integer that fits in a {@code long}
+	 */
+	public static long unpack(byte[] bytes, int offset, int length) {
+		if(offset < 0 || length < 1 || length > MAX_PACKED_SIZE || offset + length > bytes.length) {
+			throw new IllegalArgumentException("Packed tuple is not a single integer");
+		}
+		int code = bytes[offset];
+		if(code <= TupleUtil.NEG_INT_START || code >= TupleUtil.POS_INT_END) {
+			throw new IllegalArgumentException("Packed tuple is not a single integer");
+		}
+		boolean positive = code >= TupleUtil.INT_ZERO_CODE;
+		int n = positive ? code - TupleUtil.INT_ZERO_CODE : TupleUtil.INT_ZERO_CODE - code;
+		if(length != 1 + n) {
+			throw new IllegalArgumentException("Packed tuple is not a single integer");
+		}
+		long res = positive ? 0L : ~0L;
+		for(int i = offset + 1; i <= offset + n; i++) {
+			res = (res << 8) | (bytes[i] & 0xff);
+		}
+		if(n == Long.BYTES && (positive ? res < 0 : (res >= 0 && res != Long.MAX_VALUE))) {
+			throw new IllegalArgumentException("Packed integer does not fit in a long");
+		}
+		return positive ? res : res + 1;
+	}
+
+	/**
+	 * Gets the range of keys after a raw prefix that begin with an integer in {@code [lo, hi)}.
+	 *
+	 * @param prefix the bytes preceding the packed integers, or {@code null} for no prefix
+	 * @param lo the smallest integer in the range
+	 * @param hi the integer just past the end of the range
+	 * @return the range from the key for {@code lo} (inclusive) to the key for {@code hi} (exclusive)
+	 * @throws IllegalArgumentException if {@code hi} is less than {@code lo}
+	 */
+	public static Range range(byte[] prefix, long lo, long hi) {
+		if(hi < lo) {
+			throw new IllegalArgumentException("Range end " + hi + " is before range begin " + lo);
+		}
+		return new Range(pack(prefix, lo), pack(prefix, hi));
+	}
+
+	private LongTupleCodec() {}
+}
@@ -0,0 +1,298 @@
+/*
+ * NullEscaping.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import sun.misc.Unsafe;
+
+/**
+ * Utility code to find, count, escape, and unescape the null bytes within byte and string
+ * elements of a packed tuple. Byte strings encode each {@code 0x00} as {@code 0x00 0xFF} and
+ * end with a bare {@code 0x00}, so scanning for nulls is on the critical path of both packing
+ * and unpacking. Like {@link FastByteComparisons}, this looks at eight bytes at a time through
+ * {@link Unsafe} where that is available and falls back to a byte-by-byte scan otherwise.
+ */
+abstract class NullEscaping {
+	private static final byte nil = 0x00;
+	private static final byte ESCAPE = (byte)0xFF;
+
+	/**
+	 * Interface for both the byte-by-byte and word-at-a-time scanners.
+	 */
+	interface Scanner {
+		/**
+		 * Finds the first null byte in a region of an array.
+		 *
+		 * @param bytes the array to search
+		 * @param from the index of the first byte to examine
+		 * @param to the index just past the last byte to examine
+		 * @return the index of the first null in {@code bytes[from, to)}, or {@code to} if there is none
+		 */
+		int indexOfNull(byte[] bytes, int from, int to);
+
+		/**
+		 * Counts the null bytes in a region of an array.
+		 *
+		 * @param bytes the array to search
+		 * @param from the index of the first byte to examine
+		 * @param to the index just past the last byte to examine
+		 * @return the number of nulls in {@code bytes[from, to)}
+		 */
+		int countNulls(byte[] bytes, int from, int to);
+	}
+
+	/**
+	 * Finds the first null byte in {@code bytes[from, to)}.
+	 *
+	 * @return the index of the first null, or {@code to} if there is none
+	 */
+	static int indexOfNull(byte[] bytes, int from, int to) {
+		checkRange(bytes, from, to);
+		return ScannerHolder.BEST_SCANNER.indexOfNull(bytes, from, to);
+	}
+
+	/**
+	 * Counts the null bytes in {@code bytes[from, to)}.
+	 */
+	static int countNulls(byte[] bytes, int from, int to) {
+		checkRange(bytes, from, to);
+		return ScannerHolder.BEST_SCANNER.countNulls(bytes, from, to);
+	}
+
+	/**
+	 * Writes {@code src[offset, offset + length)} to {@code dest} with each null escaped. Runs of
+	 * bytes between nulls are copied in bulk.
+	 *
+	 * @return the number of bytes written
+	 */
+	static int escape(byte[] src, int offset, int length, ByteBuffer dest) {
+		int end = offset + length;
+		checkRange(src, offset, end);
+		Scanner scanner = ScannerHolder.BEST_SCANNER;
+		int start = dest.position();
+		int from = offset;
+		int x = scanner.indexOfNull(src, from, end);
+		while(x < end) {
+			dest.put(src, from, x + 1 - from);
+			dest.put(ESCAPE);
+			from = x + 1;
+			x = scanner.indexOfNull(src, from, end);
+		}
+		dest.put(src, from, end - from);
+		return dest.position() - start;
+	}
+
+	/**
+	 * Copies the contents of an element, {@code src[start, end)}, into {@code dest} starting at
+	 * {@code pos}, dropping the {@code 0xFF} that follows each null. The region must already be
+	 * known to be well formed (as when it was found by scanning for the element's terminator), so
+	 * every null within it is escaped.
+	 *
+	 * @return the index in {@code dest} just past the last byte written
+	 */
+	static int unescape(byte[] src, int start, int end, byte[] dest, int pos) {
+		checkRange(src, start, end);
+		Scanner scanner = ScannerHolder.BEST_SCANNER;
+		int from = start;
+		int x = scanner.indexOfNull(src, from, end);
+		while(x < end) {
+			int length = x + 1 - from;
+			System.arraycopy(src, from, dest, pos, length);
+			pos += length;
+			from = x + 2;
+			x = scanner.indexOfNull(src, from, end);
+		}
+		System.arraycopy(src, from, dest, pos, end - from);
+		return pos + end - from;
+	}
+
+	/**
+	 * Pure Java scanner.
+	 *
+	 * @return the byte-by-byte implementation
+	 */
+	static Scanner scannerJavaImpl() {
+		return ScannerHolder.PureJavaScanner.INSTANCE;
+	}
+
+	/**
+	 * Unsafe scanner.
+	 *
+	 * @return the word-at-a-time implementation
+	 */
+	static Scanner scannerUnsafeImpl() {
+		return ScannerHolder.UnsafeScanner.INSTANCE;
+	}
+
+	private static void checkRange(byte[] bytes, int from, int to) {
+		// The word-at-a-time scanner does not have bounds checks of its own
+		if(from < 0 || to > bytes.length || from > to) {
+			throw new ArrayIndexOutOfBoundsException("Invalid range [" + from + ", " + to + ") for array of length " + bytes.length);
+		}
+	}
+
+	/**
+	 * Provides a scanner implementation; either a Java implementation or a faster
+	 * implementation based on {@link Unsafe}.
+	 *
+	 * <p>Uses reflection to gracefully fall back to the Java implementation if
+	 * {@code Unsafe} isn't available.
+	 */
+	private static class ScannerHolder {
+		static final String UNSAFE_SCANNER_NAME = ScannerHolder.class.getName() + "$UnsafeScanner";
+
+		static final Scanner BEST_SCANNER = getBestScanner();
+
+		/**
+		 * Returns the Unsafe-using Scanner, or falls back to the pure-Java
+		 * implementation if unable to do so.
+		 */
+		static Scanner getBestScanner() {
+			// The word-at-a-time scan reads unaligned longs and relies on little-endian byte order
+			// to find the first null in a word.
+			String arch = System.getProperty("os.arch");
+			boolean unaligned = arch.equals("i386") || arch.equals("x86") || arch.equals("amd64") || arch.equals("x86_64")
+			                    || arch.equals("aarch64");
+			if(!unaligned || !ByteOrder.nativeOrder().equals(ByteOrder.LITTLE_ENDIAN)) {
+				return scannerJavaImpl();
+			}
+			try {
+				Class<?> theClass = Class.forName(UNSAFE_SCANNER_NAME);
+				return (Scanner)theClass.getEnumConstants()[0];
+			}
+			catch(Throwable t) { // ensure we really catch *everything*
+				return scannerJavaImpl();
+			}
+		}
+
+		/**
+		 * Java Scanner looking at one byte at a time.
+		 */
+		enum PureJavaScanner implements Scanner {
+			INSTANCE;
+
+			@Override
+			public int indexOfNull(byte[] bytes, int from, int to) {
+				for(int i = from; i < to; i++) {
+					if(bytes[i] == nil) {
+						return i;
+					}
+				}
+				return to;
+			}
+
+			@Override
+			public int countNulls(byte[] bytes, int from, int to) {
+				int nulls = 0;
+				for(int i = from; i < to; i++) {
+					if(bytes[i] == nil) {
+						nulls++;
+					}
+				}
+				return nulls;
+			}
+		}
+
+		/**
+		 * Scanner looking at eight bytes at a time. For a word {@code w}, the expression in
+		 * {@link #zeroBytes(long)} sets the high bit of exactly those bytes of {@code w} that are zero,
+		 * without carries between bytes, so nulls can be counted with a population count and the first
+		 * one found with a trailing zero count.
+		 */
+		@SuppressWarnings("unused") // used via reflection
+		enum UnsafeScanner implements Scanner {
+			INSTANCE;
+
+			static final Unsafe theUnsafe;
+
+			/**
+			 * The offset to the first element in a byte array.
+			 */
+			static final int BYTE_ARRAY_BASE_OFFSET;
+
+			private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+			static {
+				theUnsafe = (Unsafe)AccessController.doPrivileged((PrivilegedAction<Object>)() -> {
+					try {
+						Field f = Unsafe.class.getDeclaredField("theUnsafe");
+						f.setAccessible(true);
+						return f.get(null);
+					}
+					catch(NoSuchFieldException | IllegalAccessException e) {
+						// It doesn't matter what we throw; it's swallowed in getBestScanner().
+						throw new Error();
+					}
+				});
+
+				BYTE_ARRAY_BASE_OFFSET = theUnsafe.arrayBaseOffset(byte[].class);
+
+				// sanity check - this should never fail
+				if(theUnsafe.arrayIndexScale(byte[].class) != 1) {
+					throw new AssertionError();
+				}
+			}
+
+			private static long zeroBytes(long w) {
+				return ~(((w & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | w | LOW_SEVEN_BITS);
+			}
+
+			@Override
+			public int indexOfNull(byte[] bytes, int from, int to) {
+				int i = from;
+				for(; i + Long.BYTES <= to; i += Long.BYTES) {
+					long zeros = zeroBytes(theUnsafe.getLong(bytes, (long)BYTE_ARRAY_BASE_OFFSET + i));
+					if(zeros != 0) {
+						return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+					}
+				}
+				for(; i < to; i++) {
+					if(bytes[i] == nil) {
+						return i;
+					}
+				}
+				return to;
+			}
+
+			@Override
+			public int countNulls(byte[] bytes, int from, int to) {
+				int nulls = 0;
+				int i = from;
+				for(; i + Long.BYTES <= to; i += Long.BYTES) {
+					nulls += Long.bitCount(zeroBytes(theUnsafe.getLong(bytes, (long)BYTE_ARRAY_BASE_OFFSET + i)));
+				}
+				for(; i < to; i++) {
+					if(bytes[i] == nil) {
+						nulls++;
+					}
+				}
+				return nulls;
+			}
+		}
+	}
+
+	private NullEscaping() {}
+}
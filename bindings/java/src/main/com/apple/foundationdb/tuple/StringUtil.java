@@ -20,11 +20,16 @@
 
 package com.apple.foundationdb.tuple;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 final class StringUtil {
 	private static final char SURROGATE_COUNT = Character.MAX_LOW_SURROGATE - Character.MIN_HIGH_SURROGATE + 1;
 	private static final char ABOVE_SURROGATES = Character.MAX_VALUE - Character.MAX_LOW_SURROGATE;
-	private static final String HIGH_WITHOUT_LOW_ERR_MSG = "malformed UTF-16 string contains high surrogate that is not followed by low surrogate";
-	private static final String LOW_WITHOUT_HIGH_ERR_MSG = "malformed UTF-16 string contains low surrogate without prior high surrogate";
+	static final String HIGH_WITHOUT_LOW_ERR_MSG = "malformed UTF-16 string contains high surrogate that is not followed by low surrogate";
+	static final String LOW_WITHOUT_HIGH_ERR_MSG = "malformed UTF-16 string contains low surrogate without prior high surrogate";
+	private static final String MALFORMED_UTF8_ERR_MSG = "malformed UTF-8 string";
 
 	static char adjustForSurrogates(char c, String s, int pos) {
 		if(c > Character.MAX_LOW_SURROGATE) {
@@ -43,27 +48,6 @@ final class StringUtil {
 		}
 	}
 
-	// Validates that the string is well-formed UTF-16 by making sure every high surrogate is followed by a low-surrogate
-	static void validate(String s) {
-		final int strLength = s.length();
-		int i = 0;
-		while(i < strLength) {
-			char c = s.charAt(i);
-			if(Character.isHighSurrogate(c)) {
-				if(i + 1 >= strLength || !Character.isLowSurrogate(s.charAt(i + 1))) {
-					throw new IllegalArgumentException(HIGH_WITHOUT_LOW_ERR_MSG);
-				}
-				i += 2;
-			}
-			else if(Character.isLowSurrogate(c)) {
-				throw new IllegalArgumentException(LOW_WITHOUT_HIGH_ERR_MSG);
-			}
-			else {
-				i++;
-			}
-		}
-	}
-
 	// Compare two strings based on their UTF-8 code point values. Note that Java stores strings
 	// using UTF-16. However, {@link Tuple}s are encoded using UTF-8. Using unsigned byte comparison,
 	// UTF-8 strings will sort based on their Unicode codepoints. However, UTF-16 strings <em>almost</em>,
@@ -141,5 +125,154 @@ final class StringUtil {
 		return size;
 	}
 
+	// Encodes a string as UTF-8 into dest with each null escaped as \x00\xff, as it appears within
+	// a packed tuple, and advances the position of dest. This validates the string, escapes nulls,
+	// and transcodes in a single pass, so unlike s.getBytes(UTF_8) it does not make an intermediate
+	// copy. If the string is not well-formed UTF-16, dest is left unchanged.
+	static void encodeEscaped(String s, ByteBuffer dest) {
+		if(dest.hasArray()) {
+			// No code unit takes more than three bytes, so only measure the string exactly if that might not fit
+			if((long)3 * s.length() > dest.remaining() && packedSize(s) > dest.remaining()) {
+				throw new BufferOverflowException();
+			}
+			int end = encodeEscaped(s, dest.array(), dest.arrayOffset() + dest.position());
+			dest.position(end - dest.arrayOffset());
+		}
+		else {
+			byte[] encoded = new byte[packedSize(s)];
+			encodeEscaped(s, encoded, 0);
+			dest.put(encoded);
+		}
+	}
+
+	// Encodes a string as in encodeEscaped(String, ByteBuffer) into an array that is known to be
+	// large enough, and returns the index just past the last byte written.
+	static int encodeEscaped(String s, byte[] dest, int pos) {
+		final int strLength = s.length();
+		int i = 0;
+		// ASCII fast path, which handles the whole string in the common case. Scanning first and then
+		// copying the prefix in bulk is considerably faster than a combined loop, as for compact strings
+		// the copy is a single arraycopy.
+		while(i < strLength && (char)(s.charAt(i) - 1) < 0x7f) {
+			i++;
+		}
+		copyAscii(s, i, dest, pos);
+		pos += i;
+		while(i < strLength) {
+			char c = s.charAt(i);
+			if(c == '\0') {
+				dest[pos++] = 0x00;
+				dest[pos++] = (byte)0xff;
+			}
+			else if(c < 0x80) {
+				dest[pos++] = (byte)c;
+			}
+			else if(c < 0x800) {
+				dest[pos++] = (byte)(0xc0 | (c >> 6));
+				dest[pos++] = (byte)(0x80 | (c & 0x3f));
+			}
+			else if(Character.isSurrogate(c)) {
+				if(Character.isLowSurrogate(c)) {
+					throw new IllegalArgumentException(LOW_WITHOUT_HIGH_ERR_MSG);
+				}
+				if(i + 1 >= strLength || !Character.isLowSurrogate(s.charAt(i + 1))) {
+					throw new IllegalArgumentException(HIGH_WITHOUT_LOW_ERR_MSG);
+				}
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				dest[pos++] = (byte)(0xf0 | (codePoint >> 18));
+				dest[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+				dest[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+				dest[pos++] = (byte)(0x80 | (codePoint & 0x3f));
+			}
+			else {
+				dest[pos++] = (byte)(0xe0 | (c >> 12));
+				dest[pos++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				dest[pos++] = (byte)(0x80 | (c & 0x3f));
+			}
+			i++;
+		}
+		return pos;
+	}
+
+	// Every character in s[0, length) is known to be in [0x01, 0x7f], so the low byte of each char is
+	// exactly its UTF-8 encoding.
+	@SuppressWarnings("deprecation")
+	private static void copyAscii(String s, int length, byte[] dest, int pos) {
+		s.getBytes(0, length, dest, pos);
+	}
+
+	// Decodes the contents of a string element of a packed tuple, from start up to (but not including)
+	// its terminator at end, where nullCount is the number of escaped nulls. This unescapes nulls and
+	// transcodes from UTF-8 in a single pass, and rejects the same malformed input (overlong forms,
+	// encoded surrogates, truncated sequences, and code points above U+10FFFF) as the JDK's decoder.
+	static String decodeEscaped(byte[] bytes, int start, int end, int nullCount) {
+		int i = start;
+		while(i < end && bytes[i] > 0) {
+			i++;
+		}
+		if(i == end) {
+			// ASCII fast path: ASCII is also valid Latin-1, which the JDK can copy without decoding
+			return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+		// Every byte (or escaped null) decodes to at most one char, except four-byte
+		// sequences, which decode to two
+		char[] chars = new char[end - start - nullCount];
+		int n = 0;
+		for(int j = start; j < i; j++) {
+			chars[n++] = (char)bytes[j];
+		}
+		while(i < end) {
+			int b = bytes[i];
+			if(b > 0) {
+				chars[n++] = (char)b;
+				i++;
+			}
+			else if(b == 0) {
+				// Nulls inside the element are always followed by the 0xff escape
+				chars[n++] = '\0';
+				i += 2;
+			}
+			else if((b & 0xe0) == 0xc0) {
+				if(i + 1 >= end || (b & 0x1e) == 0 || !isContinuation(bytes[i + 1])) {
+					throw new IllegalArgumentException(MALFORMED_UTF8_ERR_MSG);
+				}
+				chars[n++] = (char)(((b & 0x1f) << 6) | (bytes[i + 1] & 0x3f));
+				i += 2;
+			}
+			else if((b & 0xf0) == 0xe0) {
+				if(i + 2 >= end || !isContinuation(bytes[i + 1]) || !isContinuation(bytes[i + 2])) {
+					throw new IllegalArgumentException(MALFORMED_UTF8_ERR_MSG);
+				}
+				int c = ((b & 0x0f) << 12) | ((bytes[i + 1] & 0x3f) << 6) | (bytes[i + 2] & 0x3f);
+				if(c < 0x800 || Character.isSurrogate((char)c)) {
+					throw new IllegalArgumentException(MALFORMED_UTF8_ERR_MSG);
+				}
+				chars[n++] = (char)c;
+				i += 3;
+			}
+			else if((b & 0xf8) == 0xf0) {
+				if(i + 3 >= end || !isContinuation(bytes[i + 1]) || !isContinuation(bytes[i + 2]) || !isContinuation(bytes[i + 3])) {
+					throw new IllegalArgumentException(MALFORMED_UTF8_ERR_MSG);
+				}
+				int codePoint = ((b & 0x07) << 18) | ((bytes[i + 1] & 0x3f) << 12) | ((bytes[i + 2] & 0x3f) << 6) | (bytes[i + 3] & 0x3f);
+				if(codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT || codePoint > Character.MAX_CODE_POINT) {
+					throw new IllegalArgumentException(MALFORMED_UTF8_ERR_MSG);
+				}
+				chars[n++] = Character.highSurrogate(codePoint);
+				chars[n++] = Character.lowSurrogate(codePoint);
+				i += 4;
+			}
+			else {
+				// A continuation byte without a leading byte, or a byte that never appears in UTF-8
+				throw new IllegalArgumentException(MALFORMED_UTF8_ERR_MSG);
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
+	private static boolean isContinuation(byte b) {
+		return (b & 0xc0) == 0x80;
+	}
+
 	private StringUtil() {}
 }
@@ -546,6 +546,31 @@ public class Tuple implements Comparable<Tuple>, Iterable<Object> {
 		return t;
 	}
 
+	/**
+	 * Construct a new {@code Tuple} with elements decoded from a slice of a {@code byte} array, without
+	 *  copying the slice. Unlike {@link #fromBytes(byte[], int, int)}, the slice is not kept as the
+	 *  {@code Tuple}'s packed representation, so the {@code Tuple} is encoded again if it is packed. This
+	 *  is cheaper when the bytes are only being read, such as when removing a
+	 *  {@link com.apple.foundationdb.subspace.Subspace Subspace} prefix from a key.
+	 *
+	 * @param bytes encoded {@code Tuple} source
+	 * @param offset starting offset of byte array of encoded data
+	 * @param length length of encoded data within the source
+	 *
+	 * @return a new {@code Tuple} constructed by deserializing the specified slice of the provided {@code byte} array
+	 * @throws IllegalArgumentException if {@code offset} or {@code length} are negative or would exceed the size of
+	 *  the array or if {@code bytes} does not represent a valid {@code Tuple}
+	 */
+	public static Tuple decode(byte[] bytes, int offset, int length) {
+		if(offset < 0 || offset > bytes.length) {
+			throw new IllegalArgumentException("Invalid offset for Tuple deserialization");
+		}
+		if(length < 0 || offset + length > bytes.length) {
+			throw new IllegalArgumentException("Invalid length for Tuple deserialization");
+		}
+		return new Tuple(TupleUtil.unpack(bytes, offset, length));
+	}
+
 	/**
 	 * Gets the number of elements in this {@code Tuple}.
 	 *
@@ -876,9 +901,7 @@ public class Tuple implements Comparable<Tuple>, Iterable<Object> {
 		if(hasIncompleteVersionstamp()) {
 			throw new IllegalStateException("Tuple with incomplete versionstamp used for range");
 		}
-		byte[] p = packInternal(prefix, false);
-		return new Range(ByteArrayUtil.join(p, new byte[] {0x0}),
-				ByteArrayUtil.join(p, new byte[] {(byte)0xff}));
+		return TupleRangeUtil.prefixRange(prefix, this);
 	}
 
 	/**
@@ -933,7 +956,10 @@ public class Tuple implements Comparable<Tuple>, Iterable<Object> {
 	 *  will sort {@code Tuple}s in the same order that they would be sorted as keys in
 	 *  FoundationDB. Returns a negative integer, zero, or a positive integer when this object's
 	 *  byte-array representation is found to be less than, equal to, or greater than the
-	 *  specified {@code Tuple}.
+	 *  specified {@code Tuple}. Unless either {@code Tuple} has an incomplete {@link Versionstamp},
+	 *  this packs both {@code Tuple}s (which is memoized, as in {@link #pack()}) and compares the
+	 *  packed bytes, so repeated comparisons, such as when sorting, only encode each
+	 *  {@code Tuple} once.
 	 *
 	 * @param t the {@code Tuple} against which to compare
 	 *
@@ -944,12 +970,12 @@ public class Tuple implements Comparable<Tuple>, Iterable<Object> {
 	public int compareTo(Tuple t) {
 		// If either tuple has an incomplete versionstamp, then there is a possibility that the byte order
 		// is not the semantic comparison order.
-		if(packed != null && t.packed != null && !hasIncompleteVersionstamp() && !t.hasIncompleteVersionstamp()) {
-			return ByteArrayUtil.compareUnsigned(packed, t.packed);
-		}
-		else {
+		if(hasIncompleteVersionstamp() || t.hasIncompleteVersionstamp()) {
 			return comparator.compare(elements, t.elements);
 		}
+		byte[] bytes = packInternal(null, false);
+		byte[] otherBytes = t.packInternal(null, false);
+		return FastByteComparisons.compareTo(bytes, 0, bytes.length, otherBytes, 0, otherBytes.length);
 	}
 
 	/**
@@ -985,7 +1011,14 @@ public class Tuple implements Comparable<Tuple>, Iterable<Object> {
 		if(o == this)
 			return true;
 		if(o instanceof Tuple) {
-			return compareTo((Tuple)o) == 0;
+			Tuple t = (Tuple)o;
+			if(hasIncompleteVersionstamp() || t.hasIncompleteVersionstamp()) {
+				return compareTo(t) == 0;
+			}
+			if(memoizedHash != 0 && t.memoizedHash != 0 && memoizedHash != t.memoizedHash) {
+				return false;
+			}
+			return Arrays.equals(packInternal(null, false), t.packInternal(null, false));
 		}
 		return false;
 	}
@@ -0,0 +1,89 @@
+/*
+ * TupleKeyComparator.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A {@link Comparator} that sorts {@link Tuple}s in the order that their packed
+ *  representations would be sorted as keys in FoundationDB. This is the same order as
+ *  {@link Tuple#compareTo(Tuple)}, and like it, compares the packed bytes of each
+ *  {@code Tuple} (which are memoized) rather than walking their elements, except that
+ *  a {@code Tuple} with an incomplete {@link Versionstamp} is compared element-wise.
+ * <br>
+ * <br>
+ * For sorting a large number of {@code Tuple}s in memory, {@link #sort(Tuple[])} and
+ *  {@link #sort(List)} first pack each {@code Tuple} in a single pass, so that the sort
+ *  itself only compares bytes.
+ */
+public final class TupleKeyComparator implements Comparator<Tuple> {
+	/**
+	 * The {@code TupleKeyComparator} instance. This {@link Comparator} has no internal state.
+	 */
+	public static final TupleKeyComparator INSTANCE = new TupleKeyComparator();
+
+	private TupleKeyComparator() {}
+
+	/**
+	 * Compares two {@link Tuple}s by their packed representations.
+	 *
+	 * @param t1 the first {@code Tuple}
+	 * @param t2 the second {@code Tuple}
+	 * @return a negative integer, zero, or a positive integer when {@code t1} is less than,
+	 *  equal to, or greater than {@code t2}
+	 */
+	@Override
+	public int compare(Tuple t1, Tuple t2) {
+		return t1.compareTo(t2);
+	}
+
+	/**
+	 * Sorts an array of {@link Tuple}s in key order.
+	 *
+	 * @param tuples the {@code Tuple}s to sort
+	 */
+	public static void sort(Tuple[] tuples) {
+		pack(Arrays.asList(tuples));
+		Arrays.sort(tuples, INSTANCE);
+	}
+
+	/**
+	 * Sorts a list of {@link Tuple}s in key order.
+	 *
+	 * @param tuples the {@code Tuple}s to sort
+	 */
+	public static void sort(List<Tuple> tuples) {
+		pack(tuples);
+		tuples.sort(INSTANCE);
+	}
+
+	// Packs each tuple ahead of the sort, which memoizes its packed form, so that the sort
+	// compares bytes without interleaving encoding work with comparisons.
+	private static void pack(List<Tuple> tuples) {
+		for(Tuple t : tuples) {
+			if(!t.hasIncompleteVersionstamp()) {
+				t.packInternal(null, false);
+			}
+		}
+	}
+}
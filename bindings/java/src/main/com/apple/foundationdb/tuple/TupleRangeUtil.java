@@ -0,0 +1,160 @@
+/*
+ * TupleRangeUtil.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.nio.ByteBuffer;
+
+import com.apple.foundationdb.Range;
+
+/**
+ * Utilities for computing the bounds of scans over keys that are packed {@link Tuple}s. Each
+ *  method takes the raw prefix that precedes the tuples in the key (such as the key of a
+ *  {@link com.apple.foundationdb.subspace.Subspace Subspace}, or {@code null} for none) and
+ *  copies it straight into each bound along with the encoded tuple, so that every bound
+ *  requires exactly one allocation, and the prefix itself is never packed or copied on its own.
+ *  This makes it cheap to compute new bounds for every page of a paginated scan.<br>
+ * <br>
+ * Bounds can be inclusive or exclusive of the last element of a tuple. A bound on a tuple
+ *  {@code t} that is inclusive includes the key for {@code t} as well as the keys of all tuples
+ *  that start with {@code t}, while an exclusive bound excludes all of them. For example, the range
+ *  {@code between(prefix, Tuple.from("a", 1L), true, Tuple.from("a", 3L), false)} includes
+ *  {@code ("a", 1)}, {@code ("a", 1, "x")} and {@code ("a", 2)}, but not {@code ("a", 3)}
+ *  or {@code ("a", 3, "x")}.<br>
+ * <br>
+ * None of these methods accept tuples containing an incomplete {@link Versionstamp}.
+ */
+public class TupleRangeUtil {
+	private static final int NO_SUFFIX = -1;
+
+	/**
+	 * Gets the range of all keys encoding tuples that strictly start with {@code tuple}. The
+	 *  result is the same as {@link Tuple#range(byte[]) tuple.range(prefix)}.
+	 *
+	 * @param prefix the raw prefix preceding the tuple, or {@code null} for no prefix
+	 * @param tuple the tuple that all keys in the range start with
+	 * @return the range of keys starting with {@code prefix} followed by {@code tuple}
+	 * @throws IllegalArgumentException if {@code tuple} contains an incomplete {@link Versionstamp}
+	 */
+	public static Range prefixRange(byte[] prefix, Tuple tuple) {
+		return new Range(bound(prefix, tuple, 0x00), bound(prefix, tuple, 0xff));
+	}
+
+	/**
+	 * Gets the beginning of a scan over tuples starting at {@code tuple}. A {@code null}
+	 *  {@code tuple} begins the scan at the first tuple after {@code prefix}.
+	 *
+	 * @param prefix the raw prefix preceding the tuple, or {@code null} for no prefix
+	 * @param tuple the first tuple in the scan, or {@code null} for the first tuple after the prefix
+	 * @param inclusive whether the scan includes {@code tuple} and all tuples starting with it
+	 * @return the first key of the scan
+	 * @throws IllegalArgumentException if {@code tuple} contains an incomplete {@link Versionstamp}
+	 */
+	public static byte[] begin(byte[] prefix, Tuple tuple, boolean inclusive) {
+		if(tuple == null) {
+			return bound(prefix, null, 0x00);
+		}
+		return bound(prefix, tuple, inclusive ? NO_SUFFIX : 0xff);
+	}
+
+	/**
+	 * Gets the (exclusive) end of a scan over tuples ending at {@code tuple}. A {@code null}
+	 *  {@code tuple} ends the scan after the last tuple after {@code prefix}.
+	 *
+	 * @param prefix the raw prefix preceding the tuple, or {@code null} for no prefix
+	 * @param tuple the last tuple in the scan, or {@code null} for the last tuple after the prefix
+	 * @param inclusive whether the scan includes {@code tuple} and all tuples starting with it
+	 * @return the first key after the scan
+	 * @throws IllegalArgumentException if {@code tuple} contains an incomplete {@link Versionstamp}
+	 */
+	public static byte[] end(byte[] prefix, Tuple tuple, boolean inclusive) {
+		if(tuple == null) {
+			return bound(prefix, null, 0xff);
+		}
+		return bound(prefix, tuple, inclusive ? 0xff : NO_SUFFIX);
+	}
+
+	/**
+	 * Gets the range of keys encoding the tuples between {@code low} and {@code high}. A {@code null}
+	 *  tuple leaves that end of the range open, bounded only by {@code prefix}.
+	 *
+	 * @param prefix the raw prefix preceding the tuples, or {@code null} for no prefix
+	 * @param low the tuple at the beginning of the range, or {@code null}
+	 * @param lowInclusive whether the range includes {@code low} and all tuples starting with it
+	 * @param high the tuple at the end of the range, or {@code null}
+	 * @param highInclusive whether the range includes {@code high} and all tuples starting with it
+	 * @return the range of keys encoding tuples between {@code low} and {@code high}
+	 * @throws IllegalArgumentException if either tuple contains an incomplete {@link Versionstamp}
+	 */
+	public static Range between(byte[] prefix, Tuple low, boolean lowInclusive, Tuple high, boolean highInclusive) {
+		return new Range(begin(prefix, low, lowInclusive), end(prefix, high, highInclusive));
+	}
+
+	/**
+	 * Gets the rest of a scan over the tuples starting with {@code scanPrefix} after the key
+	 *  encoding {@code last}. This is the range for the next page of a scan for which {@code last}
+	 *  was the last result returned. The beginning of the range is the same as
+	 *  {@link ByteArrayUtil#keyAfter(byte[])} of that key.
+	 *
+	 * @param prefix the raw prefix preceding the tuples, or {@code null} for no prefix
+	 * @param scanPrefix the tuple that all tuples in the scan start with
+	 * @param last the last tuple already returned by the scan
+	 * @return the range of keys within the scan that are after {@code last}
+	 * @throws IllegalArgumentException if either tuple contains an incomplete {@link Versionstamp}
+	 */
+	public static Range after(byte[] prefix, Tuple scanPrefix, Tuple last) {
+		return new Range(bound(prefix, last, 0x00), bound(prefix, scanPrefix, 0xff));
+	}
+
+	/**
+	 * Gets the rest of {@code range} after {@code lastKey}. This is the range for the next page of
+	 *  a scan over {@code range} for which {@code lastKey} was the last key returned. The end of
+	 *  {@code range} is reused as is.
+	 *
+	 * @param range the range being scanned
+	 * @param lastKey the last key already returned by the scan
+	 * @return the range of keys within {@code range} that are after {@code lastKey}
+	 */
+	public static Range after(Range range, byte[] lastKey) {
+		return new Range(ByteArrayUtil.keyAfter(lastKey), range.end);
+	}
+
+	// Builds a key from the prefix, the packed tuple, and then an optional final byte, in a single array.
+	private static byte[] bound(byte[] prefix, Tuple tuple, int suffix) {
+		if(tuple != null && tuple.hasIncompleteVersionstamp()) {
+			throw new IllegalArgumentException("Tuple with incomplete versionstamp used for range");
+		}
+		int prefixLength = prefix == null ? 0 : prefix.length;
+		int tupleLength = tuple == null ? 0 : tuple.getPackedSize();
+		byte[] key = new byte[prefixLength + tupleLength + (suffix == NO_SUFFIX ? 0 : 1)];
+		if(prefixLength > 0) {
+			System.arraycopy(prefix, 0, key, 0, prefixLength);
+		}
+		if(tupleLength > 0) {
+			tuple.packInto(ByteBuffer.wrap(key, prefixLength, tupleLength));
+		}
+		if(suffix != NO_SUFFIX) {
+			key[key.length - 1] = (byte)suffix;
+		}
+		return key;
+	}
+
+	private TupleRangeUtil() {}
+}
@@ -0,0 +1,648 @@
+/*
+ * TupleReader.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * A cursor over the elements of a packed {@link Tuple} that decodes them in place. Unlike
+ *  {@link Tuple#fromBytes(byte[])}, which decodes every element into an object up front, a
+ *  {@code TupleReader} only decodes the elements that are asked for. Elements can be skipped
+ *  without being decoded, integers are returned as primitive {@code long}s, and byte strings
+ *  can be copied into a caller-supplied buffer, so reading a key (for example, the trailing id
+ *  of each key in a range scan) need not allocate anything.<br>
+ * <br>
+ * A reader can be pointed at new bytes with {@link #reset(byte[], int, int)}, which lets one
+ *  reader be reused for every key in a scan. Top-level elements can also be reached by index
+ *  with {@link #seek(int)}. The offsets of the elements are found lazily, the first time an
+ *  element at or beyond a given index is requested, and are remembered until the next reset.<br>
+ * <br>
+ * Nested tuples are read by calling {@link #beginNested()}, reading the nested elements until
+ *  {@link #hasNext()} returns {@code false}, and then calling {@link #endNested()}.<br>
+ * <br>
+ * Methods that read an element throw an {@link IllegalArgumentException} if the next element
+ *  is not of the requested type or is malformed, and leave the cursor where it was.
+ *  This class is not thread safe.
+ */
+public final class TupleReader {
+	private static final byte ESCAPE = (byte)0xff;
+
+	private byte[] bytes;
+	private int offset;
+	private int end;
+	private int pos;
+	private int depth;
+
+	// Indexes into bytes of the top-level elements found so far
+	private int[] elementOffsets = new int[8];
+	private int indexedCount;
+	private boolean fullyIndexed;
+
+	// Set by findTerminator()
+	private int nullCount;
+
+	/**
+	 * Creates a reader over a packed tuple.
+	 *
+	 * @param bytes the packed tuple
+	 */
+	public TupleReader(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Creates a reader over a packed tuple stored within a larger array.
+	 *
+	 * @param bytes the array holding the packed tuple
+	 * @param offset the index of the first byte of the packed tuple
+	 * @param length the length of the packed tuple
+	 */
+	public TupleReader(byte[] bytes, int offset, int length) {
+		reset(bytes, offset, length);
+	}
+
+	/**
+	 * Points this reader at a new packed tuple, positioned at its first element.
+	 *
+	 * @param bytes the packed tuple
+	 * @return this {@code TupleReader}
+	 */
+	public TupleReader reset(byte[] bytes) {
+		return reset(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Points this reader at a new packed tuple stored within a larger array, positioned at its
+	 *  first element. This is typically used to skip over a subspace prefix, as in
+	 *  {@code reset(key, prefix.length, key.length - prefix.length)}.
+	 *
+	 * @param bytes the array holding the packed tuple
+	 * @param offset the index of the first byte of the packed tuple
+	 * @param length the length of the packed tuple
+	 * @return this {@code TupleReader}
+	 */
+	public TupleReader reset(byte[] bytes, int offset, int length) {
+		if(offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new IndexOutOfBoundsException("Invalid offset or length for array of length " + bytes.length);
+		}
+		this.bytes = bytes;
+		this.offset = offset;
+		this.end = offset + length;
+		this.pos = offset;
+		this.depth = 0;
+		this.indexedCount = 0;
+		this.fullyIndexed = false;
+		return this;
+	}
+
+	/**
+	 * Gets whether there is another element to read, either in the tuple or, after a call
+	 *  to {@link #beginNested()}, in the current nested tuple.
+	 *
+	 * @return whether there is another element
+	 */
+	public boolean hasNext() {
+		if(pos >= end) {
+			return false;
+		}
+		return depth == 0 || !isNestedEnd(pos);
+	}
+
+	/**
+	 * Gets the offset of the next element within the packed tuple.
+	 *
+	 * @return the number of bytes between the start of the tuple and the next element
+	 */
+	public int getPosition() {
+		return pos - offset;
+	}
+
+	/**
+	 * Gets whether the next element is {@code null}.
+	 *
+	 * @return whether the next element is {@code null}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public boolean nextIsNull() {
+		checkHasNext();
+		return bytes[pos] == TupleUtil.nil;
+	}
+
+	/**
+	 * Moves past the next element without decoding it.
+	 *
+	 * @return this {@code TupleReader}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public TupleReader skip() {
+		checkHasNext();
+		pos = elementEnd(pos);
+		return this;
+	}
+
+	/**
+	 * Moves past the next {@code count} elements without decoding them.
+	 *
+	 * @param count the number of elements to skip
+	 * @return this {@code TupleReader}
+	 * @throws NoSuchElementException if there are fewer than {@code count} elements left
+	 */
+	public TupleReader skip(int count) {
+		for(int i = 0; i < count; i++) {
+			skip();
+		}
+		return this;
+	}
+
+	/**
+	 * Moves to the top-level element with the given index. This may be used to move backwards as
+	 *  well as forwards, but not while reading a nested tuple.
+	 *
+	 * @param index the index of the element to move to
+	 * @return this {@code TupleReader}
+	 * @throws IndexOutOfBoundsException if the tuple has no element with that index
+	 * @throws IllegalStateException if called between {@link #beginNested()} and {@link #endNested()}
+	 */
+	public TupleReader seek(int index) {
+		if(depth > 0) {
+			throw new IllegalStateException("Cannot seek within a nested tuple");
+		}
+		if(index < 0 || !indexTo(index)) {
+			throw new IndexOutOfBoundsException("Tuple index " + index + " out of range");
+		}
+		pos = elementOffsets[index];
+		return this;
+	}
+
+	/**
+	 * Gets the number of top-level elements in the tuple. This finds the offsets of all of the
+	 *  elements, but does not decode them or move the cursor.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		indexTo(Integer.MAX_VALUE);
+		return indexedCount;
+	}
+
+	/**
+	 * Reads an integer element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not an integer that fits in a {@code long}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public long readLong() {
+		checkHasNext();
+		int code = bytes[pos];
+		if(code <= TupleUtil.NEG_INT_START || code >= TupleUtil.POS_INT_END) {
+			throw wrongType("integer");
+		}
+		boolean positive = code >= TupleUtil.INT_ZERO_CODE;
+		int n = positive ? code - TupleUtil.INT_ZERO_CODE : TupleUtil.INT_ZERO_CODE - code;
+		int start = pos + 1;
+		if(start + n > end) {
+			throw truncated();
+		}
+		long res = positive ? 0L : ~0L;
+		for(int i = start; i < start + n; i++) {
+			res = (res << 8) | (bytes[i] & 0xff);
+		}
+		if(n == Long.BYTES) {
+			// Eight-byte values need the full 64 bits, so some of them are out of range
+			if(positive ? res < 0 : (res >= 0 && res != Long.MAX_VALUE)) {
+				throw new IllegalArgumentException("Integer at position " + (pos - offset) + " does not fit in a long");
+			}
+		}
+		pos = start + n;
+		return positive ? res : res + 1;
+	}
+
+	/**
+	 * Reads an integer element of any size, or a {@code null} element, as a {@link BigInteger}.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not an integer or {@code null}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public BigInteger readBigInteger() {
+		if(readIfNull()) {
+			return null;
+		}
+		int code = bytes[pos];
+		if(code < TupleUtil.NEG_INT_START || code > TupleUtil.POS_INT_END) {
+			throw wrongType("integer");
+		}
+		Object value = readObject();
+		return value instanceof BigInteger ? (BigInteger)value : BigInteger.valueOf((Long)value);
+	}
+
+	/**
+	 * Reads a single-precision floating point element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code float}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public float readFloat() {
+		checkCode(TupleUtil.FLOAT_CODE, "float");
+		int start = checkLength(Float.BYTES);
+		int bits = (int)readBigEndian(start, Float.BYTES);
+		pos = start + Float.BYTES;
+		return TupleUtil.decodeFloatBits(bits);
+	}
+
+	/**
+	 * Reads a double-precision floating point element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code double}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public double readDouble() {
+		checkCode(TupleUtil.DOUBLE_CODE, "double");
+		int start = checkLength(Double.BYTES);
+		long bits = readBigEndian(start, Double.BYTES);
+		pos = start + Double.BYTES;
+		return TupleUtil.decodeDoubleBits(bits);
+	}
+
+	/**
+	 * Reads a boolean element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code boolean}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public boolean readBoolean() {
+		checkHasNext();
+		byte code = bytes[pos];
+		if(code != TupleUtil.FALSE_CODE && code != TupleUtil.TRUE_CODE) {
+			throw wrongType("boolean");
+		}
+		pos++;
+		return code == TupleUtil.TRUE_CODE;
+	}
+
+	/**
+	 * Reads a {@link UUID} element, or a {@code null} element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code UUID} or {@code null}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public UUID readUuid() {
+		if(readIfNull()) {
+			return null;
+		}
+		checkCode(TupleUtil.UUID_CODE, "UUID");
+		int start = checkLength(TupleUtil.UUID_BYTES);
+		UUID uuid = new UUID(readBigEndian(start, Long.BYTES), readBigEndian(start + Long.BYTES, Long.BYTES));
+		pos = start + TupleUtil.UUID_BYTES;
+		return uuid;
+	}
+
+	/**
+	 * Reads a {@link Versionstamp} element, or a {@code null} element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code Versionstamp} or {@code null}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public Versionstamp readVersionstamp() {
+		if(readIfNull()) {
+			return null;
+		}
+		checkCode(TupleUtil.VERSIONSTAMP_CODE, "Versionstamp");
+		int start = checkLength(Versionstamp.LENGTH);
+		Versionstamp v = Versionstamp.fromBytes(Arrays.copyOfRange(bytes, start, start + Versionstamp.LENGTH));
+		pos = start + Versionstamp.LENGTH;
+		return v;
+	}
+
+	/**
+	 * Reads a string element, or a {@code null} element.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code String} or {@code null},
+	 *  or is not valid UTF-8
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public String readString() {
+		if(readIfNull()) {
+			return null;
+		}
+		checkCode(TupleUtil.STRING_CODE, "String");
+		int terminator = findTerminator(pos + 1);
+		String s = StringUtil.decodeEscaped(bytes, pos + 1, terminator, nullCount);
+		pos = terminator + 1;
+		return s;
+	}
+
+	/**
+	 * Reads a byte string element, or a {@code null} element, into a new array.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a {@code byte[]} or {@code null}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public byte[] readBytes() {
+		if(readIfNull()) {
+			return null;
+		}
+		checkCode(TupleUtil.BYTES_CODE, "byte[]");
+		int terminator = findTerminator(pos + 1);
+		byte[] b = TupleUtil.decodeBytes(bytes, pos + 1, terminator, nullCount);
+		pos = terminator + 1;
+		return b;
+	}
+
+	/**
+	 * Reads a byte string element into {@code dest}, starting at its current position. The position
+	 *  of {@code dest} is advanced past the bytes that were written.
+	 *
+	 * @param dest the buffer to copy the contents of the element into
+	 * @return the length of the byte string
+	 * @throws IllegalArgumentException if the next element is not a {@code byte[]}
+	 * @throws BufferOverflowException if {@code dest} does not have enough space
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public int readBytesInto(ByteBuffer dest) {
+		checkCode(TupleUtil.BYTES_CODE, "byte[]");
+		int start = pos + 1;
+		int terminator = findTerminator(start);
+		int length = terminator - start - nullCount;
+		if(dest.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		if(nullCount == 0) {
+			dest.put(bytes, start, length);
+		}
+		else if(dest.hasArray()) {
+			int destPos = dest.arrayOffset() + dest.position();
+			NullEscaping.unescape(bytes, start, terminator, dest.array(), destPos);
+			dest.position(dest.position() + length);
+		}
+		else {
+			int from = start;
+			int x = NullEscaping.indexOfNull(bytes, from, terminator);
+			while(x < terminator) {
+				// Copy through the null and drop the escape byte that follows it
+				dest.put(bytes, from, x + 1 - from);
+				from = x + 2;
+				x = NullEscaping.indexOfNull(bytes, from, terminator);
+			}
+			dest.put(bytes, from, terminator - from);
+		}
+		pos = terminator + 1;
+		return length;
+	}
+
+	/**
+	 * Reads a nested tuple element, or a {@code null} element, as a {@link Tuple}.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is not a nested tuple or {@code null}
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public Tuple readTuple() {
+		if(readIfNull()) {
+			return null;
+		}
+		checkCode(TupleUtil.NESTED_CODE, "Tuple");
+		return Tuple.fromList((List<?>)readObject());
+	}
+
+	/**
+	 * Reads the next element as the object that {@link Tuple#get(int)} would return for it.
+	 *
+	 * @return the value of the next element
+	 * @throws IllegalArgumentException if the next element is malformed
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public Object readObject() {
+		if(readIfNull()) {
+			return null;
+		}
+		TupleUtil.DecodeState state = new TupleUtil.DecodeState();
+		try {
+			TupleUtil.decode(state, bytes, pos, end);
+		}
+		catch(IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid tuple (possible truncation)", e);
+		}
+		pos = state.end;
+		return state.values.get(0);
+	}
+
+	/**
+	 * Starts reading the elements of a nested tuple. After this, {@link #hasNext()} returns
+	 *  {@code false} at the end of the nested tuple rather than at the end of the outer tuple.
+	 *
+	 * @return this {@code TupleReader}
+	 * @throws IllegalArgumentException if the next element is not a nested tuple
+	 * @throws NoSuchElementException if there are no more elements
+	 */
+	public TupleReader beginNested() {
+		checkCode(TupleUtil.NESTED_CODE, "Tuple");
+		pos++;
+		depth++;
+		return this;
+	}
+
+	/**
+	 * Finishes reading the current nested tuple, skipping over any of its elements that
+	 *  have not been read.
+	 *
+	 * @return this {@code TupleReader}
+	 * @throws IllegalStateException if no nested tuple is being read
+	 * @throws IllegalArgumentException if the nested tuple is not terminated
+	 */
+	public TupleReader endNested() {
+		if(depth == 0) {
+			throw new IllegalStateException("No nested tuple to end");
+		}
+		while(hasNext()) {
+			pos = elementEnd(pos);
+		}
+		if(pos >= end) {
+			throw new IllegalArgumentException("No terminator found for nested tuple");
+		}
+		pos++;
+		depth--;
+		return this;
+	}
+
+	private boolean isNestedEnd(int at) {
+		return bytes[at] == TupleUtil.nil && (at + 1 >= end || bytes[at + 1] != ESCAPE);
+	}
+
+	private boolean readIfNull() {
+		checkHasNext();
+		if(bytes[pos] != TupleUtil.nil) {
+			return false;
+		}
+		pos += depth > 0 ? 2 : 1;
+		return true;
+	}
+
+	// Finds the offsets of the top-level elements up to the given index, and returns whether it exists
+	private boolean indexTo(int index) {
+		while(indexedCount <= index && !fullyIndexed) {
+			int next = indexedCount == 0 ? offset : elementEnd(elementOffsets[indexedCount - 1], false);
+			if(next >= end) {
+				fullyIndexed = true;
+				break;
+			}
+			if(indexedCount == elementOffsets.length) {
+				elementOffsets = Arrays.copyOf(elementOffsets, elementOffsets.length * 2);
+			}
+			elementOffsets[indexedCount++] = next;
+		}
+		return index < indexedCount;
+	}
+
+	private int elementEnd(int at) {
+		return elementEnd(at, depth > 0);
+	}
+
+	// Returns the offset just past the element starting at the given offset
+	private int elementEnd(int at, boolean nested) {
+		int code = bytes[at];
+		int start = at + 1;
+		int elementEnd;
+		if(code == TupleUtil.nil) {
+			elementEnd = nested ? start + 1 : start;
+		}
+		else if(code == TupleUtil.BYTES_CODE || code == TupleUtil.STRING_CODE) {
+			elementEnd = findTerminator(start) + 1;
+		}
+		else if(code == TupleUtil.NESTED_CODE) {
+			int p = start;
+			while(true) {
+				if(p >= end) {
+					throw new IllegalArgumentException("No terminator found for nested tuple starting at " + (start - offset));
+				}
+				if(bytes[p] == TupleUtil.nil) {
+					if(p + 1 < end && bytes[p + 1] == ESCAPE) {
+						p += 2;
+					}
+					else {
+						break;
+					}
+				}
+				else {
+					p = elementEnd(p, true);
+				}
+			}
+			elementEnd = p + 1;
+		}
+		else if(code > TupleUtil.NEG_INT_START && code < TupleUtil.POS_INT_END) {
+			elementEnd = start + Math.abs(code - TupleUtil.INT_ZERO_CODE);
+		}
+		else if(code == TupleUtil.POS_INT_END || code == TupleUtil.NEG_INT_START) {
+			if(start >= end) {
+				throw truncated();
+			}
+			int n = (code == TupleUtil.POS_INT_END ? bytes[start] : bytes[start] ^ 0xff) & 0xff;
+			elementEnd = start + 1 + n;
+		}
+		else if(code == TupleUtil.FLOAT_CODE) {
+			elementEnd = start + Float.BYTES;
+		}
+		else if(code == TupleUtil.DOUBLE_CODE) {
+			elementEnd = start + Double.BYTES;
+		}
+		else if(code == TupleUtil.FALSE_CODE || code == TupleUtil.TRUE_CODE) {
+			elementEnd = start;
+		}
+		else if(code == TupleUtil.UUID_CODE) {
+			elementEnd = start + TupleUtil.UUID_BYTES;
+		}
+		else if(code == TupleUtil.VERSIONSTAMP_CODE) {
+			elementEnd = start + Versionstamp.LENGTH;
+		}
+		else {
+			throw new IllegalArgumentException("Unknown tuple data type " + code + " at index " + (at - offset));
+		}
+		if(elementEnd > end) {
+			throw truncated();
+		}
+		return elementEnd;
+	}
+
+	// Finds the terminator of a byte or string element, setting nullCount to the number of escaped nulls
+	private int findTerminator(int from) {
+		nullCount = 0;
+		int x = NullEscaping.indexOfNull(bytes, from, end);
+		while(x < end) {
+			if(x + 1 >= end || bytes[x + 1] != ESCAPE) {
+				return x;
+			}
+			nullCount++;
+			x = NullEscaping.indexOfNull(bytes, x + 2, end);
+		}
+		throw new IllegalArgumentException("No terminator found for bytes starting at " + (from - offset));
+	}
+
+	private long readBigEndian(int from, int length) {
+		long res = 0L;
+		for(int i = from; i < from + length; i++) {
+			res = (res << 8) | (bytes[i] & 0xff);
+		}
+		return res;
+	}
+
+	private void checkHasNext() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	private void checkCode(byte code, String typeName) {
+		checkHasNext();
+		if(bytes[pos] != code) {
+			throw wrongType(typeName);
+		}
+	}
+
+	private int checkLength(int length) {
+		int start = pos + 1;
+		if(start + length > end) {
+			throw truncated();
+		}
+		return start;
+	}
+
+	private IllegalArgumentException wrongType(String typeName) {
+		return new IllegalArgumentException("Element at position " + (pos - offset) + " with type code " + bytes[pos] + " is not a " + typeName);
+	}
+
+	private static IllegalArgumentException truncated() {
+		return new IllegalArgumentException("Invalid tuple (possible truncation)");
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * TupleSchema.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances are packed as tuples. When compiled with
+ *  {@link com.apple.foundationdb.tuple.processor.TupleSchemaProcessor} as an annotation processor
+ *  ({@code -processor com.apple.foundationdb.tuple.processor.TupleSchemaProcessor}), a codec class
+ *  is generated in the same package with static {@code pack}, {@code unpack}, and {@code range}
+ *  methods. The codec writes each field with a {@link TupleWriter} and reads it with a
+ *  {@link TupleReader}, so it produces exactly the same bytes as packing a {@link Tuple} of the
+ *  field values, but without reflection, {@code Object} lists, or boxing.
+ * <br>
+ * <br>
+ * The elements of the tuple are the non-static, non-transient fields declared by the class (but
+ *  not its superclasses), in declaration order. Each field must either be accessible from the
+ *  class's package or have an accessor named {@code getX()}, {@code isX()}, or {@code x()}, and
+ *  the class must have a constructor that takes every field in the same order. Records satisfy
+ *  these rules as they are. Supported field types are the primitive numeric and {@code boolean}
+ *  types and their boxes, {@link String}, {@code byte[]}, {@link java.util.UUID},
+ *  {@link java.math.BigInteger}, {@link Versionstamp}, {@link Tuple}, and other classes annotated
+ *  with {@code TupleSchema}, which are packed as nested tuples. For example:
+ * <pre>
+ *   &#64;TupleSchema
+ *   public class Event {
+ *       final long tenantId;
+ *       final String userId;
+ *       final long timestamp;
+ *
+ *       public Event(long tenantId, String userId, long timestamp) { ... }
+ *   }
+ *
+ *   byte[] key = EventTupleCodec.pack(subspace.getKey(), event);
+ *   Range userEvents = EventTupleCodec.range(subspace, tenantId, userId);</pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface TupleSchema {
+	/**
+	 * The simple name of the generated codec class. By default, this is the name of the annotated
+	 *  class (joined to the names of any classes it is nested within with underscores) followed by
+	 *  {@code TupleCodec}.
+	 *
+	 * @return the name of the codec class
+	 */
+	String codecName() default "";
+}
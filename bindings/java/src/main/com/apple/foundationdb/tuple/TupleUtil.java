@@ -24,11 +24,6 @@ import java.math.BigInteger;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CodingErrorAction;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -40,27 +35,25 @@ import java.util.stream.Stream;
 import com.apple.foundationdb.FDB;
 
 class TupleUtil {
-	private static final byte nil = 0x00;
-	private static final Charset UTF8 = StandardCharsets.UTF_8;
+	static final byte nil = 0x00;
 	private static final BigInteger LONG_MIN_VALUE = BigInteger.valueOf(Long.MIN_VALUE);
 	private static final BigInteger LONG_MAX_VALUE = BigInteger.valueOf(Long.MAX_VALUE);
-	private static final int UUID_BYTES = 2 * Long.BYTES;
+	static final int UUID_BYTES = 2 * Long.BYTES;
 	private static final IterableComparator iterableComparator = new IterableComparator();
 
-	private static final byte BYTES_CODE            = 0x01;
-	private static final byte STRING_CODE           = 0x02;
-	private static final byte NESTED_CODE           = 0x05;
-	private static final byte INT_ZERO_CODE         = 0x14;
-	private static final byte POS_INT_END           = 0x1d;
-	private static final byte NEG_INT_START         = 0x0b;
-	private static final byte FLOAT_CODE            = 0x20;
-	private static final byte DOUBLE_CODE           = 0x21;
-	private static final byte FALSE_CODE            = 0x26;
-	private static final byte TRUE_CODE             = 0x27;
-	private static final byte UUID_CODE             = 0x30;
-	private static final byte VERSIONSTAMP_CODE     = 0x33;
-
-	private static final byte[] NULL_ARR           = new byte[] {nil};
+	static final byte BYTES_CODE                    = 0x01;
+	static final byte STRING_CODE                   = 0x02;
+	static final byte NESTED_CODE                   = 0x05;
+	static final byte INT_ZERO_CODE                 = 0x14;
+	static final byte POS_INT_END                   = 0x1d;
+	static final byte NEG_INT_START                 = 0x0b;
+	static final byte FLOAT_CODE                    = 0x20;
+	static final byte DOUBLE_CODE                   = 0x21;
+	static final byte FALSE_CODE                    = 0x26;
+	static final byte TRUE_CODE                     = 0x27;
+	static final byte UUID_CODE                     = 0x30;
+	static final byte VERSIONSTAMP_CODE             = 0x33;
+
 	private static final byte[] NULL_ESCAPED_ARR   = new byte[] {nil, (byte)0xFF};
 
 	static class DecodeState {
@@ -80,20 +73,13 @@ class TupleUtil {
 
 		int findNullTerminator(byte[] bytes, int from, int to) {
 			nullCount = 0;
-			int x = from;
+			int x = NullEscaping.indexOfNull(bytes, from, to);
 			while(x < to) {
-				if(bytes[x] == 0x00) {
-					if(x + 1 >= to || bytes[x + 1] != (byte)0xFF) {
-						return x;
-					}
-					else {
-						nullCount++;
-						x += 2;
-					}
-				}
-				else {
-					x += 1;
+				if(x + 1 >= to || bytes[x + 1] != (byte)0xFF) {
+					return x;
 				}
+				nullCount++;
+				x = NullEscaping.indexOfNull(bytes, x + 2, to);
 			}
 			throw new IllegalArgumentException("No terminator found for bytes starting at " + from);
 		}
@@ -134,14 +120,14 @@ class TupleUtil {
 		}
 
 		EncodeState addNullEscaped(byte[] encoded) {
-			int nullCount = ByteArrayUtil.nullCount(encoded);
-			if(nullCount == 0) {
-				encodedBytes.put(encoded);
-			}
-			else {
-				ByteArrayUtil.replace(encoded, 0, encoded.length, NULL_ARR, NULL_ESCAPED_ARR, encodedBytes);
-			}
-			totalLength += encoded.length + nullCount;
+			totalLength += NullEscaping.escape(encoded, 0, encoded.length, encodedBytes);
+			return this;
+		}
+
+		EncodeState addNullEscaped(String s) {
+			int start = encodedBytes.position();
+			StringUtil.encodeEscaped(s, encodedBytes);
+			totalLength += encodedBytes.position() - start;
 			return this;
 		}
 
@@ -164,7 +150,7 @@ class TupleUtil {
 		}
 	}
 
-	private static boolean useOldVersionOffsetFormat() {
+	static boolean useOldVersionOffsetFormat() {
 		return FDB.instance().getAPIVersion() < 520;
 	}
 
@@ -176,32 +162,32 @@ class TupleUtil {
 	// in the case that the number is positive. For these purposes, 0.0 is positive and -0.0
 	// is negative.
 
-	private static int encodeFloatBits(float f) {
+	static int encodeFloatBits(float f) {
 		int intBits = Float.floatToRawIntBits(f);
 		return (intBits < 0) ? (~intBits) : (intBits ^ Integer.MIN_VALUE);
 	}
 
-	private static long encodeDoubleBits(double d) {
+	static long encodeDoubleBits(double d) {
 		long longBits = Double.doubleToRawLongBits(d);
 		return (longBits < 0L) ? (~longBits) : (longBits ^ Long.MIN_VALUE);
 	}
 
-	private static float decodeFloatBits(int i) {
+	static float decodeFloatBits(int i) {
 		int origBits = (i >= 0) ? (~i) : (i ^ Integer.MIN_VALUE);
 		return Float.intBitsToFloat(origBits);
 	}
 
-	private static double decodeDoubleBits(long l) {
+	static double decodeDoubleBits(long l) {
 		long origBits = (l >= 0) ? (~l) : (l ^ Long.MIN_VALUE);
 		return Double.longBitsToDouble(origBits);
 	}
 
 	// Get the minimal number of bytes in the representation of a long.
-	private static int minimalByteCount(long i) {
+	static int minimalByteCount(long i) {
 		return (Long.SIZE + 7 - Long.numberOfLeadingZeros(i >= 0 ? i : -i)) / 8;
 	}
 
-	private static int minimalByteCount(BigInteger i) {
+	static int minimalByteCount(BigInteger i) {
 		int bitLength = (i.compareTo(BigInteger.ZERO) >= 0) ? i.bitLength() : i.negate().bitLength();
 		return (bitLength + 7) / 8;
 	}
@@ -310,9 +296,7 @@ class TupleUtil {
 	}
 
 	static void encode(EncodeState state, String s) {
-		StringUtil.validate(s);
-		byte[] bytes = s.getBytes(UTF8);
-		state.add(STRING_CODE).addNullEscaped(bytes).add(nil);
+		state.add(STRING_CODE).addNullEscaped(s).add(nil);
 	}
 
 	static void encode(EncodeState state, BigInteger i) {
@@ -425,6 +409,16 @@ class TupleUtil {
 		encode(state, value.elements);
 	}
 
+	// Decodes the null-escaped contents of a byte string element, not including its type code or terminator
+	static byte[] decodeBytes(byte[] rep, int start, int end, int nullCount) {
+		if(nullCount == 0) {
+			return Arrays.copyOfRange(rep, start, end);
+		}
+		byte[] dest = new byte[end - start - nullCount];
+		NullEscaping.unescape(rep, start, end, dest, 0);
+		return dest;
+	}
+
 	static void decode(DecodeState state, byte[] rep, int pos, int last) {
 		//System.out.println("Decoding '" + ArrayUtils.printable(rep) + "' at " + pos);
 
@@ -437,47 +431,29 @@ class TupleUtil {
 		else if(code == BYTES_CODE) {
 			int end = state.findNullTerminator(rep, start, last);
 			//System.out.println("End of byte string: " + end);
-			byte[] range;
-			if(state.nullCount == 0) {
-				range = Arrays.copyOfRange(rep, start, end);
-			}
-			else {
-				ByteBuffer dest = ByteBuffer.allocate(end - start - state.nullCount);
-				ByteArrayUtil.replace(rep, start, end - start, NULL_ESCAPED_ARR, NULL_ARR, dest);
-				range = dest.array();
-			}
+			byte[] range = decodeBytes(rep, start, end, state.nullCount);
 			//System.out.println(" -> byte string contents: '" + ArrayUtils.printable(range) + "'");
 			state.add(range, end + 1);
 		}
 		else if(code == STRING_CODE) {
 			int end = state.findNullTerminator(rep, start, last);
 			//System.out.println("End of UTF8 string: " + end);
-			String str;
-			ByteBuffer byteBuffer;
-			if(state.nullCount == 0) {
-				byteBuffer = ByteBuffer.wrap(rep, start, end - start);
-			}
-			else {
-				byteBuffer = ByteBuffer.allocate(end - start - state.nullCount);
-				ByteArrayUtil.replace(rep, start, end - start, NULL_ESCAPED_ARR, NULL_ARR, byteBuffer);
-				byteBuffer.position(0);
-			}
-			try {
-				CharsetDecoder decoder = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPORT);
-				str = decoder.decode(byteBuffer).toString();
-			}
-			catch(CharacterCodingException e) {
-				throw new IllegalArgumentException("malformed UTF-8 string", e);
-			}
+			String str = StringUtil.decodeEscaped(rep, start, end, state.nullCount);
 			//System.out.println(" -> UTF8 string contents: '" + str + "'");
 			state.add(str, end + 1);
 		}
 		else if(code == FLOAT_CODE) {
+			if(start + Float.BYTES > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			int rawFloatBits = ByteBuffer.wrap(rep, start, Float.BYTES).getInt();
 			float res = decodeFloatBits(rawFloatBits);
 			state.add(res, start + Float.BYTES);
 		}
 		else if(code == DOUBLE_CODE) {
+			if(start + Double.BYTES > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			long rawDoubleBits = ByteBuffer.wrap(rep, start, Double.BYTES).getLong();
 			double res = decodeDoubleBits(rawDoubleBits);
 			state.add(res, start + Double.BYTES);
@@ -489,20 +465,35 @@ class TupleUtil {
 			state.add(true, start);
 		}
 		else if(code == UUID_CODE) {
+			if(start + UUID_BYTES > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			ByteBuffer bb = ByteBuffer.wrap(rep, start, UUID_BYTES).order(ByteOrder.BIG_ENDIAN);
 			long msb = bb.getLong();
 			long lsb = bb.getLong();
 			state.add(new UUID(msb, lsb), start + UUID_BYTES);
 		}
 		else if(code == POS_INT_END) {
+			if(start + 1 > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			int n = rep[start] & 0xff;
+			if(start + 1 + n > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			byte[] intBytes = new byte[n + 1];
 			System.arraycopy(rep, start + 1, intBytes, 1, n);
 			BigInteger res = new BigInteger(intBytes);
 			state.add(res, start + n + 1);
 		}
 		else if(code == NEG_INT_START) {
+			if(start + 1 > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			int n = (rep[start] ^ 0xff) & 0xff;
+			if(start + 1 + n > last) {
+				throw new IllegalArgumentException("Invalid tuple (possible truncation)");
+			}
 			byte[] intBytes = new byte[n + 1];
 			System.arraycopy(rep, start + 1, intBytes, 1, n);
 			BigInteger origValue = new BigInteger(intBytes);
@@ -668,10 +659,14 @@ class TupleUtil {
 	}
 
 	static List<Object> unpack(byte[] bytes) {
+		return unpack(bytes, 0, bytes.length);
+	}
+
+	static List<Object> unpack(byte[] bytes, int offset, int length) {
 		try {
 			DecodeState decodeState = new DecodeState();
-			int pos = 0;
-			int end = bytes.length;
+			int pos = offset;
+			int end = offset + length;
 			while (pos < end) {
 				decode(decodeState, bytes, pos, end);
 				pos = decodeState.end;
@@ -0,0 +1,645 @@
+/*
+ * TupleWriter.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes tuple elements one at a time directly into a {@link ByteBuffer}. The bytes produced
+ *  are identical to those produced by packing a {@link Tuple} with the same elements, but no
+ *  intermediate {@code Tuple} or list is built and primitive values are never boxed, so
+ *  building a key requires no allocation beyond the final {@code byte[]} (if any).<br>
+ * <br>
+ * A {@code TupleWriter} either appends to a caller-supplied buffer, starting at that buffer's
+ *  position, or to a buffer that it owns and grows as needed. In the first case, it is up to the
+ *  caller to make sure there is enough space, and a {@link java.nio.BufferOverflowException} is
+ *  thrown otherwise. Nothing of an element that does not fit is left in the buffer, so the
+ *  caller can catch the exception and carry on with the writer. Either kind of writer can be reused for another key by calling {@link #reset()},
+ *  which makes it cheap to keep one per thread.<br>
+ * <br>
+ * Nested tuples are written by calling {@link #beginNested()}, writing the nested elements, and
+ *  then calling {@link #endNested()}. At most one incomplete {@link Versionstamp} may be written, in
+ *  which case the key must be retrieved with {@link #toByteArrayWithVersionstamp()} or
+ *  {@link #finishWithVersionstamp()}.<br>
+ * <br>
+ * This class is not thread safe.
+ */
+public final class TupleWriter {
+	private static final int DEFAULT_CAPACITY = 64;
+	private static final byte ESCAPE = (byte)0xff;
+
+	private final boolean owned;
+	private ByteBuffer buffer;
+	private int start;
+	private int depth;
+	private int versionPos;
+
+	/**
+	 * Creates a writer with its own buffer, which starts with a small default capacity.
+	 */
+	public TupleWriter() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a writer with its own buffer. The buffer grows as needed, so the capacity is only
+	 *  a hint of the expected size of the packed tuple.
+	 *
+	 * @param initialCapacity the initial size of the buffer in bytes
+	 */
+	public TupleWriter(int initialCapacity) {
+		if(initialCapacity < 0) {
+			throw new IllegalArgumentException("Capacity must be non-negative");
+		}
+		this.owned = true;
+		this.buffer = ByteBuffer.allocate(initialCapacity);
+		this.start = 0;
+		this.versionPos = -1;
+	}
+
+	/**
+	 * Creates a writer that appends to {@code dest}, beginning at its current position. The
+	 *  position of {@code dest} is advanced as elements are written. The byte order of
+	 *  {@code dest} is ignored; the tuple encoding is always big-endian.
+	 *
+	 * @param dest the buffer to write into
+	 */
+	public TupleWriter(ByteBuffer dest) {
+		this.owned = false;
+		this.buffer = dest;
+		this.start = dest.position();
+		this.versionPos = -1;
+	}
+
+	/**
+	 * Discards everything written so far so that this writer can be used to build another
+	 *  tuple. A writer over a caller-supplied buffer starts again from the position that
+	 *  buffer had when the writer was created.
+	 *
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter reset() {
+		buffer.position(start);
+		depth = 0;
+		versionPos = -1;
+		return this;
+	}
+
+	/**
+	 * Appends bytes to the output as-is, without any encoding. This is typically used to begin
+	 *  a key with the raw prefix of a {@link com.apple.foundationdb.subspace.Subspace Subspace}.
+	 *
+	 * @param raw the bytes to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeRaw(byte[] raw) {
+		reserve(raw.length);
+		buffer.put(raw);
+		return this;
+	}
+
+	/**
+	 * Appends a {@code null} element.
+	 *
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeNull() {
+		reserve(depth > 0 ? 2 : 1);
+		buffer.put(TupleUtil.nil);
+		if(depth > 0) {
+			buffer.put(ESCAPE);
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a byte string element. A {@code null} array is written as a {@code null} element.
+	 *
+	 * @param b the bytes to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeBytes(byte[] b) {
+		if(b == null) {
+			return writeNull();
+		}
+		return writeBytes(b, 0, b.length);
+	}
+
+	/**
+	 * Appends a byte string element containing a slice of an array.
+	 *
+	 * @param b the array holding the bytes to append
+	 * @param offset the index of the first byte to append
+	 * @param length the number of bytes to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeBytes(byte[] b, int offset, int length) {
+		if(offset < 0 || length < 0 || offset + length > b.length) {
+			throw new IndexOutOfBoundsException("Invalid offset or length for array of length " + b.length);
+		}
+		ensure(2 + 2 * length);
+		int startPos = buffer.position();
+		try {
+			buffer.put(TupleUtil.BYTES_CODE);
+			NullEscaping.escape(b, offset, length, buffer);
+			buffer.put(TupleUtil.nil);
+		}
+		catch(BufferOverflowException e) {
+			buffer.position(startPos);
+			throw e;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a string element. A {@code null} string is written as a {@code null} element.
+	 *
+	 * @param s the string to append
+	 * @return this {@code TupleWriter}
+	 * @throws IllegalArgumentException if {@code s} is not well-formed UTF-16
+	 */
+	public TupleWriter writeString(String s) {
+		if(s == null) {
+			return writeNull();
+		}
+		// At most three bytes per UTF-16 code unit, plus the type code and terminator
+		ensure(2 + 3 * s.length());
+		int startPos = buffer.position();
+		try {
+			buffer.put(TupleUtil.STRING_CODE);
+			StringUtil.encodeEscaped(s, buffer);
+			buffer.put(TupleUtil.nil);
+		}
+		catch(IllegalArgumentException | BufferOverflowException e) {
+			// Leave nothing of the element behind, so that the writer can still be used
+			buffer.position(startPos);
+			throw e;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends an integer element.
+	 *
+	 * @param l the number to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeLong(long l) {
+		if(l == 0L) {
+			reserve(1);
+			buffer.put(TupleUtil.INT_ZERO_CODE);
+			return this;
+		}
+		int n = TupleUtil.minimalByteCount(l);
+		reserve(1 + n);
+		buffer.put((byte)(TupleUtil.INT_ZERO_CODE + (l >= 0 ? n : -n)));
+		// Negative values are written as the one's complement, as in TupleUtil.encode(EncodeState, long)
+		long val = (l >= 0) ? l : (l - 1);
+		for(int shift = 8 * (n - 1); shift >= 0; shift -= 8) {
+			buffer.put((byte)(val >> shift));
+		}
+		return this;
+	}
+
+	/**
+	 * Appends an arbitrary-precision integer element. Values that fit in a {@code long} are
+	 *  encoded exactly as {@link #writeLong(long)} would encode them.
+	 *
+	 * @param bi the number to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeBigInteger(BigInteger bi) {
+		if(bi == null) {
+			throw new NullPointerException("Number types in Tuple cannot be null");
+		}
+		int n = TupleUtil.minimalByteCount(bi);
+		if(n > 0xff) {
+			throw new IllegalArgumentException("BigInteger magnitude is too large (more than 255 bytes)");
+		}
+		// Values too large for a long also have a length byte
+		reserve(n == 0 ? 1 : (n > Long.BYTES ? 2 : 1) + n);
+		ByteOrder origOrder = buffer.order();
+		TupleUtil.encode(new TupleUtil.EncodeState(buffer), bi);
+		buffer.order(origOrder);
+		return this;
+	}
+
+	/**
+	 * Appends a single-precision floating point element.
+	 *
+	 * @param f the number to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeFloat(float f) {
+		reserve(1 + Float.BYTES);
+		buffer.put(TupleUtil.FLOAT_CODE);
+		putInt(TupleUtil.encodeFloatBits(f));
+		return this;
+	}
+
+	/**
+	 * Appends a double-precision floating point element.
+	 *
+	 * @param d the number to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeDouble(double d) {
+		reserve(1 + Double.BYTES);
+		buffer.put(TupleUtil.DOUBLE_CODE);
+		putLong(TupleUtil.encodeDoubleBits(d));
+		return this;
+	}
+
+	/**
+	 * Appends a boolean element.
+	 *
+	 * @param b the value to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeBoolean(boolean b) {
+		reserve(1);
+		buffer.put(b ? TupleUtil.TRUE_CODE : TupleUtil.FALSE_CODE);
+		return this;
+	}
+
+	/**
+	 * Appends a {@link UUID} element. A {@code null} UUID is written as a {@code null} element.
+	 *
+	 * @param uuid the value to append
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeUuid(UUID uuid) {
+		if(uuid == null) {
+			return writeNull();
+		}
+		return writeUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Appends a {@link UUID} element given as its two halves.
+	 *
+	 * @param mostSignificantBits the most significant 64 bits of the UUID
+	 * @param leastSignificantBits the least significant 64 bits of the UUID
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeUuid(long mostSignificantBits, long leastSignificantBits) {
+		reserve(1 + 2 * Long.BYTES);
+		buffer.put(TupleUtil.UUID_CODE);
+		putLong(mostSignificantBits);
+		putLong(leastSignificantBits);
+		return this;
+	}
+
+	/**
+	 * Appends a {@link Versionstamp} element. A {@code null} value is written as a {@code null}
+	 *  element. If the versionstamp is incomplete, its position is recorded so that it can be
+	 *  filled in at commit time; see {@link #toByteArrayWithVersionstamp()}.
+	 *
+	 * @param v the versionstamp to append
+	 * @return this {@code TupleWriter}
+	 * @throws IllegalArgumentException if {@code v} is incomplete and an incomplete versionstamp
+	 *  has already been written
+	 */
+	public TupleWriter writeVersionstamp(Versionstamp v) {
+		if(v == null) {
+			return writeNull();
+		}
+		if(!v.isComplete()) {
+			return writeIncompleteVersionstamp(v.getUserVersion());
+		}
+		reserve(1 + Versionstamp.LENGTH);
+		buffer.put(TupleUtil.VERSIONSTAMP_CODE);
+		buffer.put(v.getBytes());
+		return this;
+	}
+
+	/**
+	 * Appends an incomplete {@link Versionstamp} element with the given user version. This is
+	 *  equivalent to {@code writeVersionstamp(Versionstamp.incomplete(userVersion))}, but does
+	 *  not create a {@code Versionstamp}.
+	 *
+	 * @param userVersion the user version, which must fit in an unsigned short
+	 * @return this {@code TupleWriter}
+	 * @throws IllegalArgumentException if an incomplete versionstamp has already been written
+	 */
+	public TupleWriter writeIncompleteVersionstamp(int userVersion) {
+		if(userVersion < 0 || userVersion > 0xffff) {
+			throw new IllegalArgumentException("Local version must fit in unsigned short");
+		}
+		if(versionPos >= 0) {
+			throw new IllegalArgumentException("Multiple incomplete Versionstamps included in Tuple");
+		}
+		reserve(1 + Versionstamp.LENGTH);
+		buffer.put(TupleUtil.VERSIONSTAMP_CODE);
+		for(int i = 0; i < Versionstamp.LENGTH - Short.BYTES; i++) {
+			buffer.put(ESCAPE);
+		}
+		buffer.put((byte)(userVersion >> 8)).put((byte)userVersion);
+		versionPos = buffer.position() - start - Versionstamp.LENGTH;
+		return this;
+	}
+
+	/**
+	 * Appends the elements of a {@link Tuple} individually, as if they had been written one at
+	 *  a time. Outside of a nested tuple, the tuple's memoized packed form is copied directly, so
+	 *  writing the same {@code Tuple} (such as a common prefix) many times only encodes it once.
+	 *
+	 * @param t the {@code Tuple} whose elements should be appended
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeAll(Tuple t) {
+		if(depth == 0 && !t.hasIncompleteVersionstamp()) {
+			byte[] packed = t.packInternal(null, false);
+			reserve(packed.length);
+			buffer.put(packed);
+			return this;
+		}
+		for(Object o : t.elements) {
+			writeObject(o);
+		}
+		return this;
+	}
+
+	/**
+	 * Appends a {@link Tuple} as a single nested element. A {@code null} tuple is written as a
+	 *  {@code null} element.
+	 *
+	 * @param t the {@code Tuple} to nest
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeTuple(Tuple t) {
+		if(t == null) {
+			return writeNull();
+		}
+		return writeNested(t.elements);
+	}
+
+	/**
+	 * Appends a {@link List} as a single nested element. A {@code null} list is written as a
+	 *  {@code null} element.
+	 *
+	 * @param l the {@code List} to nest
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter writeNested(List<?> l) {
+		if(l == null) {
+			return writeNull();
+		}
+		beginNested();
+		for(Object o : l) {
+			writeObject(o);
+		}
+		return endNested();
+	}
+
+	/**
+	 * Starts a nested tuple. Every element written until the matching call to
+	 *  {@link #endNested()} becomes part of the nested tuple.
+	 *
+	 * @return this {@code TupleWriter}
+	 */
+	public TupleWriter beginNested() {
+		reserve(1);
+		buffer.put(TupleUtil.NESTED_CODE);
+		depth++;
+		return this;
+	}
+
+	/**
+	 * Ends the nested tuple started by the last unmatched call to {@link #beginNested()}.
+	 *
+	 * @return this {@code TupleWriter}
+	 * @throws IllegalStateException if there is no nested tuple to end
+	 */
+	public TupleWriter endNested() {
+		if(depth == 0) {
+			throw new IllegalStateException("No nested tuple to end");
+		}
+		reserve(1);
+		buffer.put(TupleUtil.nil);
+		depth--;
+		return this;
+	}
+
+	/**
+	 * Appends an element of any type that a {@link Tuple} can hold. Elements with primitive
+	 *  types are better written with the typed methods, which avoid boxing.
+	 *
+	 * @param o the element to append
+	 * @return this {@code TupleWriter}
+	 * @throws IllegalArgumentException if {@code o} is not of a type that can be encoded
+	 */
+	public TupleWriter writeObject(Object o) {
+		if(o == null)
+			return writeNull();
+		if(o instanceof byte[])
+			return writeBytes((byte[])o);
+		if(o instanceof String)
+			return writeString((String)o);
+		if(o instanceof Float)
+			return writeFloat((Float)o);
+		if(o instanceof Double)
+			return writeDouble((Double)o);
+		if(o instanceof Boolean)
+			return writeBoolean((Boolean)o);
+		if(o instanceof UUID)
+			return writeUuid((UUID)o);
+		if(o instanceof BigInteger)
+			return writeBigInteger((BigInteger)o);
+		if(o instanceof Number)
+			return writeLong(((Number)o).longValue());
+		if(o instanceof Versionstamp)
+			return writeVersionstamp((Versionstamp)o);
+		if(o instanceof List<?>)
+			return writeNested((List<?>)o);
+		if(o instanceof Tuple)
+			return writeTuple((Tuple)o);
+		throw new IllegalArgumentException("Unsupported data type: " + o.getClass().getName());
+	}
+
+	/**
+	 * Gets the number of bytes written since this writer was created or last reset.
+	 *
+	 * @return the length of the packed tuple so far
+	 */
+	public int getPackedSize() {
+		return buffer.position() - start;
+	}
+
+	/**
+	 * Gets whether an incomplete {@link Versionstamp} has been written.
+	 *
+	 * @return whether the packed tuple contains an incomplete versionstamp
+	 */
+	public boolean hasIncompleteVersionstamp() {
+		return versionPos >= 0;
+	}
+
+	/**
+	 * Checks that the tuple written so far is complete. A writer over a caller-supplied buffer
+	 *  has already written everything into that buffer, so this only validates it.
+	 *
+	 * @throws IllegalStateException if there is an unterminated nested tuple
+	 * @throws IllegalArgumentException if an incomplete versionstamp was written
+	 */
+	public void finish() {
+		checkFinished(false);
+	}
+
+	/**
+	 * Appends the position of the incomplete {@link Versionstamp} to the output as a little-endian
+	 *  integer, as {@link Tuple#packWithVersionstamp()} does. No more elements should be written
+	 *  after this without first calling {@link #reset()}.
+	 *
+	 * @throws IllegalStateException if there is an unterminated nested tuple
+	 * @throws IllegalArgumentException if no incomplete versionstamp was written
+	 */
+	public void finishWithVersionstamp() {
+		checkFinished(true);
+		int size = TupleUtil.useOldVersionOffsetFormat() ? Short.BYTES : Integer.BYTES;
+		reserve(size);
+		for(int i = 0; i < size; i++) {
+			buffer.put((byte)(versionPos >> (8 * i)));
+		}
+	}
+
+	/**
+	 * Copies the packed tuple into a new array.
+	 *
+	 * @return the packed tuple
+	 * @throws IllegalStateException if there is an unterminated nested tuple
+	 * @throws IllegalArgumentException if an incomplete versionstamp was written
+	 */
+	public byte[] toByteArray() {
+		checkFinished(false);
+		return copyOut(0);
+	}
+
+	/**
+	 * Copies the packed tuple into a new array, followed by the position of its incomplete
+	 *  {@link Versionstamp}. The result is identical to {@link Tuple#packWithVersionstamp()} and
+	 *  can be used with {@link com.apple.foundationdb.MutationType#SET_VERSIONSTAMPED_KEY}. The
+	 *  contents of this writer are not changed.
+	 *
+	 * @return the packed tuple with the versionstamp position appended
+	 * @throws IllegalStateException if there is an unterminated nested tuple
+	 * @throws IllegalArgumentException if no incomplete versionstamp was written
+	 */
+	public byte[] toByteArrayWithVersionstamp() {
+		checkFinished(true);
+		int size = TupleUtil.useOldVersionOffsetFormat() ? Short.BYTES : Integer.BYTES;
+		byte[] packed = copyOut(size);
+		int offsetPos = packed.length - size;
+		for(int i = 0; i < size; i++) {
+			packed[offsetPos + i] = (byte)(versionPos >> (8 * i));
+		}
+		return packed;
+	}
+
+	/**
+	 * Copies the packed tuple into {@code dest}, starting at its position, and advances that
+	 *  position past it. This avoids allocating an array when the key is only needed in a buffer.
+	 *
+	 * @param dest the buffer to copy the packed tuple into
+	 * @throws IllegalStateException if there is an unterminated nested tuple
+	 * @throws IllegalArgumentException if an incomplete versionstamp was written
+	 * @throws java.nio.BufferOverflowException if {@code dest} does not have enough space remaining
+	 */
+	public void writeTo(ByteBuffer dest) {
+		checkFinished(false);
+		int length = getPackedSize();
+		if(buffer.hasArray()) {
+			dest.put(buffer.array(), buffer.arrayOffset() + start, length);
+		}
+		else {
+			ByteBuffer view = buffer.duplicate();
+			view.position(start).limit(start + length);
+			dest.put(view);
+		}
+	}
+
+	private void checkFinished(boolean withVersionstamp) {
+		if(depth > 0) {
+			throw new IllegalStateException("Nested tuple has not been ended");
+		}
+		if(withVersionstamp) {
+			if(versionPos < 0) {
+				throw new IllegalArgumentException("No incomplete Versionstamp included in tuple pack with versionstamp");
+			}
+			if(TupleUtil.useOldVersionOffsetFormat() && versionPos > 0xffff) {
+				throw new IllegalArgumentException("Tuple has incomplete version at position " + versionPos + " which is greater than the maximum " + 0xffff);
+			}
+		}
+		else if(versionPos >= 0) {
+			throw new IllegalArgumentException("Incomplete Versionstamp included in vanilla tuple pack");
+		}
+	}
+
+	private byte[] copyOut(int extra) {
+		int length = getPackedSize();
+		if(buffer.hasArray()) {
+			int from = buffer.arrayOffset() + start;
+			return Arrays.copyOfRange(buffer.array(), from, from + length + extra);
+		}
+		byte[] packed = new byte[length + extra];
+		ByteBuffer view = buffer.duplicate();
+		view.position(start);
+		view.get(packed, 0, length);
+		return packed;
+	}
+
+	private void putInt(int i) {
+		buffer.putInt(buffer.order() == ByteOrder.BIG_ENDIAN ? i : Integer.reverseBytes(i));
+	}
+
+	private void putLong(long l) {
+		buffer.putLong(buffer.order() == ByteOrder.BIG_ENDIAN ? l : Long.reverseBytes(l));
+	}
+
+	// Makes room for exactly the given number of bytes. A caller-supplied buffer without enough
+	// room overflows before anything is written, rather than part way through an element.
+	private void reserve(int bytes) {
+		if(!owned && buffer.remaining() < bytes) {
+			throw new BufferOverflowException();
+		}
+		ensure(bytes);
+	}
+
+	// Makes room for at most the given number of bytes, for elements whose exact size is not known
+	// up front. Only writers that own their buffer grow it. Caller-supplied buffers overflow
+	// instead, and the element must then be removed by its writer.
+	private void ensure(int bytes) {
+		if(owned && buffer.remaining() < bytes) {
+			int position = buffer.position();
+			int capacity = Math.max(buffer.capacity() * 2, position + bytes);
+			ByteBuffer grown = ByteBuffer.allocate(capacity);
+			System.arraycopy(buffer.array(), 0, grown.array(), 0, position);
+			grown.position(position);
+			buffer = grown;
+		}
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * TupleSchemaProcessor.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.tuple.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.apple.foundationdb.tuple.TupleSchema;
+
+/**
+ * Annotation processor that generates a codec class for each class annotated with
+ *  {@link TupleSchema}. See {@code TupleSchema} for the rules that annotated classes must follow
+ *  and the methods that are generated. This processor is not registered as a service, so it must
+ *  be named explicitly with {@code javac -processor}.
+ */
+public class TupleSchemaProcessor extends AbstractProcessor {
+	// Names used by the generated code, which fields are renamed around when used as local variables
+	private static final Set<String> RESERVED_NAMES = new HashSet<>(Arrays.asList(
+			"writer", "reader", "value", "subspace", "prefix", "bytes", "offset", "length"));
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(TupleSchema.class.getCanonicalName());
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(Element element : roundEnv.getElementsAnnotatedWith(TupleSchema.class)) {
+			try {
+				Schema schema = new Schema((TypeElement)element);
+				JavaFileObject file = processingEnv.getFiler().createSourceFile(schema.codecQualifiedName(), element);
+				try(Writer writer = file.openWriter()) {
+					writer.write(schema.generate());
+				}
+			}
+			catch(SchemaException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+			}
+			catch(IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"Could not write tuple codec: " + e.getMessage(), element);
+			}
+		}
+		return true;
+	}
+
+	private static class SchemaException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		final transient Element element;
+
+		SchemaException(String message, Element element) {
+			super(message);
+			this.element = element;
+		}
+	}
+
+	// How one field is written and read
+	private enum FieldKind {
+		LONG("writeLong", "reader.readLong()", null),
+		INT("writeLong", "(int)checkRange(reader.readLong(), Integer.MIN_VALUE, Integer.MAX_VALUE, \"%s\")", null),
+		SHORT("writeLong", "(short)checkRange(reader.readLong(), Short.MIN_VALUE, Short.MAX_VALUE, \"%s\")", null),
+		BYTE("writeLong", "(byte)checkRange(reader.readLong(), Byte.MIN_VALUE, Byte.MAX_VALUE, \"%s\")", null),
+		BOOLEAN("writeBoolean", "reader.readBoolean()", null),
+		FLOAT("writeFloat", "reader.readFloat()", null),
+		DOUBLE("writeDouble", "reader.readDouble()", null),
+		STRING("writeString", "reader.readString()", "java.lang.String"),
+		BYTES("writeBytes", "reader.readBytes()", null),
+		UUID("writeUuid", "reader.readUuid()", "java.util.UUID"),
+		BIG_INTEGER("writeBigInteger", "reader.readBigInteger()", "java.math.BigInteger"),
+		VERSIONSTAMP("writeVersionstamp", "reader.readVersionstamp()", "com.apple.foundationdb.tuple.Versionstamp"),
+		TUPLE("writeTuple", "reader.readTuple()", "com.apple.foundationdb.tuple.Tuple"),
+		NESTED(null, null, null);
+
+		final String writeMethod;
+		final String readFormat;
+		final String className;
+
+		FieldKind(String writeMethod, String readFormat, String className) {
+			this.writeMethod = writeMethod;
+			this.readFormat = readFormat;
+			this.className = className;
+		}
+
+		boolean isNarrowed() {
+			return this == INT || this == SHORT || this == BYTE;
+		}
+	}
+
+	private static class Field {
+		final String name;
+		final String localName;
+		final String typeName;
+		final FieldKind kind;
+		// Primitive fields and their boxes can not be passed to the writer when null
+		final boolean boxed;
+		final boolean primitive;
+		// For fields holding another schema, the qualified name of its codec
+		final String nestedCodec;
+		String accessor;
+
+		Field(String name, String typeName, FieldKind kind, boolean primitive, boolean boxed, String nestedCodec) {
+			this.name = name;
+			this.localName = RESERVED_NAMES.contains(name) ? name + "_" : name;
+			this.typeName = typeName;
+			this.kind = kind;
+			this.primitive = primitive;
+			this.boxed = boxed;
+			this.nestedCodec = nestedCodec;
+		}
+
+		// Statements writing the value of expr, which has no side effects, with the writer
+		String writeStatement(String expr) {
+			if(kind == FieldKind.NESTED) {
+				return nestedCodec + ".writeNested(writer, " + expr + ");";
+			}
+			if(boxed || kind == FieldKind.BIG_INTEGER) {
+				return "if(" + expr + " == null) {\n\t\t\twriter.writeNull();\n\t\t}\n\t\telse {\n\t\t\twriter." + kind.writeMethod + "(" + expr + ");\n\t\t}";
+			}
+			return "writer." + kind.writeMethod + "(" + expr + ");";
+		}
+
+		String readExpression() {
+			if(kind == FieldKind.NESTED) {
+				return nestedCodec + ".readNested(reader)";
+			}
+			String read = String.format(kind.readFormat, name);
+			return boxed ? "skipNull(reader) ? null : " + read : read;
+		}
+	}
+
+	private class Schema {
+		final TypeElement type;
+		final String packageName;
+		final String codecName;
+		final String typeName;
+		final List<Field> fields = new ArrayList<>();
+
+		Schema(TypeElement type) throws SchemaException {
+			this.type = type;
+			boolean isRecord = type.getKind().name().equals("RECORD");
+			if(type.getKind() != ElementKind.CLASS && !isRecord) {
+				throw new SchemaException("@TupleSchema can only be applied to classes and records", type);
+			}
+			if(type.getModifiers().contains(Modifier.ABSTRACT) || type.getModifiers().contains(Modifier.PRIVATE)) {
+				throw new SchemaException("@TupleSchema classes must not be abstract or private", type);
+			}
+			if(type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC) && !isRecord) {
+				throw new SchemaException("@TupleSchema classes nested in other classes must be static", type);
+			}
+			if(type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+				throw new SchemaException("@TupleSchema classes must be top-level or nested classes", type);
+			}
+			if(!type.getTypeParameters().isEmpty()) {
+				throw new SchemaException("@TupleSchema classes must not be generic", type);
+			}
+			this.packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+			this.codecName = codecName(type);
+			this.typeName = type.getQualifiedName().toString();
+
+			List<TypeMirror> fieldTypes = new ArrayList<>();
+			for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+				if(field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				Field f = toField(field);
+				f.accessor = accessor(field);
+				fields.add(f);
+				fieldTypes.add(field.asType());
+			}
+			checkConstructor(fieldTypes);
+		}
+
+		String codecQualifiedName() {
+			return packageName.isEmpty() ? codecName : packageName + "." + codecName;
+		}
+
+		private Field toField(VariableElement field) throws SchemaException {
+			String name = field.getSimpleName().toString();
+			TypeMirror t = field.asType();
+			String typeName = t.toString();
+			switch(t.getKind()) {
+				case LONG: return new Field(name, typeName, FieldKind.LONG, true, false, null);
+				case INT: return new Field(name, typeName, FieldKind.INT, true, false, null);
+				case SHORT: return new Field(name, typeName, FieldKind.SHORT, true, false, null);
+				case BYTE: return new Field(name, typeName, FieldKind.BYTE, true, false, null);
+				case BOOLEAN: return new Field(name, typeName, FieldKind.BOOLEAN, true, false, null);
+				case FLOAT: return new Field(name, typeName, FieldKind.FLOAT, true, false, null);
+				case DOUBLE: return new Field(name, typeName, FieldKind.DOUBLE, true, false, null);
+				case ARRAY:
+					if(((ArrayType)t).getComponentType().getKind() == TypeKind.BYTE) {
+						return new Field(name, typeName, FieldKind.BYTES, false, false, null);
+					}
+					break;
+				case DECLARED:
+					TypeElement element = (TypeElement)((DeclaredType)t).asElement();
+					TypeKind unboxed = unboxedKind(t);
+					if(unboxed != null && unboxed != TypeKind.CHAR) {
+						return new Field(name, typeName, FieldKind.valueOf(unboxed.name()), false, true, null);
+					}
+					if(element.getAnnotation(TupleSchema.class) != null) {
+						String nestedPackage = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+						String nestedCodec = nestedPackage.isEmpty() ? codecName(element) : nestedPackage + "." + codecName(element);
+						return new Field(name, typeName, FieldKind.NESTED, false, false, nestedCodec);
+					}
+					String className = element.getQualifiedName().toString();
+					for(FieldKind kind : FieldKind.values()) {
+						if(className.equals(kind.className)) {
+							return new Field(name, typeName, kind, false, false, null);
+						}
+					}
+					break;
+				default:
+					break;
+			}
+			throw new SchemaException("Field type " + typeName + " can not be packed in a tuple", field);
+		}
+
+		// The primitive type that t is a box of, or null if it is not a box
+		private TypeKind unboxedKind(TypeMirror t) {
+			try {
+				return processingEnv.getTypeUtils().unboxedType(t).getKind();
+			}
+			catch(IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		// An expression reading the field from an instance named value
+		private String accessor(VariableElement field) throws SchemaException {
+			String name = field.getSimpleName().toString();
+			if(!field.getModifiers().contains(Modifier.PRIVATE)) {
+				return "value." + name;
+			}
+			String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+			List<String> candidates = new ArrayList<>();
+			candidates.add("get" + capitalized);
+			if(field.asType().getKind() == TypeKind.BOOLEAN) {
+				candidates.add("is" + capitalized);
+			}
+			candidates.add(name);
+			for(ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+				if(candidates.contains(method.getSimpleName().toString()) && method.getParameters().isEmpty()
+				   && !method.getModifiers().contains(Modifier.PRIVATE) && !method.getModifiers().contains(Modifier.STATIC)
+				   && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+					return "value." + method.getSimpleName() + "()";
+				}
+			}
+			throw new SchemaException("Private field " + name + " has no accessor named " + String.join(", ", candidates), field);
+		}
+
+		private void checkConstructor(List<TypeMirror> fieldTypes) throws SchemaException {
+			for(ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+				if(constructor.getModifiers().contains(Modifier.PRIVATE) || constructor.getParameters().size() != fieldTypes.size()) {
+					continue;
+				}
+				boolean matches = true;
+				for(int i = 0; i < fieldTypes.size() && matches; i++) {
+					matches = processingEnv.getTypeUtils().isSameType(constructor.getParameters().get(i).asType(), fieldTypes.get(i));
+				}
+				if(matches) {
+					return;
+				}
+			}
+			throw new SchemaException("@TupleSchema classes must have a constructor taking each field in declaration order", type);
+		}
+
+		String generate() {
+			StringBuilder sb = new StringBuilder();
+			if(!packageName.isEmpty()) {
+				sb.append("package ").append(packageName).append(";\n\n");
+			}
+			sb.append("/**\n * Packs and unpacks {@link ").append(typeName).append("} as a tuple.\n");
+			sb.append(" * Generated by {@link ").append(TupleSchemaProcessor.class.getName()).append("}.\n */\n");
+			sb.append("public final class ").append(codecName).append(" {\n");
+			sb.append("\tprivate ").append(codecName).append("() {}\n");
+
+			boolean hasVersionstamp = false;
+			boolean hasNarrowed = false;
+			boolean hasBoxed = false;
+			for(Field f : fields) {
+				hasVersionstamp |= f.kind == FieldKind.VERSIONSTAMP;
+				hasNarrowed |= f.kind.isNarrowed();
+				hasBoxed |= f.boxed;
+			}
+
+			method(sb, "Packs a value as a tuple.", "byte[] pack(" + typeName + " value)",
+			       "return write(new com.apple.foundationdb.tuple.TupleWriter(), value).toByteArray();");
+			method(sb, "Packs a value as a tuple after the given prefix.", "byte[] pack(byte[] prefix, " + typeName + " value)",
+			       "return write(new com.apple.foundationdb.tuple.TupleWriter().writeRaw(prefix), value).toByteArray();");
+			if(hasVersionstamp) {
+				method(sb, "Packs a value with an incomplete versionstamp, as {@link com.apple.foundationdb.tuple.Tuple#packWithVersionstamp()} does.",
+				       "byte[] packWithVersionstamp(" + typeName + " value)",
+				       "return write(new com.apple.foundationdb.tuple.TupleWriter(), value).toByteArrayWithVersionstamp();");
+				method(sb, "Packs a value with an incomplete versionstamp after the given prefix.",
+				       "byte[] packWithVersionstamp(byte[] prefix, " + typeName + " value)",
+				       "return write(new com.apple.foundationdb.tuple.TupleWriter().writeRaw(prefix), value).toByteArrayWithVersionstamp();");
+			}
+
+			StringBuilder write = new StringBuilder();
+			for(Field f : fields) {
+				if(f.primitive || f.kind == FieldKind.NESTED || !(f.boxed || f.kind == FieldKind.BIG_INTEGER)) {
+					write.append(f.writeStatement(f.accessor)).append("\n\t\t");
+				}
+				else {
+					// Read accessors once before checking for null
+					write.append(f.typeName).append(' ').append(f.localName).append(" = ").append(f.accessor).append(";\n\t\t");
+					write.append(f.writeStatement(f.localName)).append("\n\t\t");
+				}
+			}
+			write.append("return writer;");
+			method(sb, "Writes the fields of a value as elements of the tuple being written.",
+			       "com.apple.foundationdb.tuple.TupleWriter write(com.apple.foundationdb.tuple.TupleWriter writer, " + typeName + " value)", write.toString());
+			method(sb, "Writes a value as a nested tuple, or a {@code null} value as a {@code null} element.",
+			       "com.apple.foundationdb.tuple.TupleWriter writeNested(com.apple.foundationdb.tuple.TupleWriter writer, " + typeName + " value)",
+			       "if(value == null) {\n\t\t\treturn writer.writeNull();\n\t\t}\n\t\twriter.beginNested();\n\t\twrite(writer, value);\n\t\treturn writer.endNested();");
+
+			method(sb, "Unpacks a value from a packed tuple.", typeName + " unpack(byte[] bytes)",
+			       "return unpack(bytes, 0, bytes.length);");
+			method(sb, "Unpacks a value from a packed tuple within an array.", typeName + " unpack(byte[] bytes, int offset, int length)",
+			       "com.apple.foundationdb.tuple.TupleReader reader = new com.apple.foundationdb.tuple.TupleReader(bytes, offset, length);\n\t\t" + typeName + " value = read(reader);\n\t\tcheckEnd(reader);\n\t\treturn value;");
+			StringBuilder read = new StringBuilder();
+			List<String> args = new ArrayList<>();
+			for(Field f : fields) {
+				read.append(f.typeName).append(' ').append(f.localName).append(" = ").append(f.readExpression()).append(";\n\t\t");
+				args.add(f.localName);
+			}
+			read.append("return new ").append(typeName).append('(').append(String.join(", ", args)).append(");");
+			method(sb, "Reads the fields of a value from the elements of the tuple being read.",
+			       typeName + " read(com.apple.foundationdb.tuple.TupleReader reader)", read.toString());
+			method(sb, "Reads a value from a nested tuple, or {@code null} from a {@code null} element.",
+			       typeName + " readNested(com.apple.foundationdb.tuple.TupleReader reader)",
+			       "if(reader.nextIsNull()) {\n\t\t\treader.skip();\n\t\t\treturn null;\n\t\t}\n\t\treader.beginNested();\n\t\t" + typeName
+			       + " value = read(reader);\n\t\tcheckEnd(reader);\n\t\treader.endNested();\n\t\treturn value;");
+
+			for(int count = 0; count <= fields.size(); count++) {
+				List<String> params = new ArrayList<>();
+				StringBuilder body = new StringBuilder();
+				for(Field f : fields.subList(0, count)) {
+					params.add(f.typeName + " " + f.localName);
+					body.append(f.writeStatement(f.localName)).append("\n\t\t");
+				}
+				body.append("return toRange(writer);");
+				String description = count == 0 ? "all packed values" : "all packed values starting with the given fields";
+				String joined = String.join(", ", params);
+				method(sb, "Gets the range of " + description + ".", "com.apple.foundationdb.Range range(" + joined + ")",
+				       "com.apple.foundationdb.tuple.TupleWriter writer = new com.apple.foundationdb.tuple.TupleWriter();\n\t\t" + body);
+				method(sb, "Gets the range of " + description + " within a subspace.",
+				       "com.apple.foundationdb.Range range(com.apple.foundationdb.subspace.Subspace subspace" + (params.isEmpty() ? "" : ", " + joined) + ")",
+				       "com.apple.foundationdb.tuple.TupleWriter writer = new com.apple.foundationdb.tuple.TupleWriter().writeRaw(subspace.getKey());\n\t\t" + body);
+			}
+
+			sb.append("\n\tprivate static com.apple.foundationdb.Range toRange(com.apple.foundationdb.tuple.TupleWriter writer) {\n");
+			sb.append("\t\tbyte[] begin = writer.writeRaw(new byte[] { 0x00 }).toByteArray();\n");
+			sb.append("\t\tbyte[] end = begin.clone();\n");
+			sb.append("\t\tend[end.length - 1] = (byte)0xff;\n");
+			sb.append("\t\treturn new com.apple.foundationdb.Range(begin, end);\n");
+			sb.append("\t}\n");
+			sb.append("\n\tprivate static void checkEnd(com.apple.foundationdb.tuple.TupleReader reader) {\n");
+			sb.append("\t\tif(reader.hasNext()) {\n");
+			sb.append("\t\t\tthrow new IllegalArgumentException(\"Tuple has more than the ").append(fields.size())
+			  .append(" elements of ").append(type.getSimpleName()).append("\");\n");
+			sb.append("\t\t}\n");
+			sb.append("\t}\n");
+			if(hasBoxed) {
+				sb.append("\n\tprivate static boolean skipNull(com.apple.foundationdb.tuple.TupleReader reader) {\n");
+				sb.append("\t\tif(reader.nextIsNull()) {\n");
+				sb.append("\t\t\treader.skip();\n");
+				sb.append("\t\t\treturn true;\n");
+				sb.append("\t\t}\n");
+				sb.append("\t\treturn false;\n");
+				sb.append("\t}\n");
+			}
+			if(hasNarrowed) {
+				sb.append("\n\tprivate static long checkRange(long l, long min, long max, String field) {\n");
+				sb.append("\t\tif(l < min || l > max) {\n");
+				sb.append("\t\t\tthrow new IllegalArgumentException(\"Value \" + l + \" for field \" + field + \" is out of range\");\n");
+				sb.append("\t\t}\n");
+				sb.append("\t\treturn l;\n");
+				sb.append("\t}\n");
+			}
+			sb.append("}\n");
+			return sb.toString();
+		}
+
+		private void method(StringBuilder sb, String doc, String signature, String body) {
+			sb.append("\n\t/**\n\t * ").append(doc).append("\n\t */\n");
+			sb.append("\tpublic static ").append(signature).append(" {\n");
+			sb.append("\t\t").append(body).append("\n");
+			sb.append("\t}\n");
+		}
+	}
+
+	private static String codecName(TypeElement type) {
+		TupleSchema schema = type.getAnnotation(TupleSchema.class);
+		if(schema != null && !schema.codecName().isEmpty()) {
+			return schema.codecName();
+		}
+		StringBuilder name = new StringBuilder(type.getSimpleName());
+		Element enclosing = type.getEnclosingElement();
+		while(enclosing instanceof TypeElement) {
+			name.insert(0, enclosing.getSimpleName() + "_");
+			enclosing = enclosing.getEnclosingElement();
+		}
+		return name.append("TupleCodec").toString();
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * package-info.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2018 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Provides an annotation processor that generates tuple codecs for classes annotated
+ *  with {@link com.apple.foundationdb.tuple.TupleSchema}. The generated code packs and
+ *  unpacks fields directly with {@link com.apple.foundationdb.tuple.TupleWriter} and
+ *  {@link com.apple.foundationdb.tuple.TupleReader}, producing the same bytes as the
+ *  equivalent {@link com.apple.foundationdb.tuple.Tuple}.
+ */
+package com.apple.foundationdb.tuple.processor;
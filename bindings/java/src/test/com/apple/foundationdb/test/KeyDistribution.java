@@ -0,0 +1,209 @@
+/*
+ * KeyDistribution.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses key indexes in {@code [0, keyCount)} according to some access pattern. Implementations
+ * are thread-safe as long as each thread passes its own {@link Random}.
+ */
+public abstract class KeyDistribution {
+	protected final long keyCount;
+
+	protected KeyDistribution(long keyCount) {
+		if(keyCount <= 0) {
+			throw new IllegalArgumentException("Key count must be positive");
+		}
+		this.keyCount = keyCount;
+	}
+
+	public long getKeyCount() {
+		return keyCount;
+	}
+
+	public abstract long next(Random r);
+
+	/**
+	 * Parses a distribution name as given on the command line: {@code uniform},
+	 * {@code zipfian}, {@code hotspot} or {@code sequential}.
+	 */
+	public static KeyDistribution parse(String name, long keyCount) {
+		switch(name.toLowerCase()) {
+			case "uniform":
+				return uniform(keyCount);
+			case "zipfian":
+				return zipfian(keyCount);
+			case "hotspot":
+				return hotspot(keyCount, 0.2, 0.8);
+			case "sequential":
+				return sequential(keyCount);
+			default:
+				throw new IllegalArgumentException("Unknown key distribution: " + name);
+		}
+	}
+
+	public static KeyDistribution uniform(long keyCount) {
+		return new Uniform(keyCount);
+	}
+
+	/**
+	 * A zipfian distribution with the usual YCSB constant of 0.99, where the popular keys are
+	 * scattered across the key space rather than clustered at the start.
+	 */
+	public static KeyDistribution zipfian(long keyCount) {
+		return new ScrambledZipfian(keyCount, Zipfian.DEFAULT_THETA);
+	}
+
+	/**
+	 * Sends {@code hotOpFraction} of the accesses to the first {@code hotKeyFraction} of the keys,
+	 * and the rest uniformly to the remaining keys.
+	 */
+	public static KeyDistribution hotspot(long keyCount, double hotKeyFraction, double hotOpFraction) {
+		return new Hotspot(keyCount, hotKeyFraction, hotOpFraction);
+	}
+
+	public static KeyDistribution sequential(long keyCount) {
+		return new Sequential(keyCount);
+	}
+
+	static long nextLong(Random r, long bound) {
+		if(bound <= Integer.MAX_VALUE) {
+			return r.nextInt((int)bound);
+		}
+		return Math.floorMod(r.nextLong(), bound);
+	}
+
+	static class Uniform extends KeyDistribution {
+		Uniform(long keyCount) {
+			super(keyCount);
+		}
+
+		@Override
+		public long next(Random r) {
+			return nextLong(r, keyCount);
+		}
+	}
+
+	/**
+	 * The zipfian generator from "Quickly Generating Billion-Record Synthetic Databases"
+	 * (Gray et al.), as used by YCSB. Key 0 is the most popular.
+	 */
+	static class Zipfian extends KeyDistribution {
+		static final double DEFAULT_THETA = 0.99;
+
+		private final double theta;
+		private final double alpha;
+		private final double zetaN;
+		private final double eta;
+
+		Zipfian(long keyCount, double theta) {
+			super(keyCount);
+			this.theta = theta;
+			this.zetaN = zeta(keyCount, theta);
+			this.alpha = 1.0 / (1.0 - theta);
+			double zeta2 = zeta(2, theta);
+			this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta2 / zetaN);
+		}
+
+		private static double zeta(long n, double theta) {
+			double sum = 0.0;
+			for(long i = 1; i <= n; i++) {
+				sum += 1.0 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+
+		@Override
+		public long next(Random r) {
+			double u = r.nextDouble();
+			double uz = u * zetaN;
+			if(uz < 1.0) {
+				return 0;
+			}
+			if(uz < 1.0 + Math.pow(0.5, theta)) {
+				return Math.min(1, keyCount - 1);
+			}
+			long ret = (long)(keyCount * Math.pow(eta * u - eta + 1, alpha));
+			return Math.min(ret, keyCount - 1);
+		}
+	}
+
+	static class ScrambledZipfian extends KeyDistribution {
+		private final Zipfian zipfian;
+
+		ScrambledZipfian(long keyCount, double theta) {
+			super(keyCount);
+			this.zipfian = new Zipfian(keyCount, theta);
+		}
+
+		@Override
+		public long next(Random r) {
+			return Math.floorMod(fnvHash64(zipfian.next(r)), keyCount);
+		}
+	}
+
+	static class Hotspot extends KeyDistribution {
+		private final long hotKeys;
+		private final double hotOpFraction;
+
+		Hotspot(long keyCount, double hotKeyFraction, double hotOpFraction) {
+			super(keyCount);
+			if(hotKeyFraction < 0.0 || hotKeyFraction > 1.0 || hotOpFraction < 0.0 || hotOpFraction > 1.0) {
+				throw new IllegalArgumentException("Hotspot fractions must be between 0 and 1");
+			}
+			this.hotKeys = Math.max(1, Math.min(keyCount, (long)(keyCount * hotKeyFraction)));
+			this.hotOpFraction = hotOpFraction;
+		}
+
+		@Override
+		public long next(Random r) {
+			if(hotKeys == keyCount || r.nextDouble() < hotOpFraction) {
+				return nextLong(r, hotKeys);
+			}
+			return hotKeys + nextLong(r, keyCount - hotKeys);
+		}
+	}
+
+	static class Sequential extends KeyDistribution {
+		private final AtomicLong counter = new AtomicLong();
+
+		Sequential(long keyCount) {
+			super(keyCount);
+		}
+
+		@Override
+		public long next(Random r) {
+			return Math.floorMod(counter.getAndIncrement(), keyCount);
+		}
+	}
+
+	static long fnvHash64(long val) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < 8; i++) {
+			hash ^= val & 0xff;
+			hash *= 0x100000001b3L;
+			val >>>= 8;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * LatencyHistogram.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe log-linear histogram of non-negative values (typically latencies in nanoseconds),
+ * in the style of HdrHistogram. Values below 128 are recorded exactly; larger values are recorded
+ * in buckets that keep the top seven significant bits, so every reported percentile is within
+ * 1/64 (about 1.6%) of the true value. Memory use is fixed, unlike {@link ContinuousSample},
+ * and no samples are discarded.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+	private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexFor(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		maxValue.accumulateAndGet(value, Math::max);
+		minValue.accumulateAndGet(value, Math::min);
+	}
+
+	/**
+	 * Adds all of the values recorded in {@code other} into this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			long count = other.counts.get(i);
+			if(count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalValue.addAndGet(other.totalValue.get());
+		maxValue.accumulateAndGet(other.maxValue.get(), Math::max);
+		minValue.accumulateAndGet(other.minValue.get(), Math::min);
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	public long getMin() {
+		return getCount() == 0 ? 0 : minValue.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0.0 : (double)totalValue.get() / count;
+	}
+
+	/**
+	 * Gets the value below which {@code percentile} percent of the recorded values fall.
+	 *
+	 * @param percentile a percentile between 0 and 100
+	 * @return the highest value equivalent (within the histogram's precision) to the
+	 *  value at that percentile, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if(percentile < 0.0 || percentile > 100.0) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+		long count = getCount();
+		if(count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if(seen >= target) {
+				return Math.min(highestValueFor(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Formats the usual latency percentiles, converting from nanoseconds to microseconds.
+	 */
+	public String summarizeMicros() {
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d (us)",
+				getCount(), getMean() / 1000.0,
+				getValueAtPercentile(50.0) / 1000, getValueAtPercentile(90.0) / 1000,
+				getValueAtPercentile(99.0) / 1000, getValueAtPercentile(99.9) / 1000,
+				getMax() / 1000);
+	}
+
+	static int indexFor(long value) {
+		int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+		if(bits <= SUB_BUCKET_BITS) {
+			return (int)value;
+		}
+		int shift = bits - SUB_BUCKET_BITS;
+		int subBucket = (int)(value >>> shift) - HALF_SUB_BUCKET_COUNT;
+		return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + subBucket;
+	}
+
+	static long highestValueFor(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
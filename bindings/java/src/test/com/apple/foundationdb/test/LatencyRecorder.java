@@ -0,0 +1,73 @@
+/*
+ * LatencyRecorder.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records values into a {@link LatencyHistogram} from many threads while a single reader
+ * periodically takes the values recorded since its last read, in the style of HdrHistogram's
+ * {@code Recorder}. Every value is returned by exactly one call to {@link #getIntervalHistogram()}:
+ * the reader swaps in a new histogram and then waits for any writer that may still be using the
+ * old one to finish, so the returned histogram is no longer written to.
+ */
+public class LatencyRecorder {
+	// Writers increment startEpoch on entry and the end epoch of the phase they entered in on
+	// exit. The sign of startEpoch gives the current phase, so that the reader can wait for the
+	// writers of the previous phase alone.
+	private final AtomicLong startEpoch = new AtomicLong(0);
+	private final AtomicLong evenEndEpoch = new AtomicLong(0);
+	private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+	private volatile LatencyHistogram active = new LatencyHistogram();
+
+	public void record(long value) {
+		long epoch = startEpoch.getAndIncrement();
+		try {
+			active.record(value);
+		}
+		finally {
+			(epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+		}
+	}
+
+	/**
+	 * Gets the values recorded since the previous call, and starts recording into a new
+	 * histogram.
+	 *
+	 * @return a histogram of the values recorded since the previous call
+	 */
+	public synchronized LatencyHistogram getIntervalHistogram() {
+		LatencyHistogram interval = active;
+		active = new LatencyHistogram();
+
+		boolean nextPhaseIsEven = startEpoch.get() < 0;
+		long initialEpoch = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+		(nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialEpoch);
+		long epochAtFlip = startEpoch.getAndSet(initialEpoch);
+
+		AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+		while(previousEndEpoch.get() != epochAtFlip) {
+			Thread.yield();
+		}
+		return interval;
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * LoadGenerator.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.StreamingMode;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+
+/**
+ * Generates a configurable mix of reads, writes and range reads against a database, and reports
+ * latency percentiles for every reporting window and for the run as a whole.
+ *
+ * In closed-loop mode (the default), a fixed number of operations are kept in flight and a new
+ * operation is started as soon as one finishes. In open-loop mode ({@code --rate}), operations are
+ * started on a fixed schedule regardless of how long earlier ones take, up to {@code --concurrency}
+ * outstanding operations. Open-loop latencies are measured from the time an operation was scheduled
+ * to start, so that a stalled database is not hidden by the generator slowing down with it.
+ */
+public class LoadGenerator {
+	enum OpType {
+		READ,
+		WRITE,
+		RANGE
+	}
+
+	private static final String USAGE =
+			"Usage: LoadGenerator [options]\n" +
+			"  --cluster FILE           cluster file (default: the default cluster file)\n" +
+			"  --concurrency N          operations in flight (default 16)\n" +
+			"  --rate N                 target operations per second; 0 for closed-loop (default 0)\n" +
+			"  --duration SECONDS       length of the run (default 60)\n" +
+			"  --window SECONDS         reporting interval (default 5)\n" +
+			"  --keys N                 number of distinct keys (default 100000)\n" +
+			"  --distribution NAME      uniform, zipfian, hotspot or sequential (default uniform)\n" +
+			"  --mix READ,WRITE,RANGE   relative weights of each operation (default 90,10,0)\n" +
+			"  --range-size N           rows per range read (default 10)\n" +
+			"  --value-size N           bytes per value (default 100)\n" +
+			"  --prefix NAME            tuple prefix of the keys (default loadgen)\n" +
+			"  --populate               write every key before starting\n";
+
+	private String clusterFile = null;
+	private int concurrency = 16;
+	private double rate = 0.0;
+	private int durationSeconds = 60;
+	private int windowSeconds = 5;
+	private long keyCount = 100_000;
+	private String distributionName = "uniform";
+	private int[] mix = new int[]{90, 10, 0};
+	private int rangeSize = 10;
+	private int valueSize = 100;
+	private String prefix = "loadgen";
+	private boolean populate = false;
+
+	private KeyDistribution distribution;
+	private Subspace subspace;
+	private byte[] value;
+
+	private final List<LatencyRecorder> windows = new ArrayList<>();
+	private final List<LatencyHistogram> totals = new ArrayList<>();
+	private final AtomicLong errors = new AtomicLong();
+	private long lastReport;
+
+	public static void main(String[] args) throws InterruptedException {
+		LoadGenerator generator = new LoadGenerator();
+		try {
+			generator.parseArgs(args);
+		}
+		catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(1);
+		}
+
+		FDB fdb = FDB.selectAPIVersion(710);
+		try(Database db = fdb.open(generator.clusterFile)) {
+			generator.run(db);
+		}
+	}
+
+	private void parseArgs(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.equals("--populate")) {
+				populate = true;
+				continue;
+			}
+			if(arg.equals("--help")) {
+				System.out.print(USAGE);
+				System.exit(0);
+			}
+			if(i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+			String val = args[++i];
+			switch(arg) {
+				case "--cluster":
+					clusterFile = val;
+					break;
+				case "--concurrency":
+					concurrency = Integer.parseInt(val);
+					break;
+				case "--rate":
+					rate = Double.parseDouble(val);
+					break;
+				case "--duration":
+					durationSeconds = Integer.parseInt(val);
+					break;
+				case "--window":
+					windowSeconds = Integer.parseInt(val);
+					break;
+				case "--keys":
+					keyCount = Long.parseLong(val);
+					break;
+				case "--distribution":
+					distributionName = val;
+					break;
+				case "--mix":
+					String[] parts = val.split(",");
+					if(parts.length != 3) {
+						throw new IllegalArgumentException("--mix takes three comma-separated weights");
+					}
+					for(int j = 0; j < 3; j++) {
+						mix[j] = Integer.parseInt(parts[j].trim());
+					}
+					break;
+				case "--range-size":
+					rangeSize = Integer.parseInt(val);
+					break;
+				case "--value-size":
+					valueSize = Integer.parseInt(val);
+					break;
+				case "--prefix":
+					prefix = val;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		if(concurrency <= 0 || durationSeconds <= 0 || windowSeconds <= 0 || rangeSize <= 0 || valueSize < 0) {
+			throw new IllegalArgumentException("Numeric options must be positive");
+		}
+		if(mix[0] < 0 || mix[1] < 0 || mix[2] < 0 || mix[0] + mix[1] + mix[2] == 0) {
+			throw new IllegalArgumentException("Operation weights must be non-negative and not all zero");
+		}
+		distribution = KeyDistribution.parse(distributionName, keyCount);
+	}
+
+	private void run(Database db) throws InterruptedException {
+		subspace = new Subspace(Tuple.from(prefix));
+		value = new byte[valueSize];
+		new Random().nextBytes(value);
+		for(int i = 0; i < OpType.values().length; i++) {
+			windows.add(new LatencyRecorder());
+			totals.add(new LatencyHistogram());
+		}
+
+		if(populate) {
+			populate(db);
+		}
+
+		System.out.println(String.format("Running %s for %ds: concurrency=%d, distribution=%s, keys=%d, mix=%d/%d/%d",
+				rate > 0 ? String.format("open-loop at %.0f ops/s", rate) : "closed-loop",
+				durationSeconds, concurrency, distributionName, keyCount, mix[0], mix[1], mix[2]));
+
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		final long start = System.nanoTime();
+		lastReport = start;
+		reporter.scheduleAtFixedRate(() -> report(start), windowSeconds, windowSeconds, TimeUnit.SECONDS);
+
+		Semaphore inFlight = new Semaphore(concurrency);
+		final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+		final long intervalNanos = rate > 0 ? (long)(1_000_000_000L / rate) : 0L;
+		long scheduled = start;
+		while(true) {
+			long launch;
+			if(intervalNanos > 0) {
+				scheduled += intervalNanos;
+				long wait = scheduled - System.nanoTime();
+				if(wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				inFlight.acquire();
+				launch = scheduled;
+			}
+			else {
+				inFlight.acquire();
+				launch = System.nanoTime();
+			}
+			if(launch >= end) {
+				inFlight.release();
+				break;
+			}
+
+			final OpType type = chooseOp(ThreadLocalRandom.current());
+			final long startTime = launch;
+			runOp(db, type).whenComplete((v, err) -> {
+				if(err != null) {
+					errors.incrementAndGet();
+				}
+				else {
+					windows.get(type.ordinal()).record(System.nanoTime() - startTime);
+				}
+				inFlight.release();
+			});
+		}
+
+		inFlight.acquire(concurrency);
+		reporter.shutdown();
+		reporter.awaitTermination(1, TimeUnit.MINUTES);
+		report(start);
+
+		double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+		LatencyHistogram overall = new LatencyHistogram();
+		System.out.println("Totals:");
+		for(OpType type : OpType.values()) {
+			LatencyHistogram total = totals.get(type.ordinal());
+			if(total.getCount() > 0) {
+				System.out.println(String.format("  %-5s %8.0f ops/s  %s", type, total.getCount() / elapsedSeconds, total.summarizeMicros()));
+				overall.add(total);
+			}
+		}
+		System.out.println(String.format("  %-5s %8.0f ops/s  %s", "ALL", overall.getCount() / elapsedSeconds, overall.summarizeMicros()));
+		System.out.println("  errors: " + errors.get());
+	}
+
+	// Reports the operations completed since the last report. The rate is taken from the time
+	// that has actually passed, as reports can run late and the last window is partial.
+	private synchronized void report(long start) {
+		long now = System.nanoTime();
+		double elapsed = (now - start) / 1e9;
+		double windowElapsed = Math.max(now - lastReport, 1L) / 1e9;
+		lastReport = now;
+		StringBuilder sb = new StringBuilder(String.format("[%7.1fs]", elapsed));
+		for(OpType type : OpType.values()) {
+			LatencyHistogram window = windows.get(type.ordinal()).getIntervalHistogram();
+			totals.get(type.ordinal()).add(window);
+			if(window.getCount() > 0) {
+				sb.append(String.format("%n  %-5s %8.0f ops/s  %s", type, window.getCount() / windowElapsed, window.summarizeMicros()));
+			}
+		}
+		System.out.println(sb);
+	}
+
+	private OpType chooseOp(Random r) {
+		int choice = r.nextInt(mix[0] + mix[1] + mix[2]);
+		if(choice < mix[0]) {
+			return OpType.READ;
+		}
+		if(choice < mix[0] + mix[1]) {
+			return OpType.WRITE;
+		}
+		return OpType.RANGE;
+	}
+
+	private CompletableFuture<?> runOp(Database db, OpType type) {
+		final long key = distribution.next(ThreadLocalRandom.current());
+		switch(type) {
+			case READ:
+				return db.readAsync(tr -> tr.get(subspace.pack(key)));
+			case WRITE:
+				return db.runAsync(tr -> {
+					tr.set(subspace.pack(key), value);
+					return AsyncUtil.DONE;
+				});
+			case RANGE:
+				Range range = new Range(subspace.pack(key), subspace.range().end);
+				return db.readAsync(tr -> tr.getRange(range, rangeSize, false, StreamingMode.WANT_ALL).asList());
+			default:
+				throw new IllegalStateException("Unknown operation type " + type);
+		}
+	}
+
+	private void populate(Database db) {
+		final int batchSize = 1000;
+		System.out.println("Populating " + keyCount + " keys...");
+		db.run((Transaction tr) -> {
+			tr.clear(subspace.range());
+			return null;
+		});
+		List<CompletableFuture<Void>> pending = new ArrayList<>();
+		for(long batchStart = 0; batchStart < keyCount; batchStart += batchSize) {
+			final long first = batchStart;
+			pending.add(db.runAsync(tr -> {
+				for(long i = first; i < Math.min(first + batchSize, keyCount); i++) {
+					tr.set(subspace.pack(i), value);
+				}
+				return AsyncUtil.DONE;
+			}));
+			if(pending.size() >= concurrency) {
+				AsyncUtil.whenAll(pending).join();
+				pending.clear();
+			}
+		}
+		AsyncUtil.whenAll(pending).join();
+	}
+
+	private LoadGenerator() {}
+}
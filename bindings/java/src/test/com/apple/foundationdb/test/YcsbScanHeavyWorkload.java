@@ -0,0 +1,32 @@
+/*
+ * YcsbScanHeavyWorkload.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import com.apple.foundationdb.testing.WorkloadContext;
+
+/**
+ * A scan-heavy variant of the YCSB workloads: 90% scans and 10% updates, uniform.
+ */
+public class YcsbScanHeavyWorkload extends YcsbWorkload {
+	public YcsbScanHeavyWorkload(WorkloadContext context) {
+		super(context, 0.0, 0.1, 0.0, 0.9, 0.0, "uniform");
+	}
+}
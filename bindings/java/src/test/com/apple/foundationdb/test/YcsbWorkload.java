@@ -0,0 +1,387 @@
+/*
+ * YcsbWorkload.java
+ *
+ * This source file is part of the FoundationDB open source project
+ *
+ * Copyright 2013-2021 Apple Inc. and the FoundationDB project authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apple.foundationdb.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.StreamingMode;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.testing.AbstractWorkload;
+import com.apple.foundationdb.testing.PerfMetric;
+import com.apple.foundationdb.testing.Promise;
+import com.apple.foundationdb.testing.WorkloadContext;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+
+/**
+ * The YCSB core workload, run through {@code JavaWorkload}. Subclasses choose the operation mix
+ * and request distribution of the standard workloads; every parameter can also be overridden
+ * with test options. For example:
+ *
+ * <pre>
+ * testTitle=YcsbA
+ *     testName=External
+ *     libraryName=java_workloads
+ *     workloadName=com.apple.foundationdb.test.YcsbWorkloadA
+ *     classPath=/path/to/fdb-java.jar,/path/to/fdb-java-tests.jar
+ *     recordCount=10000
+ *     operationCount=50000
+ * </pre>
+ *
+ * Records follow the YCSB layout of {@code fieldCount} fields of {@code fieldLength} bytes, with
+ * one key per field so that updates can be blind writes of a single field. The record keys are
+ * hashed from the insertion order, as in YCSB. Each client runs {@code actorCount} concurrent
+ * actors which perform {@code operationCount} operations between them, and random choices are
+ * seeded from the shared random number so that a run can be reproduced. Latencies and
+ * throughput are measured with {@link WorkloadContext#now()}, so under simulation they are in
+ * simulated time.
+ */
+public abstract class YcsbWorkload extends AbstractWorkload {
+	enum Operation {
+		READ,
+		UPDATE,
+		INSERT,
+		SCAN,
+		READ_MODIFY_WRITE
+	}
+
+	// The number of keys read in each transaction while checking the records
+	private static final int CHECK_PAGE_SIZE = 10000;
+
+	private final Subspace subspace;
+	private final long recordCount;
+	private final long operationCount;
+	private final int actorCount;
+	private final int fieldCount;
+	private final int fieldLength;
+	private final int maxScanLength;
+	private final String requestDistribution;
+	private final double[] proportions;
+	private final int clientId;
+	private final int clientCount;
+	private final long seed;
+
+	private KeyDistribution zipfian;
+	private final AtomicLong insertCount = new AtomicLong();
+	private final AtomicLong nextOperation = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final Map<Operation, LatencyHistogram> latencies = new HashMap<>();
+	private long startNanos;
+	private long endNanos;
+
+	protected YcsbWorkload(WorkloadContext context, double read, double update, double insert, double scan,
+	                       double readModifyWrite, String requestDistribution) {
+		super(context);
+		this.subspace = new Subspace(Tuple.from(context.getOption("prefix", "ycsb")));
+		this.recordCount = context.getOption("recordCount", 1000L);
+		this.operationCount = context.getOption("operationCount", 10000L);
+		this.actorCount = (int)context.getOption("actorCount", 16L);
+		this.fieldCount = (int)context.getOption("fieldCount", 10L);
+		this.fieldLength = (int)context.getOption("fieldLength", 100L);
+		this.maxScanLength = (int)context.getOption("maxScanLength", 100L);
+		this.requestDistribution = context.getOption("requestDistribution", requestDistribution);
+		this.proportions = new double[]{
+				context.getOption("readProportion", read),
+				context.getOption("updateProportion", update),
+				context.getOption("insertProportion", insert),
+				context.getOption("scanProportion", scan),
+				context.getOption("readModifyWriteProportion", readModifyWrite)
+		};
+		this.clientId = context.getClientID();
+		this.clientCount = context.getClientCount();
+		this.seed = context.getSharedRandomNumber() + clientId;
+		for(Operation op : Operation.values()) {
+			latencies.put(op, new LatencyHistogram());
+		}
+	}
+
+	@Override
+	protected void setup(Database db, Promise promise) {
+		final int batchSize = Math.max(1, 1000 / fieldCount);
+		final AtomicLong nextRecord = new AtomicLong(clientId);
+		final Random random = new Random(seed);
+		List<CompletableFuture<Void>> loaders = new ArrayList<>(actorCount);
+		for(int i = 0; i < actorCount; i++) {
+			loaders.add(AsyncUtil.whileTrue(() -> {
+				final long first = nextRecord.getAndAdd((long)batchSize * clientCount);
+				if(first >= recordCount) {
+					return AsyncUtil.READY_FALSE;
+				}
+				final List<byte[]> values = new ArrayList<>(batchSize * fieldCount);
+				synchronized(random) {
+					for(int j = 0; j < batchSize * fieldCount; j++) {
+						values.add(randomValue(random));
+					}
+				}
+				return db.runAsync(tr -> {
+					int v = 0;
+					for(long record = first; record < recordCount && record < first + (long)batchSize * clientCount; record += clientCount) {
+						for(int field = 0; field < fieldCount; field++) {
+							tr.set(fieldKey(record, field), values.get(v++));
+						}
+					}
+					return AsyncUtil.READY_TRUE;
+				});
+			}));
+		}
+		complete("Setup", AsyncUtil.whenAll(loaders), promise);
+	}
+
+	@Override
+	protected void start(Database db, Promise promise) {
+		zipfian = KeyDistribution.zipfian(recordCount);
+		startNanos = nowNanos();
+		List<CompletableFuture<Void>> actors = new ArrayList<>(actorCount);
+		for(int i = 0; i < actorCount; i++) {
+			final Random random = new Random(seed * 31 + i);
+			actors.add(AsyncUtil.whileTrue(() -> {
+				if(nextOperation.getAndIncrement() >= operationCount) {
+					return AsyncUtil.READY_FALSE;
+				}
+				final Operation op = chooseOperation(random);
+				final long launch = nowNanos();
+				return runOperation(db, op, random).handle((ignore, err) -> {
+					if(err != null) {
+						errors.incrementAndGet();
+					}
+					else {
+						latencies.get(op).record(nowNanos() - launch);
+					}
+					return true;
+				});
+			}));
+		}
+		complete("Start", AsyncUtil.whenAll(actors).thenRun(() -> endNanos = nowNanos()), promise);
+	}
+
+	@Override
+	protected void check(Database db, Promise promise) {
+		if(clientId != 0) {
+			promise.send(true);
+			return;
+		}
+		// Every loaded record should still exist, and should have all of its fields. The records are
+		// read a page at a time, each in its own transaction, so that the check does not run into
+		// the transaction time limit as the number of records grows.
+		final Map<Long, Integer> fieldsPerRecord = new HashMap<>();
+		final AtomicReference<byte[]> next = new AtomicReference<>(subspace.range().begin);
+		final byte[] end = subspace.range().end;
+		AsyncUtil.whileTrue(() -> db.readAsync(tr -> tr.getRange(new Range(next.get(), end), CHECK_PAGE_SIZE, false, StreamingMode.WANT_ALL).asList()).thenApply(kvs -> {
+			for(KeyValue kv : kvs) {
+				fieldsPerRecord.merge(subspace.unpack(kv.getKey()).getLong(0), 1, Integer::sum);
+			}
+			if(kvs.size() < CHECK_PAGE_SIZE) {
+				return false;
+			}
+			next.set(ByteArrayUtil.join(kvs.get(kvs.size() - 1).getKey(), new byte[]{0x00}));
+			return true;
+		})).whenComplete((ignore, err) -> {
+			if(err != null) {
+				log("YcsbCheckFailed", "Error reading records", "Error", err.toString());
+				promise.send(false);
+				return;
+			}
+			if(fieldsPerRecord.size() < recordCount) {
+				log("YcsbCheckFailed", "Missing records", "Found", Integer.toString(fieldsPerRecord.size()));
+				promise.send(false);
+				return;
+			}
+			for(int fields : fieldsPerRecord.values()) {
+				if(fields != fieldCount) {
+					log("YcsbCheckFailed", "Record has the wrong number of fields", "Fields", Integer.toString(fields));
+					promise.send(false);
+					return;
+				}
+			}
+			promise.send(true);
+		});
+	}
+
+	@Override
+	protected List<PerfMetric> getMetrics() {
+		List<PerfMetric> metrics = new ArrayList<>();
+		double seconds = Math.max(endNanos - startNanos, 1L) / 1e9;
+		long total = 0;
+		for(Operation op : Operation.values()) {
+			LatencyHistogram h = latencies.get(op);
+			if(h.getCount() == 0) {
+				continue;
+			}
+			total += h.getCount();
+			String name = op.name();
+			metrics.add(new PerfMetric(name + " Operations", h.getCount(), false));
+			metrics.add(new PerfMetric(name + " Latency Mean (ms)", h.getMean() / 1e6, true));
+			metrics.add(new PerfMetric(name + " Latency P50 (ms)", h.getValueAtPercentile(50.0) / 1e6, true));
+			metrics.add(new PerfMetric(name + " Latency P90 (ms)", h.getValueAtPercentile(90.0) / 1e6, true));
+			metrics.add(new PerfMetric(name + " Latency P99 (ms)", h.getValueAtPercentile(99.0) / 1e6, true));
+			metrics.add(new PerfMetric(name + " Latency P99.9 (ms)", h.getValueAtPercentile(99.9) / 1e6, true));
+			metrics.add(new PerfMetric(name + " Latency Max (ms)", h.getMax() / 1e6, true));
+		}
+		metrics.add(0, new PerfMetric("Throughput (ops/s)", total / seconds, false));
+		metrics.add(new PerfMetric("Errors", errors.get(), false));
+		return metrics;
+	}
+
+	// The time from the workload context, which is simulated time when run in simulation, so
+	// that latencies and throughput are deterministic for a given seed
+	private long nowNanos() {
+		return (long)(context.now() * 1e9);
+	}
+
+	private Operation chooseOperation(Random random) {
+		double sum = 0.0;
+		for(double p : proportions) {
+			sum += p;
+		}
+		double choice = random.nextDouble() * sum;
+		for(Operation op : Operation.values()) {
+			choice -= proportions[op.ordinal()];
+			if(choice < 0.0) {
+				return op;
+			}
+		}
+		return Operation.READ;
+	}
+
+	private CompletableFuture<?> runOperation(Database db, Operation op, Random random) {
+		switch(op) {
+			case READ:
+				return db.readAsync(tr -> readRecord(tr, chooseRecord(random)));
+			case UPDATE: {
+				final long record = chooseRecord(random);
+				final int field = random.nextInt(fieldCount);
+				final byte[] value = randomValue(random);
+				return db.runAsync(tr -> {
+					tr.set(fieldKey(record, field), value);
+					return AsyncUtil.DONE;
+				});
+			}
+			case INSERT: {
+				final long record = recordCount + clientId + (long)clientCount * insertCount.getAndIncrement();
+				final List<byte[]> values = new ArrayList<>(fieldCount);
+				for(int field = 0; field < fieldCount; field++) {
+					values.add(randomValue(random));
+				}
+				return db.runAsync(tr -> {
+					for(int field = 0; field < fieldCount; field++) {
+						tr.set(fieldKey(record, field), values.get(field));
+					}
+					return AsyncUtil.DONE;
+				});
+			}
+			case SCAN: {
+				final byte[] begin = recordSubspace(chooseRecord(random)).getKey();
+				final int rows = (1 + random.nextInt(maxScanLength)) * fieldCount;
+				return db.readAsync(tr -> tr.getRange(new Range(begin, subspace.range().end), rows, false, StreamingMode.WANT_ALL).asList());
+			}
+			case READ_MODIFY_WRITE: {
+				final long record = chooseRecord(random);
+				final int field = random.nextInt(fieldCount);
+				final byte[] value = randomValue(random);
+				return db.runAsync(tr -> readRecord(tr, record).thenApply(ignore -> {
+					tr.set(fieldKey(record, field), value);
+					return null;
+				}));
+			}
+			default:
+				throw new IllegalStateException("Unknown operation " + op);
+		}
+	}
+
+	/*
+	 * Chooses a record from those loaded plus those inserted by this client, according to the
+	 * request distribution. Inserted records are only known locally, so "latest" skews towards
+	 * this client's own most recent inserts.
+	 */
+	private long chooseRecord(Random random) {
+		long inserted = insertCount.get();
+		long available = recordCount + inserted;
+		long index;
+		switch(requestDistribution) {
+			case "uniform":
+				index = KeyDistribution.nextLong(random, available);
+				break;
+			case "latest":
+				index = Math.max(0, available - 1 - zipfian.next(random));
+				break;
+			case "zipfian":
+				index = zipfian.next(random);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown request distribution: " + requestDistribution);
+		}
+		if(index < recordCount) {
+			return index;
+		}
+		return recordCount + clientId + (long)clientCount * (index - recordCount);
+	}
+
+	private CompletableFuture<List<KeyValue>> readRecord(ReadTransaction tr, long record) {
+		return tr.getRange(recordSubspace(record).range(), fieldCount, false, StreamingMode.WANT_ALL).asList();
+	}
+
+	private Subspace recordSubspace(long record) {
+		return subspace.get(KeyDistribution.fnvHash64(record));
+	}
+
+	private byte[] fieldKey(long record, int field) {
+		return recordSubspace(record).pack(Tuple.from("field" + field));
+	}
+
+	private byte[] randomValue(Random random) {
+		byte[] value = new byte[fieldLength];
+		for(int i = 0; i < fieldLength; i++) {
+			// printable characters, as YCSB uses
+			value[i] = (byte)(' ' + random.nextInt(95));
+		}
+		return value;
+	}
+
+	private void complete(String phase, CompletableFuture<?> future, Promise promise) {
+		future.whenComplete((ignore, err) -> {
+			if(err != null) {
+				log("YcsbWorkloadError", phase + " failed", "Error", err.toString());
+			}
+			promise.send(err == null);
+		});
+	}
+
+	private void log(String type, String message, String detailKey, String detailValue) {
+		Map<String, String> details = new HashMap<>();
+		details.put("Workload", getClass().getSimpleName());
+		details.put("Message", message);
+		details.put(detailKey, detailValue);
+		log(40, type, Collections.unmodifiableMap(details));
+	}
+}
@@ -26,14 +26,34 @@
 # Listing of unit tests. These are tests that don't require a running database to complete.
 # make sure that they are in the src/junit folder
 set(JAVA_JUNIT_TESTS
+  src/junit/com/apple/foundationdb/directory/DirectoryKeyIndexTest.java
+  src/junit/com/apple/foundationdb/directory/DirectoryListingTest.java
+  src/junit/com/apple/foundationdb/directory/DirectoryPathCacheTest.java
+  src/junit/com/apple/foundationdb/directory/DirectoryRemovalTest.java
+  src/junit/com/apple/foundationdb/directory/PrefixAllocationTest.java
+  src/junit/com/apple/foundationdb/subspace/KeyBuilderTest.java
+  src/junit/com/apple/foundationdb/subspace/SubspaceRouterTest.java
+  src/junit/com/apple/foundationdb/subspace/VersionstampLogWriterTest.java
   src/junit/com/apple/foundationdb/tuple/ArrayUtilSortTest.java
   src/junit/com/apple/foundationdb/tuple/ArrayUtilTest.java
   src/junit/com/apple/foundationdb/tuple/ByteArrayUtilTest.java
+  src/junit/com/apple/foundationdb/tuple/LongTupleCodecTest.java
+  src/junit/com/apple/foundationdb/tuple/NullEscapingTest.java
+  src/junit/com/apple/foundationdb/tuple/StringUtilTest.java
   src/junit/com/apple/foundationdb/tuple/TupleComparisonTest.java
   src/junit/com/apple/foundationdb/tuple/TuplePackingTest.java
+  src/junit/com/apple/foundationdb/tuple/TupleRangeUtilTest.java
+  src/junit/com/apple/foundationdb/tuple/TupleReaderTest.java
+  src/junit/com/apple/foundationdb/tuple/TupleSchemaTest.java
   src/junit/com/apple/foundationdb/tuple/TupleSerializationTest.java
+  src/junit/com/apple/foundationdb/tuple/TupleWriterTest.java
+  src/junit/com/apple/foundationdb/RangePartitionerTest.java
   src/junit/com/apple/foundationdb/RangeQueryTest.java
+  src/junit/com/apple/foundationdb/ShardLocationCacheTest.java
+  src/junit/com/apple/foundationdb/ShardScanSchedulerTest.java
   src/junit/com/apple/foundationdb/EventKeeperTest.java
+  src/junit/com/apple/foundationdb/HotKeySamplerTest.java
+  src/junit/com/apple/foundationdb/AllocationRegressionTest.java
   )
 
 # Resources that are used in unit testing, but are not explicitly test files (JUnit rules, utility
@@ -57,3 +77,25 @@ set(JAVA_INTEGRATION_RESOURCES
 )
 
 
+
+# JMH benchmarks. These do not require a running database, and are built (and run) only
+# when RUN_JAVA_BENCHMARKS is set. Make sure that they are in the src/jmh folder
+set(JAVA_JMH_BENCHMARKS
+  src/jmh/com/apple/foundationdb/async/AsyncUtilBenchmark.java
+  src/jmh/com/apple/foundationdb/directory/DirectoryLayerBenchmark.java
+  src/jmh/com/apple/foundationdb/subspace/SubspaceBenchmark.java
+  src/jmh/com/apple/foundationdb/subspace/SubspaceRouterBenchmark.java
+  src/jmh/com/apple/foundationdb/tuple/ByteArrayUtilBenchmark.java
+  src/jmh/com/apple/foundationdb/tuple/NullEscapingBenchmark.java
+  src/jmh/com/apple/foundationdb/tuple/StringEncodingBenchmark.java
+  src/jmh/com/apple/foundationdb/tuple/TupleBenchmark.java
+  src/jmh/com/apple/foundationdb/tuple/TupleSortBenchmark.java
+  src/jmh/com/apple/foundationdb/tuple/TupleUtilBenchmark.java
+  src/jmh/com/apple/foundationdb/EventKeeperBenchmark.java
+  src/jmh/com/apple/foundationdb/RangeResultBenchmark.java
+)
+
+# Resources that are used by the benchmarks, but are not benchmarks themselves
+set(JAVA_JMH_RESOURCES
+  src/junit/com/apple/foundationdb/FakeFDBTransaction.java
+)